@@ -0,0 +1,102 @@
+package com.yasuenag.ffmasm.benchmark.assembler;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.yasuenag.ffmasm.*;
+import com.yasuenag.ffmasm.amd64.*;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Emits loop blocks (label, 8 instructions, backward and forward jump)
+ * into one builder. Code is not built, so the segment is reused.
+ * Run with "-prof gc" to see allocated bytes per instruction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1,
+      jvmArgsAppend = {
+        "--enable-native-access=ALL-UNNAMED",
+        "-Xms1g",
+        "-Xmx1g"
+      })
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+public class EmissionAllocation{
+
+  private static final int BLOCKS = 100;
+
+  private static final int INSTRUCTIONS_PER_BLOCK = 10;
+
+  private static final int INSTRUCTIONS = BLOCKS * INSTRUCTIONS_PER_BLOCK;
+
+  private CodeSegment seg;
+
+  @Setup(Level.Trial)
+  public void setup() throws PlatformException, UnsupportedPlatformException{
+    seg = new CodeSegment(1024 * 1024);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception{
+    seg.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INSTRUCTIONS)
+  public int optionalInt() throws UnsupportedPlatformException{
+    var builder = new AsmBuilder.AMD64(seg);
+    for(int i = 0; i < BLOCKS; i++){
+      String loop = "loop" + i;
+      String exit = "exit" + i;
+      builder.label(loop)
+             .movRM(Register.RAX, Register.RDI, OptionalInt.of(8))
+             .addRM(Register.RAX, Register.RSI, OptionalInt.empty())
+             .movMR(Register.RAX, Register.RDI, OptionalInt.of(16))
+             .cmp(Register.RAX, i, OptionalInt.empty())
+             .je(exit)
+             .sub(Register.RSI, 1, OptionalInt.empty())
+             .xorMR(Register.RDX, Register.RDX, OptionalInt.empty())
+             .test(Register.RSI, Register.RSI, OptionalInt.empty())
+             .jne(loop)
+             .label(exit)
+             .lea(Register.RDI, Register.RDI, 32);
+    }
+    return builder.getCodePosition();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INSTRUCTIONS)
+  public int primitive() throws UnsupportedPlatformException{
+    var builder = new AsmBuilder.AMD64(seg);
+    for(int i = 0; i < BLOCKS; i++){
+      Label loop = builder.newLabel();
+      Label exit = builder.newLabel();
+      builder.label(loop)
+             .movRM(Register.RAX, Register.RDI, 8)
+             .addRM(Register.RAX, Register.RSI)
+             .movMR(Register.RAX, Register.RDI, 16)
+             .cmp(Register.RAX, i)
+             .je(exit)
+             .sub(Register.RSI, 1)
+             .xorMR(Register.RDX, Register.RDX)
+             .test(Register.RSI, Register.RSI)
+             .jne(loop)
+             .label(exit)
+             .lea(Register.RDI, Register.RDI, 32);
+    }
+    return builder.getCodePosition();
+  }
+
+  public static void main(String[] args) throws Throwable{
+    var bench = new EmissionAllocation();
+    bench.setup();
+    System.out.println("optionalInt: " + bench.optionalInt() + " bytes");
+    System.out.println("primitive: " + bench.primitive() + " bytes");
+    bench.tearDown();
+  }
+
+}
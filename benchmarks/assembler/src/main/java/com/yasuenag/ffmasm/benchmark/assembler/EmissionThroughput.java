@@ -0,0 +1,159 @@
+package com.yasuenag.ffmasm.benchmark.assembler;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.yasuenag.ffmasm.*;
+import com.yasuenag.ffmasm.aarch64.HWShift;
+import com.yasuenag.ffmasm.aarch64.IndexClass;
+import com.yasuenag.ffmasm.aarch64.ShiftType;
+import com.yasuenag.ffmasm.amd64.*;
+
+import static com.yasuenag.ffmasm.aarch64.Register.*;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Instructions emitted per microsecond for each builder.
+ * Code is not built and not executed (encoding only). Score is per instruction.
+ * Builders check "os.arch" in their constructor, so builders for the host
+ * architecture can be measured only. Default parameters are for AMD64,
+ * pass "-p builder=AArch64" on AArch64.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1,
+      jvmArgsAppend = {
+        "--enable-native-access=ALL-UNNAMED",
+        "-Xms1g",
+        "-Xmx1g"
+      })
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+public class EmissionThroughput{
+
+  private static final int BLOCKS = 1000;
+
+  private static final int INSTRUCTIONS_PER_BLOCK = 10;
+
+  private static final int INSTRUCTIONS = BLOCKS * INSTRUCTIONS_PER_BLOCK;
+
+  @Param({"AMD64", "SSE", "AVX"})
+  public String builder;
+
+  private CodeSegment seg;
+
+  private static String archOf(String builder){
+    return builder.equals("AArch64") ? "aarch64" : "amd64";
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws PlatformException, UnsupportedPlatformException{
+    String arch = archOf(builder);
+    if(!arch.equals(System.getProperty("os.arch"))){
+      throw new UnsupportedPlatformException(builder + " can be measured on " + arch + " only.");
+    }
+    seg = new CodeSegment(1024 * 1024);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception{
+    seg.close();
+  }
+
+  private int emitAMD64() throws Exception{
+    var b = new AsmBuilder.AMD64(seg);
+    for(int i = 0; i < BLOCKS; i++){
+      b.push(Register.RBX)
+       .movRM(Register.RAX, Register.RDI, 8)
+       .addRM(Register.RAX, Register.RSI)
+       .movMR(Register.RAX, Register.RDI, 16)
+       .cmp(Register.RAX, i)
+       .sub(Register.RSI, 1)
+       .xorMR(Register.RDX, Register.RDX)
+       .test(Register.RSI, Register.RSI)
+       .lea(Register.RDI, Register.RDI, 32)
+       .bswap(Register.RAX);
+    }
+    return b.getCodePosition();
+  }
+
+  private int emitSSE() throws Exception{
+    var b = new AsmBuilder.SSE(seg);
+    for(int i = 0; i < BLOCKS; i++){
+      b.movdqaRM(Register.XMM0, Register.RDI, OptionalInt.of(0))
+       .movdquRM(Register.XMM1, Register.RSI, OptionalInt.of(16))
+       .movdRM(Register.XMM2, Register.EAX, OptionalInt.empty())
+       .movqRM(Register.XMM3, Register.RDX, OptionalInt.empty())
+       .movdqaMR(Register.XMM0, Register.RDI, OptionalInt.of(32))
+       .movdquMR(Register.XMM1, Register.RSI, OptionalInt.of(48))
+       .movdMR(Register.XMM2, Register.ECX, OptionalInt.empty())
+       .movqMR(Register.XMM3, Register.R8, OptionalInt.empty())
+       .addRM(Register.RDI, Register.RSI)
+       .sub(Register.RSI, 64);
+    }
+    return b.getCodePosition();
+  }
+
+  private int emitAVX() throws Exception{
+    var b = new AsmBuilder.AVX(seg);
+    for(int i = 0; i < BLOCKS; i++){
+      b.vmovdqaRM(Register.YMM0, Register.RDI, OptionalInt.of(0))
+       .vmovdquRM(Register.YMM1, Register.RSI, OptionalInt.of(32))
+       .vpaddd(Register.YMM0, Register.YMM1, Register.YMM2, OptionalInt.empty())
+       .vpxor(Register.YMM2, Register.YMM0, Register.YMM3, OptionalInt.empty())
+       .vpshufd(Register.YMM4, Register.YMM3, OptionalInt.empty(), (byte)0x1b)
+       .vptest(Register.YMM4, Register.YMM4, OptionalInt.empty())
+       .vextracti128(Register.XMM5, Register.YMM4, OptionalInt.empty(), (byte)1)
+       .vmovdquMR(Register.YMM4, Register.RDX, OptionalInt.of(64))
+       .vzeroupper()
+       .addRM(Register.RDI, Register.RSI);
+    }
+    return b.getCodePosition();
+  }
+
+  private int emitAArch64() throws Exception{
+    var b = new AsmBuilder.AArch64(seg);
+    for(int i = 0; i < BLOCKS; i++){
+      b.movz(X9, i & 0xffff, HWShift.None)
+       .movk(X9, 1, HWShift.HW_16)
+       .addImm(X0, X0, 8, false)
+       .subImm(X1, X1, 1, false)
+       .cmp(X1, X9, ShiftType.LSL, (byte)0)
+       .ldr(X10, X0, IndexClass.UnsignedOffset, 8)
+       .str(X10, X2, IndexClass.UnsignedOffset, 16)
+       .mov(X11, X10)
+       .crc32x(W12, W12, X11)
+       .nop();
+    }
+    return b.getCodePosition();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INSTRUCTIONS)
+  public int emit() throws Exception{
+    return switch(builder){
+      case "AMD64" -> emitAMD64();
+      case "SSE" -> emitSSE();
+      case "AVX" -> emitAVX();
+      case "AArch64" -> emitAArch64();
+      default -> throw new IllegalArgumentException(builder);
+    };
+  }
+
+  public static void main(String[] args) throws Throwable{
+    var bench = new EmissionThroughput();
+    for(var b : new String[]{"AMD64", "SSE", "AVX", "AArch64"}){
+      if(!archOf(b).equals(System.getProperty("os.arch"))){
+        continue;
+      }
+      bench.builder = b;
+      bench.setup();
+      System.out.println(b + ": " + bench.emit() + " bytes");
+      bench.tearDown();
+    }
+  }
+
+}
@@ -0,0 +1,68 @@
+package com.yasuenag.ffmasm.benchmark.assembler;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+
+import com.yasuenag.ffmasm.amd64.*;
+
+import com.yasuenag.ffmasmtools.jvmci.amd64.*;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Cost to assemble the function and to install it into CodeCache via JVMCI.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1,
+      jvmArgsAppend = {
+        "--enable-native-access=ALL-UNNAMED",
+        "-Xms1g",
+        "-Xmx1g",
+        "-XX:+UnlockExperimentalVMOptions",
+        "-XX:+EnableJVMCI",
+        "--add-exports=jdk.internal.vm.ci/jdk.vm.ci.code=ALL-UNNAMED",
+        "--add-exports=jdk.internal.vm.ci/jdk.vm.ci.code.site=ALL-UNNAMED",
+        "--add-exports=jdk.internal.vm.ci/jdk.vm.ci.hotspot=ALL-UNNAMED",
+        "--add-exports=jdk.internal.vm.ci/jdk.vm.ci.meta=ALL-UNNAMED",
+        "--add-exports=jdk.internal.vm.ci/jdk.vm.ci.runtime=ALL-UNNAMED"
+      })
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+public class JVMCIInstall{
+
+  private Method target;
+
+  public static long installTarget(long arg){
+    // This method should be overwritten by JVMCI
+    throw new RuntimeException("Not implemented");
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception{
+    target = JVMCIInstall.class.getMethod("installTarget", long.class);
+  }
+
+  @Benchmark
+  public void install() throws Exception{
+    // JVMCIAMD64AsmBuilder creates its own CodeSegment.
+    // It would be released by Cleaner.
+    // 1st argument of Java method is passed via RSI on Linux
+    new JVMCIAMD64AsmBuilder()
+                        .emitPrologue()
+/* mov %rsi, %rax    */ .movMR(Register.RSI, Register.RAX)
+/* add $1, %rax      */ .add(Register.RAX, 1)
+                        .emitEpilogue()
+                        .install(target, 16);
+  }
+
+  public static void main(String[] args) throws Throwable{
+    var bench = new JVMCIInstall();
+    bench.setup();
+    bench.install();
+    System.out.println("installTarget: " + installTarget(1L));
+  }
+
+}
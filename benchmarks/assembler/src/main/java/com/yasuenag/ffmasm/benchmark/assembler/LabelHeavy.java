@@ -0,0 +1,99 @@
+package com.yasuenag.ffmasm.benchmark.assembler;
+
+import java.util.concurrent.*;
+
+import com.yasuenag.ffmasm.*;
+import com.yasuenag.ffmasm.amd64.*;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Many forward branches which are pending until the end of code,
+ * then labels are bound in reverse order (e.g. dispatch code).
+ * Score is the number of functions per millisecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1,
+      jvmArgsAppend = {
+        "--enable-native-access=ALL-UNNAMED",
+        "-Xms1g",
+        "-Xmx1g"
+      })
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+public class LabelHeavy{
+
+  @Param({"String", "Label"})
+  public String labelType;
+
+  @Param({"64", "1024"})
+  public int branches;
+
+  private CodeSegment seg;
+
+  private String[] names;
+
+  @Setup(Level.Trial)
+  public void setup() throws PlatformException, UnsupportedPlatformException{
+    seg = new CodeSegment(1024 * 1024);
+    names = new String[branches];
+    for(int i = 0; i < branches; i++){
+      names[i] = "L" + i;
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception{
+    seg.close();
+  }
+
+  private int emitWithString() throws UnsupportedPlatformException{
+    var builder = new AsmBuilder.AMD64(seg);
+    for(int i = 0; i < branches; i++){
+      builder.cmp(Register.RDI, i)
+             .je(names[i]);
+    }
+    for(int i = branches - 1; i >= 0; i--){
+      builder.label(names[i])
+             .add(Register.RAX, i);
+    }
+    return builder.ret()
+                  .getCodePosition();
+  }
+
+  private int emitWithLabel() throws UnsupportedPlatformException{
+    var builder = new AsmBuilder.AMD64(seg);
+    var labels = new Label[branches];
+    for(int i = 0; i < branches; i++){
+      labels[i] = builder.newLabel();
+      builder.cmp(Register.RDI, i)
+             .je(labels[i]);
+    }
+    for(int i = branches - 1; i >= 0; i--){
+      builder.label(labels[i])
+             .add(Register.RAX, i);
+    }
+    return builder.ret()
+                  .getCodePosition();
+  }
+
+  @Benchmark
+  public int emit() throws UnsupportedPlatformException{
+    return labelType.equals("String") ? emitWithString() : emitWithLabel();
+  }
+
+  public static void main(String[] args) throws Throwable{
+    var bench = new LabelHeavy();
+    bench.branches = 1024;
+    bench.setup();
+    bench.labelType = "String";
+    System.out.println("String: " + bench.emitWithString() + " bytes");
+    bench.labelType = "Label";
+    System.out.println("Label: " + bench.emitWithLabel() + " bytes");
+    bench.tearDown();
+  }
+
+}
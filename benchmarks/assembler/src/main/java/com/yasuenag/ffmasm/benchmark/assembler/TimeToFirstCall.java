@@ -0,0 +1,112 @@
+package com.yasuenag.ffmasm.benchmark.assembler;
+
+import java.lang.foreign.*;
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.yasuenag.ffmasm.*;
+import com.yasuenag.ffmasm.amd64.*;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Cost from assembling to the first call.
+ *
+ *   build: emit small function, then build() it (including downcallHandle())
+ *   buildAndInvoke: build, then call it once
+ *   registerNatives: bind pre-assembled function to native method via NativeRegister
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1,
+      jvmArgsAppend = {
+        "--enable-native-access=ALL-UNNAMED",
+        "-Xms1g",
+        "-Xmx1g"
+      })
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+public class TimeToFirstCall{
+
+  private static final long SEGMENT_SIZE = 1024 * 1024;
+
+  // Reserve for one function
+  private static final long SEGMENT_RESERVE = 256;
+
+  private static final FunctionDescriptor desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG);
+
+  private CodeSegment seg;
+
+  private MemorySegment registeredCode;
+
+  private NativeRegister register;
+
+  private Map<Method, MemorySegment> nativeMethods;
+
+  public static native long nativeTarget(long arg);
+
+  @Setup(Level.Trial)
+  public void setup() throws Throwable{
+    seg = new CodeSegment(SEGMENT_SIZE);
+
+    registeredCode = emit(new AsmBuilder.AMD64(seg, desc)).getMemorySegment();
+    register = NativeRegister.create(TimeToFirstCall.class);
+    nativeMethods = Map.of(TimeToFirstCall.class.getMethod("nativeTarget", long.class), registeredCode);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception{
+    seg.close();
+  }
+
+  // Code segment would be exhausted during the iteration.
+  // Replace it with new one - old functions would not be called anymore.
+  private CodeSegment getCodeSegment() throws Exception{
+    if(seg.getTail() > (SEGMENT_SIZE - SEGMENT_RESERVE)){
+      seg.close();
+      seg = new CodeSegment(SEGMENT_SIZE);
+    }
+    return seg;
+  }
+
+  private static AsmBuilder.AMD64 emit(AsmBuilder.AMD64 builder){
+    // Linux: arg1 = RDI, Windows: arg1 = RCX
+    return builder
+/* push %rbp         */ .push(Register.RBP)
+/* mov %rsp, %rbp    */ .movMR(Register.RSP, Register.RBP)
+/* mov %rdi, %rax    */ .movMR(Register.RDI, Register.RAX)
+/* add $1, %rax      */ .add(Register.RAX, 1)
+/* leave             */ .leave()
+/* ret               */ .ret();
+  }
+
+  @Benchmark
+  public MethodHandle build() throws Exception{
+    return emit(new AsmBuilder.AMD64(getCodeSegment(), desc)).build();
+  }
+
+  @Benchmark
+  public long buildAndInvoke() throws Throwable{
+    var handle = emit(new AsmBuilder.AMD64(getCodeSegment(), desc)).build();
+    return (long)handle.invokeExact(1L);
+  }
+
+  @Benchmark
+  public void registerNatives() throws Throwable{
+    register.registerNatives(nativeMethods);
+  }
+
+  public static void main(String[] args) throws Throwable{
+    var bench = new TimeToFirstCall();
+    bench.setup();
+    System.out.println("buildAndInvoke: " + bench.buildAndInvoke());
+    bench.registerNatives();
+    System.out.println("nativeTarget: " + nativeTarget(1L));
+    bench.tearDown();
+  }
+
+}
@@ -0,0 +1,123 @@
+package com.yasuenag.ffmasm.benchmark.funccall;
+
+import java.lang.foreign.*;
+import java.lang.invoke.*;
+import java.lang.ref.*;
+import java.util.concurrent.*;
+
+import com.yasuenag.ffmasm.*;
+import com.yasuenag.ffmasm.amd64.*;
+
+import org.openjdk.jmh.annotations.*;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"--enable-native-access=ALL-UNNAMED"})
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class BatchInvocationComparison{
+
+  private static final CodeSegment seg;
+
+  private static final MethodHandle perCall;
+
+  private static final MethodHandle perCallCritical;
+
+  private static final BatchInvoker batchInvoker;
+
+  @Param({"1", "2", "4", "8", "16", "32", "64", "256"})
+  private int batchSize;
+
+  private long[] a;
+
+  private long[] b;
+
+  private Arena arena;
+
+  private BatchInvoker.ArgumentBlock block;
+
+  static{
+    try{
+      seg = new CodeSegment();
+      var action = new CodeSegment.CleanerAction(seg);
+      Cleaner.create()
+             .register(BatchInvocationComparison.class, action);
+
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG);
+      var func = new AsmBuilder.AMD64(seg, desc)
+/* mov %rdi, %rax */ .movMR(Register.RDI, Register.RAX)
+/* add %rsi, %rax */ .addRM(Register.RAX, Register.RSI)
+/* ret            */ .ret()
+                     .getMemorySegment();
+      perCall = Linker.nativeLinker().downcallHandle(func, desc);
+      perCallCritical = Linker.nativeLinker().downcallHandle(func, desc, Linker.Option.critical(false));
+      batchInvoker = BatchInvoker.create(seg, func, desc);
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+  @Setup
+  public void setup(){
+    a = new long[batchSize];
+    b = new long[batchSize];
+    for(int i = 0; i < batchSize; i++){
+      a[i] = i;
+      b[i] = i * 10L;
+    }
+    arena = Arena.ofConfined();
+    block = batchInvoker.allocate(arena, batchSize);
+  }
+
+  @TearDown
+  public void tearDown(){
+    arena.close();
+  }
+
+  @Benchmark
+  public long perCall() throws Throwable{
+    long sum = 0;
+    for(int i = 0; i < batchSize; i++){
+      sum += (long)perCall.invokeExact(a[i], b[i]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long perCallCritical() throws Throwable{
+    long sum = 0;
+    for(int i = 0; i < batchSize; i++){
+      sum += (long)perCallCritical.invokeExact(a[i], b[i]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long batch(){
+    for(int i = 0; i < batchSize; i++){
+      block.setLong(i, 0, a[i])
+           .setLong(i, 1, b[i]);
+    }
+    batchInvoker.invoke(block, batchSize);
+
+    long sum = 0;
+    for(int i = 0; i < batchSize; i++){
+      sum += block.getLong(i);
+    }
+    return sum;
+  }
+
+  public static void main(String[] args) throws Throwable{
+    var inst = new BatchInvocationComparison();
+    inst.batchSize = 16;
+    inst.setup();
+    System.out.println("        perCall: " + inst.perCall());
+    System.out.println("perCallCritical: " + inst.perCallCritical());
+    System.out.println("          batch: " + inst.batch());
+    inst.tearDown();
+  }
+
+}
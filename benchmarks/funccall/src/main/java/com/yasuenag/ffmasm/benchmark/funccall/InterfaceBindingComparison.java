@@ -0,0 +1,97 @@
+package com.yasuenag.ffmasm.benchmark.funccall;
+
+import java.lang.foreign.*;
+import java.lang.invoke.*;
+import java.lang.ref.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import com.yasuenag.ffmasm.*;
+import com.yasuenag.ffmasm.amd64.*;
+
+import org.openjdk.jmh.annotations.*;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(value = 1, jvmArgsAppend = {"--enable-native-access=ALL-UNNAMED"})
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class InterfaceBindingComparison{
+
+  private static final CodeSegment seg;
+
+  private static final MethodHandle constantHandle;
+
+  private static final LongBinaryOperator constantFunc;
+
+  // Non-constant references
+  private MethodHandle handle;
+
+  private LongBinaryOperator func;
+
+  private long a;
+
+  private long b;
+
+  static{
+    try{
+      seg = new CodeSegment();
+      var action = new CodeSegment.CleanerAction(seg);
+      Cleaner.create()
+             .register(InterfaceBindingComparison.class, action);
+
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG);
+      constantHandle = createFunc(desc).build(Linker.Option.critical(false));
+      constantFunc = createFunc(desc).buildAs(LongBinaryOperator.class, Linker.Option.critical(false));
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+  private static AsmBuilder.AMD64 createFunc(FunctionDescriptor desc) throws UnsupportedPlatformException{
+    return new AsmBuilder.AMD64(seg, desc)
+/* mov %rdi, %rax */ .movMR(Register.RDI, Register.RAX)
+/* add %rsi, %rax */ .addRM(Register.RAX, Register.RSI)
+/* ret            */ .ret();
+  }
+
+  @Setup
+  public void setup(){
+    handle = constantHandle;
+    func = constantFunc;
+    a = 10;
+    b = 20;
+  }
+
+  @Benchmark
+  public long invoke() throws Throwable{
+    return (long)handle.invoke(a, b);
+  }
+
+  @Benchmark
+  public long invokeExact() throws Throwable{
+    return (long)handle.invokeExact(a, b);
+  }
+
+  @Benchmark
+  public long invokeExactConstant() throws Throwable{
+    return (long)constantHandle.invokeExact(a, b);
+  }
+
+  @Benchmark
+  public long buildAs(){
+    return func.applyAsLong(a, b);
+  }
+
+  public static void main(String[] args) throws Throwable{
+    var inst = new InterfaceBindingComparison();
+    inst.setup();
+    System.out.println("               invoke: " + inst.invoke());
+    System.out.println("          invokeExact: " + inst.invokeExact());
+    System.out.println("invokeExact(constant): " + inst.invokeExactConstant());
+    System.out.println("              buildAs: " + inst.buildAs());
+  }
+
+}
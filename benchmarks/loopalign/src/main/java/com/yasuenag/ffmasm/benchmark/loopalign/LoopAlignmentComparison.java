@@ -0,0 +1,100 @@
+package com.yasuenag.ffmasm.benchmark.loopalign;
+
+import java.lang.foreign.*;
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.yasuenag.ffmasm.*;
+import com.yasuenag.ffmasm.amd64.*;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Sum loop (n + (n - 1) + ... + 1) with different alignment of loop head.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1,
+      jvmArgsAppend = {
+        "--enable-native-access=ALL-UNNAMED",
+        "-Xms1g",
+        "-Xmx1g"
+      })
+@Warmup(iterations = 1, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class LoopAlignmentComparison{
+
+  private static final int BOUNDARY = 64;
+
+  @Param({"multiByteNOP", "singleByteNOP", "misaligned"})
+  public String layout;
+
+  @Param({"4", "1000"})
+  public long count;
+
+  private CodeSegment seg;
+
+  private MethodHandle sum;
+
+  private static void padTo(AsmBuilder.AMD64 builder, int position){
+    while(builder.getCodePosition() < position){
+      builder.nop(Math.min(11, position - builder.getCodePosition()));
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws PlatformException, UnsupportedPlatformException{
+    seg = new CodeSegment();
+    seg.setFunctionAlignment(BOUNDARY);
+
+    var desc = FunctionDescriptor.of(
+                 ValueLayout.JAVA_LONG, // return value
+                 ValueLayout.JAVA_LONG  // count
+               );
+    var builder = new AsmBuilder.AMD64(seg, desc)
+/* xor %rax, %rax               */ .xorMR(Register.RAX, Register.RAX, OptionalInt.empty());
+    switch(layout){
+      case "multiByteNOP" -> builder.alignWithNOP(BOUNDARY);
+      case "singleByteNOP" -> {
+        while((builder.getCodePosition() % BOUNDARY) != 0){
+          builder.nop();
+        }
+      }
+      // Loop body (add + sub + jne) crosses the boundary.
+      case "misaligned" -> padTo(builder, BOUNDARY - 6);
+      default -> throw new IllegalArgumentException(layout);
+    }
+    sum = builder
+/* loop:                        */ .label("loop")
+/* add %rdi, %rax               */ .addRM(Register.RAX, Register.RDI, OptionalInt.empty())
+/* sub $1, %rdi                 */ .sub(Register.RDI, 1, OptionalInt.empty())
+/* jne loop                     */ .jne("loop")
+/* ret                          */ .ret()
+                                   .build(Linker.Option.critical(false));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception{
+    seg.close();
+  }
+
+  @Benchmark
+  public long sum() throws Throwable{
+    return (long)sum.invokeExact(count);
+  }
+
+  public static void main(String[] args) throws Throwable{
+    var bench = new LoopAlignmentComparison();
+    bench.count = 1000;
+    for(var l : new String[]{"multiByteNOP", "singleByteNOP", "misaligned"}){
+      bench.layout = l;
+      bench.setup();
+      System.out.println(l + ": " + bench.sum());
+      bench.tearDown();
+    }
+  }
+
+}
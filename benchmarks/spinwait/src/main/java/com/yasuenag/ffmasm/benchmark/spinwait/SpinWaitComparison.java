@@ -0,0 +1,145 @@
+package com.yasuenag.ffmasm.benchmark.spinwait;
+
+import java.lang.foreign.*;
+import java.lang.invoke.*;
+import java.lang.management.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+import com.yasuenag.ffmasm.*;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Ping-pong between benchmark thread and echo thread via off-heap flags.
+ * Both threads use same wait strategy. Score is round-trip latency.
+ * CPU usage of echo thread is shown at the end of each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1,
+      jvmArgsAppend = {
+        "--enable-native-access=ALL-UNNAMED",
+        "-Xms1g",
+        "-Xmx1g"
+      })
+@Warmup(iterations = 1, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class SpinWaitComparison{
+
+  private static final VarHandle intHandle = ValueLayout.JAVA_INT.varHandle();
+
+  private static final long TIMEOUT_MILLIS = 100;
+
+  private static final long PARK_NANOS = 1_000;
+
+  private static interface Waiter{
+    public void await(MemorySegment flag, int expected);
+  }
+
+  @Param({"SpinWait", "onSpinWait", "parkNanos"})
+  public String strategy;
+
+  private Arena arena;
+  private MemorySegment ping;
+  private MemorySegment pong;
+  private Waiter waiter;
+  private Thread echo;
+  private volatile boolean running;
+  private int seq;
+
+  private ThreadMXBean threadMXBean;
+  private long echoCpuTimeAtStart;
+  private long wallTimeAtStart;
+
+  private boolean isReached(MemorySegment flag, int expected){
+    return (int)intHandle.getVolatile(flag, 0L) == expected;
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws UnsupportedPlatformException{
+    arena = Arena.ofShared();
+    ping = arena.allocate(ValueLayout.JAVA_INT);
+    pong = arena.allocate(ValueLayout.JAVA_INT);
+    seq = 0;
+
+    var spinWait = SpinWait.getInstance();
+    waiter = switch(strategy){
+      case "SpinWait" -> (f, e) -> {
+        while(!spinWait.await(f, e, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) && running);
+      };
+      case "onSpinWait" -> (f, e) -> {
+        while(!isReached(f, e) && running){
+          Thread.onSpinWait();
+        }
+      };
+      case "parkNanos" -> (f, e) -> {
+        while(!isReached(f, e) && running){
+          LockSupport.parkNanos(PARK_NANOS);
+        }
+      };
+      default -> throw new IllegalArgumentException(strategy);
+    };
+
+    running = true;
+    echo = new Thread(() -> {
+      int s = 0;
+      while(running){
+        s++;
+        waiter.await(ping, s);
+        SpinWait.signal(pong, s);
+      }
+    });
+    echo.setDaemon(true);
+    echo.start();
+
+    threadMXBean = ManagementFactory.getThreadMXBean();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException{
+    running = false;
+    echo.join();
+    arena.close();
+  }
+
+  @Setup(Level.Iteration)
+  public void iterationSetup(){
+    echoCpuTimeAtStart = threadMXBean.getThreadCpuTime(echo.threadId());
+    wallTimeAtStart = System.nanoTime();
+  }
+
+  @TearDown(Level.Iteration)
+  public void iterationTearDown(){
+    long cpuTime = threadMXBean.getThreadCpuTime(echo.threadId()) - echoCpuTimeAtStart;
+    long wallTime = System.nanoTime() - wallTimeAtStart;
+    System.out.printf(" [echo thread CPU usage: %.1f%%]", cpuTime * 100.0d / wallTime);
+  }
+
+  @Benchmark
+  public int pingPong(){
+    seq++;
+    SpinWait.signal(ping, seq);
+    waiter.await(pong, seq);
+    return seq;
+  }
+
+  public static void main(String[] args) throws Exception{
+    var bench = new SpinWaitComparison();
+    for(var s : new String[]{"SpinWait", "onSpinWait", "parkNanos"}){
+      bench.strategy = s;
+      bench.setup();
+      bench.iterationSetup();
+      for(int i = 0; i < 10000; i++){
+        bench.pingPong();
+      }
+      System.out.print(s + ":");
+      bench.iterationTearDown();
+      System.out.println();
+      bench.tearDown();
+    }
+  }
+
+}
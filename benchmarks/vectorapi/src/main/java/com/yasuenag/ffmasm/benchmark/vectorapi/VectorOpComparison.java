@@ -44,6 +44,15 @@ public class VectorOpComparison{
 
   private static final CodeSegment seg;
   private static final MethodHandle ffm;
+  private static final MethodHandle ffmArray;
+
+  private static AsmBuilder.AVX createFFMFunc(FunctionDescriptor desc) throws UnsupportedPlatformException{
+    return new AsmBuilder.AVX(seg, desc)
+/* vmovdqu (%rdi), %ymm0       */ .vmovdquRM(Register.YMM0, Register.RDI, OptionalInt.of(0))
+/* vpaddd (%rsi), %ymm0, %ymm0 */ .vpaddd(Register.YMM0, Register.RSI, Register.YMM0, OptionalInt.of(0))
+/* vmovdqu %ymm0, (%rdi)       */ .vmovdquMR(Register.YMM0, Register.RDI, OptionalInt.of(0))
+/* ret                         */ .ret();
+  }
 
   static{
     try{
@@ -53,12 +62,10 @@ public class VectorOpComparison{
              .register(VectorOpComparison.class, action);
 
       var desc = FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS);
-      ffm = new AsmBuilder.AVX(seg, desc)
-/* vmovdqu (%rdi), %ymm0       */ .vmovdquRM(Register.YMM0, Register.RDI, OptionalInt.of(0))
-/* vpaddd (%rsi), %ymm0, %ymm0 */ .vpaddd(Register.YMM0, Register.RSI, Register.YMM0, OptionalInt.of(0))
-/* vmovdqu %ymm0, (%rdi)       */ .vmovdquMR(Register.YMM0, Register.RDI, OptionalInt.of(0))
-/* ret                         */ .ret()
-                                  .build(Linker.Option.critical(true));
+      ffm = createFFMFunc(desc).build(Linker.Option.critical(true));
+      ffmArray = createFFMFunc(desc).setArrayParameter(0, int[].class)
+                                    .setArrayParameter(1, int[].class)
+                                    .build();
 
       var targetMethod = VectorOpComparison.class.getDeclaredMethod("addInJVMCI", int[].class, int[].class);
       var jvmciBuilder = new JVMCIAVXAsmBuilder();
@@ -97,6 +104,12 @@ public class VectorOpComparison{
     return result;
   }
 
+  @Benchmark
+  public int[] invokeFFMArray() throws Throwable{
+    ffmArray.invokeExact(result, randArray);
+    return result;
+  }
+
   @Benchmark
   public int[] invokeVector(){
     var vectorSrc = IntVector.fromArray(IntVector.SPECIES_256, randArray, 0);
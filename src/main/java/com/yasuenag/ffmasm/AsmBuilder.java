@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2025, Yasumasa Suenaga
+ * Copyright (C) 2025, 2026, Yasumasa Suenaga
  *
  * This file is part of ffmasm.
  *
@@ -19,20 +19,29 @@
 package com.yasuenag.ffmasm;
 
 import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.AddressLayout;
 import java.lang.foreign.Linker;
 import java.lang.foreign.MemorySegment;
 import java.util.function.Consumer;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.DowncallHandleCache;
 import com.yasuenag.ffmasm.JitDump;
+import com.yasuenag.ffmasm.Label;
 import com.yasuenag.ffmasm.UnsupportedPlatformException;
 import com.yasuenag.ffmasm.aarch64.AArch64AsmBuilder;
+import com.yasuenag.ffmasm.internal.InterfaceBinder;
 import com.yasuenag.ffmasm.amd64.AMD64AsmBuilder;
 import com.yasuenag.ffmasm.amd64.AVXAsmBuilder;
 import com.yasuenag.ffmasm.amd64.SSEAsmBuilder;
@@ -45,7 +54,7 @@ import com.yasuenag.ffmasm.amd64.SSEAsmBuilder;
  *
  * @author Yasumasa Suenaga
  */
-public class AsmBuilder<T extends AsmBuilder>{
+public abstract class AsmBuilder<T extends AsmBuilder>{
 
   /**
    * Builder class for AMD64
@@ -109,14 +118,35 @@ public class AsmBuilder<T extends AsmBuilder>{
 
   private final CodeSegment seg;
 
-  private final MemorySegment mem;
+  private MemorySegment mem;
 
   /**
    * ByteBuffer which includes code content.
+   * It is replaced when the builder is reset.
    */
-  protected final ByteBuffer byteBuf;
+  protected ByteBuffer byteBuf;
 
-  private final FunctionDescriptor desc;
+  private FunctionDescriptor desc;
+
+  // Index: parameter index, Value: array type (null if it is not an array parameter)
+  private Class<?>[] arrayParameters;
+
+  // Key: array type, Value: MethodHandle of MemorySegment::ofArray
+  private static final Map<Class<?>, MethodHandle> ofArrayHandles;
+
+  static{
+    ofArrayHandles = new HashMap<>();
+    var lookup = MethodHandles.publicLookup();
+    for(var type : new Class<?>[]{byte[].class, char[].class, short[].class, int[].class,
+                                  float[].class, long[].class, double[].class}){
+      try{
+        ofArrayHandles.put(type, lookup.findStatic(MemorySegment.class, "ofArray", MethodType.methodType(MemorySegment.class, type)));
+      }
+      catch(NoSuchMethodException | IllegalAccessException e){
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+  }
 
   // Key: label, Value: position
   protected final Map<String, Integer> labelMap;
@@ -125,15 +155,155 @@ public class AsmBuilder<T extends AsmBuilder>{
   public static record PendingJump(Consumer<Integer> emitOp, int position){}
   protected final Map<String, Set<PendingJump>> pendingLabelMap;
 
-  protected AsmBuilder(CodeSegment seg, FunctionDescriptor desc){
-    seg.alignTo16Bytes();
+  private static final int INITIAL_LABEL_CAPACITY = 16;
+
+  // Index: label ID, Value: position (-1 if the label is not bound yet)
+  private int[] labelPositions;
+  private int labelCount;
+
+  // Token of current function to reject labels from other functions
+  private Object labelOwner;
+
+  // References to unbound labels: position to patch, label ID, and kind of the reference
+  private int[] fixupPositions;
+  private int[] fixupLabels;
+  private int[] fixupKinds;
+  private int fixupCount;
+
+  // References to symbols in CodeSegment. They are passed to CodeSegment when the function is committed.
+  private static record SymbolReference(String symbol, int kind, int position){}
+  private final List<SymbolReference> symbolReferences;
+
+  // True if the code refers the import table of CodeSegment
+  private boolean importReferred;
 
+  // Holes of stencil which are declared via hole()
+  private final List<Stencil.HoleInfo> holes;
+
+  // Functions which are finished via endFunction(), but not returned yet
+  private static record BatchEntry(MemorySegment mem, FunctionDescriptor desc, Class<?>[] arrayParameters){}
+  private final List<BatchEntry> batch;
+
+  protected AsmBuilder(CodeSegment seg, FunctionDescriptor desc){
     this.seg = seg;
+    this.labelMap = new HashMap<>();
+    this.pendingLabelMap = new HashMap<>();
+    this.labelPositions = new int[INITIAL_LABEL_CAPACITY];
+    this.fixupPositions = new int[INITIAL_LABEL_CAPACITY];
+    this.fixupLabels = new int[INITIAL_LABEL_CAPACITY];
+    this.fixupKinds = new int[INITIAL_LABEL_CAPACITY];
+    this.symbolReferences = new ArrayList<>();
+    this.holes = new ArrayList<>();
+    this.batch = new ArrayList<>();
+    startFunction(desc);
+  }
+
+  private void startFunction(FunctionDescriptor desc){
+    seg.alignTo(seg.getFunctionAlignment());
+
     this.mem = seg.getTailOfMemorySegment();
     this.byteBuf = mem.asByteBuffer().order(ByteOrder.nativeOrder());
+    if(this.desc != desc){
+      this.arrayParameters = null;
+    }
     this.desc = desc;
-    this.labelMap = new HashMap<>();
-    this.pendingLabelMap = new HashMap<>();
+    labelMap.clear();
+    pendingLabelMap.clear();
+    this.labelCount = 0;
+    this.labelOwner = new Object();
+    this.fixupCount = 0;
+    symbolReferences.clear();
+    importReferred = false;
+    holes.clear();
+  }
+
+  /**
+   * Start new function at the tail of the CodeSegment with same
+   * FunctionDescriptor.
+   * Code which is emitted after the last build is discarded.
+   * Label handles which are created before this call are rejected
+   * after that.
+   *
+   * @return This instance
+   */
+  public T reset(){
+    return reset(desc);
+  }
+
+  /**
+   * Start new function at the tail of the CodeSegment.
+   * Code which is emitted after the last build is discarded.
+   * Label handles which are created before this call are rejected
+   * after that.
+   *
+   * @param desc FunctionDescriptor for new function.
+   * @return This instance
+   */
+  public T reset(FunctionDescriptor desc){
+    startFunction(desc);
+    return castToT();
+  }
+
+  /**
+   * Let the MethodHandle which is built by this builder take Java array
+   * instead of MemorySegment at the parameter.
+   * The array is passed to the code as heap segment, thus the code receives
+   * the address of the first element. It does not allocate any objects
+   * per call if the call is inlined because heap segment would be
+   * scalar-replaced by JIT compiler.
+   * <code>Linker.Option.critical(true)</code> is added automatically
+   * when the MethodHandle is built.
+   * This setting is kept until FunctionDescriptor is changed via
+   * {@link #reset(FunctionDescriptor)}.
+   *
+   * @param index index of the parameter in FunctionDescriptor
+   * @param arrayType type of primitive array (e.g. <code>int[].class</code>)
+   * @return This instance
+   * @throws IllegalArgumentException if the parameter is not an address,
+   *                                  or the type is not a primitive array.
+   */
+  public T setArrayParameter(int index, Class<?> arrayType){
+    if(!ofArrayHandles.containsKey(arrayType)){
+      throw new IllegalArgumentException("Unsupported array type: " + arrayType);
+    }
+    if((desc == null) || (index < 0) || (index >= desc.argumentLayouts().size()) ||
+       !(desc.argumentLayouts().get(index) instanceof AddressLayout)){
+      throw new IllegalArgumentException("Parameter " + index + " is not an address.");
+    }
+
+    if(arrayParameters == null){
+      arrayParameters = new Class<?>[desc.argumentLayouts().size()];
+    }
+    arrayParameters[index] = arrayType;
+    return castToT();
+  }
+
+  static MethodHandle downcallHandle(MemorySegment mem, FunctionDescriptor desc, Class<?>[] arrayParameters, Linker.Option... options){
+    if(arrayParameters == null){
+      return DowncallHandleCache.downcallHandle(mem, desc, options);
+    }
+
+    var criticalWithHeap = Linker.Option.critical(true);
+    boolean hasCritical = false;
+    for(var option : options){
+      if(option.equals(Linker.Option.critical(false))){
+        throw new IllegalArgumentException("critical(true) is required for array parameters.");
+      }
+      hasCritical |= option.equals(criticalWithHeap);
+    }
+    var opts = options;
+    if(!hasCritical){
+      opts = Arrays.copyOf(options, options.length + 1);
+      opts[options.length] = criticalWithHeap;
+    }
+
+    var mh = DowncallHandleCache.downcallHandle(mem, desc, opts);
+    for(int i = 0; i < arrayParameters.length; i++){
+      if(arrayParameters[i] != null){
+        mh = MethodHandles.filterArguments(mh, i, ofArrayHandles.get(arrayParameters[i]));
+      }
+    }
+    return mh;
   }
 
   /**
@@ -174,6 +344,128 @@ public class AsmBuilder<T extends AsmBuilder>{
     return castToT();
   }
 
+  /**
+   * Create new label handle. It is not bound to any position until
+   * {@link #label(Label)} is called.
+   *
+   * @return new label
+   */
+  public Label newLabel(){
+    if(labelCount == labelPositions.length){
+      labelPositions = Arrays.copyOf(labelPositions, labelCount * 2);
+    }
+    labelPositions[labelCount] = -1;
+    return new Label(labelOwner, labelCount++);
+  }
+
+  private int checkLabel(Label label){
+    if(!label.belongsTo(labelOwner)){
+      throw new IllegalArgumentException("Label " + label.id() + " does not belong to this function.");
+    }
+    return label.id();
+  }
+
+  /**
+   * Bind the label to current position.
+   *
+   * @param label label to bind
+   * @return This instance
+   * @throws IllegalArgumentException thrown when the label is already bound,
+   *                                  or does not belong to this builder.
+   */
+  public T label(Label label){
+    int id = checkLabel(label);
+    if(labelPositions[id] != -1){
+      throw new IllegalArgumentException("Label " + id + " is already bound.");
+    }
+
+    int labelPosition = byteBuf.position();
+    labelPositions[id] = labelPosition;
+
+    int i = 0;
+    while(i < fixupCount){
+      if(fixupLabels[i] == id){
+        patchLabelReference(fixupKinds[i], fixupPositions[i], labelPosition);
+        // Remove the reference with moving the last one to here
+        fixupCount--;
+        fixupPositions[i] = fixupPositions[fixupCount];
+        fixupLabels[i] = fixupLabels[fixupCount];
+        fixupKinds[i] = fixupKinds[fixupCount];
+      }
+      else{
+        i++;
+      }
+    }
+
+    return castToT();
+  }
+
+  /**
+   * Get the position which the label is bound to.
+   *
+   * @param label label
+   * @return position of the label, or -1 if the label is not bound yet.
+   * @throws IllegalArgumentException thrown when the label does not belong to this builder.
+   */
+  protected int getLabelPosition(Label label){
+    return labelPositions[checkLabel(label)];
+  }
+
+  /**
+   * Add the reference to unbound label. It will be patched via
+   * {@link #patchLabelReference(int, int, int)} when the label is bound.
+   *
+   * @param label label to refer
+   * @param kind kind of the reference. It is defined by the subclass.
+   * @param position position to patch
+   * @throws IllegalArgumentException thrown when the label does not belong to this builder.
+   */
+  protected void addLabelReference(Label label, int kind, int position){
+    int id = checkLabel(label);
+    if(fixupCount == fixupPositions.length){
+      int newLength = fixupCount * 2;
+      fixupPositions = Arrays.copyOf(fixupPositions, newLength);
+      fixupLabels = Arrays.copyOf(fixupLabels, newLength);
+      fixupKinds = Arrays.copyOf(fixupKinds, newLength);
+    }
+    fixupPositions[fixupCount] = position;
+    fixupLabels[fixupCount] = id;
+    fixupKinds[fixupCount] = kind;
+    fixupCount++;
+  }
+
+  /**
+   * Patch the reference to the label.
+   *
+   * @param kind kind of the reference which is passed to {@link #addLabelReference(Label, int, int)}
+   * @param position position to patch
+   * @param target position of the label
+   */
+  protected abstract void patchLabelReference(int kind, int position, int target);
+
+  /**
+   * Add the reference to the symbol in CodeSegment. It will be patched via
+   * {@link #patchSymbolReference(ByteBuffer, int, int, long)} when both of
+   * this function is committed and the symbol is defined.
+   *
+   * @param symbol name of the function in CodeSegment
+   * @param kind kind of the reference. It is defined by the subclass.
+   * @param position position to patch
+   */
+  protected void addSymbolReference(String symbol, int kind, int position){
+    symbolReferences.add(new SymbolReference(symbol, kind, position));
+  }
+
+  /**
+   * Patch the reference to the symbol.
+   *
+   * @param code code buffer of the function which has the reference
+   * @param kind kind of the reference which is passed to {@link #addSymbolReference(String, int, int)}
+   * @param position position to patch
+   * @param offset distance from the address of the position to the symbol
+   */
+  protected abstract void patchSymbolReference(ByteBuffer code, int kind, int position, long offset);
+
   /**
    * Get current position of code buffer.
    *
@@ -183,11 +475,121 @@ public class AsmBuilder<T extends AsmBuilder>{
     return byteBuf.position();
   }
 
-  private void updateTail(){
+  /**
+   * Import the native function to the import table of CodeSegment.
+   * The code buffer is shrunk not to overlap with the slot.
+   *
+   * @param name symbol name of the native function
+   * @return slot which holds the address of the function
+   * @throws IllegalArgumentException if the symbol is not found.
+   * @throws IllegalStateException if CodeSegment does not have enough space.
+   */
+  protected MemorySegment importSymbol(String name){
+    var slot = seg.importSymbol(name);
+    importReferred = true;
+    long limit = slot.address() - mem.address();
+    if(limit < byteBuf.limit()){
+      if(limit < byteBuf.position()){
+        throw new IllegalStateException("CodeSegment is full.");
+      }
+      byteBuf.limit((int)limit);
+    }
+    return slot;
+  }
+
+  /**
+   * Get absolute address of current position of code buffer.
+   *
+   * @return address of current position
+   */
+  protected long getCodeAddress(){
+    return mem.address() + byteBuf.position();
+  }
+
+  /**
+   * Get the number of bytes to the next boundary from current position.
+   * It is calculated with absolute address of the code.
+   *
+   * @param boundary boundary to align. It must be power of 2.
+   * @return number of padding bytes
+   * @throws IllegalArgumentException if the boundary is not power of 2.
+   */
+  protected int getPaddingTo(int boundary){
+    if((boundary <= 0) || (Integer.bitCount(boundary) != 1)){
+      throw new IllegalArgumentException("Alignment must be power of 2: " + boundary);
+    }
+    long address = mem.address() + byteBuf.position();
+    return (int)(-address & (boundary - 1));
+  }
+
+  private void checkLabels(){
     if(!pendingLabelMap.isEmpty()){
       throw new IllegalStateException("Label is not defined: " + pendingLabelMap.keySet().toString());
     }
+    if(fixupCount > 0){
+      throw new IllegalStateException("Label is not bound: " + fixupLabels[0]);
+    }
+  }
+
+  private void updateTail(){
+    checkLabels();
     seg.incTail(byteBuf.position());
+
+    var code = byteBuf;
+    long base = mem.address();
+    for(var ref : symbolReferences){
+      seg.resolveSymbol(ref.symbol(), target -> patchSymbolReference(code, ref.kind(), ref.position(), target - (base + ref.position())));
+    }
+    symbolReferences.clear();
+  }
+
+  /**
+   * Declare the hole of stencil at the end of the code.
+   * It should be called just after the instruction which has the
+   * immediate, the displacement or the offset to be patched.
+   * Holes which have same name are patched with same value.
+   *
+   * @param name name of the hole
+   * @param kind kind of the hole. Last <code>kind.size()</code> bytes are the hole.
+   * @return This instance
+   * @throws IllegalStateException if the code is shorter than the hole.
+   * @see #buildStencil(String)
+   */
+  public T hole(String name, Stencil.Hole kind){
+    int position = byteBuf.position() - kind.size();
+    if(position < 0){
+      throw new IllegalStateException("No instruction for the hole: " + name);
+    }
+    holes.add(new Stencil.HoleInfo(name, kind, position));
+    return castToT();
+  }
+
+  /**
+   * Build as a stencil. The code is copied to the stencil, and it is not
+   * committed to CodeSegment. Then this builder is reset.
+   * The code must not refer outside of the function with PC-relative
+   * addressing (e.g. <code>callSymbol()</code>, <code>callNative()</code>)
+   * except holes because the stencil is copied to other address.
+   *
+   * @param name name of functions which are instantiated from the stencil
+   * @return Stencil of this assembly
+   * @throws IllegalStateException when label(s) are not defined even if they are used,
+   *                               or the code refers symbols or the import table.
+   * @see Stencil
+   */
+  public Stencil buildStencil(String name){
+    checkLabels();
+    if(!symbolReferences.isEmpty()){
+      throw new IllegalStateException("Stencil cannot refer the symbol: " + symbolReferences.get(0).symbol());
+    }
+    if(importReferred){
+      throw new IllegalStateException("Stencil cannot refer the import table.");
+    }
+    var code = new byte[byteBuf.position()];
+    byteBuf.get(0, code);
+    var stencil = new Stencil(name, code, holes, desc, arrayParameters);
+    startFunction(desc);
+    return stencil;
   }
 
   /**
@@ -198,7 +600,7 @@ public class AsmBuilder<T extends AsmBuilder>{
    * @throws IllegalStateException when label(s) are not defined even if they are used
    */
   public MethodHandle build(Linker.Option... options){
-    return build("<unnamed>", options);
+    return build(CodeSegment.UNNAMED, options);
   }
 
   /**
@@ -223,7 +625,9 @@ public class AsmBuilder<T extends AsmBuilder>{
   }
 
   /**
-   * Build as a MethodHandle
+   * Build as a MethodHandle.
+   * Downcall stub is shared with other functions which have same signature
+   * via {@link DowncallHandleCache}.
    *
    * @param name Method name
    * @param jitdump JitDump instance which should be written.
@@ -234,7 +638,86 @@ public class AsmBuilder<T extends AsmBuilder>{
   public MethodHandle build(String name, JitDump jitdump, Linker.Option... options){
     updateTail();
     storeMethodInfo(name, jitdump);
-    return Linker.nativeLinker().downcallHandle(mem, desc, options);
+    return downcallHandle(mem, desc, arrayParameters, options);
+  }
+
+  /**
+   * Build as a patchable function.
+   * This function is committed with <code>name + "$impl"</code>, and the
+   * entry stub which jumps to it is placed after that with <code>name</code>.
+   * So {@link PatchableFunction#patch(MemorySegment)} affects to callers
+   * of the symbol in the CodeSegment as well as the MethodHandle.
+   *
+   * @param name Method name
+   * @param options Linker options to pass to downcallHandle().
+   * @return PatchableFunction for this assembly
+   * @throws IllegalStateException when label(s) are not defined even if they are used,
+   *                               or CodeSegment does not have enough space for the entry.
+   * @throws UnsupportedPlatformException when this method is called on unsupported platform.
+   * @see PatchableFunction
+   */
+  public PatchableFunction buildPatchable(String name, Linker.Option... options) throws UnsupportedPlatformException{
+    var impl = getMemorySegment(name + "$impl");
+    var func = PatchableFunction.newInstance(seg, name, impl);
+    func.handle = downcallHandle(func.getEntry(), desc, arrayParameters, options);
+    return func;
+  }
+
+  /**
+   * Build as an implementation of the functional interface.
+   * The implementation holds MethodHandle in static final field, and calls
+   * it via invokeExact() with the signature of the interface method.
+   * So it does not cause boxing and generic adaptation, and JIT compiler
+   * can inline the call even if the instance is not a constant.
+   *
+   * @param <I> type of the functional interface
+   * @param functionalInterface functional interface to implement.
+   *                            It must be public, and it must be accessible from ffmasm.
+   * @param options Linker options to pass to downcallHandle().
+   * @return instance of the functional interface for this assembly
+   * @throws IllegalStateException when label(s) are not defined even if they are used
+   * @throws IllegalArgumentException when the interface is not a functional interface,
+   *                                  or the signature cannot be adapted to it.
+   */
+  public <I> I buildAs(Class<I> functionalInterface, Linker.Option... options){
+    return buildAs(functionalInterface, CodeSegment.UNNAMED, options);
+  }
+
+  /**
+   * Build as an implementation of the functional interface.
+   *
+   * @param <I> type of the functional interface
+   * @param functionalInterface functional interface to implement.
+   * @param name Method name
+   * @param options Linker options to pass to downcallHandle().
+   * @return instance of the functional interface for this assembly
+   * @throws IllegalStateException when label(s) are not defined even if they are used
+   * @throws IllegalArgumentException when the interface is not a functional interface,
+   *                                  or the signature cannot be adapted to it.
+   * @see #buildAs(Class, Linker.Option...)
+   */
+  public <I> I buildAs(Class<I> functionalInterface, String name, Linker.Option... options){
+    return buildAs(functionalInterface, name, null, options);
+  }
+
+  /**
+   * Build as an implementation of the functional interface.
+   *
+   * @param <I> type of the functional interface
+   * @param functionalInterface functional interface to implement.
+   * @param name Method name
+   * @param jitdump JitDump instance which should be written.
+   * @param options Linker options to pass to downcallHandle().
+   * @return instance of the functional interface for this assembly
+   * @throws IllegalStateException when label(s) are not defined even if they are used
+   * @throws IllegalArgumentException when the interface is not a functional interface,
+   *                                  or the signature cannot be adapted to it.
+   * @see #buildAs(Class, Linker.Option...)
+   */
+  public <I> I buildAs(Class<I> functionalInterface, String name, JitDump jitdump, Linker.Option... options){
+    // Check the interface before the code is committed to the CodeSegment
+    InterfaceBinder.findAbstractMethod(functionalInterface);
+    return InterfaceBinder.bind(functionalInterface, build(name, jitdump, options));
   }
 
   /**
@@ -244,7 +727,7 @@ public class AsmBuilder<T extends AsmBuilder>{
    * @throws IllegalStateException when label(s) are not defined even if they are used
    */
   public MemorySegment getMemorySegment(){
-    return getMemorySegment("<unnamed>");
+    return getMemorySegment(CodeSegment.UNNAMED);
   }
 
   /**
@@ -273,4 +756,65 @@ public class AsmBuilder<T extends AsmBuilder>{
     return mem.reinterpret(length);
   }
 
+  /**
+   * Finish current function, and start new one with same FunctionDescriptor.
+   * Finished functions can be retrieved via {@link #buildAll(Linker.Option...)}
+   * or {@link #getAllMemorySegments()}.
+   *
+   * @param name Method name
+   * @return This instance
+   * @throws IllegalStateException when label(s) are not defined even if they are used
+   */
+  public T endFunction(String name){
+    return endFunction(name, null);
+  }
+
+  /**
+   * Finish current function, and start new one with same FunctionDescriptor.
+   * Finished functions can be retrieved via {@link #buildAll(Linker.Option...)}
+   * or {@link #getAllMemorySegments()}.
+   *
+   * @param name Method name
+   * @param jitdump JitDump instance which should be written.
+   * @return This instance
+   * @throws IllegalStateException when label(s) are not defined even if they are used
+   */
+  public T endFunction(String name, JitDump jitdump){
+    batch.add(new BatchEntry(getMemorySegment(name, jitdump), desc,
+                             arrayParameters == null ? null : arrayParameters.clone()));
+    return reset();
+  }
+
+  /**
+   * Build all of functions which are finished via {@link #endFunction(String)}
+   * as MethodHandles. They are removed from this builder.
+   *
+   * @param options Linker options to pass to downcallHandle().
+   * @return MethodHandles in order of endFunction() call
+   */
+  public List<MethodHandle> buildAll(Linker.Option... options){
+    var handles = new MethodHandle[batch.size()];
+    for(int i = 0; i < handles.length; i++){
+      var entry = batch.get(i);
+      handles[i] = downcallHandle(entry.mem(), entry.desc(), entry.arrayParameters(), options);
+    }
+    batch.clear();
+    return List.of(handles);
+  }
+
+  /**
+   * Get MemorySegments of all functions which are finished via
+   * {@link #endFunction(String)}. They are removed from this builder.
+   *
+   * @return MemorySegments in order of endFunction() call
+   */
+  public List<MemorySegment> getAllMemorySegments(){
+    var segments = new MemorySegment[batch.size()];
+    for(int i = 0; i < segments.length; i++){
+      segments[i] = batch.get(i).mem();
+    }
+    batch.clear();
+    return List.of(segments);
+  }
+
 }
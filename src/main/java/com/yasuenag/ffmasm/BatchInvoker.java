@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.util.Objects;
+
+import com.yasuenag.ffmasm.internal.aarch64.AArch64BatchTrampoline;
+import com.yasuenag.ffmasm.internal.amd64.AMD64BatchTrampoline;
+
+
+/**
+ * Invoker which calls the function many times in one downcall.
+ *
+ * The cost of thread state transition in downcall is much higher than
+ * tiny function. This class generates the trampoline which loops over
+ * tuples of arguments in {@link ArgumentBlock}, and calls the function
+ * for each of them. Results are stored to the block in order.
+ *
+ * Arguments must be passed via registers, thus integer / pointer and
+ * floating point values are supported. The number of them is limited
+ * by calling convention of the platform (e.g. 4 on Windows).
+ *
+ * @author Yasumasa Suenaga
+ */
+public final class BatchInvoker{
+
+  private static final long SLOT_SIZE = 8L;
+
+  // Floating point values might be transferred as 16 bytes on AArch64.
+  private static final long PADDING = 8L;
+
+  private static final FunctionDescriptor TRAMPOLINE_DESC = FunctionDescriptor.ofVoid(
+                                                              ValueLayout.ADDRESS,  // arguments
+                                                              ValueLayout.ADDRESS,  // results
+                                                              ValueLayout.JAVA_LONG // count
+                                                            );
+
+  private final FunctionDescriptor desc;
+
+  private final MethodHandle trampoline;
+
+  private final long stride;
+
+  /**
+   * Block of arguments and results for {@link BatchInvoker}.
+   * Each argument and each result occupies 8 bytes slot.
+   */
+  public final class ArgumentBlock{
+
+    private final MemorySegment args;
+
+    private final MemorySegment results;
+
+    private final int capacity;
+
+    private ArgumentBlock(Arena arena, int capacity){
+      this.capacity = capacity;
+      this.args = arena.allocate(stride * capacity + PADDING, 16);
+      this.results = arena.allocate(SLOT_SIZE * capacity + PADDING, 16);
+    }
+
+    private BatchInvoker outer(){
+      return BatchInvoker.this;
+    }
+
+    private long offset(int index, int argIndex){
+      Objects.checkIndex(index, capacity);
+      Objects.checkIndex(argIndex, desc.argumentLayouts().size());
+      return index * stride + argIndex * SLOT_SIZE;
+    }
+
+    /**
+     * Get the number of calls which this block can hold.
+     *
+     * @return capacity of this block
+     */
+    public int capacity(){
+      return capacity;
+    }
+
+    /**
+     * Set integer argument. It is sign-extended to 64 bit.
+     *
+     * @param index index of the call
+     * @param argIndex index of the argument
+     * @param value value to set
+     * @return This instance
+     */
+    public ArgumentBlock setInt(int index, int argIndex, int value){
+      args.set(ValueLayout.JAVA_LONG, offset(index, argIndex), value);
+      return this;
+    }
+
+    /**
+     * Set long argument.
+     *
+     * @param index index of the call
+     * @param argIndex index of the argument
+     * @param value value to set
+     * @return This instance
+     */
+    public ArgumentBlock setLong(int index, int argIndex, long value){
+      args.set(ValueLayout.JAVA_LONG, offset(index, argIndex), value);
+      return this;
+    }
+
+    /**
+     * Set float argument.
+     *
+     * @param index index of the call
+     * @param argIndex index of the argument
+     * @param value value to set
+     * @return This instance
+     */
+    public ArgumentBlock setFloat(int index, int argIndex, float value){
+      args.set(ValueLayout.JAVA_FLOAT, offset(index, argIndex), value);
+      return this;
+    }
+
+    /**
+     * Set double argument.
+     *
+     * @param index index of the call
+     * @param argIndex index of the argument
+     * @param value value to set
+     * @return This instance
+     */
+    public ArgumentBlock setDouble(int index, int argIndex, double value){
+      args.set(ValueLayout.JAVA_DOUBLE, offset(index, argIndex), value);
+      return this;
+    }
+
+    /**
+     * Set pointer argument.
+     *
+     * @param index index of the call
+     * @param argIndex index of the argument
+     * @param value value to set. It must be native segment.
+     * @return This instance
+     */
+    public ArgumentBlock setAddress(int index, int argIndex, MemorySegment value){
+      args.set(ValueLayout.JAVA_LONG, offset(index, argIndex), value.address());
+      return this;
+    }
+
+    /**
+     * Get integer result.
+     *
+     * @param index index of the call
+     * @return result of the call
+     */
+    public int getInt(int index){
+      return results.get(ValueLayout.JAVA_INT, Objects.checkIndex(index, capacity) * SLOT_SIZE);
+    }
+
+    /**
+     * Get long result.
+     *
+     * @param index index of the call
+     * @return result of the call
+     */
+    public long getLong(int index){
+      return results.get(ValueLayout.JAVA_LONG, Objects.checkIndex(index, capacity) * SLOT_SIZE);
+    }
+
+    /**
+     * Get float result.
+     *
+     * @param index index of the call
+     * @return result of the call
+     */
+    public float getFloat(int index){
+      return results.get(ValueLayout.JAVA_FLOAT, Objects.checkIndex(index, capacity) * SLOT_SIZE);
+    }
+
+    /**
+     * Get double result.
+     *
+     * @param index index of the call
+     * @return result of the call
+     */
+    public double getDouble(int index){
+      return results.get(ValueLayout.JAVA_DOUBLE, Objects.checkIndex(index, capacity) * SLOT_SIZE);
+    }
+
+    /**
+     * Get pointer result.
+     *
+     * @param index index of the call
+     * @return result of the call as zero-length segment
+     */
+    public MemorySegment getAddress(int index){
+      return MemorySegment.ofAddress(getLong(index));
+    }
+
+  }
+
+  private BatchInvoker(FunctionDescriptor desc, MethodHandle trampoline){
+    this.desc = desc;
+    this.trampoline = trampoline;
+    this.stride = desc.argumentLayouts().size() * SLOT_SIZE;
+  }
+
+  /**
+   * Create BatchInvoker for the function.
+   * The trampoline is assembled into given CodeSegment.
+   *
+   * @param seg CodeSegment to store the trampoline
+   * @param function address of the function. It might be assembled by ffmasm.
+   * @param desc FunctionDescriptor of the function
+   * @param options Linker options to pass to downcallHandle() for the trampoline.
+   * @return BatchInvoker instance
+   * @throws UnsupportedPlatformException when this method is called on unsupported platform.
+   * @throws IllegalArgumentException when arguments of the function cannot be passed via registers.
+   */
+  public static BatchInvoker create(CodeSegment seg, MemorySegment function, FunctionDescriptor desc, Linker.Option... options) throws UnsupportedPlatformException{
+    var arch = System.getProperty("os.arch");
+    var os = System.getProperty("os.name");
+
+    MemorySegment mem;
+    if(arch.equals("amd64")){
+      mem = AMD64BatchTrampoline.generate(seg, function, desc);
+    }
+    else if(arch.equals("aarch64") && os.equals("Linux")){
+      mem = AArch64BatchTrampoline.generate(seg, function, desc);
+    }
+    else{
+      throw new UnsupportedPlatformException(os + " " + arch + " is not supported");
+    }
+
+    return new BatchInvoker(desc, DowncallHandleCache.downcallHandle(mem, TRAMPOLINE_DESC, options));
+  }
+
+  /**
+   * Allocate new block of arguments and results.
+   *
+   * @param arena Arena to allocate the block
+   * @param capacity maximum number of calls in one batch
+   * @return new block
+   */
+  public ArgumentBlock allocate(Arena arena, int capacity){
+    if(capacity <= 0){
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    return new ArgumentBlock(arena, capacity);
+  }
+
+  /**
+   * Get FunctionDescriptor of the function which is called by this invoker.
+   *
+   * @return FunctionDescriptor of the function
+   */
+  public FunctionDescriptor functionDescriptor(){
+    return desc;
+  }
+
+  /**
+   * Call the function with first <code>count</code> tuples of arguments
+   * in the block.
+   *
+   * @param block block of arguments and results
+   * @param count number of calls
+   * @throws IllegalArgumentException if the block does not belong to this invoker.
+   * @throws IndexOutOfBoundsException if count exceeds the capacity of the block.
+   */
+  public void invoke(ArgumentBlock block, int count){
+    if(block.outer() != this){
+      throw new IllegalArgumentException("The block does not belong to this invoker.");
+    }
+    Objects.checkFromToIndex(0, count, block.capacity());
+    if(count == 0){
+      return;
+    }
+
+    try{
+      trampoline.invokeExact(block.args, block.results, (long)count);
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2022, 2025, Yasumasa Suenaga
+ * Copyright (C) 2022, 2026, Yasumasa Suenaga
  *
  * This file is part of ffmasm.
  *
@@ -21,13 +21,22 @@ package com.yasuenag.ffmasm;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UncheckedIOException;
+import java.lang.foreign.Linker;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
 import java.lang.invoke.MethodHandle;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.function.LongConsumer;
 
 import com.yasuenag.ffmasm.internal.ExecMemory;
 import com.yasuenag.ffmasm.internal.linux.LinuxExecMemory;
@@ -46,6 +55,17 @@ public class CodeSegment implements AutoCloseable{
    */
   public static final long DEFAULT_CODE_SEGMENT_SIZE = 4096L;
 
+  /**
+   * Default alignment of functions in code segment.
+   */
+  public static final int DEFAULT_FUNCTION_ALIGNMENT = 16;
+
+  /**
+   * Name of the function which is built without name.
+   * It is not registered to the symbol table.
+   */
+  public static final String UNNAMED = "<unnamed>";
+
   /**
    * Holder for method information. This is used for perfmap dumping.
    *
@@ -68,8 +88,22 @@ public class CodeSegment implements AutoCloseable{
 
   private final Set<MethodInfo> methods;
 
+  // Key: function name, Value: the function which is added at last with the name
+  private final Map<String, MethodInfo> symbols;
+
+  // Key: function name, Value: resolvers which wait for the definition
+  private final Map<String, List<LongConsumer>> unresolvedSymbols;
+
+  // Import table for native functions. It grows downward from the end of this segment.
+  private static final long IMPORT_SLOT_SIZE = 8L;
+  private final Map<String, MemorySegment> importSlots;
+  private long importBase;
+  private SymbolLookup symbolLookup;
+
   private long tail;
 
+  private int functionAlignment;
+
   private Thread perfMapDumper;
 
   /**
@@ -102,7 +136,13 @@ public class CodeSegment implements AutoCloseable{
     this.size = size;
     this.addr = mem.allocate(size);
     this.methods = new HashSet<>();
+    this.symbols = new HashMap<>();
+    this.unresolvedSymbols = new HashMap<>();
+    this.importSlots = new HashMap<>();
+    this.importBase = size;
+    this.symbolLookup = null;
     this.tail = 0L;
+    this.functionAlignment = DEFAULT_FUNCTION_ALIGNMENT;
     this.perfMapDumper = null;
   }
 
@@ -149,20 +189,60 @@ public class CodeSegment implements AutoCloseable{
 
   /**
    * Get slice of this segment from the tail.
+   * It does not include the import table at the end of this segment.
    *
    * @return Slice of this segment from the tail.
    */
-  public MemorySegment getTailOfMemorySegment(){
-    return addr.asSlice(tail);
+  public synchronized MemorySegment getTailOfMemorySegment(){
+    return addr.asSlice(tail, importBase - tail);
   }
 
   /**
    * Align the tail to 16 bytes
    */
   public void alignTo16Bytes(){
-    if((tail & 0xf) > 0){ // not aligned
-      tail = (tail + 0x10) & 0xfffffffffffffff0L;
+    alignTo(16);
+  }
+
+  /**
+   * Align the tail to given boundary.
+   * Head of this segment is aligned to the page, so the address of the tail
+   * would be aligned to the boundary which is not greater than page size.
+   *
+   * @param boundary boundary to align. It must be power of 2.
+   * @throws IllegalArgumentException if the boundary is not power of 2.
+   */
+  public void alignTo(int boundary){
+    if((boundary <= 0) || (Integer.bitCount(boundary) != 1)){
+      throw new IllegalArgumentException("Alignment must be power of 2: " + boundary);
+    }
+    long mask = boundary - 1;
+    tail = (tail + mask) & ~mask;
+  }
+
+  /**
+   * Get alignment of the head of functions in this segment.
+   *
+   * @return alignment of functions
+   */
+  public int getFunctionAlignment(){
+    return functionAlignment;
+  }
+
+  /**
+   * Set alignment of the head of functions in this segment.
+   * It affects to <code>AsmBuilder</code> which will be created after this call.
+   * 32 or 64 bytes might be better than default (16 bytes) for hot loop
+   * because it would not cross decoded ICache / cache line boundary.
+   *
+   * @param alignment alignment of functions. It must be power of 2, and 16 or greater.
+   * @throws IllegalArgumentException if the alignment is invalid.
+   */
+  public void setFunctionAlignment(int alignment){
+    if((alignment < 16) || (Integer.bitCount(alignment) != 1)){
+      throw new IllegalArgumentException("Function alignment must be power of 2, and 16 or greater: " + alignment);
     }
+    functionAlignment = alignment;
   }
 
   /**
@@ -193,21 +273,124 @@ public class CodeSegment implements AutoCloseable{
 
   /**
    * Add method info. It will be dumped to perf map as related method of this CodeSegment.
+   * It is also registered to the symbol table of this CodeSegment with the name,
+   * and references to the symbol which wait for the definition are resolved.
+   * {@link #UNNAMED} is not registered because it is not a symbol.
    * @param name Method name
    * @param address Address of the method
    * @param size Size of the method (machine code)
    * @return MethodInfo of the method info.
    * @throws IllegalArgumentException if the address is out of range from this CodeSegment.
    */
-  public MethodInfo addMethodInfo(String name, long address, int size){
+  public synchronized MethodInfo addMethodInfo(String name, long address, int size){
     if((address < addr.address()) || ((addr.address() + this.size) < (address + size))){
       throw new IllegalArgumentException("Address is out of range from CodeSegment.");
     }
     var methodInfo = new MethodInfo(name, address, size);
     methods.add(methodInfo);
+    if(name.equals(UNNAMED)){
+      return methodInfo;
+    }
+    symbols.put(name, methodInfo);
+
+    var resolvers = unresolvedSymbols.remove(name);
+    if(resolvers != null){
+      resolvers.forEach(r -> r.accept(address));
+    }
     return methodInfo;
   }
 
+  /**
+   * Find the function in this CodeSegment by name.
+   * If some functions have same name, the last one is returned.
+   *
+   * @param name Method name
+   * @return MethodInfo of the function, or empty if it is not defined.
+   */
+  public synchronized Optional<MethodInfo> findSymbol(String name){
+    return Optional.ofNullable(symbols.get(name));
+  }
+
+  /**
+   * Resolve the address of the function in this CodeSegment.
+   * The resolver is called immediately if the function is already defined.
+   * Otherwise it is called when the function is added via
+   * {@link #addMethodInfo(String, long, int)}.
+   *
+   * @param name Method name
+   * @param resolver callback which receives the address of the function
+   */
+  public synchronized void resolveSymbol(String name, LongConsumer resolver){
+    var methodInfo = symbols.get(name);
+    if(methodInfo == null){
+      unresolvedSymbols.computeIfAbsent(name, k -> new ArrayList<>()).add(resolver);
+    }
+    else{
+      resolver.accept(methodInfo.address());
+    }
+  }
+
+  /**
+   * Set SymbolLookup to find native functions for the import table.
+   * <code>Linker.nativeLinker().defaultLookup()</code> is used by default.
+   *
+   * @param lookup SymbolLookup to find native functions
+   */
+  public synchronized void setSymbolLookup(SymbolLookup lookup){
+    this.symbolLookup = lookup;
+  }
+
+  /**
+   * Get the slot of the import table which holds the address of the
+   * native function. The symbol is looked up, and the slot is allocated
+   * at the end of this segment when it is imported first. So assembled
+   * code can call the function via the slot with PC-relative addressing.
+   *
+   * @param name symbol name of the native function
+   * @return 8 bytes slot which holds the address of the function
+   * @throws IllegalArgumentException if the symbol is not found.
+   * @throws IllegalStateException if this segment does not have enough space for new slot.
+   */
+  public synchronized MemorySegment importSymbol(String name){
+    var slot = importSlots.get(name);
+    if(slot != null){
+      return slot;
+    }
+
+    if(symbolLookup == null){
+      symbolLookup = Linker.nativeLinker().defaultLookup();
+    }
+    var function = symbolLookup.find(name)
+                               .orElseThrow(() -> new IllegalArgumentException("Symbol not found: " + name));
+    if((importBase - IMPORT_SLOT_SIZE) < tail){
+      throw new IllegalStateException("CodeSegment is full.");
+    }
+    importBase -= IMPORT_SLOT_SIZE;
+    slot = addr.asSlice(importBase, IMPORT_SLOT_SIZE);
+    slot.set(ValueLayout.JAVA_LONG, 0, function.address());
+    importSlots.put(name, slot);
+    return slot;
+  }
+
+  /**
+   * Get names of functions which are referred, but are not defined yet.
+   * Code which calls them must not be executed until they are defined.
+   *
+   * @return names of unresolved symbols
+   */
+  public synchronized Set<String> getUnresolvedSymbols(){
+    return Set.copyOf(unresolvedSymbols.keySet());
+  }
+
+  /**
+   * Get information of all functions in this CodeSegment.
+   *
+   * @return MethodInfos of functions which are added via {@link #addMethodInfo(String, long, int)}
+   */
+  public synchronized Set<MethodInfo> getMethodInfos(){
+    return Set.copyOf(methods);
+  }
+
   private void dumpPerfMap(Path path){
     try(var writer = new PrintWriter(Files.newOutputStream(path))){
       methods.stream()
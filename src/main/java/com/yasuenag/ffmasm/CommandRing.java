@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import com.yasuenag.ffmasm.internal.aarch64.AArch64CommandRingDispatcher;
+import com.yasuenag.ffmasm.internal.amd64.AMD64CommandRingDispatcher;
+
+
+/**
+ * Executor which runs native functions on dedicated thread via
+ * off-heap command ring.
+ *
+ * Java threads enqueue invocation descriptors (address of the function
+ * and arguments) to the ring, and the dispatch loop generated by ffmasm
+ * drains them in order. The loop runs in one long downcall on dedicated
+ * platform thread, so producers do not need any thread state transition
+ * for each call. Producers wait for the completion with spin wait and
+ * <code>Thread.yield()</code>, thus virtual threads do not pin their
+ * carrier threads while they wait.
+ *
+ * Functions must take up to 4 integer or pointer arguments, and return
+ * integer or pointer value (or nothing). The dispatch loop spins on the
+ * ring while it is open, so it occupies one CPU core.
+ *
+ * Each ticket which is returned from {@link #submit(MemorySegment, long...)}
+ * must be passed to {@link #await(long)} exactly once. The slot is not
+ * reused until then.
+ *
+ * @author Yasumasa Suenaga
+ */
+public final class CommandRing implements AutoCloseable{
+
+  /**
+   * Maximum number of arguments of the function.
+   */
+  public static final int MAX_ARGUMENTS = 4;
+
+  private static final long SLOT_SIZE = 64L;
+
+  private static final long STATE_OFFSET = 0L;
+
+  private static final long FUNCTION_OFFSET = 8L;
+
+  private static final long ARGS_OFFSET = 16L;
+
+  private static final long RESULT_OFFSET = 48L;
+
+  private static final long SEQUENCE_OFFSET = 56L;
+
+  private static final long EMPTY = 0L;
+
+  private static final long READY = 1L;
+
+  private static final long DONE = 2L;
+
+  private static final long STOP = 3L;
+
+  private static final int SPIN_LIMIT = 128;
+
+  private static final FunctionDescriptor DISPATCHER_DESC = FunctionDescriptor.ofVoid(
+                                                              ValueLayout.ADDRESS,  // ring
+                                                              ValueLayout.JAVA_LONG // number of slots
+                                                            );
+
+  private static final VarHandle SLOT_HANDLE = ValueLayout.JAVA_LONG.varHandle();
+
+  private static final VarHandle TAIL;
+
+  static{
+    try{
+      TAIL = MethodHandles.lookup().findVarHandle(CommandRing.class, "tail", long.class);
+    }
+    catch(ReflectiveOperationException e){
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final Arena arena;
+
+  private final MemorySegment ring;
+
+  private final int capacity;
+
+  private final long mask;
+
+  private final Thread dispatcher;
+
+  private volatile long tail;
+
+  private volatile boolean closed;
+
+  private CommandRing(MethodHandle loop, int capacity){
+    this.arena = Arena.ofShared();
+    this.ring = arena.allocate(SLOT_SIZE * capacity, SLOT_SIZE);
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    for(int i = 0; i < capacity; i++){
+      ring.set(ValueLayout.JAVA_LONG, i * SLOT_SIZE + SEQUENCE_OFFSET, i);
+    }
+
+    this.dispatcher = Thread.ofPlatform()
+                            .name("ffmasm command ring")
+                            .daemon(true)
+                            .start(() -> {
+                              try{
+                                loop.invokeExact(ring, (long)capacity);
+                              }
+                              catch(Throwable t){
+                                throw new RuntimeException(t);
+                              }
+                            });
+  }
+
+  /**
+   * Create CommandRing, and start the dispatch loop.
+   * The dispatch loop is assembled into given CodeSegment.
+   *
+   * @param seg CodeSegment to store the dispatch loop
+   * @param capacity number of slots in the ring. It must be power of 2.
+   * @return CommandRing instance
+   * @throws UnsupportedPlatformException when this method is called on unsupported platform.
+   * @throws IllegalArgumentException if capacity is not power of 2.
+   */
+  public static CommandRing start(CodeSegment seg, int capacity) throws UnsupportedPlatformException{
+    if((capacity <= 0) || (Integer.bitCount(capacity) != 1)){
+      throw new IllegalArgumentException("Capacity must be power of 2: " + capacity);
+    }
+
+    var arch = System.getProperty("os.arch");
+    var os = System.getProperty("os.name");
+
+    MemorySegment mem;
+    if(arch.equals("amd64")){
+      mem = AMD64CommandRingDispatcher.generate(seg);
+    }
+    else if(arch.equals("aarch64") && os.equals("Linux")){
+      mem = AArch64CommandRingDispatcher.generate(seg);
+    }
+    else{
+      throw new UnsupportedPlatformException(os + " " + arch + " is not supported");
+    }
+
+    return new CommandRing(DowncallHandleCache.downcallHandle(mem, DISPATCHER_DESC), capacity);
+  }
+
+  // Returns false if the dispatcher thread is terminated.
+  private boolean spinWait(int count){
+    if(count < SPIN_LIMIT){
+      Thread.onSpinWait();
+      return true;
+    }
+    Thread.yield();
+    return dispatcher.isAlive();
+  }
+
+  private static IllegalStateException dispatcherTerminated(){
+    return new IllegalStateException("Dispatcher thread is terminated.");
+  }
+
+  private long enqueue(long state, long function, long[] args){
+    long ticket = (long)TAIL.getAndAdd(this, 1L);
+    long slot = (ticket & mask) * SLOT_SIZE;
+
+    // Wait until the producer of previous lap releases the slot.
+    for(int i = 0; (long)SLOT_HANDLE.getAcquire(ring, slot + SEQUENCE_OFFSET) != ticket; i++){
+      if(!spinWait(i) && ((long)SLOT_HANDLE.getAcquire(ring, slot + SEQUENCE_OFFSET) != ticket)){
+        throw dispatcherTerminated();
+      }
+    }
+
+    ring.set(ValueLayout.JAVA_LONG, slot + FUNCTION_OFFSET, function);
+    for(int i = 0; i < args.length; i++){
+      ring.set(ValueLayout.JAVA_LONG, slot + ARGS_OFFSET + i * 8L, args[i]);
+    }
+    SLOT_HANDLE.setRelease(ring, slot + STATE_OFFSET, state);
+    return ticket;
+  }
+
+  private long slotOf(long ticket){
+    long slot = (ticket & mask) * SLOT_SIZE;
+    if((long)SLOT_HANDLE.getAcquire(ring, slot + SEQUENCE_OFFSET) != ticket){
+      throw new IllegalStateException("Ticket is not in flight: " + ticket);
+    }
+    return slot;
+  }
+
+  /**
+   * Get the number of slots in the ring.
+   *
+   * @return capacity of the ring
+   */
+  public int capacity(){
+    return capacity;
+  }
+
+  /**
+   * Enqueue the invocation of the function.
+   * This method waits for free slot if the ring is full.
+   *
+   * @param function address of the function. It might be assembled by ffmasm.
+   * @param args arguments of the function
+   * @return ticket to wait for the completion
+   * @throws IllegalArgumentException if too many arguments are passed.
+   * @throws IllegalStateException if the ring is already closed, or the dispatcher thread is terminated.
+   */
+  public long submit(MemorySegment function, long... args){
+    if(args.length > MAX_ARGUMENTS){
+      throw new IllegalArgumentException("Too many arguments: " + args.length);
+    }
+    if(closed){
+      throw new IllegalStateException("CommandRing is already closed.");
+    }
+    return enqueue(READY, function.address(), args);
+  }
+
+  /**
+   * Check whether the invocation has been completed.
+   *
+   * @param ticket ticket which is returned from {@link #submit(MemorySegment, long...)}
+   * @return true if the function has been returned
+   * @throws IllegalStateException if the ticket is not in flight.
+   */
+  public boolean isDone(long ticket){
+    return (long)SLOT_HANDLE.getAcquire(ring, slotOf(ticket) + STATE_OFFSET) == DONE;
+  }
+
+  /**
+   * Wait for the completion of the invocation, and release the slot.
+   *
+   * @param ticket ticket which is returned from {@link #submit(MemorySegment, long...)}
+   * @return return value of the function
+   * @throws IllegalStateException if the ticket is not in flight, or the dispatcher thread is terminated.
+   */
+  public long await(long ticket){
+    long slot = slotOf(ticket);
+    for(int i = 0; (long)SLOT_HANDLE.getAcquire(ring, slot + STATE_OFFSET) != DONE; i++){
+      // The dispatcher might finish the command just before its termination.
+      if(!spinWait(i) && ((long)SLOT_HANDLE.getAcquire(ring, slot + STATE_OFFSET) != DONE)){
+        throw dispatcherTerminated();
+      }
+    }
+
+    long result = ring.get(ValueLayout.JAVA_LONG, slot + RESULT_OFFSET);
+    ring.set(ValueLayout.JAVA_LONG, slot + STATE_OFFSET, EMPTY);
+    SLOT_HANDLE.setRelease(ring, slot + SEQUENCE_OFFSET, ticket + capacity);
+    return result;
+  }
+
+  /**
+   * Call the function via the ring, and wait for the completion.
+   *
+   * @param function address of the function. It might be assembled by ffmasm.
+   * @param args arguments of the function
+   * @return return value of the function
+   * @throws IllegalArgumentException if too many arguments are passed.
+   * @throws IllegalStateException if the ring is already closed, or the dispatcher thread is terminated.
+   */
+  public long call(MemorySegment function, long... args){
+    return await(submit(function, args));
+  }
+
+  /**
+   * Stop the dispatch loop, and release the ring.
+   * Invocations which are submitted before this call are processed,
+   * but their results are not available after this call.
+   * Other threads must not submit invocations concurrently with this call.
+   * This method waits for the termination of the dispatcher even if the
+   * caller is interrupted, then the interrupt status is restored.
+   */
+  @Override
+  public void close(){
+    synchronized(this){
+      if(closed){
+        return;
+      }
+      closed = true;
+    }
+
+    try{
+      await(enqueue(STOP, 0L, new long[0]));
+    }
+    finally{
+      // The ring must not be freed while the dispatcher is running,
+      // so the interruption is deferred until the dispatcher finishes.
+      boolean interrupted = false;
+      while(true){
+        try{
+          dispatcher.join();
+          break;
+        }
+        catch(InterruptedException e){
+          interrupted = true;
+        }
+      }
+      if(interrupted){
+        Thread.currentThread().interrupt();
+      }
+      arena.close();
+    }
+  }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Cache of downcall handles.
+ *
+ * Downcall handle which does not have the address of the function
+ * ("invoker") is shared per pair of FunctionDescriptor and Linker options,
+ * then the address is bound to it via <code>MethodHandles.insertArguments()</code>.
+ * So many functions which have same signature can share one downcall stub.
+ * {@link AsmBuilder} creates MethodHandles via this class.
+ *
+ * @author Yasumasa Suenaga
+ */
+public final class DowncallHandleCache{
+
+  private static record Key(FunctionDescriptor desc, List<Linker.Option> options){}
+
+  private static final Map<Key, MethodHandle> invokers = new ConcurrentHashMap<>();
+
+  private static final LongAdder requests = new LongAdder();
+
+  private static final LongAdder misses = new LongAdder();
+
+  private DowncallHandleCache(){
+    // Do nothing
+  }
+
+  /**
+   * Get invoker for the signature. First parameter of it is the address
+   * of the function.
+   *
+   * @param desc FunctionDescriptor of the function
+   * @param options Linker options to pass to downcallHandle().
+   * @return MethodHandle which takes the address of the function as first parameter
+   */
+  public static MethodHandle getInvoker(FunctionDescriptor desc, Linker.Option... options){
+    requests.increment();
+    var key = new Key(desc, List.of(options));
+    var invoker = invokers.get(key);
+    if(invoker == null){
+      invoker = invokers.computeIfAbsent(key, k -> {
+        misses.increment();
+        return Linker.nativeLinker().downcallHandle(k.desc(), options);
+      });
+    }
+    return invoker;
+  }
+
+  /**
+   * Get MethodHandle for the function.
+   *
+   * @param addr address of the function
+   * @param desc FunctionDescriptor of the function
+   * @param options Linker options to pass to downcallHandle().
+   * @return MethodHandle for the function
+   */
+  public static MethodHandle downcallHandle(MemorySegment addr, FunctionDescriptor desc, Linker.Option... options){
+    return MethodHandles.insertArguments(getInvoker(desc, options), 0, addr);
+  }
+
+  /**
+   * Get the number of lookups which hit the cache.
+   *
+   * @return number of cache hits
+   */
+  public static long getHitCount(){
+    return requests.sum() - misses.sum();
+  }
+
+  /**
+   * Get the number of lookups which create new invoker.
+   *
+   * @return number of cache misses
+   */
+  public static long getMissCount(){
+    return misses.sum();
+  }
+
+  /**
+   * Get the number of invokers in the cache.
+   *
+   * @return number of invokers
+   */
+  public static int size(){
+    return invokers.size();
+  }
+
+  /**
+   * Remove all of invokers, and reset statistics.
+   * MethodHandles which are already created are still available.
+   */
+  public static void clear(){
+    invokers.clear();
+    requests.reset();
+    misses.reset();
+  }
+
+}
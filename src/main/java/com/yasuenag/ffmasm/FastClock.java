@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import com.yasuenag.ffmasm.internal.amd64.AMD64FastClock;
+import com.yasuenag.ffmasm.internal.aarch64.AArch64FastClock;
+
+
+/**
+ * Low-cost timestamp and current CPU primitives.
+ *
+ * This class provides raw hardware tick counter and the CPU number which
+ * the caller is running on via tiny stubs assembled by ffmasm.
+ * It uses <code>RDTSC</code> and <code>RDPID</code> (or <code>RDTSCP</code>)
+ * on AMD64, and <code>CNTVCT_EL0</code> on AArch64.
+ *
+ * Ticks are not nanoseconds. Use {@link #ticksToNanos(long)} to convert
+ * the difference of two ticks into nanoseconds. Tick frequency is read from
+ * <code>CNTFRQ_EL0</code> on AArch64, and it is calibrated against
+ * <code>System.nanoTime()</code> at initialization on AMD64 because TSC
+ * frequency cannot be read from user mode. So AMD64 CPU should support
+ * invariant TSC to get reliable result.
+ *
+ * You need to get instance of this class from {@link #getInstance()}.
+ *
+ * @author Yasumasa Suenaga
+ */
+public abstract class FastClock{
+
+  private static FastClock instance;
+
+  private final long ticksPerSecond;
+
+  private final double nanosPerTick;
+
+  private final double ticksPerNano;
+
+  protected FastClock(long ticksPerSecond){
+    this.ticksPerSecond = ticksPerSecond;
+    this.nanosPerTick = 1_000_000_000.0d / ticksPerSecond;
+    this.ticksPerNano = ticksPerSecond / 1_000_000_000.0d;
+  }
+
+  /**
+   * Read hardware tick counter.
+   *
+   * @return Current value of tick counter
+   */
+  public abstract long ticks();
+
+  /**
+   * Get CPU number which the caller is running on.
+   * Note that the thread might be migrated to another CPU soon after
+   * this method returns.
+   *
+   * @return CPU number
+   */
+  public abstract int currentCpu();
+
+  /**
+   * Get frequency of tick counter.
+   *
+   * @return Number of ticks per second
+   */
+  public long ticksPerSecond(){
+    return ticksPerSecond;
+  }
+
+  /**
+   * Convert ticks into nanoseconds.
+   *
+   * @param ticks Number of ticks. It should be a difference of two values from {@link #ticks()}.
+   * @return Nanoseconds
+   */
+  public long ticksToNanos(long ticks){
+    return (long)(ticks * nanosPerTick);
+  }
+
+  /**
+   * Convert nanoseconds into ticks.
+   *
+   * @param nanos Nanoseconds
+   * @return Number of ticks
+   */
+  public long nanosToTicks(long nanos){
+    return (long)(nanos * ticksPerNano);
+  }
+
+  /**
+   * Get instance of FastClock.
+   * Stubs would be assembled at the first call.
+   *
+   * @return FastClock instance
+   * @throws UnsupportedPlatformException when this method is called on unsupported platform.
+   */
+  public static synchronized FastClock getInstance() throws UnsupportedPlatformException{
+    if(instance == null){
+      var arch = System.getProperty("os.arch");
+      var os = System.getProperty("os.name");
+
+      if(arch.equals("amd64")){
+        instance = new AMD64FastClock();
+      }
+      else if(arch.equals("aarch64") && os.equals("Linux")){
+        instance = new AArch64FastClock();
+      }
+      else{
+        throw new UnsupportedPlatformException(os + " " + arch + " is not supported");
+      }
+    }
+    return instance;
+  }
+
+}
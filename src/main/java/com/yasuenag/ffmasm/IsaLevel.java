@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import com.yasuenag.ffmasm.internal.amd64.CPUFeatures;
+
+
+/**
+ * ISA level which the kernel requires.
+ *
+ * Levels of AMD64 follow microarchitecture levels of x86-64 psABI.
+ * Later constant of the same architecture is a superset of earlier one.
+ *
+ * @author Yasumasa Suenaga
+ */
+public enum IsaLevel{
+
+  /**
+   * Baseline of AMD64 (SSE2).
+   */
+  X86_64("amd64"),
+
+  /**
+   * x86-64-v2: CMPXCHG16B, POPCNT, SSE3, SSSE3, SSE4.1, SSE4.2
+   */
+  X86_64_V2("amd64"),
+
+  /**
+   * x86-64-v3: AVX, AVX2, BMI1, BMI2, F16C, FMA, LZCNT, MOVBE
+   */
+  X86_64_V3("amd64"),
+
+  /**
+   * x86-64-v4: AVX512F, AVX512BW, AVX512CD, AVX512DQ, AVX512VL
+   */
+  X86_64_V4("amd64"),
+
+  /**
+   * Baseline of AArch64 (ARMv8-A).
+   */
+  AARCH64("aarch64");
+
+  private final String arch;
+
+  private IsaLevel(String arch){
+    this.arch = arch;
+  }
+
+  /**
+   * Get architecture of this level.
+   *
+   * @return value of <code>os.arch</code> system property for this level
+   */
+  public String arch(){
+    return arch;
+  }
+
+  /**
+   * Check whether the processor which runs this JVM supports this level.
+   *
+   * @return true if code for this level can run on this processor
+   */
+  public boolean isSupported(){
+    if(!arch.equals(System.getProperty("os.arch"))){
+      return false;
+    }
+    return switch(this){
+      case X86_64, AARCH64 -> true;
+      case X86_64_V2 -> CPUFeatures.supportX86_64V2();
+      case X86_64_V3 -> CPUFeatures.supportX86_64V3();
+      case X86_64_V4 -> CPUFeatures.supportX86_64V4();
+    };
+  }
+
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Cache of kernels which are specialized on the key.
+ *
+ * The kernel is generated by {@link Generator} at the first request for
+ * the key. Concurrent requests for the same key wait for one generation.
+ * Each kernel is placed in its own {@link CodeSegment}, and total bytes
+ * of code (sum of {@link CodeSegment.MethodInfo#size()}) is bounded.
+ * Least recently used kernels are evicted when the bound is exceeded.
+ *
+ * {@link Kernel#entry()} of each kernel is associated with shared Arena.
+ * Downcalls keep it alive while they are running, so evicted kernel is
+ * released when no thread is running in it. Kernels which are running
+ * at the eviction are released at later eviction, invalidation, or
+ * {@link #close()}. Calling released kernel throws IllegalStateException.
+ *
+ * @param <K> type of the key. It should implement equals() and hashCode().
+ *
+ * @author Yasumasa Suenaga
+ */
+public final class KernelCache<K> implements AutoCloseable{
+
+  /**
+   * Generator of the kernel.
+   *
+   * @param <K> type of the key
+   */
+  @FunctionalInterface
+  public static interface Generator<K>{
+
+    /**
+     * Generate the kernel for the key into given CodeSegment.
+     * Functions must be named via build(), getMemorySegment() or
+     * {@link Stencil#instantiate(CodeSegment, long...)} to be counted.
+     *
+     * @param seg CodeSegment for the kernel
+     * @param key key of the specialization
+     * @return MemorySegment of the entry of the kernel
+     * @throws Exception if the kernel cannot be generated.
+     */
+    public MemorySegment generate(CodeSegment seg, K key) throws Exception;
+
+  }
+
+  /**
+   * Kernel in the cache.
+   *
+   * @param <K> type of the key
+   * @param key key of the specialization
+   * @param entry MemorySegment of the entry of the kernel. Its scope is
+   *              closed when the kernel is released.
+   * @param methodHandle MethodHandle of the kernel
+   * @param codeBytes bytes of code in the CodeSegment of the kernel
+   */
+  public static record Kernel<K>(K key, MemorySegment entry, MethodHandle methodHandle, long codeBytes){}
+
+  private static record Generated<K>(Kernel<K> kernel, Arena arena){}
+
+  private final long maxCodeBytes;
+
+  private final long segmentSize;
+
+  private final FunctionDescriptor desc;
+
+  private final Generator<K> generator;
+
+  private final Linker.Option[] options;
+
+  // Iteration order is LRU. Guarded by this.
+  private final LinkedHashMap<K, CompletableFuture<Generated<K>>> kernels;
+
+  // Arenas of removed kernels which were running at the removal.
+  // Guarded by this.
+  private final List<Arena> retired;
+
+  // Guarded by this.
+  private long codeBytes;
+
+  // Guarded by this.
+  private boolean closed;
+
+  private final LongAdder hits;
+
+  private final LongAdder misses;
+
+  private final LongAdder evictions;
+
+  /**
+   * Create the cache. Each kernel is generated in CodeSegment with
+   * default size.
+   *
+   * @param maxCodeBytes upper bound of total bytes of code
+   * @param desc FunctionDescriptor of kernels
+   * @param generator generator of kernels
+   * @param options Linker options to pass to downcallHandle().
+   */
+  public KernelCache(long maxCodeBytes, FunctionDescriptor desc, Generator<K> generator, Linker.Option... options){
+    this(maxCodeBytes, CodeSegment.DEFAULT_CODE_SEGMENT_SIZE, desc, generator, options);
+  }
+
+  /**
+   * Create the cache.
+   *
+   * @param maxCodeBytes upper bound of total bytes of code
+   * @param segmentSize size of CodeSegment for each kernel
+   * @param desc FunctionDescriptor of kernels
+   * @param generator generator of kernels
+   * @param options Linker options to pass to downcallHandle().
+   * @throws IllegalArgumentException if maxCodeBytes or segmentSize is not positive.
+   */
+  public KernelCache(long maxCodeBytes, long segmentSize, FunctionDescriptor desc, Generator<K> generator, Linker.Option... options){
+    if(maxCodeBytes <= 0){
+      throw new IllegalArgumentException("maxCodeBytes must be positive: " + maxCodeBytes);
+    }
+    if(segmentSize <= 0){
+      throw new IllegalArgumentException("segmentSize must be positive: " + segmentSize);
+    }
+    this.maxCodeBytes = maxCodeBytes;
+    this.segmentSize = segmentSize;
+    this.desc = desc;
+    this.generator = generator;
+    this.options = options.clone();
+    this.kernels = new LinkedHashMap<>(16, 0.75f, true);
+    this.retired = new ArrayList<>();
+    this.codeBytes = 0L;
+    this.closed = false;
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.evictions = new LongAdder();
+  }
+
+  private Generated<K> generate(K key) throws Exception{
+    var seg = new CodeSegment(segmentSize);
+    MemorySegment code;
+    long bytes;
+    try{
+      code = generator.generate(seg, key);
+      bytes = seg.getMethodInfos()
+                 .stream()
+                 .mapToLong(CodeSegment.MethodInfo::size)
+                 .sum();
+    }
+    catch(Throwable t){
+      seg.close();
+      throw t;
+    }
+
+    // The segment is released when the arena is closed. Downcalls acquire
+    // the arena while they are running, so it cannot be closed under them.
+    var arena = Arena.ofShared();
+    var cleanup = new CodeSegment.CleanerAction(seg);
+    var entry = code.reinterpret(code.byteSize(), arena, s -> cleanup.run());
+    try{
+      var handle = DowncallHandleCache.downcallHandle(entry, desc, options);
+      return new Generated<>(new Kernel<>(key, entry, handle, bytes), arena);
+    }
+    catch(Throwable t){
+      arena.close();
+      throw t;
+    }
+  }
+
+  // Must be called with the lock of this instance.
+  private void releaseRetired(){
+    retired.removeIf(arena -> {
+      try{
+        arena.close();
+        return true;
+      }
+      catch(IllegalStateException e){
+        // The kernel is running.
+        return false;
+      }
+    });
+  }
+
+  // Must be called with the lock of this instance.
+  private void remove(CompletableFuture<Generated<K>> future){
+    var generated = future.join();
+    codeBytes -= generated.kernel().codeBytes();
+    retired.add(generated.arena());
+  }
+
+  // Must be called with the lock of this instance.
+  private void evict(CompletableFuture<Generated<K>> keep){
+    var itr = kernels.values().iterator();
+    while((codeBytes > maxCodeBytes) && itr.hasNext()){
+      var future = itr.next();
+      if((future == keep) || !future.isDone()){
+        continue;
+      }
+      itr.remove();
+      remove(future);
+      evictions.increment();
+    }
+    releaseRetired();
+  }
+
+  /**
+   * Get the kernel for the key. It is generated if it is not in the cache.
+   *
+   * @param key key of the specialization
+   * @return kernel for the key
+   * @throws RuntimeException if the generator fails. The cause is the exception from the generator.
+   * @throws IllegalStateException if this cache is closed.
+   */
+  public Kernel<K> get(K key){
+    CompletableFuture<Generated<K>> future;
+    boolean owner = false;
+    synchronized(this){
+      if(closed){
+        throw new IllegalStateException("KernelCache is closed.");
+      }
+      future = kernels.get(key);
+      if(future == null){
+        future = new CompletableFuture<>();
+        kernels.put(key, future);
+        owner = true;
+      }
+    }
+
+    if(owner){
+      misses.increment();
+      try{
+        var generated = generate(key);
+        synchronized(this){
+          if(kernels.get(key) == future){
+            codeBytes += generated.kernel().codeBytes();
+            evict(future);
+          }
+          else{
+            // Removed by close() during the generation
+            retired.add(generated.arena());
+            releaseRetired();
+          }
+        }
+        future.complete(generated);
+      }
+      catch(Throwable t){
+        synchronized(this){
+          kernels.remove(key, future);
+        }
+        future.completeExceptionally(t);
+      }
+    }
+    else{
+      hits.increment();
+    }
+
+    try{
+      return future.join().kernel();
+    }
+    catch(CompletionException e){
+      var cause = e.getCause();
+      throw (cause instanceof RuntimeException re) ? re : new RuntimeException(cause);
+    }
+  }
+
+  /**
+   * Remove the kernel for the key from the cache.
+   * It is released as evicted one.
+   *
+   * @param key key of the specialization
+   * @return true if the kernel is removed.
+   */
+  public synchronized boolean invalidate(K key){
+    var future = kernels.get(key);
+    if((future == null) || !future.isDone()){
+      return false;
+    }
+    kernels.remove(key);
+    remove(future);
+    releaseRetired();
+    return true;
+  }
+
+  /**
+   * Remove all kernels, and release them.
+   * This method can be called again to release kernels which were running
+   * at the previous call.
+   *
+   * @throws IllegalStateException if some kernels are running. They are
+   *                               released at the next call.
+   */
+  @Override
+  public synchronized void close(){
+    closed = true;
+    var itr = kernels.values().iterator();
+    while(itr.hasNext()){
+      var future = itr.next();
+      itr.remove();
+      if(future.isDone() && !future.isCompletedExceptionally()){
+        remove(future);
+      }
+    }
+    releaseRetired();
+    if(!retired.isEmpty()){
+      throw new IllegalStateException(retired.size() + " kernel(s) are running.");
+    }
+  }
+
+  /**
+   * Get the number of kernels in the cache.
+   *
+   * @return number of kernels
+   */
+  public synchronized int size(){
+    return kernels.size();
+  }
+
+  /**
+   * Get total bytes of code in the cache.
+   *
+   * @return bytes of code
+   */
+  public synchronized long getCodeBytes(){
+    return codeBytes;
+  }
+
+  /**
+   * Get the number of requests which hit the cache.
+   * Requests which wait for the generation by other thread are counted as hit.
+   *
+   * @return number of cache hits
+   */
+  public long getHitCount(){
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of requests which generate the kernel.
+   *
+   * @return number of cache misses
+   */
+  public long getMissCount(){
+    return misses.sum();
+  }
+
+  /**
+   * Get the number of evicted kernels.
+   *
+   * @return number of evictions
+   */
+  public long getEvictionCount(){
+    return evictions.sum();
+  }
+
+}
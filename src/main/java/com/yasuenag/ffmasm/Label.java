@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+
+/**
+ * Handle of the label in <code>AsmBuilder</code>.
+ * It is created by <code>AsmBuilder::newLabel</code>, and is valid in the
+ * function which is assembled at that time only.
+ * Unlike labels by name, branches to this label do not allocate any objects
+ * because references to the label are held in primitive arrays.
+ *
+ * @author Yasumasa Suenaga
+ */
+public final class Label{
+
+  // Token of the function which creates this label
+  private final Object owner;
+
+  private final int id;
+
+  Label(Object owner, int id){
+    this.owner = owner;
+    this.id = id;
+  }
+
+  /**
+   * Get ID of the label.
+   *
+   * @return ID of the label in the builder
+   */
+  public int id(){
+    return id;
+  }
+
+  boolean belongsTo(Object owner){
+    return this.owner == owner;
+  }
+
+  @Override
+  public String toString(){
+    return "Label[id=" + id + "]";
+  }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.concurrent.Callable;
+
+
+/**
+ * Factory of MethodHandles which assemble the kernel at the first call.
+ *
+ * Assembling and linking many kernels in static initializer costs
+ * startup time even if some of them are never used. MethodHandle from
+ * this class calls the factory (e.g. lambda which runs AsmBuilder) at the
+ * first invocation, then relinks its call site to the result. The call
+ * site is never changed after that, so JIT compiler treats the target
+ * as a constant and can inline it like a MethodHandle in static final
+ * field.
+ *
+ * The factory is called at most once if it succeeds. If it throws an
+ * exception, the exception is thrown to the caller, and the factory is
+ * called again at the next invocation.
+ *
+ * @author Yasumasa Suenaga
+ */
+public final class LazyKernel{
+
+  private static final MethodHandle LINK;
+
+  static{
+    try{
+      LINK = MethodHandles.lookup().findVirtual(LazyKernel.class, "link", MethodType.methodType(Object.class, Object[].class));
+    }
+    catch(NoSuchMethodException | IllegalAccessException e){
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final MutableCallSite site;
+
+  private Callable<MethodHandle> factory;
+
+  private volatile MethodHandle target;
+
+  private LazyKernel(MethodType type, Callable<MethodHandle> factory){
+    this.site = new MutableCallSite(type);
+    this.factory = factory;
+    this.target = null;
+    site.setTarget(LINK.bindTo(this)
+                       .asCollector(Object[].class, type.parameterCount())
+                       .asType(type));
+  }
+
+  private MethodHandle resolve() throws Exception{
+    var mh = target;
+    if(mh == null){
+      synchronized(this){
+        mh = target;
+        if(mh == null){
+          mh = factory.call();
+          checkArrayParameters(mh.type(), site.type());
+          mh = mh.asType(site.type());
+          site.setTarget(mh);
+          MutableCallSite.syncAll(new MutableCallSite[]{site});
+          target = mh;
+          factory = null; // Release resources which are captured by the factory
+        }
+      }
+    }
+    return mh;
+  }
+
+  // Array parameters (see AsmBuilder#setArrayParameter) cannot be adapted
+  // from MemorySegment, so tell the caller how to declare them.
+  private static void checkArrayParameters(MethodType actual, MethodType expected){
+    for(int i = 0; i < Math.min(actual.parameterCount(), expected.parameterCount()); i++){
+      if(actual.parameterType(i).isArray() && !actual.parameterType(i).equals(expected.parameterType(i))){
+        throw new IllegalArgumentException("Parameter " + i + " is " + actual.parameterType(i).getSimpleName() +
+                                           ", but declared as " + expected.parameterType(i).getSimpleName() +
+                                           ". Use of(MethodType, Callable) for array parameters.");
+      }
+    }
+  }
+
+  // Called only until the call site is relinked.
+  private Object link(Object[] args) throws Throwable{
+    return resolve().invokeWithArguments(args);
+  }
+
+  /**
+   * Create MethodHandle which calls the factory at the first invocation.
+   *
+   * @param type type of the MethodHandle
+   * @param factory factory of the MethodHandle. The result is adapted to
+   *                <code>type</code> via <code>asType()</code>.
+   *                Array parameters have to be declared with same array type in <code>type</code>.
+   * @return MethodHandle which has <code>type</code>
+   */
+  public static MethodHandle of(MethodType type, Callable<MethodHandle> factory){
+    return new LazyKernel(type, factory).site.dynamicInvoker();
+  }
+
+  /**
+   * Create MethodHandle which calls the factory at the first invocation.
+   * The type of the MethodHandle is derived from FunctionDescriptor as
+   * downcall handle, so address parameters are <code>MemorySegment</code>.
+   * If the factory uses {@link AsmBuilder#setArrayParameter(int, Class)},
+   * use {@link #of(MethodType, Callable)} with the array type instead.
+   *
+   * @param desc FunctionDescriptor of the kernel
+   * @param factory factory of the MethodHandle (e.g. <code>() -&gt; new AsmBuilder.AMD64(seg, desc)...build()</code>)
+   * @return MethodHandle for the kernel. It throws IllegalArgumentException
+   *         at the first invocation if the factory returns the handle
+   *         which has array parameter.
+   */
+  public static MethodHandle of(FunctionDescriptor desc, Callable<MethodHandle> factory){
+    return of(desc.toMethodType(), factory);
+  }
+
+}
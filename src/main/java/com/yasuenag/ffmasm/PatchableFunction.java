@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+
+import com.yasuenag.ffmasm.internal.aarch64.AArch64PatchableFunction;
+import com.yasuenag.ffmasm.internal.amd64.AMD64PatchableFunction;
+
+
+/**
+ * Function whose implementation can be swapped while it is running.
+ *
+ * This class places small entry stub into {@link CodeSegment}, and it
+ * jumps to the implementation directly. {@link #patch(MemorySegment)}
+ * rewrites the jump atomically, so callers can keep one MethodHandle (or
+ * the address of the entry) while the implementation is replaced with
+ * re-specialized one. The cost of the call is one direct jump.
+ *
+ * On AMD64, the entry is <code>jmp rel32</code> in aligned 8 bytes word,
+ * and the word is replaced with one locked store. So other processors see
+ * either old or new instruction, but never see torn one. If the distance
+ * to the implementation exceeds rel32, it falls back to
+ * <code>jmp *slot(%rip)</code>.
+ * On AArch64, the entry is <code>B</code> instruction which is allowed to
+ * be modified concurrently by the architecture. Instruction cache is
+ * synchronized with <code>DC CVAU</code>, <code>IC IVAU</code> and
+ * <code>ISB</code> after the store. If the distance exceeds 128MB, it
+ * falls back to <code>NOP</code> + <code>LDR</code> + <code>BR</code>.
+ *
+ * Threads which are running in old implementation are not stopped by the
+ * patch. So old implementation must be kept until those calls finish.
+ *
+ * @author Yasumasa Suenaga
+ */
+public abstract class PatchableFunction{
+
+  private final MemorySegment entry;
+
+  private MemorySegment target;
+
+  // Set by create() or AsmBuilder
+  MethodHandle handle;
+
+  /**
+   * Allocate the entry stub from the tail of CodeSegment.
+   *
+   * @param seg CodeSegment to store the entry
+   * @param name name of the entry in CodeSegment
+   * @param size size of the entry
+   * @throws IllegalStateException if CodeSegment does not have enough space.
+   */
+  protected PatchableFunction(CodeSegment seg, String name, int size){
+    seg.alignTo(seg.getFunctionAlignment());
+    var mem = seg.getTailOfMemorySegment();
+    if(mem.byteSize() < size){
+      throw new IllegalStateException("CodeSegment is full.");
+    }
+    this.entry = mem.asSlice(0, size);
+    seg.incTail(size);
+    seg.addMethodInfo(name, entry.address(), size);
+  }
+
+  /**
+   * Rewrite the jump in the entry to the target.
+   * This method is called with the lock of this instance.
+   *
+   * @param entry MemorySegment of the entry stub
+   * @param target address of new implementation
+   */
+  protected abstract void writeJump(MemorySegment entry, long target);
+
+  static PatchableFunction newInstance(CodeSegment seg, String name, MemorySegment target) throws UnsupportedPlatformException{
+    var arch = System.getProperty("os.arch");
+    var os = System.getProperty("os.name");
+
+    PatchableFunction func;
+    if(arch.equals("amd64")){
+      func = new AMD64PatchableFunction(seg, name);
+    }
+    else if(arch.equals("aarch64") && os.equals("Linux")){
+      func = new AArch64PatchableFunction(seg, name);
+    }
+    else{
+      throw new UnsupportedPlatformException(os + " " + arch + " is not supported");
+    }
+
+    func.patch(target);
+    return func;
+  }
+
+  /**
+   * Create patchable function which jumps to the target.
+   * The entry is placed into given CodeSegment.
+   *
+   * @param seg CodeSegment to store the entry
+   * @param name name of the entry in CodeSegment
+   * @param target address of the implementation. It might be assembled by ffmasm.
+   * @param desc FunctionDescriptor of the function
+   * @param options Linker options to pass to downcallHandle().
+   * @return PatchableFunction instance
+   * @throws UnsupportedPlatformException when this method is called on unsupported platform.
+   * @throws IllegalStateException if CodeSegment does not have enough space.
+   */
+  public static PatchableFunction create(CodeSegment seg, String name, MemorySegment target, FunctionDescriptor desc, Linker.Option... options) throws UnsupportedPlatformException{
+    var func = newInstance(seg, name, target);
+    func.handle = DowncallHandleCache.downcallHandle(func.entry, desc, options);
+    return func;
+  }
+
+  /**
+   * Get MethodHandle which calls the entry.
+   * It is not changed by {@link #patch(MemorySegment)}.
+   *
+   * @return MethodHandle of this function
+   */
+  public MethodHandle getMethodHandle(){
+    return handle;
+  }
+
+  /**
+   * Get MemorySegment of the entry. Native code can call it directly.
+   *
+   * @return MemorySegment of the entry
+   */
+  public MemorySegment getEntry(){
+    return entry;
+  }
+
+  /**
+   * Get current implementation.
+   *
+   * @return address of current implementation
+   */
+  public synchronized MemorySegment getTarget(){
+    return target;
+  }
+
+  /**
+   * Swap the implementation.
+   * Calls which enter after this method returns reach to new one.
+   *
+   * @param newTarget address of new implementation
+   * @return address of old implementation. It must be kept until running calls in it finish.
+   */
+  public synchronized MemorySegment patch(MemorySegment newTarget){
+    var old = target;
+    writeJump(entry, newTarget.address());
+    target = newTarget;
+    return old;
+  }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Declares a variant of the kernel which is assembled at build time.
+ *
+ * Annotated method must be <code>public static</code>, must receive
+ * {@link CodeSegment}, and must return {@link Stencil} which is built via
+ * {@link AsmBuilder#buildStencil(String)}. The kernel can have variants
+ * for each {@link IsaLevel} with same name.
+ * <pre>
+ * &#64;PrecompiledKernel(name = "sum", isa = IsaLevel.X86_64_V3)
+ * public static Stencil sumAVX2(CodeSegment seg) throws UnsupportedPlatformException{
+ *   return new AsmBuilder.AVX(seg, desc)
+ *            ...
+ *            .buildStencil("sum");
+ * }
+ * </pre>
+ *
+ * @author Yasumasa Suenaga
+ * @see PrecompiledKernels
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface PrecompiledKernel{
+
+  /**
+   * Name of the kernel.
+   *
+   * @return name of the kernel
+   */
+  String name();
+
+  /**
+   * ISA level which the code requires.
+   *
+   * @return ISA level of this variant
+   */
+  IsaLevel isa();
+
+}
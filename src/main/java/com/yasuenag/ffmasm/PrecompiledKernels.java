@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Loader of kernels which are assembled at build time.
+ *
+ * Kernels are declared with {@link PrecompiledKernel}. {@link #main(String[])}
+ * runs them at build time (e.g. <code>process-classes</code> phase via
+ * exec-maven-plugin), and stores results as resources under
+ * <code>META-INF/ffmasm/</code>. Then {@link #load(Class, String, CodeSegment, FunctionDescriptor)}
+ * just reads the stencil of the best ISA level which the processor
+ * supports. If the resource is not found (e.g. the class is not
+ * precompiled, or the build machine is different architecture), the
+ * annotated method is called at runtime instead.
+ *
+ * @author Yasumasa Suenaga
+ */
+public final class PrecompiledKernels{
+
+  private static final String RESOURCE_ROOT = "META-INF/ffmasm/";
+
+  private PrecompiledKernels(){
+    // Do not instantiate
+  }
+
+  static String resourceName(Class<?> library, Method method){
+    return RESOURCE_ROOT + library.getName() + "/" + method.getName() + ".stencil";
+  }
+
+  private static void checkMethod(Method method){
+    int modifiers = method.getModifiers();
+    if(!Modifier.isPublic(modifiers) || !Modifier.isStatic(modifiers) ||
+       !Arrays.equals(method.getParameterTypes(), new Class<?>[]{CodeSegment.class}) ||
+       (method.getReturnType() != Stencil.class)){
+      throw new IllegalArgumentException("Kernel must be \"public static Stencil " + method.getName() + "(CodeSegment)\": " + method);
+    }
+  }
+
+  // Variants in descending order of ISA level.
+  // All variants in the class are returned if the name is null.
+  private static List<Method> variants(Class<?> library, String name){
+    var result = new ArrayList<Method>();
+    for(var method : library.getDeclaredMethods()){
+      var kernel = method.getAnnotation(PrecompiledKernel.class);
+      if((kernel != null) && ((name == null) || kernel.name().equals(name))){
+        checkMethod(method);
+        result.add(method);
+      }
+    }
+    result.sort(Comparator.comparing((Method m) -> m.getAnnotation(PrecompiledKernel.class).isa()).reversed());
+    return result;
+  }
+
+  private static Stencil assemble(Method method, CodeSegment seg){
+    try{
+      return (Stencil)method.invoke(null, seg);
+    }
+    catch(InvocationTargetException e){
+      throw new RuntimeException(e.getCause());
+    }
+    catch(IllegalAccessException e){
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Load the stencil of the kernel for the best ISA level which this
+   * processor supports.
+   *
+   * @param library class which declares the kernel
+   * @param name name of the kernel in {@link PrecompiledKernel}
+   * @param seg CodeSegment for the runtime assembly. It is used only if the
+   *            precompiled resource is not available.
+   * @param desc FunctionDescriptor of the kernel
+   * @return Stencil of the kernel
+   * @throws IllegalArgumentException if the kernel is not declared, or
+   *                                  the annotated method is invalid.
+   * @throws UnsupportedPlatformException if no variant supports this processor.
+   */
+  public static Stencil load(Class<?> library, String name, CodeSegment seg, FunctionDescriptor desc) throws UnsupportedPlatformException{
+    var candidates = variants(library, name);
+    if(candidates.isEmpty()){
+      throw new IllegalArgumentException("Kernel is not declared in " + library.getName() + ": " + name);
+    }
+
+    for(var method : candidates){
+      if(!method.getAnnotation(PrecompiledKernel.class).isa().isSupported()){
+        continue;
+      }
+      try(InputStream in = library.getResourceAsStream("/" + resourceName(library, method))){
+        if(in != null){
+          return Stencil.readFrom(in, desc);
+        }
+      }
+      catch(IOException e){
+        // Fall back to the runtime assembly if the resource is broken,
+        // or it is built for other architecture.
+      }
+      return assemble(method, seg).withDescriptor(desc);
+    }
+
+    throw new UnsupportedPlatformException("No variant of " + name + " is supported on " + System.getProperty("os.arch"));
+  }
+
+  /**
+   * Load the kernel, and instantiate it as a MethodHandle.
+   *
+   * @param library class which declares the kernel
+   * @param name name of the kernel in {@link PrecompiledKernel}
+   * @param seg CodeSegment to store the kernel
+   * @param desc FunctionDescriptor of the kernel
+   * @param values values of holes in order of {@link Stencil#getHoleNames()}
+   * @param options Linker options to pass to downcallHandle().
+   * @return MethodHandle of the kernel
+   * @throws IllegalArgumentException if the kernel is not declared, the
+   *                                  annotated method is invalid, or values
+   *                                  are not matched with holes.
+   * @throws UnsupportedPlatformException if no variant supports this processor.
+   * @throws IllegalStateException if CodeSegment does not have enough space.
+   */
+  public static MethodHandle build(Class<?> library, String name, CodeSegment seg, FunctionDescriptor desc, long[] values, Linker.Option... options) throws UnsupportedPlatformException{
+    return load(library, name, seg, desc).build(seg, values, options);
+  }
+
+  /**
+   * Assemble all kernels in the class for this architecture, and write
+   * them to the output directory as resources.
+   * Variants for other architectures are skipped. Variants of all ISA
+   * levels of this architecture are assembled even if this processor does
+   * not support them because they are not executed.
+   *
+   * @param library class which declares kernels
+   * @param outputDir root of resources (e.g. <code>target/classes</code>)
+   * @return paths of written resources
+   * @throws Exception if I/O error occurs, or CodeSegment cannot be allocated.
+   * @throws IllegalArgumentException if the annotated method is invalid.
+   */
+  public static List<Path> precompile(Class<?> library, Path outputDir) throws Exception{
+    var arch = System.getProperty("os.arch");
+    var written = new ArrayList<Path>();
+    try(var seg = new CodeSegment()){
+      for(var method : variants(library, null)){
+        if(!method.getAnnotation(PrecompiledKernel.class).isa().arch().equals(arch)){
+          continue;
+        }
+        var stencil = assemble(method, seg);
+        var path = outputDir.resolve(resourceName(library, method));
+        Files.createDirectories(path.getParent());
+        try(var out = Files.newOutputStream(path)){
+          stencil.writeTo(out);
+        }
+        written.add(path);
+      }
+    }
+    return written;
+  }
+
+  /**
+   * Entry point to precompile kernels at build time.
+   * <pre>
+   * java -cp &lt;classpath&gt; com.yasuenag.ffmasm.PrecompiledKernels &lt;output dir&gt; &lt;class&gt;...
+   * </pre>
+   *
+   * @param args output directory, and binary names of classes which declare kernels
+   * @throws Exception if the class is not found, or the assembly fails.
+   */
+  public static void main(String[] args) throws Exception{
+    if(args.length < 2){
+      System.err.println("Usage: java com.yasuenag.ffmasm.PrecompiledKernels <output dir> <class>...");
+      System.exit(1);
+    }
+
+    var outputDir = Path.of(args[0]);
+    var loader = Thread.currentThread().getContextClassLoader();
+    for(int i = 1; i < args.length; i++){
+      for(var path : precompile(Class.forName(args[i], true, loader), outputDir)){
+        System.out.println("Precompiled: " + path);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+
+import com.yasuenag.ffmasm.internal.amd64.AMD64SpinWait;
+import com.yasuenag.ffmasm.internal.aarch64.AArch64SpinWait;
+
+
+/**
+ * Timed spin-wait on off-heap flag.
+ *
+ * This class waits until 32 bit value in <code>MemorySegment</code> is
+ * changed to expected value, or tick counter of {@link FastClock} reaches
+ * to the deadline. Waiting loop is assembled by ffmasm.
+ *
+ * On AMD64, the loop uses <code>UMONITOR</code> / <code>UMWAIT</code> if
+ * the processor supports WAITPKG, otherwise it uses <code>PAUSE</code>.
+ * On AArch64, the loop arms exclusive monitor with <code>LDAXR</code> and
+ * waits with <code>WFE</code>, so it would be woken up by the store to the
+ * flag from another thread.
+ *
+ * The stub is called without critical option, so the caller thread is in
+ * native state during waiting. It means the wait does not block safepoint.
+ *
+ * You need to get instance of this class from {@link #getInstance()}.
+ *
+ * @author Yasumasa Suenaga
+ */
+public abstract class SpinWait{
+
+  private static final VarHandle intHandle = ValueLayout.JAVA_INT.varHandle();
+
+  private static SpinWait instance;
+
+  private final FastClock clock;
+
+  protected SpinWait(FastClock clock){
+    this.clock = clock;
+  }
+
+  /**
+   * Wait until 32 bit value at <code>addr</code> equals to
+   * <code>expected</code>, or tick counter reaches to <code>deadline</code>.
+   *
+   * @param addr Address of the flag. It should be aligned to 4 bytes.
+   * @param expected Value to wait for
+   * @param deadline Deadline in ticks of {@link FastClock#ticks()}
+   * @return true if the value equals to expected, false if the deadline passed.
+   */
+  public abstract boolean await(MemorySegment addr, int expected, long deadline);
+
+  /**
+   * Wait until 32 bit value at <code>addr</code> equals to
+   * <code>expected</code>, or timeout elapsed.
+   *
+   * @param addr Address of the flag. It should be aligned to 4 bytes.
+   * @param expected Value to wait for
+   * @param timeout Timeout
+   * @param unit Time unit of timeout
+   * @return true if the value equals to expected, false if the timeout elapsed.
+   *         The deadline saturates if the timeout is too long to represent
+   *         in ticks, and negative timeout is treated as zero.
+   */
+  public boolean await(MemorySegment addr, int expected, long timeout, TimeUnit unit){
+    long ticks = Math.max(0L, clock.nanosToTicks(unit.toNanos(timeout)));
+    long deadline;
+    try{
+      deadline = Math.addExact(clock.ticks(), ticks);
+    }
+    catch(ArithmeticException e){
+      deadline = Long.MAX_VALUE;
+    }
+    return await(addr, expected, deadline);
+  }
+
+  /**
+   * Set 32 bit value to <code>addr</code> with volatile semantics to wake
+   * up the waiter.
+   *
+   * @param addr Address of the flag.
+   * @param value Value to set
+   */
+  public static void signal(MemorySegment addr, int value){
+    intHandle.setVolatile(addr, 0L, value);
+  }
+
+  /**
+   * Get instance of SpinWait.
+   * Stub would be assembled at the first call.
+   *
+   * @return SpinWait instance
+   * @throws UnsupportedPlatformException when this method is called on unsupported platform.
+   */
+  public static synchronized SpinWait getInstance() throws UnsupportedPlatformException{
+    if(instance == null){
+      var arch = System.getProperty("os.arch");
+      var os = System.getProperty("os.name");
+      var clock = FastClock.getInstance();
+
+      if(arch.equals("amd64")){
+        instance = new AMD64SpinWait(clock);
+      }
+      else if(arch.equals("aarch64") && os.equals("Linux")){
+        instance = new AArch64SpinWait(clock);
+      }
+      else{
+        throw new UnsupportedPlatformException(os + " " + arch + " is not supported");
+      }
+    }
+    return instance;
+  }
+
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Template of the function which has holes (copy-and-patch).
+ *
+ * Stencil is built via {@link AsmBuilder#buildStencil(String)}, and holes
+ * are declared via {@link AsmBuilder#hole(String, Hole)} while the code is
+ * assembled. {@link #instantiate(CodeSegment, long...)} copies the code
+ * into CodeSegment, then patches holes with given values. It is much
+ * faster than assembling the function with the builder again, so it is
+ * suitable to generate many functions which differ in immediates,
+ * displacements or call targets only.
+ *
+ * Instances are placed with the function alignment of CodeSegment. Code
+ * which depends on the address (e.g. alignment of loops) is kept if it is
+ * same as the segment where the stencil is built.
+ *
+ * Stencil can be serialized via {@link #writeTo(OutputStream)} because
+ * holes are all of relocations in the code. It is used to embed kernels
+ * which are assembled at build time as resources.
+ *
+ * @author Yasumasa Suenaga
+ */
+public final class Stencil{
+
+  /**
+   * Kind of the hole.
+   */
+  public static enum Hole{
+
+    /**
+     * 32 bit immediate (AMD64). Value must be representable as signed or unsigned 32 bit.
+     */
+    IMM32(4),
+
+    /**
+     * 64 bit immediate (e.g. MOV r64, imm64 on AMD64), or 64 bit data.
+     */
+    IMM64(8),
+
+    /**
+     * 32 bit signed displacement of memory operand (AMD64).
+     */
+    DISP32(4),
+
+    /**
+     * rel32 of JMP, Jcc or CALL (AMD64). Value is absolute address of the target.
+     */
+    REL32(4),
+
+    /**
+     * imm16 of MOVZ / MOVK (AArch64). 16 bits of the value which is selected
+     * by the shift of the instruction is patched, so sequence of MOVZ / MOVK
+     * can share one hole name for 64 bit value.
+     */
+    MOVW16(4),
+
+    /**
+     * imm26 of B / BL (AArch64). Value is absolute address of the target.
+     */
+    BRANCH26(4);
+
+    private final int size;
+
+    private Hole(int size){
+      this.size = size;
+    }
+
+    /**
+     * Size of the field which includes the hole.
+     *
+     * @return number of bytes
+     */
+    public int size(){
+      return size;
+    }
+
+  }
+
+  static record HoleInfo(String name, Hole kind, int position){}
+
+  // "FFMS"
+  private static final int MAGIC = 0x46464d53;
+
+  private static final int VERSION = 1;
+
+  private final String name;
+
+  private final MemorySegment code;
+
+  private final HoleInfo[] holes;
+
+  // Index of the value for each hole
+  private final int[] valueIndices;
+
+  private final List<String> holeNames;
+
+  private final FunctionDescriptor desc;
+
+  private final Class<?>[] arrayParameters;
+
+  Stencil(String name, byte[] code, List<HoleInfo> holes, FunctionDescriptor desc, Class<?>[] arrayParameters){
+    this.name = name;
+    this.code = MemorySegment.ofArray(code);
+    this.holes = holes.toArray(new HoleInfo[0]);
+    this.valueIndices = new int[this.holes.length];
+    var names = new ArrayList<String>();
+    for(int i = 0; i < this.holes.length; i++){
+      int idx = names.indexOf(this.holes[i].name());
+      if(idx == -1){
+        idx = names.size();
+        names.add(this.holes[i].name());
+      }
+      valueIndices[i] = idx;
+    }
+    this.holeNames = List.copyOf(names);
+    this.desc = desc;
+    this.arrayParameters = arrayParameters == null ? null : arrayParameters.clone();
+  }
+
+  /**
+   * Create new Stencil which shares the code with this stencil, but
+   * has another FunctionDescriptor.
+   */
+  Stencil withDescriptor(FunctionDescriptor desc){
+    return new Stencil(name, code.toArray(ValueLayout.JAVA_BYTE), List.of(holes), desc, arrayParameters);
+  }
+
+  /**
+   * Get names of holes in order of values which should be passed to
+   * {@link #instantiate(CodeSegment, long...)}.
+   *
+   * @return names of holes in order of the declaration
+   */
+  public List<String> getHoleNames(){
+    return holeNames;
+  }
+
+  /**
+   * Get size of the code.
+   *
+   * @return size of the code in bytes
+   */
+  public int size(){
+    return (int)code.byteSize();
+  }
+
+  private static void checkRange(Hole kind, long value, long min, long max){
+    if((value < min) || (value > max)){
+      throw new IllegalArgumentException("Value is out of range of " + kind + ": " + value);
+    }
+  }
+
+  private static void patch(MemorySegment mem, Hole kind, long offset, long value){
+    switch(kind){
+      case IMM32 -> {
+        checkRange(kind, value, Integer.MIN_VALUE, 0xffffffffL);
+        mem.set(ValueLayout.JAVA_INT_UNALIGNED, offset, (int)value);
+      }
+      case IMM64 -> mem.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, value);
+      case DISP32 -> {
+        checkRange(kind, value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        mem.set(ValueLayout.JAVA_INT_UNALIGNED, offset, (int)value);
+      }
+      case REL32 -> {
+        long rel = value - (mem.address() + offset + 4); // from the end of the instruction
+        checkRange(kind, rel, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        mem.set(ValueLayout.JAVA_INT_UNALIGNED, offset, (int)rel);
+      }
+      case MOVW16 -> {
+        int insn = mem.get(ValueLayout.JAVA_INT_UNALIGNED, offset);
+        int hw = (insn >>> 21) & 0b11;
+        int imm = (int)(value >>> (hw * 16)) & 0xffff;
+        mem.set(ValueLayout.JAVA_INT_UNALIGNED, offset, (insn & ~(0xffff << 5)) | (imm << 5));
+      }
+      case BRANCH26 -> {
+        long rel = value - (mem.address() + offset);
+        checkRange(kind, rel, -(1L << 27), (1L << 27) - 1);
+        if((rel & 0b11) != 0){
+          throw new IllegalArgumentException("Branch target must be aligned to 4 bytes: " + value);
+        }
+        int insn = mem.get(ValueLayout.JAVA_INT_UNALIGNED, offset);
+        mem.set(ValueLayout.JAVA_INT_UNALIGNED, offset, (insn & 0xfc000000) | (int)((rel >> 2) & 0x3ffffff));
+      }
+    }
+  }
+
+  /**
+   * Instantiate new function from this stencil.
+   *
+   * @param seg CodeSegment to store the function
+   * @param values values of holes in order of {@link #getHoleNames()}
+   * @return MemorySegment of new function
+   * @throws IllegalArgumentException if the number of values is not matched, or the value is out of range of the hole.
+   * @throws IllegalStateException if CodeSegment does not have enough space.
+   */
+  public MemorySegment instantiate(CodeSegment seg, long... values){
+    if(values.length != holeNames.size()){
+      throw new IllegalArgumentException("Number of values must be " + holeNames.size() + ": " + values.length);
+    }
+
+    MemorySegment mem;
+    long size = code.byteSize();
+    synchronized(seg){
+      seg.alignTo(seg.getFunctionAlignment());
+      var tail = seg.getTailOfMemorySegment();
+      if(tail.byteSize() < size){
+        throw new IllegalStateException("CodeSegment is full.");
+      }
+      mem = tail.asSlice(0, size);
+      MemorySegment.copy(code, 0, mem, 0, size);
+      // The tail is not moved if the value is invalid.
+      for(int i = 0; i < holes.length; i++){
+        patch(mem, holes[i].kind(), holes[i].position(), values[valueIndices[i]]);
+      }
+      seg.incTail(size);
+    }
+    seg.addMethodInfo(name, mem.address(), (int)size);
+    return mem;
+  }
+
+  /**
+   * Instantiate new function from this stencil as a MethodHandle.
+   * Downcall stub is shared via {@link DowncallHandleCache}.
+   *
+   * @param seg CodeSegment to store the function
+   * @param values values of holes in order of {@link #getHoleNames()}
+   * @param options Linker options to pass to downcallHandle().
+   * @return MethodHandle of new function
+   * @throws IllegalArgumentException if the number of values is not matched, or the value is out of range of the hole.
+   * @throws IllegalStateException if CodeSegment does not have enough space.
+   */
+  public MethodHandle build(CodeSegment seg, long[] values, Linker.Option... options){
+    return AsmBuilder.downcallHandle(instantiate(seg, values), desc, arrayParameters, options);
+  }
+
+  /**
+   * Write this stencil to the stream.
+   * FunctionDescriptor is not written, so it should be passed to
+   * {@link #readFrom(InputStream, FunctionDescriptor)}.
+   *
+   * @param out stream to write
+   * @throws IOException if I/O error occurs.
+   */
+  public void writeTo(OutputStream out) throws IOException{
+    var dout = new DataOutputStream(out);
+    dout.writeInt(MAGIC);
+    dout.writeInt(VERSION);
+    dout.writeUTF(System.getProperty("os.arch"));
+    dout.writeUTF(name);
+    dout.writeInt((int)code.byteSize());
+    dout.write(code.toArray(ValueLayout.JAVA_BYTE));
+    dout.writeInt(holes.length);
+    for(var hole : holes){
+      dout.writeUTF(hole.name());
+      dout.writeUTF(hole.kind().name());
+      dout.writeInt(hole.position());
+    }
+    if(arrayParameters == null){
+      dout.writeInt(-1);
+    }
+    else{
+      dout.writeInt(arrayParameters.length);
+      for(var param : arrayParameters){
+        dout.writeUTF(param == null ? "" : param.getName()); // "" means the parameter is not an array
+      }
+    }
+    dout.flush();
+  }
+
+  /**
+   * Read the stencil which is written by {@link #writeTo(OutputStream)}.
+   *
+   * @param in stream to read
+   * @param desc FunctionDescriptor of functions which are instantiated from the stencil
+   * @return Stencil
+   * @throws IOException if I/O error occurs, the stream is not a stencil,
+   *                     or the stencil is built for other architecture.
+   */
+  public static Stencil readFrom(InputStream in, FunctionDescriptor desc) throws IOException{
+    var din = new DataInputStream(in);
+    if(din.readInt() != MAGIC){
+      throw new IOException("Not a stencil");
+    }
+    int version = din.readInt();
+    if(version != VERSION){
+      throw new IOException("Unsupported stencil version: " + version);
+    }
+    var arch = din.readUTF();
+    if(!arch.equals(System.getProperty("os.arch"))){
+      throw new IOException("Stencil for " + arch + " cannot be loaded on " + System.getProperty("os.arch"));
+    }
+    var name = din.readUTF();
+    var code = new byte[din.readInt()];
+    din.readFully(code);
+    int numHoles = din.readInt();
+    var holes = new ArrayList<HoleInfo>(numHoles);
+    for(int i = 0; i < numHoles; i++){
+      var holeName = din.readUTF();
+      var kindName = din.readUTF();
+      int position = din.readInt();
+      Hole kind;
+      try{
+        kind = Hole.valueOf(kindName);
+      }
+      catch(IllegalArgumentException e){
+        throw new IOException("Unknown hole kind: " + kindName, e);
+      }
+      if((position < 0) || (position + kind.size() > code.length)){
+        throw new IOException("Hole is out of the code: " + holeName);
+      }
+      holes.add(new HoleInfo(holeName, kind, position));
+    }
+    Class<?>[] arrayParameters = null;
+    int numArrayParams = din.readInt();
+    if(numArrayParams >= 0){
+      arrayParameters = new Class<?>[numArrayParams];
+      for(int i = 0; i < numArrayParams; i++){
+        var className = din.readUTF();
+        if(className.isEmpty()){
+          continue;
+        }
+        try{
+          arrayParameters[i] = Class.forName(className);
+        }
+        catch(ClassNotFoundException e){
+          throw new IOException("Unknown parameter type: " + className, e);
+        }
+      }
+    }
+    return new Stencil(name, code, holes, desc, arrayParameters);
+  }
+
+}
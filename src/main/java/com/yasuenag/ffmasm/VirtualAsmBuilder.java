@@ -0,0 +1,596 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.yasuenag.ffmasm.internal.LinearScanAllocator;
+import com.yasuenag.ffmasm.internal.PeepholeOptimizer;
+import com.yasuenag.ffmasm.internal.VirtualBackend;
+import com.yasuenag.ffmasm.internal.VirtualInsn;
+import com.yasuenag.ffmasm.internal.aarch64.AArch64VirtualBackend;
+import com.yasuenag.ffmasm.internal.amd64.AMD64VirtualBackend;
+
+
+/**
+ * Platform independent assembler on virtual registers.
+ *
+ * Instructions refer {@link VirtualRegister}s instead of physical
+ * registers. When the function is built, physical registers are assigned
+ * by linear scan register allocator with liveness analysis. Caller-saved
+ * registers are preferred, callee-saved registers are saved in the
+ * prologue only if they are assigned, and values which cannot be held
+ * in registers are spilled to the stack. So the same description of the
+ * kernel can be built on AMD64 (Linux / Windows) and AArch64 (Linux).
+ *
+ * Instructions are recorded, and peephole optimizer is applied before
+ * register allocation. So code generators can emit naive templates.
+ * Rules can be chosen with {@link #setPeepholeRules(Peephole...)}.
+ *
+ * Arguments of the function have to be integer or pointer values which
+ * are passed via registers. Memory operands are 8 bytes for GPR and
+ * 16 bytes for vector register, and the displacement has to be multiple
+ * of the operand size, and less than 4096 times of it.
+ * The function can be built only once.
+ *
+ * @author Yasumasa Suenaga
+ */
+public final class VirtualAsmBuilder{
+
+  /**
+   * Report of register allocation.
+   *
+   * @param maxGPRPressure maximum number of GPRs which are live at the same time
+   * @param maxVectorPressure maximum number of vector registers which are live at the same time
+   * @param spilledRegisters number of virtual registers which are spilled to the stack
+   * @param spillAreaSize size of the spill area in bytes
+   * @param calleeSavedRegisters callee-saved registers which are saved in the prologue
+   * @param assignments physical register or spill slot which is assigned to each virtual register
+   */
+  public static record AllocationReport(int maxGPRPressure,
+                                        int maxVectorPressure,
+                                        int spilledRegisters,
+                                        int spillAreaSize,
+                                        List<String> calleeSavedRegisters,
+                                        Map<VirtualRegister, String> assignments){}
+
+  /**
+   * Rules of peephole optimizer.
+   */
+  public static enum Peephole{
+
+    /**
+     * Remove the move to itself.
+     */
+    REDUNDANT_MOVE,
+
+    /**
+     * Remove addition and subtraction of zero.
+     */
+    ZERO_IMMEDIATE,
+
+    /**
+     * Replace the load just after the store to the same address with the move.
+     */
+    STORE_TO_LOAD,
+
+    /**
+     * Replace the comparison with the register which always holds zero
+     * with zero test (TEST + Jcc on AMD64, CBZ / CBNZ on AArch64).
+     * The register is regarded as zero if it is defined only once by
+     * <code>movImm(reg, 0)</code>.
+     */
+    COMPARE_WITH_ZERO,
+
+    /**
+     * Remove the jump to the label which is bound just after it.
+     */
+    JUMP_TO_NEXT
+
+  }
+
+  private static final int MAX_IMM12 = 4095;
+
+  private final CodeSegment seg;
+
+  private final FunctionDescriptor desc;
+
+  private final VirtualBackend backend;
+
+  private final List<VirtualInsn> insns;
+
+  private final List<VirtualRegister> regs;
+
+  private final VirtualRegister[] args;
+
+  private final List<Boolean> boundLabels;
+
+  private final Set<Peephole> peepholeRules;
+
+  private AsmBuilder<?> built;
+
+  private AllocationReport report;
+
+  private Map<Peephole, Integer> peepholeReport;
+
+  /**
+   * Constructor.
+   *
+   * @param seg CodeSegment to store the function
+   * @param desc FunctionDescriptor of the function
+   * @throws UnsupportedPlatformException if the platform is not supported.
+   * @throws IllegalArgumentException if the function has arguments which are not integer / pointer, or are not passed via registers.
+   */
+  public VirtualAsmBuilder(CodeSegment seg, FunctionDescriptor desc) throws UnsupportedPlatformException{
+    var arch = System.getProperty("os.arch");
+    var os = System.getProperty("os.name");
+    if(arch.equals("amd64")){
+      backend = new AMD64VirtualBackend(desc);
+    }
+    else if(arch.equals("aarch64") && os.equals("Linux")){
+      backend = new AArch64VirtualBackend(desc);
+    }
+    else{
+      throw new UnsupportedPlatformException(os + " " + arch + " is not supported");
+    }
+
+    this.seg = seg;
+    this.desc = desc;
+    this.insns = new ArrayList<>();
+    this.regs = new ArrayList<>();
+    this.boundLabels = new ArrayList<>();
+    this.peepholeRules = EnumSet.allOf(Peephole.class);
+
+    var layouts = desc.argumentLayouts();
+    this.args = new VirtualRegister[layouts.size()];
+    for(int i = 0; i < args.length; i++){
+      if(!(layouts.get(i) instanceof ValueLayout vl) || (vl.carrier() == float.class) || (vl.carrier() == double.class)){
+        throw new IllegalArgumentException("Unsupported argument: " + layouts.get(i));
+      }
+      if(backend.argumentRegister(i).isEmpty()){
+        throw new IllegalArgumentException("Argument #" + i + " is not passed via register.");
+      }
+      args[i] = newGPR();
+    }
+  }
+
+  private VirtualRegister newRegister(VirtualRegister.Type type){
+    checkNotBuilt();
+    var reg = new VirtualRegister(regs.size(), type);
+    regs.add(reg);
+    return reg;
+  }
+
+  private void checkNotBuilt(){
+    if(built != null){
+      throw new IllegalStateException("The function has been already built.");
+    }
+  }
+
+  private int check(VirtualRegister reg, VirtualRegister.Type type){
+    if((reg.id() < 0) || (reg.id() >= regs.size()) || !regs.get(reg.id()).equals(reg)){
+      throw new IllegalArgumentException("Register does not belong to this builder: " + reg);
+    }
+    if((type != null) && (reg.type() != type)){
+      throw new IllegalArgumentException(type + " is required: " + reg);
+    }
+    return reg.id();
+  }
+
+  private int check(Label label){
+    if(!label.belongsTo(this)){
+      throw new IllegalArgumentException("Label does not belong to this builder: " + label);
+    }
+    return label.id();
+  }
+
+  private void checkDisp(VirtualRegister reg, int disp){
+    int size = (reg.type() == VirtualRegister.Type.VECTOR) ? 16 : 8;
+    if((disp < 0) || ((disp % size) != 0) || ((disp / size) > MAX_IMM12)){
+      throw new IllegalArgumentException("Invalid displacement: " + disp);
+    }
+  }
+
+  private static void checkImm12(int imm){
+    if((imm < 0) || (imm > MAX_IMM12)){
+      throw new IllegalArgumentException("Immediate value should be in the range 0 to 4095: " + imm);
+    }
+  }
+
+  private VirtualAsmBuilder append(VirtualInsn.Op op, int a, int b, long imm){
+    checkNotBuilt();
+    insns.add(new VirtualInsn(op, a, b, imm));
+    return this;
+  }
+
+  /**
+   * Set rules of peephole optimizer. All rules are enabled by default.
+   * The optimizer is disabled if no rule is passed.
+   *
+   * @param rules rules to apply
+   * @return This instance
+   */
+  public VirtualAsmBuilder setPeepholeRules(Peephole... rules){
+    checkNotBuilt();
+    peepholeRules.clear();
+    peepholeRules.addAll(List.of(rules));
+    return this;
+  }
+
+  /**
+   * Get the virtual register which holds the argument.
+   *
+   * @param index index of the argument
+   * @return virtual register
+   */
+  public VirtualRegister argument(int index){
+    return args[index];
+  }
+
+  /**
+   * Create new virtual GPR.
+   *
+   * @return new virtual register
+   */
+  public VirtualRegister newGPR(){
+    return newRegister(VirtualRegister.Type.GPR);
+  }
+
+  /**
+   * Create new virtual vector register.
+   *
+   * @return new virtual register
+   */
+  public VirtualRegister newVector(){
+    return newRegister(VirtualRegister.Type.VECTOR);
+  }
+
+  /**
+   * Create new label.
+   *
+   * @return new label
+   */
+  public Label newLabel(){
+    checkNotBuilt();
+    boundLabels.add(Boolean.FALSE);
+    return new Label(this, boundLabels.size() - 1);
+  }
+
+  /**
+   * Bind the label to current position.
+   *
+   * @param label label to bind
+   * @return This instance
+   * @throws IllegalStateException if the label has been already bound.
+   */
+  public VirtualAsmBuilder label(Label label){
+    int id = check(label);
+    if(boundLabels.get(id)){
+      throw new IllegalStateException("Label has been already bound: " + label);
+    }
+    boundLabels.set(id, Boolean.TRUE);
+    return append(VirtualInsn.Op.LABEL, -1, -1, id);
+  }
+
+  /**
+   * Set immediate value to GPR.
+   *
+   * @param dst destination register
+   * @param imm immediate value
+   * @return This instance
+   */
+  public VirtualAsmBuilder movImm(VirtualRegister dst, long imm){
+    return append(VirtualInsn.Op.MOV_IMM, check(dst, VirtualRegister.Type.GPR), -1, imm);
+  }
+
+  /**
+   * Copy GPR.
+   *
+   * @param dst destination register
+   * @param src source register
+   * @return This instance
+   */
+  public VirtualAsmBuilder mov(VirtualRegister dst, VirtualRegister src){
+    return append(VirtualInsn.Op.MOV, check(dst, VirtualRegister.Type.GPR), check(src, VirtualRegister.Type.GPR), 0);
+  }
+
+  /**
+   * dst = dst + src
+   *
+   * @param dst destination register
+   * @param src source register
+   * @return This instance
+   */
+  public VirtualAsmBuilder add(VirtualRegister dst, VirtualRegister src){
+    return append(VirtualInsn.Op.ADD, check(dst, VirtualRegister.Type.GPR), check(src, VirtualRegister.Type.GPR), 0);
+  }
+
+  /**
+   * dst = dst - src
+   *
+   * @param dst destination register
+   * @param src source register
+   * @return This instance
+   */
+  public VirtualAsmBuilder sub(VirtualRegister dst, VirtualRegister src){
+    return append(VirtualInsn.Op.SUB, check(dst, VirtualRegister.Type.GPR), check(src, VirtualRegister.Type.GPR), 0);
+  }
+
+  /**
+   * dst = dst &amp; src
+   *
+   * @param dst destination register
+   * @param src source register
+   * @return This instance
+   */
+  public VirtualAsmBuilder and(VirtualRegister dst, VirtualRegister src){
+    return append(VirtualInsn.Op.AND, check(dst, VirtualRegister.Type.GPR), check(src, VirtualRegister.Type.GPR), 0);
+  }
+
+  /**
+   * dst = dst | src
+   *
+   * @param dst destination register
+   * @param src source register
+   * @return This instance
+   */
+  public VirtualAsmBuilder or(VirtualRegister dst, VirtualRegister src){
+    return append(VirtualInsn.Op.OR, check(dst, VirtualRegister.Type.GPR), check(src, VirtualRegister.Type.GPR), 0);
+  }
+
+  /**
+   * dst = dst ^ src
+   *
+   * @param dst destination register
+   * @param src source register
+   * @return This instance
+   */
+  public VirtualAsmBuilder xor(VirtualRegister dst, VirtualRegister src){
+    return append(VirtualInsn.Op.XOR, check(dst, VirtualRegister.Type.GPR), check(src, VirtualRegister.Type.GPR), 0);
+  }
+
+  /**
+   * dst = dst + imm
+   *
+   * @param dst destination register
+   * @param imm immediate value in the range 0 to 4095
+   * @return This instance
+   */
+  public VirtualAsmBuilder addImm(VirtualRegister dst, int imm){
+    checkImm12(imm);
+    return append(VirtualInsn.Op.ADD_IMM, check(dst, VirtualRegister.Type.GPR), -1, imm);
+  }
+
+  /**
+   * dst = dst - imm
+   *
+   * @param dst destination register
+   * @param imm immediate value in the range 0 to 4095
+   * @return This instance
+   */
+  public VirtualAsmBuilder subImm(VirtualRegister dst, int imm){
+    checkImm12(imm);
+    return append(VirtualInsn.Op.SUB_IMM, check(dst, VirtualRegister.Type.GPR), -1, imm);
+  }
+
+  /**
+   * Load 8 bytes to GPR, or 16 bytes to vector register.
+   *
+   * @param dst destination register
+   * @param base GPR which holds base address
+   * @param disp displacement
+   * @return This instance
+   */
+  public VirtualAsmBuilder load(VirtualRegister dst, VirtualRegister base, int disp){
+    checkDisp(dst, disp);
+    return append(VirtualInsn.Op.LOAD, check(dst, null), check(base, VirtualRegister.Type.GPR), disp);
+  }
+
+  /**
+   * Store 8 bytes from GPR, or 16 bytes from vector register.
+   *
+   * @param src source register
+   * @param base GPR which holds base address
+   * @param disp displacement
+   * @return This instance
+   */
+  public VirtualAsmBuilder store(VirtualRegister src, VirtualRegister base, int disp){
+    checkDisp(src, disp);
+    return append(VirtualInsn.Op.STORE, check(src, null), check(base, VirtualRegister.Type.GPR), disp);
+  }
+
+  /**
+   * Jump to the label.
+   *
+   * @param label label to jump
+   * @return This instance
+   */
+  public VirtualAsmBuilder branch(Label label){
+    return append(VirtualInsn.Op.JUMP, -1, -1, check(label));
+  }
+
+  /**
+   * Jump to the label if lhs equals to rhs.
+   *
+   * @param lhs GPR to compare
+   * @param rhs GPR to compare
+   * @param label label to jump
+   * @return This instance
+   */
+  public VirtualAsmBuilder branchIfEqual(VirtualRegister lhs, VirtualRegister rhs, Label label){
+    return append(VirtualInsn.Op.JUMP_EQ, check(lhs, VirtualRegister.Type.GPR), check(rhs, VirtualRegister.Type.GPR), check(label));
+  }
+
+  /**
+   * Jump to the label if lhs does not equal to rhs.
+   *
+   * @param lhs GPR to compare
+   * @param rhs GPR to compare
+   * @param label label to jump
+   * @return This instance
+   */
+  public VirtualAsmBuilder branchIfNotEqual(VirtualRegister lhs, VirtualRegister rhs, Label label){
+    return append(VirtualInsn.Op.JUMP_NE, check(lhs, VirtualRegister.Type.GPR), check(rhs, VirtualRegister.Type.GPR), check(label));
+  }
+
+  /**
+   * Return from the function.
+   *
+   * @return This instance
+   */
+  public VirtualAsmBuilder ret(){
+    return append(VirtualInsn.Op.RET, -1, -1, 0);
+  }
+
+  /**
+   * Return the value from the function.
+   *
+   * @param value GPR which holds the return value
+   * @return This instance
+   */
+  public VirtualAsmBuilder ret(VirtualRegister value){
+    return append(VirtualInsn.Op.RET, check(value, VirtualRegister.Type.GPR), -1, 0);
+  }
+
+  private AsmBuilder<?> allocateAndEmit() throws UnsupportedPlatformException{
+    checkNotBuilt();
+    if(insns.isEmpty() || !insns.get(insns.size() - 1).isTerminator()){
+      throw new IllegalStateException("The function must end with ret or branch.");
+    }
+    if(boundLabels.contains(Boolean.FALSE)){
+      throw new IllegalStateException("Some labels are not bound.");
+    }
+
+    var isVector = new boolean[regs.size()];
+    for(var reg : regs){
+      isVector[reg.id()] = reg.type() == VirtualRegister.Type.VECTOR;
+    }
+    var argIds = new int[args.length];
+    var hints = new int[args.length];
+    for(int i = 0; i < args.length; i++){
+      argIds[i] = args[i].id();
+      hints[i] = backend.argumentRegister(i).getAsInt();
+    }
+
+    var applied = new EnumMap<Peephole, Integer>(Peephole.class);
+    var optimized = PeepholeOptimizer.optimize(insns, isVector, argIds, peepholeRules, applied);
+
+    var alloc = LinearScanAllocator.allocate(optimized, isVector, boundLabels.size(), argIds, hints,
+                                             backend.registerCount(false), backend.registerCount(true));
+    built = backend.emit(seg, optimized, isVector, argIds, alloc, boundLabels.size());
+    peepholeReport = Collections.unmodifiableMap(applied);
+
+    var calleeSaved = new ArrayList<String>();
+    var assignments = new LinkedHashMap<VirtualRegister, String>();
+    int spilled = 0;
+    for(var reg : regs){
+      int phys = alloc.registers()[reg.id()];
+      int slot = alloc.spillSlots()[reg.id()];
+      if(phys >= 0){
+        String name = backend.registerName(isVector[reg.id()], phys);
+        assignments.put(reg, name);
+        if(backend.isCalleeSaved(isVector[reg.id()], phys) && !calleeSaved.contains(name)){
+          calleeSaved.add(name);
+        }
+      }
+      else if(slot >= 0){
+        assignments.put(reg, "spill+" + slot);
+        spilled++;
+      }
+    }
+    report = new AllocationReport(alloc.maxGPRPressure(), alloc.maxVectorPressure(), spilled, alloc.spillAreaSize(),
+                                  Collections.unmodifiableList(calleeSaved), Collections.unmodifiableMap(assignments));
+    return built;
+  }
+
+  /**
+   * Allocate registers, and build the function as MethodHandle.
+   *
+   * @param options Linker options to pass to downcallHandle().
+   * @return MethodHandle for the function
+   * @throws UnsupportedPlatformException if the platform is not supported.
+   * @throws IllegalStateException if the function has been already built, does not end with ret or branch, or labels are not bound.
+   */
+  public MethodHandle build(Linker.Option... options) throws UnsupportedPlatformException{
+    return allocateAndEmit().build(options);
+  }
+
+  /**
+   * Allocate registers, and build the function as MethodHandle.
+   *
+   * @param name Method name
+   * @param options Linker options to pass to downcallHandle().
+   * @return MethodHandle for the function
+   * @throws UnsupportedPlatformException if the platform is not supported.
+   * @throws IllegalStateException if the function has been already built, does not end with ret or branch, or labels are not bound.
+   */
+  public MethodHandle build(String name, Linker.Option... options) throws UnsupportedPlatformException{
+    return allocateAndEmit().build(name, options);
+  }
+
+  /**
+   * Allocate registers, and get MemorySegment of the function.
+   *
+   * @return MemorySegment of the function
+   * @throws UnsupportedPlatformException if the platform is not supported.
+   * @throws IllegalStateException if the function has been already built, does not end with ret or branch, or labels are not bound.
+   */
+  public MemorySegment getMemorySegment() throws UnsupportedPlatformException{
+    return allocateAndEmit().getMemorySegment();
+  }
+
+  /**
+   * Get the report of register allocation.
+   *
+   * @return report of register allocation
+   * @throws IllegalStateException if the function has not been built yet.
+   */
+  public AllocationReport getAllocationReport(){
+    if(report == null){
+      throw new IllegalStateException("The function has not been built yet.");
+    }
+    return report;
+  }
+
+  /**
+   * Get the number of rewrites by each rule of peephole optimizer.
+   *
+   * @return number of rewrites. Rules which are not applied are not contained.
+   * @throws IllegalStateException if the function has not been built yet.
+   */
+  public Map<Peephole, Integer> getPeepholeReport(){
+    if(peepholeReport == null){
+      throw new IllegalStateException("The function has not been built yet.");
+    }
+    return peepholeReport;
+  }
+
+}
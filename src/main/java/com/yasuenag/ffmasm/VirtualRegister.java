@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm;
+
+
+/**
+ * Virtual register for {@link VirtualAsmBuilder}.
+ * Physical register is assigned by the register allocator.
+ *
+ * @param id ID of the register in the builder
+ * @param type type of the register
+ *
+ * @author Yasumasa Suenaga
+ */
+public record VirtualRegister(int id, VirtualRegister.Type type){
+
+  /**
+   * Type of virtual register.
+   */
+  public static enum Type{
+
+    /**
+     * 64 bit general purpose register
+     */
+    GPR,
+
+    /**
+     * 128 bit vector register
+     */
+    VECTOR
+
+  }
+
+}
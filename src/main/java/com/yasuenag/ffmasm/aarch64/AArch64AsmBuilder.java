@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2025, Yasumasa Suenaga
+ * Copyright (C) 2025, 2026, Yasumasa Suenaga
  *
  * This file is part of ffmasm.
  *
@@ -28,10 +28,13 @@ import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ObjIntConsumer;
 
 import com.yasuenag.ffmasm.AsmBuilder;
 import com.yasuenag.ffmasm.CodeSegment;
 import com.yasuenag.ffmasm.JitDump;
+import com.yasuenag.ffmasm.Label;
 import com.yasuenag.ffmasm.UnsupportedPlatformException;
 
 
@@ -42,6 +45,12 @@ import com.yasuenag.ffmasm.UnsupportedPlatformException;
  */
 public class AArch64AsmBuilder<T extends AArch64AsmBuilder<T>> extends AsmBuilder<T>{
 
+  // Kinds of label reference
+  private static final int LABEL_REF_IMM26 = 0; // B, BL (also used for symbol reference)
+  private static final int LABEL_REF_IMM19 = 1; // B.cond, CBZ, CBNZ
+  private static final int LABEL_REF_ADR = 2;   // ADR
+  private static final int LABEL_REF_TABLE32 = 3; // Entry of jump table: offset from the head of the table (stored until patched)
+
   /**
    * Constructor.
    *
@@ -62,7 +71,12 @@ public class AArch64AsmBuilder<T extends AArch64AsmBuilder<T>> extends AsmBuilde
   }
 
   private T ldrstrInternal(Register rt, Register rn, IndexClass idxCls, int opcAndImm){
-    byte size = rt.width() == 64 ? (byte)0b11 : (byte)0b10;
+    byte size = switch(rt.width()){
+      case 128 -> (byte)0b00;
+      case 64 -> (byte)0b11;
+      default -> (byte)0b10;
+    };
+    byte v = rt.width() == 128 ? (byte)1 : (byte)0;
     byte vr = switch(idxCls){
       case PostIndex, PreIndex -> (byte)0b000;
       case UnsignedOffset -> (byte)0b001;
@@ -71,6 +85,7 @@ public class AArch64AsmBuilder<T extends AArch64AsmBuilder<T>> extends AsmBuilde
 
     int encoded = (size << 30) |
                   (0b111 << 27) |
+                  (v << 26) |
                   (vr << 24) |
                   opcAndImm |
                   (rn.encoding() << 5) |
@@ -82,19 +97,22 @@ public class AArch64AsmBuilder<T extends AArch64AsmBuilder<T>> extends AsmBuilde
 
   /**
    * Load register (immediate)
+   * If rt is 128 bit SIMD register (V0-V31), the whole Q register is loaded
+   * as LDR (immediate, SIMD&amp;FP).
    *
-   * @param rt The general-purpose register to be transferred.
+   * @param rt The general-purpose or SIMD register to be transferred.
    * @param rn The general-purpose base register or stack pointer.
    * @param idxCls Addressing mode.
    * @param imm Memory offset of rn to be loaded.
    * @return This instance
    */
   public T ldr(Register rt, Register rn, IndexClass idxCls, int imm){
-    int denominator = rt.width() == 64 ? 8 : 4;
+    int denominator = rt.width() / 8;
+    int opc = rt.width() == 128 ? 0b11 : 0b01;
     int opcAndImm = switch(idxCls){
-      case PostIndex -> (0b010 << 21) | ((imm & 0x1ff) << 12) | (0b01 << 10);
-      case PreIndex -> (0b010 << 21) | ((imm & 0x1ff) << 12) | (0b11 << 10);
-      case UnsignedOffset -> (0b01 << 22) | (((imm / denominator) & 0xfff) << 10);
+      case PostIndex -> (opc << 22) | ((imm & 0x1ff) << 12) | (0b01 << 10);
+      case PreIndex -> (opc << 22) | ((imm & 0x1ff) << 12) | (0b11 << 10);
+      case UnsignedOffset -> (opc << 22) | (((imm / denominator) & 0xfff) << 10);
       default -> throw new IllegalArgumentException("Unsupported index class");
     };
 
@@ -122,25 +140,49 @@ public class AArch64AsmBuilder<T extends AArch64AsmBuilder<T>> extends AsmBuilde
 
   /**
    * Store register (immediate)
+   * If rt is 128 bit SIMD register (V0-V31), the whole Q register is stored
+   * as STR (immediate, SIMD&amp;FP).
    *
-   * @param rt The general-purpose register to be transferred.
+   * @param rt The general-purpose or SIMD register to be transferred.
    * @param rn The general-purpose base register or stack pointer.
    * @param idxCls Addressing mode.
    * @param imm Memory offset of rn to be loaded.
    * @return This instance
    */
   public T str(Register rt, Register rn, IndexClass idxCls, int imm){
-    int denominator = rt.width() == 64 ? 8 : 4;
+    int denominator = rt.width() / 8;
+    int opc = rt.width() == 128 ? 0b10 : 0b00;
     int opcAndImm = switch(idxCls){
-      case PostIndex -> ((imm & 0x1ff) << 12) | (0b01 << 10);
-      case PreIndex -> ((imm & 0x1ff) << 12) | (0b11 << 10);
-      case UnsignedOffset -> (((imm / denominator) & 0xfff) << 10);
+      case PostIndex -> (opc << 22) | ((imm & 0x1ff) << 12) | (0b01 << 10);
+      case PreIndex -> (opc << 22) | ((imm & 0x1ff) << 12) | (0b11 << 10);
+      case UnsignedOffset -> (opc << 22) | (((imm / denominator) & 0xfff) << 10);
       default -> throw new IllegalArgumentException("Unsupported index class");
     };
 
     return ldrstrInternal(rt, rn, idxCls, opcAndImm);
   }
 
+  /**
+   * Load-acquire exclusive register
+   *
+   * @param rt The general-purpose register to be transferred.
+   * @param rn The general-purpose base register or stack pointer.
+   * @return This instance
+   */
+  public T ldaxr(Register rt, Register rn){
+    byte size = rt.width() == 64 ? (byte)0b11 : (byte)0b10;
+    int encoded = (size << 30) |
+                  (0b001000010 << 21) |
+                  (0b11111 << 16) |
+                  (1 << 15) |
+                  (0b11111 << 10) |
+                  (rn.encoding() << 5) |
+                  rt.encoding();
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
   private T ldpstpInternal(Register rt, Register rt2, Register rn, IndexClass idxCls, int imm7, boolean isLoad){
     byte opc = rt.width() == 64 ? (byte)0b10 : (byte)0b00;
     byte imm = rn.width() == 64 ? (byte)(imm7 / 8) : (byte)(imm7 / 4);
@@ -344,19 +386,114 @@ public class AArch64AsmBuilder<T extends AArch64AsmBuilder<T>> extends AsmBuilde
   }
 
   /**
-   * Branch if equal
+   * Compare (CMP: immediate)
    *
-   * @param label the label to jump.
+   * @param src Source register.
+   * @param imm Immediate value to compare. In the range 0 to 4095.
+   * @param shift true if imm should be LSL #12
    * @return This instance
    */
-  public T beq(String label){
-    Consumer<Integer> emitOp = (o) -> {
-      int imm19 = (o.intValue() / 4) & 0x7ffff;
+  public T cmpImm(Register src, int imm, boolean shift){
+    byte sf = src.width() == 64 ? (byte)1 : (byte)0;
+    byte sh = shift ? (byte)1 : (byte)0;
+    int encoded = (sf << 31) |
+                  (0b111100010 << 23) |
+                  (sh << 22) |
+                  ((imm & 0xfff) << 10) | // 12bit
+                  (src.encoding() << 5) |
+                  0b11111;
 
-      // cond of EQ is 0b0000
-      int encoded = (0b01010100 << 24) |
-                    (imm19 << 5);
-      byteBuf.putInt(encoded);
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  private T shiftedRegOp(int opcode, Register rd, Register rn, Register rm, ShiftType shift, byte amount){
+    byte sf = rd.width() == 64 ? (byte)1 : (byte)0;
+    int encoded = (sf << 31) |
+                  (opcode << 24) |
+                  (shift.value() << 22) |
+                  (rm.encoding() << 16) |
+                  ((amount & 0x3f) << 10) |
+                  (rn.encoding() << 5) |
+                  rd.encoding();
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Add (shifted register)
+   *
+   * @param rd Destination register.
+   * @param rn First source register.
+   * @param rm Second source register.
+   * @param shift Shift type to be applied to the second source operand.
+   * @param amount The shift amount.
+   * @return This instance
+   */
+  public T add(Register rd, Register rn, Register rm, ShiftType shift, byte amount){
+    return shiftedRegOp(0b0001011, rd, rn, rm, shift, amount);
+  }
+
+  /**
+   * Subtract (shifted register)
+   *
+   * @param rd Destination register.
+   * @param rn First source register.
+   * @param rm Second source register.
+   * @param shift Shift type to be applied to the second source operand.
+   * @param amount The shift amount.
+   * @return This instance
+   */
+  public T sub(Register rd, Register rn, Register rm, ShiftType shift, byte amount){
+    return shiftedRegOp(0b1001011, rd, rn, rm, shift, amount);
+  }
+
+  /**
+   * Bitwise AND (shifted register)
+   *
+   * @param rd Destination register.
+   * @param rn First source register.
+   * @param rm Second source register.
+   * @param shift Shift type to be applied to the second source operand.
+   * @param amount The shift amount.
+   * @return This instance
+   */
+  public T and(Register rd, Register rn, Register rm, ShiftType shift, byte amount){
+    return shiftedRegOp(0b0001010, rd, rn, rm, shift, amount);
+  }
+
+  /**
+   * Bitwise OR (shifted register)
+   *
+   * @param rd Destination register.
+   * @param rn First source register.
+   * @param rm Second source register.
+   * @param shift Shift type to be applied to the second source operand.
+   * @param amount The shift amount.
+   * @return This instance
+   */
+  public T orr(Register rd, Register rn, Register rm, ShiftType shift, byte amount){
+    return shiftedRegOp(0b0101010, rd, rn, rm, shift, amount);
+  }
+
+  /**
+   * Bitwise Exclusive OR (shifted register)
+   *
+   * @param rd Destination register.
+   * @param rn First source register.
+   * @param rm Second source register.
+   * @param shift Shift type to be applied to the second source operand.
+   * @param amount The shift amount.
+   * @return This instance
+   */
+  public T eor(Register rd, Register rn, Register rm, ShiftType shift, byte amount){
+    return shiftedRegOp(0b1001010, rd, rn, rm, shift, amount);
+  }
+
+  private T branchInternal(String label, IntUnaryOperator encoder){
+    Consumer<Integer> emitOp = (o) -> {
+      byteBuf.putInt(encoder.applyAsInt(o.intValue() / 4));
     };
 
     int position = byteBuf.position();
@@ -376,122 +513,1110 @@ public class AArch64AsmBuilder<T extends AArch64AsmBuilder<T>> extends AsmBuilde
     return castToT();
   }
 
+  private T bcondInternal(String label, int cond){
+    return branchInternal(label, imm -> (0b01010100 << 24) |
+                                        ((imm & 0x7ffff) << 5) |
+                                        cond);
+  }
+
   /**
-   * Branch to register
+   * Branch if equal
    *
-   * @param rn The general-purpose register holding the address to be branched to.
+   * @param label the label to jump.
    * @return This instance
    */
-  public T br(Register rn){
-    int encoded = (0b1101011000011111000000 << 10) | (rn.encoding() << 5);
+  public T beq(String label){
+    return bcondInternal(label, 0b0000);
+  }
 
-    byteBuf.putInt(encoded);
-    return castToT();
+  /**
+   * Branch if not equal
+   *
+   * @param label the label to jump.
+   * @return This instance
+   */
+  public T bne(String label){
+    return bcondInternal(label, 0b0001);
   }
 
   /**
-   * Branch with link to register
+   * Branch if unsigned higher or same (carry set)
    *
-   * @param rn The general-purpose register holding the address to be branched to.
+   * @param label the label to jump.
    * @return This instance
    */
-  public T blr(Register rn){
-    int encoded = (0b1101011000111111000000 << 10) | (rn.encoding() << 5);
+  public T bhs(String label){
+    return bcondInternal(label, 0b0010);
+  }
 
-    byteBuf.putInt(encoded);
-    return castToT();
+  /**
+   * Branch unconditionally
+   *
+   * @param label the label to jump.
+   * @return This instance
+   */
+  public T b(String label){
+    return branchInternal(label, imm -> (0b000101 << 26) | (imm & 0x3ffffff));
+  }
+
+  private T cbInternal(Register rt, String label, int op){
+    int sf = rt.width() == 64 ? 1 : 0;
+    return branchInternal(label, imm -> (sf << 31) |
+                                        (0b011010 << 25) |
+                                        (op << 24) |
+                                        ((imm & 0x7ffff) << 5) |
+                                        rt.encoding());
   }
 
   /**
-   * No operation (NOP)
+   * Compare and branch on zero
    *
+   * @param rt the register to be tested.
+   * @param label the label to jump.
    * @return This instance
    */
-  public T nop(){
-    byteBuf.putInt(0b11010101000000110010000000011111);
-    return castToT();
+  public T cbz(Register rt, String label){
+    return cbInternal(rt, label, 0);
   }
 
   /**
-   * Pointer Authentication Code for instruction address, using key A for X30 (LR)
+   * Compare and branch on nonzero
    *
+   * @param rt the register to be tested.
+   * @param label the label to jump.
    * @return This instance
    */
-  public T paciaz(){
-    byte crm = (byte)0b0011;
-    byte op2 = (byte)0b000;
-    int encoded = (0b11010101000000110010 << 12) |
-                  (crm << 8) |
-                  (op2 << 5) |
-                  0b11111;
+  public T cbnz(Register rt, String label){
+    return cbInternal(rt, label, 1);
+  }
 
-    byteBuf.putInt(encoded);
-    return castToT();
+  private static int encodeBranchOffset(int kind, int offset){
+    int imm = offset / 4;
+    return switch(kind){
+      case LABEL_REF_IMM26 -> imm & 0x3ffffff;
+      case LABEL_REF_IMM19 -> (imm & 0x7ffff) << 5;
+      case LABEL_REF_ADR -> ((offset & 0b11) << 29) |          // immlo
+                            (((offset >> 2) & 0x7ffff) << 5); // immhi
+      default -> throw new IllegalArgumentException("Unknown label reference: " + kind);
+    };
+  }
+
+  @Override
+  protected void patchLabelReference(int kind, int position, int target){
+    int encoded = (kind == LABEL_REF_TABLE32) ? target - byteBuf.getInt(position)
+                                              : byteBuf.getInt(position) | encodeBranchOffset(kind, target - position);
+    byteBuf.putInt(position, encoded);
   }
 
   /**
-   * Authenticate instruction address, using key A for X30 (LR)
+   * Form PC-relative address
    *
+   * @param rd The general-purpose destination register.
+   * @param label the label which address is set to rd. It must be within +/-1MB.
    * @return This instance
    */
-  public T autiaz(){
-    byte crm = (byte)0b0011;
-    byte op2 = (byte)0b100;
-    int encoded = (0b11010101000000110010 << 12) |
-                  (crm << 8) |
-                  (op2 << 5) |
-                  0b11111;
+  public T adr(Register rd, Label label){
+    return branchInternal(label, (0b10000 << 24) | rd.encoding(), LABEL_REF_ADR);
+  }
 
-    byteBuf.putInt(encoded);
+  /**
+   * Jump via the table of labels (computed dispatch for "switch").
+   * If the index is out of range, it branches to <code>defaultLabel</code>.
+   * The table is placed just after the dispatch, and each entry is 32 bit
+   * offset from the head of the table. Entries are patched when labels
+   * are bound, so labels can be bound after this call.
+   *   cmp index, #n
+   *   b.hs default
+   *   adr scratch, table
+   *   ldrsw index, [scratch, index, lsl #2]
+   *   add scratch, scratch, index
+   *   br scratch
+   *   table: .word L0 - table, L1 - table, ...
+   *
+   * @param index 64 bit register which holds the index. It is treated as unsigned, and it is broken.
+   * @param scratch 64 bit scratch register
+   * @param defaultLabel the label to branch if the index is out of range
+   * @param targets labels to branch in order of the index. The number of them must be 4095 or less.
+   * @return This instance
+   * @throws IllegalArgumentException if registers are invalid, or the number of targets is invalid.
+   */
+  public T jumpTable(Register index, Register scratch, Label defaultLabel, Label... targets){
+    if((index.width() != 64) || (scratch.width() != 64) || (index.encoding() == 31) || (scratch.encoding() == 31) || (index == scratch)){
+      throw new IllegalArgumentException("Invalid register for jump table: " + index + ", " + scratch);
+    }
+    if((targets.length == 0) || (targets.length > 4095)){
+      throw new IllegalArgumentException("Invalid number of targets: " + targets.length);
+    }
+
+    Label table = newLabel();
+    cmpImm(index, targets.length, false);
+    bhs(defaultLabel);
+    adr(scratch, table);
+
+    // ldrsw index, [scratch, index, lsl #2]
+    byteBuf.putInt((0b1011100010100000011110 << 10) |
+                   (index.encoding() << 16) |
+                   (scratch.encoding() << 5) |
+                   index.encoding());
+
+    add(scratch, scratch, index, ShiftType.LSL, (byte)0);
+    br(scratch);
+
+    label(table);
+    int tablePosition = byteBuf.position();
+    for(var target : targets){
+      int labelPosition = getLabelPosition(target);
+      if(labelPosition == -1){
+        addLabelReference(target, LABEL_REF_TABLE32, byteBuf.position());
+        byteBuf.putInt(tablePosition);
+      }
+      else{
+        byteBuf.putInt(labelPosition - tablePosition);
+      }
+    }
+    return castToT();
+  }
+
+  private T branchInternal(Label label, int encoded, int kind){
+    int position = byteBuf.position();
+    int labelPosition = getLabelPosition(label);
+    if(labelPosition == -1){
+      /* forward jump - offset will be patched when the label is bound */
+      addLabelReference(label, kind, position);
+      byteBuf.putInt(encoded);
+    }
+    else{
+      byteBuf.putInt(encoded | encodeBranchOffset(kind, labelPosition - position));
+    }
     return castToT();
   }
 
   /**
-   * Return from subroutine, with pointer authentication
+   * Branch if equal
    *
+   * @param label the label to jump.
    * @return This instance
    */
-  public T retaa(){
-    byte m = (byte)0;
-    int encoded = (0b110101100101111100001 << 11) |
-                  (m << 10) |
-                  0b1111111111;
+  public T beq(Label label){
+    return branchInternal(label, (0b01010100 << 24) | 0b0000, LABEL_REF_IMM19);
+  }
 
-    byteBuf.putInt(encoded);
-    return castToT();
+  /**
+   * Branch if not equal
+   *
+   * @param label the label to jump.
+   * @return This instance
+   */
+  public T bne(Label label){
+    return branchInternal(label, (0b01010100 << 24) | 0b0001, LABEL_REF_IMM19);
   }
 
   /**
-   * Data memory barrier
+   * Branch if unsigned higher or same (carry set)
    *
+   * @param label the label to jump.
    * @return This instance
    */
-  public T dmb(DMBOptions option){
-    byte opc = 0b01;
-    byte rt = 0b11111;
-    int encoded = (0b11010101000000110011 << 12) |
-                  (option.crm() << 8) |
-                  (1 << 7) |
-                  (opc << 5) |
-                  rt;
+  public T bhs(Label label){
+    return branchInternal(label, (0b01010100 << 24) | 0b0010, LABEL_REF_IMM19);
+  }
 
-    byteBuf.putInt(encoded);
-    return castToT();
+  /**
+   * Branch unconditionally
+   *
+   * @param label the label to jump.
+   * @return This instance
+   */
+  public T b(Label label){
+    return branchInternal(label, 0b000101 << 26, LABEL_REF_IMM26);
+  }
+
+  private T cbInternal(Register rt, Label label, int op){
+    int sf = rt.width() == 64 ? 1 : 0;
+    int encoded = (sf << 31) |
+                  (0b011010 << 25) |
+                  (op << 24) |
+                  rt.encoding();
+    return branchInternal(label, encoded, LABEL_REF_IMM19);
   }
 
   /**
-   * Supervisor call
+   * Compare and branch on zero
    *
-   * @param imm Unsigned immediate value
+   * @param rt the register to be tested.
+   * @param label the label to jump.
    * @return This instance
    */
-  public T svc(int imm){
-    int encoded = (0b11010100000 << 21) |
-                  ((imm & 0xffff) << 5) |
-                  0b00001;
+  public T cbz(Register rt, Label label){
+    return cbInternal(rt, label, 0);
+  }
 
-    byteBuf.putInt(encoded);
-    return castToT();
+  /**
+   * Compare and branch on nonzero
+   *
+   * @param rt the register to be tested.
+   * @param label the label to jump.
+   * @return This instance
+   */
+  public T cbnz(Register rt, Label label){
+    return cbInternal(rt, label, 1);
+  }
+
+  // Boundary of loop head which is emitted by structured loops.
+  private static final int LOOP_ALIGNMENT = 16;
+
+  private T bcond(Condition cond, Label label){
+    return branchInternal(label, (0b01010100 << 24) | cond.value(), LABEL_REF_IMM19);
+  }
+
+  /**
+   * Structured "if" statement.
+   * <code>test</code> should emit the instruction which sets flags (e.g. CMP).
+   * The branch with negated condition skips <code>then</code>, thus
+   * <code>then</code> is placed on fall-through path.
+   *
+   * @param test emitter of the instruction which sets flags.
+   * @param cond condition to execute <code>then</code>.
+   * @param then emitter of the body.
+   * @return This instance
+   */
+  public T ifThen(Consumer<T> test, Condition cond, Consumer<T> then){
+    Label end = newLabel();
+    test.accept(castToT());
+    bcond(cond.negate(), end);
+    then.accept(castToT());
+    return label(end);
+  }
+
+  /**
+   * Structured "if-else" statement.
+   * <code>then</code> is placed on fall-through path, and it branches over
+   * <code>otherwise</code> at the end.
+   *
+   * @param test emitter of the instruction which sets flags.
+   * @param cond condition to execute <code>then</code>.
+   * @param then emitter of the body which is executed when the condition is satisfied.
+   * @param otherwise emitter of the body which is executed when the condition is not satisfied.
+   * @return This instance
+   */
+  public T ifElse(Consumer<T> test, Condition cond, Consumer<T> then, Consumer<T> otherwise){
+    Label elseLabel = newLabel();
+    Label end = newLabel();
+    test.accept(castToT());
+    bcond(cond.negate(), elseLabel);
+    then.accept(castToT());
+    b(end);
+    label(elseLabel);
+    otherwise.accept(castToT());
+    return label(end);
+  }
+
+  /**
+   * Structured "while" statement.
+   * The loop is rotated to bottom-tested form: <code>test</code> is emitted
+   * twice as the guard before the loop and as the back edge after
+   * <code>body</code>, so only one branch is taken per iteration.
+   * The loop head is aligned to 16 bytes with NOPs which are executed only once.
+   *
+   * @param test emitter of the instruction which sets flags. It must not bind labels because it is emitted twice.
+   * @param cond condition to continue the loop.
+   * @param body emitter of the loop body.
+   * @return This instance
+   */
+  public T whileLoop(Consumer<T> test, Condition cond, Consumer<T> body){
+    Label head = newLabel();
+    Label exit = newLabel();
+    test.accept(castToT());
+    bcond(cond.negate(), exit);
+    alignWithNOP(LOOP_ALIGNMENT);
+    label(head);
+    body.accept(castToT());
+    test.accept(castToT());
+    bcond(cond, head);
+    return label(exit);
+  }
+
+  /**
+   * Structured counted loop.
+   * This is equivalent to {@link #countedLoop(Register, int, ObjIntConsumer, ObjIntConsumer)}
+   * without unrolling.
+   *
+   * @param counter register which holds the trip count. It is treated as unsigned, and it will be 0 after the loop.
+   * @param body emitter of the loop body. It must not change <code>counter</code>.
+   * @return This instance
+   */
+  public T countedLoop(Register counter, Consumer<T> body){
+    return countedLoop(counter, 1, (b, i) -> body.accept(b), (b, n) -> {});
+  }
+
+  /**
+   * Structured counted loop with unrolling.
+   * The main loop runs <code>body</code> <code>unroll</code> times per
+   * iteration, then the remainder loop handles the rest of the trip count
+   * one by one. Both loops are bottom-tested, and their heads are aligned
+   * to 16 bytes.
+   * <code>body</code> receives the index of the copy in the unrolled
+   * iteration (always 0 in the remainder loop), so it can be used for the
+   * offset. <code>step</code> receives the number of the copies
+   * which have been emitted before it, so it can be used to advance pointers.
+   * <code>counter</code> is decremented by the macro.
+   *
+   * @param counter register which holds the trip count. It is treated as unsigned, and it will be 0 after the loop.
+   * @param unroll unroll factor. In the range 1 to 4095.
+   * @param body emitter of the loop body. It must not change <code>counter</code>.
+   * @param step emitter which is placed after the copies of <code>body</code>.
+   * @return This instance
+   * @throws IllegalArgumentException if the unroll factor is invalid.
+   */
+  public T countedLoop(Register counter, int unroll, ObjIntConsumer<T> body, ObjIntConsumer<T> step){
+    if((unroll < 1) || (unroll > 4095)){
+      throw new IllegalArgumentException("Unroll factor must be in the range 1 to 4095: " + unroll);
+    }
+
+    Label remainderLoop = newLabel();
+    Label exit = newLabel();
+
+    if(unroll > 1){
+      Label main = newLabel();
+      Label remainder = newLabel();
+      cmpImm(counter, unroll, false);
+      bcond(Condition.LO, remainder);
+      alignWithNOP(LOOP_ALIGNMENT);
+      label(main);
+      for(int i = 0; i < unroll; i++){
+        body.accept(castToT(), i);
+      }
+      step.accept(castToT(), unroll);
+      subImm(counter, counter, unroll, false);
+      cmpImm(counter, unroll, false);
+      bcond(Condition.HS, main);
+      label(remainder);
+    }
+
+    cmp(counter, Register.XZR, ShiftType.LSL, (byte)0);
+    bcond(Condition.EQ, exit);
+    alignWithNOP(LOOP_ALIGNMENT);
+    label(remainderLoop);
+    body.accept(castToT(), 0);
+    step.accept(castToT(), 1);
+    subImm(counter, counter, 1, false);
+    cmp(counter, Register.XZR, ShiftType.LSL, (byte)0);
+    bcond(Condition.NE, remainderLoop);
+    return label(exit);
+  }
+
+  @Override
+  protected void patchSymbolReference(ByteBuffer code, int kind, int position, long offset){
+    if(kind != LABEL_REF_IMM26){
+      throw new IllegalArgumentException("Unknown symbol reference: " + kind);
+    }
+    if((offset < -(1L << 27)) || (offset >= (1L << 27))){
+      throw new IllegalStateException("Symbol is out of range of imm26: " + offset);
+    }
+    code.putInt(position, code.getInt(position) | encodeBranchOffset(kind, (int)offset));
+  }
+
+  private T symbolBranch(int encoded, String symbol){
+    addSymbolReference(symbol, LABEL_REF_IMM26, byteBuf.position());
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Branch with link to the function in CodeSegment which is named via
+   * build() or getMemorySegment(). It might be defined after this call,
+   * then the offset is patched when it is defined.
+   * The function must be within +/-128MB.
+   *
+   * @param symbol name of the function in CodeSegment
+   * @return This instance
+   */
+  public T blSymbol(String symbol){
+    return symbolBranch(0b100101 << 26, symbol);
+  }
+
+  /**
+   * Branch unconditionally to the function in CodeSegment.
+   * It is resolved as {@link #blSymbol(String)}, and can be used for tail call.
+   *
+   * @param symbol name of the function in CodeSegment
+   * @return This instance
+   */
+  public T bSymbol(String symbol){
+    return symbolBranch(0b000101 << 26, symbol);
+  }
+
+  private T addressBranch(int encoded, long address){
+    long offset = address - getCodeAddress();
+    if((offset < -(1L << 27)) || (offset >= (1L << 27)) || ((offset & 0b11) != 0)){
+      throw new IllegalArgumentException("Address is out of range of imm26: " + address);
+    }
+    byteBuf.putInt(encoded | encodeBranchOffset(LABEL_REF_IMM26, (int)offset));
+    return castToT();
+  }
+
+  /**
+   * Branch with link to the absolute address.
+   * The offset is calculated from the absolute address of the code.
+   * It can be patched as {@link com.yasuenag.ffmasm.Stencil.Hole#BRANCH26}.
+   *
+   * @param address absolute address of the target. It must be within +/-128MB.
+   * @return This instance
+   * @throws IllegalArgumentException if the address is out of range.
+   */
+  public T bl(long address){
+    return addressBranch(0b100101 << 26, address);
+  }
+
+  /**
+   * Branch unconditionally to the absolute address.
+   * The offset is calculated from the absolute address of the code.
+   * It can be patched as {@link com.yasuenag.ffmasm.Stencil.Hole#BRANCH26}.
+   *
+   * @param address absolute address of the target. It must be within +/-128MB.
+   * @return This instance
+   * @throws IllegalArgumentException if the address is out of range.
+   */
+  public T b(long address){
+    return addressBranch(0b000101 << 26, address);
+  }
+
+  /**
+   * Form PC-relative address to 4KB page
+   *
+   * @param rd The general-purpose destination register.
+   * @param address Absolute address. The address of 4KB page which includes it is set to rd.
+   * @return This instance
+   * @throws IllegalArgumentException if the address is out of range (+/-4GB).
+   */
+  public T adrp(Register rd, long address){
+    long pages = (address >> 12) - (getCodeAddress() >> 12);
+    if((pages < -(1L << 20)) || (pages >= (1L << 20))){
+      throw new IllegalArgumentException("Address is out of range: " + address);
+    }
+    int imm = (int)pages;
+    int encoded = (1 << 31) |
+                  ((imm & 0b11) << 29) |
+                  (0b10000 << 24) |
+                  (((imm >> 2) & 0x7ffff) << 5) |
+                  rd.encoding();
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Call the native function via the import table of CodeSegment.
+   * The symbol is looked up via SymbolLookup of CodeSegment when it is
+   * imported first, then the address is loaded from the slot with
+   * PC-relative addressing. SP is always aligned to 16 bytes on AArch64.
+   * X16 (IP0) is used as scratch register, and X30 (LR) is overwritten,
+   * so LR has to be saved in the prologue as usual.
+   *   adrp x16, slot
+   *   ldr x16, [x16, #:lo12:slot]
+   *   blr x16
+   *
+   * @param symbol symbol name of the native function
+   * @return This instance
+   * @throws IllegalArgumentException if the symbol is not found.
+   */
+  public T callNative(String symbol){
+    long slot = importSymbol(symbol).address();
+    return adrp(Register.X16, slot)
+          .ldr(Register.X16, Register.X16, IndexClass.UnsignedOffset, (int)(slot & 0xfff))
+          .blr(Register.X16);
+  }
+
+  /**
+   * Branch to register
+   *
+   * @param rn The general-purpose register holding the address to be branched to.
+   * @return This instance
+   */
+  public T br(Register rn){
+    int encoded = (0b1101011000011111000000 << 10) | (rn.encoding() << 5);
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Branch with link to register
+   *
+   * @param rn The general-purpose register holding the address to be branched to.
+   * @return This instance
+   */
+  public T blr(Register rn){
+    int encoded = (0b1101011000111111000000 << 10) | (rn.encoding() << 5);
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * No operation (NOP)
+   *
+   * @return This instance
+   */
+  public T nop(){
+    byteBuf.putInt(0b11010101000000110010000000011111);
+    return castToT();
+  }
+
+  /**
+   * Align the address of the position to given boundary with NOPs.
+   *
+   * @param boundary boundary to align. It must be power of 2, and 4 or greater.
+   * @return This instance
+   * @throws IllegalArgumentException if the boundary is invalid.
+   */
+  public T alignWithNOP(int boundary){
+    if(boundary < 4){
+      throw new IllegalArgumentException("Alignment must be 4 or greater: " + boundary);
+    }
+    int padding = getPaddingTo(boundary);
+    for(int i = 0; i < padding; i += 4){
+      nop();
+    }
+    return castToT();
+  }
+
+  private T hintInternal(byte crm, byte op2){
+    int encoded = (0b11010101000000110010 << 12) |
+                  (crm << 8) |
+                  (op2 << 5) |
+                  0b11111;
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Yield (hint for spin-wait loop)
+   *
+   * @return This instance
+   */
+  public T yield(){
+    return hintInternal((byte)0b0000, (byte)0b001);
+  }
+
+  /**
+   * Wait for event
+   *
+   * @return This instance
+   */
+  public T wfe(){
+    return hintInternal((byte)0b0000, (byte)0b010);
+  }
+
+  /**
+   * Send event
+   *
+   * @return This instance
+   */
+  public T sev(){
+    return hintInternal((byte)0b0000, (byte)0b100);
+  }
+
+  /**
+   * Send event local
+   *
+   * @return This instance
+   */
+  public T sevl(){
+    return hintInternal((byte)0b0000, (byte)0b101);
+  }
+
+  /**
+   * Pointer Authentication Code for instruction address, using key A for X30 (LR)
+   *
+   * @return This instance
+   */
+  public T paciaz(){
+    byte crm = (byte)0b0011;
+    byte op2 = (byte)0b000;
+    int encoded = (0b11010101000000110010 << 12) |
+                  (crm << 8) |
+                  (op2 << 5) |
+                  0b11111;
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Authenticate instruction address, using key A for X30 (LR)
+   *
+   * @return This instance
+   */
+  public T autiaz(){
+    byte crm = (byte)0b0011;
+    byte op2 = (byte)0b100;
+    int encoded = (0b11010101000000110010 << 12) |
+                  (crm << 8) |
+                  (op2 << 5) |
+                  0b11111;
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Return from subroutine, with pointer authentication
+   *
+   * @return This instance
+   */
+  public T retaa(){
+    byte m = (byte)0;
+    int encoded = (0b110101100101111100001 << 11) |
+                  (m << 10) |
+                  0b1111111111;
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Data memory barrier
+   *
+   * @return This instance
+   */
+  public T dmb(DMBOptions option){
+    byte opc = 0b01;
+    byte rt = 0b11111;
+    int encoded = (0b11010101000000110011 << 12) |
+                  (option.crm() << 8) |
+                  (1 << 7) |
+                  (opc << 5) |
+                  rt;
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Instruction synchronization barrier (full system)
+   *
+   * @return This instance
+   */
+  public T isb(){
+    byte opc = 0b10;
+    byte rt = 0b11111;
+    int encoded = (0b11010101000000110011 << 12) |
+                  (0b1111 << 8) |
+                  (1 << 7) |
+                  (opc << 5) |
+                  rt;
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Data synchronization barrier
+   *
+   * @param option shareability domain and access types. It is shared with DMB.
+   * @return This instance
+   */
+  public T dsb(DMBOptions option){
+    byte opc = 0b00;
+    byte rt = 0b11111;
+    int encoded = (0b11010101000000110011 << 12) |
+                  (option.crm() << 8) |
+                  (1 << 7) |
+                  (opc << 5) |
+                  rt;
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Data cache clean by virtual address to point of unification
+   * (alias of SYS #3, C7, C11, #1)
+   *
+   * @param rt register which holds virtual address
+   * @return This instance
+   */
+  public T dcCvau(Register rt){
+    int encoded = (0b1101010100001011 << 16) |
+                  (0b0111 << 12) | // CRn
+                  (0b1011 << 8) |  // CRm
+                  (0b001 << 5) |   // op2
+                  rt.encoding();
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Instruction cache invalidate by virtual address to point of unification
+   * (alias of SYS #3, C7, C5, #1)
+   *
+   * @param rt register which holds virtual address
+   * @return This instance
+   */
+  public T icIvau(Register rt){
+    int encoded = (0b1101010100001011 << 16) |
+                  (0b0111 << 12) | // CRn
+                  (0b0101 << 8) |  // CRm
+                  (0b001 << 5) |   // op2
+                  rt.encoding();
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Supervisor call
+   *
+   * @param imm Unsigned immediate value
+   * @return This instance
+   */
+  public T svc(int imm){
+    int encoded = (0b11010100000 << 21) |
+                  ((imm & 0xffff) << 5) |
+                  0b00001;
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Move system register to general-purpose register
+   *
+   * @param rt Destination general-purpose register. It must be 64 bit register.
+   * @param sysreg System register to be read.
+   * @return This instance
+   */
+  public T mrs(Register rt, SystemRegister sysreg){
+    int encoded = (0b1101010100110 << 19) |
+                  (sysreg.encoding() << 5) |
+                  rt.encoding();
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  private T crc32Internal(Register rd, Register rn, Register rm, int c, int sz){
+    byte sf = sz == 0b11 ? (byte)1 : (byte)0;
+    int encoded = (sf << 31) |
+                  (0b0011010110 << 21) |
+                  (rm.encoding() << 16) |
+                  (0b010 << 13) |
+                  (c << 12) |
+                  (sz << 10) |
+                  (rn.encoding() << 5) |
+                  rd.encoding();
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * CRC32 checksum (byte)
+   * Performs a cyclic redundancy check calculation with the polynomial 0x04C11DB7
+   * on the low byte of rm, and accumulates it into rd.
+   * FEAT_CRC32 is required.
+   *
+   * @param rd The 32-bit general-purpose accumulator output register.
+   * @param rn The 32-bit general-purpose register holding the previous CRC value.
+   * @param rm The 32-bit general-purpose data source register.
+   * @return This instance
+   */
+  public T crc32b(Register rd, Register rn, Register rm){
+    return crc32Internal(rd, rn, rm, 0, 0b00);
+  }
+
+  /**
+   * CRC32 checksum (halfword)
+   * Performs a cyclic redundancy check calculation with the polynomial 0x04C11DB7
+   * on the low halfword of rm, and accumulates it into rd.
+   * FEAT_CRC32 is required.
+   *
+   * @param rd The 32-bit general-purpose accumulator output register.
+   * @param rn The 32-bit general-purpose register holding the previous CRC value.
+   * @param rm The 32-bit general-purpose data source register.
+   * @return This instance
+   */
+  public T crc32h(Register rd, Register rn, Register rm){
+    return crc32Internal(rd, rn, rm, 0, 0b01);
+  }
+
+  /**
+   * CRC32 checksum (word)
+   * Performs a cyclic redundancy check calculation with the polynomial 0x04C11DB7
+   * on rm, and accumulates it into rd.
+   * FEAT_CRC32 is required.
+   *
+   * @param rd The 32-bit general-purpose accumulator output register.
+   * @param rn The 32-bit general-purpose register holding the previous CRC value.
+   * @param rm The 32-bit general-purpose data source register.
+   * @return This instance
+   */
+  public T crc32w(Register rd, Register rn, Register rm){
+    return crc32Internal(rd, rn, rm, 0, 0b10);
+  }
+
+  /**
+   * CRC32 checksum (doubleword)
+   * Performs a cyclic redundancy check calculation with the polynomial 0x04C11DB7
+   * on rm, and accumulates it into rd.
+   * FEAT_CRC32 is required.
+   *
+   * @param rd The 32-bit general-purpose accumulator output register.
+   * @param rn The 32-bit general-purpose register holding the previous CRC value.
+   * @param rm The 64-bit general-purpose data source register.
+   * @return This instance
+   */
+  public T crc32x(Register rd, Register rn, Register rm){
+    return crc32Internal(rd, rn, rm, 0, 0b11);
+  }
+
+  /**
+   * CRC32C checksum (byte)
+   * Performs a cyclic redundancy check calculation with the polynomial 0x1EDC6F41
+   * on the low byte of rm, and accumulates it into rd.
+   * FEAT_CRC32 is required.
+   *
+   * @param rd The 32-bit general-purpose accumulator output register.
+   * @param rn The 32-bit general-purpose register holding the previous CRC value.
+   * @param rm The 32-bit general-purpose data source register.
+   * @return This instance
+   */
+  public T crc32cb(Register rd, Register rn, Register rm){
+    return crc32Internal(rd, rn, rm, 1, 0b00);
+  }
+
+  /**
+   * CRC32C checksum (halfword)
+   * Performs a cyclic redundancy check calculation with the polynomial 0x1EDC6F41
+   * on the low halfword of rm, and accumulates it into rd.
+   * FEAT_CRC32 is required.
+   *
+   * @param rd The 32-bit general-purpose accumulator output register.
+   * @param rn The 32-bit general-purpose register holding the previous CRC value.
+   * @param rm The 32-bit general-purpose data source register.
+   * @return This instance
+   */
+  public T crc32ch(Register rd, Register rn, Register rm){
+    return crc32Internal(rd, rn, rm, 1, 0b01);
+  }
+
+  /**
+   * CRC32C checksum (word)
+   * Performs a cyclic redundancy check calculation with the polynomial 0x1EDC6F41
+   * on rm, and accumulates it into rd.
+   * FEAT_CRC32 is required.
+   *
+   * @param rd The 32-bit general-purpose accumulator output register.
+   * @param rn The 32-bit general-purpose register holding the previous CRC value.
+   * @param rm The 32-bit general-purpose data source register.
+   * @return This instance
+   */
+  public T crc32cw(Register rd, Register rn, Register rm){
+    return crc32Internal(rd, rn, rm, 1, 0b10);
+  }
+
+  /**
+   * CRC32C checksum (doubleword)
+   * Performs a cyclic redundancy check calculation with the polynomial 0x1EDC6F41
+   * on rm, and accumulates it into rd.
+   * FEAT_CRC32 is required.
+   *
+   * @param rd The 32-bit general-purpose accumulator output register.
+   * @param rn The 32-bit general-purpose register holding the previous CRC value.
+   * @param rm The 64-bit general-purpose data source register.
+   * @return This instance
+   */
+  public T crc32cx(Register rd, Register rn, Register rm){
+    return crc32Internal(rd, rn, rm, 1, 0b11);
+  }
+
+  private T pmullInternal(Register rd, Register rn, Register rm, PolynomialSize size, int q){
+    int encoded = (q << 30) |
+                  (0b001110 << 24) |
+                  (size.value() << 22) |
+                  (1 << 21) |
+                  (rm.encoding() << 16) |
+                  (0b111000 << 10) |
+                  (rn.encoding() << 5) |
+                  rd.encoding();
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * Polynomial multiply long (lower half)
+   * Multiplies corresponding elements in the lower half of rn and rm as polynomials
+   * over {0, 1}, and places the double-width results into rd.
+   * PMULL Vd.8H, Vn.8B, Vm.8B (P8) or PMULL Vd.1Q, Vn.1D, Vm.1D (P64).
+   * P64 requires FEAT_PMULL.
+   *
+   * @param rd The SIMD destination register.
+   * @param rn The first SIMD source register.
+   * @param rm The second SIMD source register.
+   * @param size Element size of source operands.
+   * @return This instance
+   */
+  public T pmull(Register rd, Register rn, Register rm, PolynomialSize size){
+    return pmullInternal(rd, rn, rm, size, 0);
+  }
+
+  /**
+   * Polynomial multiply long (upper half)
+   * Multiplies corresponding elements in the upper half of rn and rm as polynomials
+   * over {0, 1}, and places the double-width results into rd.
+   * PMULL2 Vd.8H, Vn.16B, Vm.16B (P8) or PMULL2 Vd.1Q, Vn.2D, Vm.2D (P64).
+   * P64 requires FEAT_PMULL.
+   *
+   * @param rd The SIMD destination register.
+   * @param rn The first SIMD source register.
+   * @param rm The second SIMD source register.
+   * @param size Element size of source operands.
+   * @return This instance
+   */
+  public T pmull2(Register rd, Register rn, Register rm, PolynomialSize size){
+    return pmullInternal(rd, rn, rm, size, 1);
+  }
+
+  private T aesInternal(Register rd, Register rn, int opcode){
+    int encoded = (0b0100111000101000 << 16) |
+                  (opcode << 12) |
+                  (0b10 << 10) |
+                  (rn.encoding() << 5) |
+                  rd.encoding();
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * AES single round encryption
+   * XORs rd with round key in rn, then performs AES SubBytes and ShiftRows to rd.
+   * AESE Vd.16B, Vn.16B. FEAT_AES is required.
+   *
+   * @param rd The SIMD register holding the state. The result is stored to it.
+   * @param rn The SIMD register holding the round key.
+   * @return This instance
+   */
+  public T aese(Register rd, Register rn){
+    return aesInternal(rd, rn, 0b0100);
+  }
+
+  /**
+   * AES single round decryption
+   * XORs rd with round key in rn, then performs AES InvSubBytes and InvShiftRows to rd.
+   * AESD Vd.16B, Vn.16B. FEAT_AES is required.
+   *
+   * @param rd The SIMD register holding the state. The result is stored to it.
+   * @param rn The SIMD register holding the round key.
+   * @return This instance
+   */
+  public T aesd(Register rd, Register rn){
+    return aesInternal(rd, rn, 0b0101);
+  }
+
+  /**
+   * AES mix columns
+   * Performs AES MixColumns transformation to rn, and stores the result to rd.
+   * AESMC Vd.16B, Vn.16B. FEAT_AES is required.
+   *
+   * @param rd The SIMD destination register.
+   * @param rn The SIMD source register.
+   * @return This instance
+   */
+  public T aesmc(Register rd, Register rn){
+    return aesInternal(rd, rn, 0b0110);
+  }
+
+  /**
+   * AES inverse mix columns
+   * Performs AES InvMixColumns transformation to rn, and stores the result to rd.
+   * AESIMC Vd.16B, Vn.16B. FEAT_AES is required.
+   *
+   * @param rd The SIMD destination register.
+   * @param rn The SIMD source register.
+   * @return This instance
+   */
+  public T aesimc(Register rd, Register rn){
+    return aesInternal(rd, rn, 0b0111);
+  }
+
+  private T sha3RegInternal(Register rd, Register rn, Register rm, int opcode){
+    int encoded = (0b01011110000 << 21) |
+                  (rm.encoding() << 16) |
+                  (opcode << 12) |
+                  (rn.encoding() << 5) |
+                  rd.encoding();
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * SHA256 hash update (part 1)
+   * Performs four rounds of SHA256 hash update with hash values "abcd" in rd,
+   * "efgh" in rn and schedule data in rm, then stores new "abcd" to rd.
+   * SHA256H Qd, Qn, Vm.4S. FEAT_SHA256 is required.
+   *
+   * @param rd The SIMD register holding "abcd". The result is stored to it.
+   * @param rn The SIMD register holding "efgh".
+   * @param rm The SIMD register holding schedule data (4 words).
+   * @return This instance
+   */
+  public T sha256h(Register rd, Register rn, Register rm){
+    return sha3RegInternal(rd, rn, rm, 0b0100);
+  }
+
+  /**
+   * SHA256 hash update (part 2)
+   * Performs four rounds of SHA256 hash update with hash values "efgh" in rd,
+   * "abcd" in rn and schedule data in rm, then stores new "efgh" to rd.
+   * SHA256H2 Qd, Qn, Vm.4S. FEAT_SHA256 is required.
+   *
+   * @param rd The SIMD register holding "efgh". The result is stored to it.
+   * @param rn The SIMD register holding "abcd" before SHA256H.
+   * @param rm The SIMD register holding schedule data (4 words).
+   * @return This instance
+   */
+  public T sha256h2(Register rd, Register rn, Register rm){
+    return sha3RegInternal(rd, rn, rm, 0b0101);
+  }
+
+  /**
+   * SHA256 schedule update 0
+   * Performs the first part of SHA256 message schedule update with rd and rn,
+   * and stores the result to rd.
+   * SHA256SU0 Vd.4S, Vn.4S. FEAT_SHA256 is required.
+   *
+   * @param rd The SIMD register holding W[0..3]. The result is stored to it.
+   * @param rn The SIMD register holding W[4..7].
+   * @return This instance
+   */
+  public T sha256su0(Register rd, Register rn){
+    int encoded = (0b0101111000101000001010 << 10) |
+                  (rn.encoding() << 5) |
+                  rd.encoding();
+
+    byteBuf.putInt(encoded);
+    return castToT();
+  }
+
+  /**
+   * SHA256 schedule update 1
+   * Performs the second part of SHA256 message schedule update with rd, rn and rm,
+   * and stores the result to rd.
+   * SHA256SU1 Vd.4S, Vn.4S, Vm.4S. FEAT_SHA256 is required.
+   *
+   * @param rd The SIMD register holding the result of SHA256SU0. The result is stored to it.
+   * @param rn The SIMD register holding W[8..11].
+   * @param rm The SIMD register holding W[12..15].
+   * @return This instance
+   */
+  public T sha256su1(Register rd, Register rn, Register rm){
+    return sha3RegInternal(rd, rn, rm, 0b0110);
   }
 
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.aarch64;
+
+
+/**
+ * Condition codes for B.cond
+ *
+ * @author Yasumasa Suenaga
+ */
+public enum Condition{
+
+  EQ((byte)0b0000), // equal
+  NE((byte)0b0001), // not equal
+  HS((byte)0b0010), // unsigned higher or same (carry set)
+  LO((byte)0b0011), // unsigned lower (carry clear)
+  MI((byte)0b0100), // negative
+  PL((byte)0b0101), // positive or zero
+  VS((byte)0b0110), // overflow
+  VC((byte)0b0111), // no overflow
+  HI((byte)0b1000), // unsigned higher
+  LS((byte)0b1001), // unsigned lower or same
+  GE((byte)0b1010), // signed greater than or equal
+  LT((byte)0b1011), // signed less than
+  GT((byte)0b1100), // signed greater than
+  LE((byte)0b1101); // signed less than or equal
+
+  private final byte value;
+
+  private Condition(byte value){
+    this.value = value;
+  }
+
+  /**
+   * Raw value of this condition.
+   * @return cond
+   */
+  public byte value(){
+    return value;
+  }
+
+  /**
+   * Negated condition. It is given by flipping the lowest bit.
+   * @return negated condition
+   */
+  public Condition negate(){
+    return values()[value ^ 1];
+  }
+
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2025 Yasumasa Suenaga
+ * Copyright (C) 2025, 2026, Yasumasa Suenaga
  *
  * This file is part of ffmasm.
  *
@@ -20,7 +20,7 @@ package com.yasuenag.ffmasm.aarch64;
 
 
 /**
- * Enum for options of DMB instruction
+ * Enum for options of DMB and DSB instruction
  *
  * @author Yasumasa Suenaga
  */
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.aarch64;
+
+
+/**
+ * Element size of source operands for polynomial multiply (PMULL/PMULL2)
+ *
+ * @author Yasumasa Suenaga
+ */
+public enum PolynomialSize{
+
+  /**
+   * 8 bit polynomial (8B/16B to 8H)
+   */
+  P8((byte)0b00),
+
+  /**
+   * 64 bit polynomial (1D/2D to 1Q)
+   */
+  P64((byte)0b11);
+
+  private final byte value;
+
+  private PolynomialSize(byte value){
+    this.value = value;
+  }
+
+  /**
+   * Raw value of "size" field.
+   * @return size
+   */
+  public byte value(){
+    return value;
+  }
+
+}
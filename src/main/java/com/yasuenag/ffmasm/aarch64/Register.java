@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2025 Yasumasa Suenaga
+ * Copyright (C) 2025, 2026, Yasumasa Suenaga
  *
  * This file is part of ffmasm.
  *
@@ -91,7 +91,40 @@ public enum Register{
   X29(29, 64),
   X30(30, 64),
   SP(-1, 64),
-  XZR(-1, 64);
+  XZR(-1, 64),
+
+  V0(0, 128),
+  V1(1, 128),
+  V2(2, 128),
+  V3(3, 128),
+  V4(4, 128),
+  V5(5, 128),
+  V6(6, 128),
+  V7(7, 128),
+  V8(8, 128),
+  V9(9, 128),
+  V10(10, 128),
+  V11(11, 128),
+  V12(12, 128),
+  V13(13, 128),
+  V14(14, 128),
+  V15(15, 128),
+  V16(16, 128),
+  V17(17, 128),
+  V18(18, 128),
+  V19(19, 128),
+  V20(20, 128),
+  V21(21, 128),
+  V22(22, 128),
+  V23(23, 128),
+  V24(24, 128),
+  V25(25, 128),
+  V26(26, 128),
+  V27(27, 128),
+  V28(28, 128),
+  V29(29, 128),
+  V30(30, 128),
+  V31(31, 128);
 
   private final int encoding;
 
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.aarch64;
+
+
+/**
+ * Enum for system registers which can be accessed from EL0.
+ *
+ * @author Yasumasa Suenaga
+ */
+public enum SystemRegister{
+
+  /** Counter-timer Frequency register */
+  CNTFRQ_EL0(3, 3, 14, 0, 0),
+
+  /** Counter-timer Physical Count register */
+  CNTPCT_EL0(3, 3, 14, 0, 1),
+
+  /** Counter-timer Virtual Count register */
+  CNTVCT_EL0(3, 3, 14, 0, 2),
+
+  /** EL0 Read/Write Software Thread ID Register */
+  TPIDR_EL0(3, 3, 13, 0, 2),
+
+  /** EL0 Read-Only Software Thread ID Register */
+  TPIDRRO_EL0(3, 3, 13, 0, 3);
+
+  private final int op0;
+  private final int op1;
+  private final int crn;
+  private final int crm;
+  private final int op2;
+
+  private SystemRegister(int op0, int op1, int crn, int crm, int op2){
+    this.op0 = op0;
+    this.op1 = op1;
+    this.crn = crn;
+    this.crm = crm;
+    this.op2 = op2;
+  }
+
+  /**
+   * Encoded value of this register for MRS/MSR instruction.
+   * It consists of o0:op1:CRn:CRm:op2 (bits 19:5 of the instruction).
+   * @return encoded value
+   */
+  public int encoding(){
+    return ((op0 & 0b1) << 14) |
+           (op1 << 11) |
+           (crn << 7) |
+           (crm << 3) |
+           op2;
+  }
+
+}
@@ -19,13 +19,16 @@
 package com.yasuenag.ffmasm.amd64;
 
 import java.lang.foreign.FunctionDescriptor;
+import java.nio.ByteBuffer;
 import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 import java.util.HashSet;
 import java.util.OptionalInt;
 import java.util.Set;
 
 import com.yasuenag.ffmasm.AsmBuilder;
 import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.Label;
 import com.yasuenag.ffmasm.UnsupportedPlatformException;
 import com.yasuenag.ffmasm.amd64.Register;
 
@@ -37,6 +40,13 @@ import com.yasuenag.ffmasm.amd64.Register;
  */
 public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>{
 
+  // Kind of label reference: rel32 which is relative to the end of it.
+  private static final int LABEL_REF_REL32 = 0;
+
+  // Kind of label reference: entry of jump table which is relative to the head of the table.
+  // The position of the head is stored in the entry until it is patched.
+  private static final int LABEL_REF_TABLE32 = 1;
+
   /**
    * Constructor.
    *
@@ -87,21 +97,29 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
   }
 
   protected byte emitModRM(Register r, Register m, OptionalInt disp){
-    return emitModRM(r.encoding(), m.encoding(), disp);
+    return emitModRM(r.encoding(), m.encoding(), disp.isPresent(), disp.orElse(0));
   }
 
   protected byte emitModRM(Register m, int digit, OptionalInt disp){
-    return emitModRM(digit, m.encoding(), disp);
+    return emitModRM(digit, m.encoding(), disp.isPresent(), disp.orElse(0));
+  }
+
+  protected byte emitModRM(Register r, Register m, boolean isMemory, int disp){
+    return emitModRM(r.encoding(), m.encoding(), isMemory, disp);
   }
 
-  private byte emitModRM(int r, int m, OptionalInt disp){
+  protected byte emitModRM(Register m, int digit, boolean isMemory, int disp){
+    return emitModRM(digit, m.encoding(), isMemory, disp);
+  }
+
+  private byte emitModRM(int r, int m, boolean isMemory, int disp){
     byte mode = (byte)0b11; // reg-reg by default
-    if(disp.isPresent()){
-      int dispAsInt = disp.getAsInt();
-      if(dispAsInt == 0){
-        mode = (m == Register.RBP.encoding()) ? (byte)0b01 : (byte)0b00;
+    if(isMemory){
+      if(disp == 0){
+        // RBP and R13 cannot be a base without displacement
+        mode = ((m & 0x7) == 0b101) ? (byte)0b01 : (byte)0b00;
       }
-      else if(dispAsInt <= Byte.MAX_VALUE){
+      else if((disp >= Byte.MIN_VALUE) && (disp <= Byte.MAX_VALUE)){
         mode = (byte)0b01; // disp8
       }
       else{
@@ -117,24 +135,23 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
   }
 
   protected void emitDisp(byte mode, OptionalInt disp, Register m){
-    if((mode != 0b11) && (m == Register.RSP)){
+    emitDisp(mode, disp.orElse(0), m);
+  }
+
+  protected void emitDisp(byte mode, int disp, Register m){
+    if((mode != 0b11) && ((m.encoding() & 0x7) == 0b100)){
       // We should add SIB byte.
       //
       // Intel SDM
       //   Table 2-5. Special Cases of REX Encodings
-      byteBuf.put((byte)0x24); // index and base are SP
+      byteBuf.put((byte)0x24); // index is none, and base is SP or R12
     }
 
     if(mode == 0b01){ // reg-mem disp8
-      byteBuf.put((byte)disp.orElse(0));
+      byteBuf.put((byte)disp);
     }
     else if(mode == 0b10){ // reg-mem disp32
-      byteBuf.putInt(disp.getAsInt());
-    }
-    else if((mode == 0) && (m == Register.RBP) || (m == Register.R13)){
-      // Intel SDM
-      //   Table 2-5. Special Cases of REX Encodings
-      byteBuf.put((byte)0);
+      byteBuf.putInt(disp);
     }
   }
 
@@ -205,6 +222,39 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     }
   }
 
+  private T rmOp(Register r, Register m, byte opcode8, byte opcode, boolean isMemory, int disp){
+    emitREXOp(r, m);
+    byteBuf.put((r.width() == 8) ? opcode8 : opcode);
+    byte mode = emitModRM(r, m, isMemory, disp);
+    emitDisp(mode, disp, m);
+    return castToT();
+  }
+
+  private T immOp(Register m, byte opcode8, byte opcode, int digit, int imm, boolean isMemory, int disp){
+    Register dummy = switch(m.width()){
+      case  8 -> Register.AL;
+      case 16 -> Register.AX;
+      case 32 -> Register.EAX;
+      default -> Register.RAX;
+    };
+    emitREXOp(dummy, m);
+    byteBuf.put((m.width() == 8) ? opcode8 : opcode);
+    byte mode = emitModRM(m, digit, isMemory, disp);
+    emitDisp(mode, disp, m);
+
+    if(m.width() == 8){
+      byteBuf.put((byte)imm); // imm8
+    }
+    else if(m.width() == 16){
+      byteBuf.putShort((short)imm); // imm16
+    }
+    else{
+      byteBuf.putInt(imm); // imm32
+    }
+
+    return castToT();
+  }
+
   /**
    * Move r to r/m.
    * If "r" is 64 bit register, Add REX.W to instruction, otherwise it will not happen.
@@ -223,12 +273,32 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T movMR(Register r, Register m, OptionalInt disp){
-    emitREXOp(r, m);
-    byte opcode = (r.width() == 8) ? (byte)0x88 : (byte)0x89;
-    byteBuf.put(opcode); // MOV
-    byte mode = emitModRM(r, m, disp);
-    emitDisp(mode, disp, m);
-    return castToT();
+    return rmOp(r, m, (byte)0x88, (byte)0x89, disp.isPresent(), disp.orElse(0));
+  }
+
+  /**
+   * Move r to r/m.
+   * This is reg-reg operation of {@link #movMR(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register
+   * @return This instance
+   */
+  public T movMR(Register r, Register m){
+    return rmOp(r, m, (byte)0x88, (byte)0x89, false, 0);
+  }
+
+  /**
+   * Move r to r/m.
+   * This is reg-mem operation of {@link #movMR(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T movMR(Register r, Register m, int disp){
+    return rmOp(r, m, (byte)0x88, (byte)0x89, true, disp);
   }
 
   /**
@@ -249,12 +319,32 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T movRM(Register r, Register m, OptionalInt disp){
-    emitREXOp(r, m);
-    byte opcode = (r.width() == 8) ? (byte)0x8A : (byte)0x8B;
-    byteBuf.put(opcode); // MOV
-    byte mode = emitModRM(r, m, disp);
-    emitDisp(mode, disp, m);
-    return castToT();
+    return rmOp(r, m, (byte)0x8A, (byte)0x8B, disp.isPresent(), disp.orElse(0));
+  }
+
+  /**
+   * Move r/m to r.
+   * This is reg-reg operation of {@link #movRM(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register
+   * @return This instance
+   */
+  public T movRM(Register r, Register m){
+    return rmOp(r, m, (byte)0x8A, (byte)0x8B, false, 0);
+  }
+
+  /**
+   * Move r/m to r.
+   * This is reg-mem operation of {@link #movRM(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T movRM(Register r, Register m, int disp){
+    return rmOp(r, m, (byte)0x8A, (byte)0x8B, true, disp);
   }
 
   /**
@@ -270,12 +360,32 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T cmpRM(Register r, Register m, OptionalInt disp){
-    emitREXOp(r, m);
-    byte opcode = (r.width() == 8) ? (byte)0x3a : (byte)0x3b;
-    byteBuf.put(opcode); // CMP
-    byte mode = emitModRM(r, m, disp);
-    emitDisp(mode, disp, m);
-    return castToT();
+    return rmOp(r, m, (byte)0x3a, (byte)0x3b, disp.isPresent(), disp.orElse(0));
+  }
+
+  /**
+   * Compare r with r/m.
+   * This is reg-reg operation of {@link #cmpRM(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register
+   * @return This instance
+   */
+  public T cmpRM(Register r, Register m){
+    return rmOp(r, m, (byte)0x3a, (byte)0x3b, false, 0);
+  }
+
+  /**
+   * Compare r with r/m.
+   * This is reg-mem operation of {@link #cmpRM(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T cmpRM(Register r, Register m, int disp){
+    return rmOp(r, m, (byte)0x3a, (byte)0x3b, true, disp);
   }
 
   /**
@@ -291,12 +401,73 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T addRM(Register r, Register m, OptionalInt disp){
-    emitREXOp(r, m);
-    byte opcode = (r.width() == 8) ? (byte)0x02 : (byte)0x03;
-    byteBuf.put(opcode); // ADD
-    byte mode = emitModRM(r, m, disp);
-    emitDisp(mode, disp, m);
-    return castToT();
+    return rmOp(r, m, (byte)0x02, (byte)0x03, disp.isPresent(), disp.orElse(0));
+  }
+
+  /**
+   * Add r/m to r.
+   * This is reg-reg operation of {@link #addRM(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register
+   * @return This instance
+   */
+  public T addRM(Register r, Register m){
+    return rmOp(r, m, (byte)0x02, (byte)0x03, false, 0);
+  }
+
+  /**
+   * Add r/m to r.
+   * This is reg-mem operation of {@link #addRM(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T addRM(Register r, Register m, int disp){
+    return rmOp(r, m, (byte)0x02, (byte)0x03, true, disp);
+  }
+
+  /**
+   * Subtract r/m from r.
+   *   Opcode: 2A /r (8 bit)
+   *           2B /r (16/32/64 bit)
+   *   Instruction: SUB r, r/m
+   *   Op/En: RM
+   *
+   * @param r "r" register
+   * @param m "r/m" register
+   * @param disp Displacement. Set "empty" if this operation is reg-reg.
+   * @return This instance
+   */
+  public T subRM(Register r, Register m, OptionalInt disp){
+    return rmOp(r, m, (byte)0x2a, (byte)0x2b, disp.isPresent(), disp.orElse(0));
+  }
+
+  /**
+   * Subtract r/m from r.
+   * This is reg-reg operation of {@link #subRM(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register
+   * @return This instance
+   */
+  public T subRM(Register r, Register m){
+    return rmOp(r, m, (byte)0x2a, (byte)0x2b, false, 0);
+  }
+
+  /**
+   * Subtract r/m from r.
+   * This is reg-mem operation of {@link #subRM(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T subRM(Register r, Register m, int disp){
+    return rmOp(r, m, (byte)0x2a, (byte)0x2b, true, disp);
   }
 
   /**
@@ -333,9 +504,9 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    */
   public T lea(Register r, Register m, int disp){
     emitREXOp(r, m);
-    byteBuf.put((byte)0x8D); // MOV
-    byte mode = emitModRM(r, m, OptionalInt.of(disp));
-    emitDisp(mode, OptionalInt.of(disp), m);
+    byteBuf.put((byte)0x8D); // LEA
+    byte mode = emitModRM(r, m, true, disp);
+    emitDisp(mode, disp, m);
     return castToT();
   }
 
@@ -354,12 +525,32 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T andMR(Register r, Register m, OptionalInt disp){
-    emitREXOp(r, m);
-    byte opcode = (r.width() == 8) ? (byte)0x20 : (byte)0x21;
-    byteBuf.put(opcode); // AND
-    byte mode = emitModRM(r, m, disp);
-    emitDisp(mode, disp, m);
-    return castToT();
+    return rmOp(r, m, (byte)0x20, (byte)0x21, disp.isPresent(), disp.orElse(0));
+  }
+
+  /**
+   * r/m AND r.
+   * This is reg-reg operation of {@link #andMR(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register
+   * @return This instance
+   */
+  public T andMR(Register r, Register m){
+    return rmOp(r, m, (byte)0x20, (byte)0x21, false, 0);
+  }
+
+  /**
+   * r/m AND r.
+   * This is reg-mem operation of {@link #andMR(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T andMR(Register r, Register m, int disp){
+    return rmOp(r, m, (byte)0x20, (byte)0x21, true, disp);
   }
 
   /**
@@ -377,12 +568,32 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T orMR(Register r, Register m, OptionalInt disp){
-    emitREXOp(r, m);
-    byte opcode = (r.width() == 8) ? (byte)0x08 : (byte)0x09;
-    byteBuf.put(opcode); // OR
-    byte mode = emitModRM(r, m, disp);
-    emitDisp(mode, disp, m);
-    return castToT();
+    return rmOp(r, m, (byte)0x08, (byte)0x09, disp.isPresent(), disp.orElse(0));
+  }
+
+  /**
+   * r/m OR r.
+   * This is reg-reg operation of {@link #orMR(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register
+   * @return This instance
+   */
+  public T orMR(Register r, Register m){
+    return rmOp(r, m, (byte)0x08, (byte)0x09, false, 0);
+  }
+
+  /**
+   * r/m OR r.
+   * This is reg-mem operation of {@link #orMR(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T orMR(Register r, Register m, int disp){
+    return rmOp(r, m, (byte)0x08, (byte)0x09, true, disp);
   }
 
   /**
@@ -400,12 +611,32 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T xorMR(Register r, Register m, OptionalInt disp){
-    emitREXOp(r, m);
-    byte opcode = (r.width() == 8) ? (byte)0x30 : (byte)0x31;
-    byteBuf.put(opcode); // OR
-    byte mode = emitModRM(r, m, disp);
-    emitDisp(mode, disp, m);
-    return castToT();
+    return rmOp(r, m, (byte)0x30, (byte)0x31, disp.isPresent(), disp.orElse(0));
+  }
+
+  /**
+   * r/m XOR r.
+   * This is reg-reg operation of {@link #xorMR(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register
+   * @return This instance
+   */
+  public T xorMR(Register r, Register m){
+    return rmOp(r, m, (byte)0x30, (byte)0x31, false, 0);
+  }
+
+  /**
+   * r/m XOR r.
+   * This is reg-mem operation of {@link #xorMR(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T xorMR(Register r, Register m, int disp){
+    return rmOp(r, m, (byte)0x30, (byte)0x31, true, disp);
   }
 
   /**
@@ -421,12 +652,32 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T test(Register r, Register m, OptionalInt disp){
-    emitREXOp(r, m);
-    byte opcode = (r.width() == 8) ? (byte)0x84 : (byte)0x85;
-    byteBuf.put(opcode); // TEST
-    byte mode = emitModRM(r, m, disp);
-    emitDisp(mode, disp, m);
-    return castToT();
+    return rmOp(r, m, (byte)0x84, (byte)0x85, disp.isPresent(), disp.orElse(0));
+  }
+
+  /**
+   * TEST r/m, r.
+   * This is reg-reg operation of {@link #test(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register
+   * @return This instance
+   */
+  public T test(Register r, Register m){
+    return rmOp(r, m, (byte)0x84, (byte)0x85, false, 0);
+  }
+
+  /**
+   * TEST r/m, r.
+   * This is reg-mem operation of {@link #test(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T test(Register r, Register m, int disp){
+    return rmOp(r, m, (byte)0x84, (byte)0x85, true, disp);
   }
 
   /**
@@ -442,29 +693,32 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T testImm(Register m, int imm, OptionalInt disp){
-    Register dummy = switch(m.width()){
-      case  8 -> Register.AL;
-      case 16 -> Register.AX;
-      case 32 -> Register.EAX;
-      default -> Register.RAX;
-    };
-    emitREXOp(dummy, m);
-    byte opcode = (m.width() == 8) ? (byte)0xf6 : (byte)0xf7;
-    byteBuf.put(opcode); // TEST
-    byte mode = emitModRM(m, 0, disp);
-    emitDisp(mode, disp, m);
+    return immOp(m, (byte)0xf6, (byte)0xf7, 0, imm, disp.isPresent(), disp.orElse(0));
+  }
 
-    if(m.width() == 8){
-      byteBuf.put((byte)imm); // imm8
-    }
-    else if(m.width() == 16){
-      byteBuf.putShort((short)imm); // imm16
-    }
-    else{
-      byteBuf.putInt(imm); // imm32
-    }
+  /**
+   * TEST r/m, imm.
+   * This is reg operation of {@link #testImm(Register, int, OptionalInt)}.
+   *
+   * @param m "r/m" register
+   * @param imm Immediate value
+   * @return This instance
+   */
+  public T testImm(Register m, int imm){
+    return immOp(m, (byte)0xf6, (byte)0xf7, 0, imm, false, 0);
+  }
 
-    return castToT();
+  /**
+   * TEST r/m, imm.
+   * This is mem operation of {@link #testImm(Register, int, OptionalInt)}.
+   *
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param imm Immediate value
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T testImm(Register m, int imm, int disp){
+    return immOp(m, (byte)0xf6, (byte)0xf7, 0, imm, true, disp);
   }
 
   /**
@@ -483,6 +737,22 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return castToT();
   }
 
+  /**
+   * Reads the contents of the extended control register (XCR) specified
+   * in the ECX register into registers EDX:EAX.
+   *   Opcode: NP 0F 01 D0
+   *   Instruction: XGETBV
+   *   Op/En: ZO
+   *
+   * @return This instance
+   */
+  public T xgetbv(){
+    byteBuf.put((byte)(0x0f));
+    byteBuf.put((byte)(0x01));
+    byteBuf.put((byte)(0xd0));
+    return castToT();
+  }
+
   /**
    * Set RSP to RBP, then pop RBP.
    *   Opcode: C9
@@ -496,6 +766,68 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return castToT();
   }
 
+  /**
+   * Hook which is called before emitting the instruction which leaves
+   * this code (RET, CALL r/m64, JMP r/m64).
+   */
+  protected void beforeLeavingFunction(){
+    // Do nothing by default
+  }
+
+  /**
+   * Hook which is called before emitting the branch to the label.
+   *
+   * @param label the label to jump.
+   */
+  protected void beforeBranch(String label){
+    // Do nothing by default
+  }
+
+  /**
+   * Hook which is called before emitting the branch to the label.
+   *
+   * @param label the label to jump.
+   */
+  protected void beforeBranch(Label label){
+    // Do nothing by default
+  }
+
+  @Override
+  protected void patchLabelReference(int kind, int position, int target){
+    switch(kind){
+      case LABEL_REF_REL32 -> byteBuf.putInt(position, target - (position + 4));
+      case LABEL_REF_TABLE32 -> byteBuf.putInt(position, target - byteBuf.getInt(position));
+      default -> throw new IllegalArgumentException("Unknown label reference: " + kind);
+    }
+  }
+
+  private void jcc(byte opcode8, byte opcode, Label label){
+    beforeBranch(label);
+
+    int labelPosition = getLabelPosition(label);
+    if(labelPosition == -1){
+      /* forward jump - rel32 will be patched when the label is bound */
+      byteBuf.put((byte)0x0f);
+      byteBuf.put(opcode);
+      addLabelReference(label, LABEL_REF_REL32, byteBuf.position());
+      byteBuf.putInt(0);
+    }
+    else{
+      int offset = labelPosition - byteBuf.position() - 2;
+      if(offset > -129){
+        // rel8
+        byteBuf.put(opcode8);
+        byteBuf.put((byte)offset);
+      }
+      else{
+        // rel32
+        byteBuf.put((byte)0x0f);
+        byteBuf.put(opcode);
+        byteBuf.putInt(offset - 4);
+      }
+    }
+  }
+
   /**
    * Near return to calling procedure.
    *   Opcode: C3
@@ -505,6 +837,7 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T ret(){
+    beforeLeavingFunction();
     byteBuf.put((byte)(0xc3));
     return castToT();
   }
@@ -527,29 +860,32 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T cmp(Register m, int imm, OptionalInt disp){
-    Register dummy = switch(m.width()){
-      case  8 -> Register.AL;
-      case 16 -> Register.AX;
-      case 32 -> Register.EAX;
-      default -> Register.RAX;
-    };
-    emitREXOp(dummy, m);
-    byte opcode = (m.width() == 8) ? (byte)0x80 : (byte)0x81;
-    byteBuf.put(opcode); // CMP
-    byte mode = emitModRM(m, 7, disp);
-    emitDisp(mode, disp, m);
+    return immOp(m, (byte)0x80, (byte)0x81, 7, imm, disp.isPresent(), disp.orElse(0));
+  }
 
-    if(m.width() == 8){
-      byteBuf.put((byte)imm); // imm8
-    }
-    else if(m.width() == 16){
-      byteBuf.putShort((short)imm); // imm16
-    }
-    else{
-      byteBuf.putInt(imm); // imm32
-    }
+  /**
+   * Compare imm with r/m.
+   * This is reg operation of {@link #cmp(Register, int, OptionalInt)}.
+   *
+   * @param m "r/m" register
+   * @param imm Immediate value
+   * @return This instance
+   */
+  public T cmp(Register m, int imm){
+    return immOp(m, (byte)0x80, (byte)0x81, 7, imm, false, 0);
+  }
 
-    return castToT();
+  /**
+   * Compare imm with r/m.
+   * This is mem operation of {@link #cmp(Register, int, OptionalInt)}.
+   *
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param imm Immediate value
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T cmp(Register m, int imm, int disp){
+    return immOp(m, (byte)0x80, (byte)0x81, 7, imm, true, disp);
   }
 
   /**
@@ -570,29 +906,32 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T add(Register m, int imm, OptionalInt disp){
-    Register dummy = switch(m.width()){
-      case  8 -> Register.AL;
-      case 16 -> Register.AX;
-      case 32 -> Register.EAX;
-      default -> Register.RAX;
-    };
-    emitREXOp(dummy, m);
-    byte opcode = (m.width() == 8) ? (byte)0x80 : (byte)0x81;
-    byteBuf.put(opcode); // ADD
-    byte mode = emitModRM(m, 0, disp);
-    emitDisp(mode, disp, m);
+    return immOp(m, (byte)0x80, (byte)0x81, 0, imm, disp.isPresent(), disp.orElse(0));
+  }
 
-    if(m.width() == 8){
-      byteBuf.put((byte)imm); // imm8
-    }
-    else if(m.width() == 16){
-      byteBuf.putShort((short)imm); // imm16
-    }
-    else{
-      byteBuf.putInt(imm); // imm32
-    }
+  /**
+   * Add imm to r/m.
+   * This is reg operation of {@link #add(Register, int, OptionalInt)}.
+   *
+   * @param m "r/m" register
+   * @param imm Immediate value
+   * @return This instance
+   */
+  public T add(Register m, int imm){
+    return immOp(m, (byte)0x80, (byte)0x81, 0, imm, false, 0);
+  }
 
-    return castToT();
+  /**
+   * Add imm to r/m.
+   * This is mem operation of {@link #add(Register, int, OptionalInt)}.
+   *
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param imm Immediate value
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T add(Register m, int imm, int disp){
+    return immOp(m, (byte)0x80, (byte)0x81, 0, imm, true, disp);
   }
 
   /**
@@ -613,29 +952,32 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T sub(Register m, int imm, OptionalInt disp){
-    Register dummy = switch(m.width()){
-      case  8 -> Register.AL;
-      case 16 -> Register.AX;
-      case 32 -> Register.EAX;
-      default -> Register.RAX;
-    };
-    emitREXOp(dummy, m);
-    byte opcode = (m.width() == 8) ? (byte)0x80 : (byte)0x81;
-    byteBuf.put(opcode); // SUB
-    byte mode = emitModRM(m, 5, disp);
-    emitDisp(mode, disp, m);
+    return immOp(m, (byte)0x80, (byte)0x81, 5, imm, disp.isPresent(), disp.orElse(0));
+  }
 
-    if(m.width() == 8){
-      byteBuf.put((byte)imm); // imm8
-    }
-    else if(m.width() == 16){
-      byteBuf.putShort((short)imm); // imm16
-    }
-    else{
-      byteBuf.putInt(imm); // imm32
-    }
+  /**
+   * Subtract imm from r/m.
+   * This is reg operation of {@link #sub(Register, int, OptionalInt)}.
+   *
+   * @param m "r/m" register
+   * @param imm Immediate value
+   * @return This instance
+   */
+  public T sub(Register m, int imm){
+    return immOp(m, (byte)0x80, (byte)0x81, 5, imm, false, 0);
+  }
 
-    return castToT();
+  /**
+   * Subtract imm from r/m.
+   * This is mem operation of {@link #sub(Register, int, OptionalInt)}.
+   *
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param imm Immediate value
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T sub(Register m, int imm, int disp){
+    return immOp(m, (byte)0x80, (byte)0x81, 5, imm, true, disp);
   }
 
   /**
@@ -708,6 +1050,63 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return castToT();
   }
 
+  // Recommended multi-byte NOP sequences (1 - 9 bytes)
+  private static final byte[][] MULTI_BYTE_NOPS = {
+    {(byte)0x90},
+    {(byte)0x66, (byte)0x90},
+    {(byte)0x0f, (byte)0x1f, (byte)0x00},
+    {(byte)0x0f, (byte)0x1f, (byte)0x40, (byte)0x00},
+    {(byte)0x0f, (byte)0x1f, (byte)0x44, (byte)0x00, (byte)0x00},
+    {(byte)0x66, (byte)0x0f, (byte)0x1f, (byte)0x44, (byte)0x00, (byte)0x00},
+    {(byte)0x0f, (byte)0x1f, (byte)0x80, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00},
+    {(byte)0x0f, (byte)0x1f, (byte)0x84, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00},
+    {(byte)0x66, (byte)0x0f, (byte)0x1f, (byte)0x84, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00}
+  };
+
+  // Longest NOP which is emitted by alignWithNOP().
+  // Some processors take a penalty to decode more than 3 prefixes.
+  private static final int MAX_ALIGNMENT_NOP_LENGTH = 11;
+
+  // Kind of symbol reference
+  private static final int SYMBOL_REF_REL32 = 0;
+
+  /**
+   * Multi-byte no-operation instruction
+   *   Opcode: 0F 1F /0 (3 - 9 bytes)
+   *   Instruction: NOP r/m
+   *   Op/En: M
+   *
+   * 10 bytes or longer NOP is encoded with redundant operand-size prefixes (66H).
+   *
+   * @param length length of the instruction (1 - 15 bytes)
+   * @return This instance
+   * @throws IllegalArgumentException if the length is out of range.
+   */
+  public T nop(int length){
+    if((length < 1) || (length > 15)){
+      throw new IllegalArgumentException("Invalid NOP length: " + length);
+    }
+    for(int i = MULTI_BYTE_NOPS.length; i < length; i++){
+      byteBuf.put((byte)0x66);
+    }
+    byteBuf.put(MULTI_BYTE_NOPS[Math.min(length, MULTI_BYTE_NOPS.length) - 1]);
+    return castToT();
+  }
+
+  /**
+   * Gives hint to processor that improves performance of spin-wait loops.
+   *   Opcode: F3 90
+   *   Instruction: PAUSE
+   *   Op/En: ZO
+   *
+   * @return This instance
+   */
+  public T pause(){
+    byteBuf.put((byte)0xf3);
+    byteBuf.put((byte)0x90);
+    return castToT();
+  }
+
   private void jcc(byte opcode8, byte[] opcode, String label){
     Consumer<Integer> emitOp = (o) -> {
       int offset = o.intValue() - 2;
@@ -724,6 +1123,8 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
       }
     };
 
+    beforeBranch(label);
+
     int position = byteBuf.position();
     Integer labelPosition = labelMap.get(label);
     if(labelPosition == null){
@@ -757,6 +1158,22 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return castToT();
   }
 
+  /**
+   * Jump if equal (ZF = 1).
+   * Forward jump is always encoded as rel32.
+   *   Opcode:    74 cb (rel8)
+   *           0F 84 cd (rel32)
+   *   Instruction: JE
+   *   Op/En: D
+   *
+   * @param label the label to jump.
+   * @return This instance
+   */
+  public T je(Label label){
+    jcc((byte)0x74, (byte)0x84, label);
+    return castToT();
+  }
+
   /**
    * Jump if zero (ZF = 1).
    * This method is an alias of {@link #je(java.lang.String)}.
@@ -768,6 +1185,17 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return je(label);
   }
 
+  /**
+   * Jump if zero (ZF = 1).
+   * This method is an alias of {@link #je(com.yasuenag.ffmasm.Label)}.
+   *
+   * @param label the label to jump.
+   * @return This instance
+   */
+  public T jz(Label label){
+    return je(label);
+  }
+
   /**
    * Jump if less (SF ≠ OF).
    *   Opcode:    7C cb (rel8)
@@ -783,6 +1211,22 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return castToT();
   }
 
+  /**
+   * Jump if less (SF ≠ OF).
+   * Forward jump is always encoded as rel32.
+   *   Opcode:    7C cb (rel8)
+   *           0F 8C cd (rel32)
+   *   Instruction: JL
+   *   Op/En: D
+   *
+   * @param label the label to jump.
+   * @return This instance
+   */
+  public T jl(Label label){
+    jcc((byte)0x7c, (byte)0x8c, label);
+    return castToT();
+  }
+
   /**
    * Jump if above or equal (CF = 0)
    *   Opcode:    73 cb (rel8)
@@ -798,8 +1242,40 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return castToT();
   }
 
+  /**
+   * Jump if above or equal (CF = 0)
+   * Forward jump is always encoded as rel32.
+   *   Opcode:    73 cb (rel8)
+   *           0F 83 cd (rel32)
+   *   Instruction: JAE
+   *   Op/En: D
+   *
+   * @param label the label to jump.
+   * @return This instance
+   */
+  public T jae(Label label){
+    jcc((byte)0x73, (byte)0x83, label);
+    return castToT();
+  }
+
+  /**
+   * Jump if not equal (ZF = 0).
+   *   Opcode:    75 cb (rel8)
+   *           0F 85 cd (rel32)
+   *   Instruction: JNE
+   *   Op/En: D
+   *
+   * @param label the label to jump.
+   * @return This instance
+   */
+  public T jne(String label){
+    jcc((byte)0x75, new byte[]{(byte)0x0f, (byte)0x85}, label);
+    return castToT();
+  }
+
   /**
    * Jump if not equal (ZF = 0).
+   * Forward jump is always encoded as rel32.
    *   Opcode:    75 cb (rel8)
    *           0F 85 cd (rel32)
    *   Instruction: JNE
@@ -808,8 +1284,8 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @param label the label to jump.
    * @return This instance
    */
-  public T jne(String label){
-    jcc((byte)0x75, new byte[]{(byte)0x0f, (byte)0x85}, label);
+  public T jne(Label label){
+    jcc((byte)0x75, (byte)0x85, label);
     return castToT();
   }
 
@@ -825,6 +1301,18 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return jne(label);
   }
 
+  /**
+   * Jump short if not zero (ZF=0).
+   *
+   * This instruction is an alias of JNE.
+   *
+   * @param label the label to jump.
+   * @return This instance
+   */
+  public T jnz(Label label){
+    return jne(label);
+  }
+
   /**
    * Jump.
    *   Opcode: EB cb (rel8)
@@ -855,6 +1343,8 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
       }
     };
 
+    beforeBranch(label);
+
     int position = byteBuf.position();
     Integer labelPosition = labelMap.get(label);
     if(labelPosition == null){
@@ -875,6 +1365,44 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return castToT();
   }
 
+  /**
+   * Jump.
+   * Forward jump is always encoded as rel32.
+   *   Opcode: EB cb (rel8)
+   *           E9 cd (rel32)
+   *   Instruction: JMP
+   *   Op/En: D
+   *
+   * @param label the label to jump.
+   * @return This instance
+   */
+  public T jmp(Label label){
+    beforeBranch(label);
+
+    int labelPosition = getLabelPosition(label);
+    if(labelPosition == -1){
+      /* forward jump - rel32 will be patched when the label is bound */
+      byteBuf.put((byte)0xe9);
+      addLabelReference(label, LABEL_REF_REL32, byteBuf.position());
+      byteBuf.putInt(0);
+    }
+    else{
+      int offset = labelPosition - byteBuf.position() - 2;
+      if(offset > -129){
+        // rel8
+        byteBuf.put((byte)0xeb);
+        byteBuf.put((byte)offset);
+      }
+      else{
+        // rel32
+        byteBuf.put((byte)0xe9);
+        byteBuf.putInt(offset - 3);
+      }
+    }
+
+    return castToT();
+  }
+
   /**
    * Jump near, absolute indirect, RIP = 64-Bit
    * offset from register or memory.
@@ -901,6 +1429,8 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T jmp(Register m, OptionalInt disp){
+    beforeLeavingFunction();
+
     // Emit REX prefix for REX.B if it's needed.
     // We can ignore REX.W because this JMP op is on 64bit mode only.
     byte rexb = (byte)((m.encoding() >> 3) & 0b0001);
@@ -914,6 +1444,234 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return castToT();
   }
 
+  // Boundary of loop head which is emitted by structured loops.
+  private static final int LOOP_ALIGNMENT = 16;
+
+  private void jcc(Condition cond, Label label){
+    jcc((byte)(0x70 | cond.value()), (byte)(0x80 | cond.value()), label);
+  }
+
+  /**
+   * Structured "if" statement.
+   * <code>test</code> should emit the instruction which sets flags (e.g. CMP, TEST).
+   * The branch with negated condition skips <code>then</code>, thus
+   * <code>then</code> is placed on fall-through path.
+   *
+   * @param test emitter of the instruction which sets flags.
+   * @param cond condition to execute <code>then</code>.
+   * @param then emitter of the body.
+   * @return This instance
+   */
+  public T ifThen(Consumer<T> test, Condition cond, Consumer<T> then){
+    Label end = newLabel();
+    test.accept(castToT());
+    jcc(cond.negate(), end);
+    then.accept(castToT());
+    return label(end);
+  }
+
+  /**
+   * Structured "if-else" statement.
+   * <code>then</code> is placed on fall-through path, and it jumps over
+   * <code>otherwise</code> at the end.
+   *
+   * @param test emitter of the instruction which sets flags.
+   * @param cond condition to execute <code>then</code>.
+   * @param then emitter of the body which is executed when the condition is satisfied.
+   * @param otherwise emitter of the body which is executed when the condition is not satisfied.
+   * @return This instance
+   */
+  public T ifElse(Consumer<T> test, Condition cond, Consumer<T> then, Consumer<T> otherwise){
+    Label elseLabel = newLabel();
+    Label end = newLabel();
+    test.accept(castToT());
+    jcc(cond.negate(), elseLabel);
+    then.accept(castToT());
+    jmp(end);
+    label(elseLabel);
+    otherwise.accept(castToT());
+    return label(end);
+  }
+
+  /**
+   * Structured "while" statement.
+   * The loop is rotated to bottom-tested form: <code>test</code> is emitted
+   * twice as the guard before the loop and as the back edge after
+   * <code>body</code>, so only one branch is taken per iteration.
+   * The loop head is aligned to 16 bytes with NOPs which are executed only once.
+   *
+   * @param test emitter of the instruction which sets flags. It must not bind labels because it is emitted twice.
+   * @param cond condition to continue the loop.
+   * @param body emitter of the loop body.
+   * @return This instance
+   */
+  public T whileLoop(Consumer<T> test, Condition cond, Consumer<T> body){
+    Label head = newLabel();
+    Label exit = newLabel();
+    test.accept(castToT());
+    jcc(cond.negate(), exit);
+    alignWithNOP(LOOP_ALIGNMENT);
+    label(head);
+    body.accept(castToT());
+    test.accept(castToT());
+    jcc(cond, head);
+    return label(exit);
+  }
+
+  /**
+   * Structured counted loop.
+   * This is equivalent to {@link #countedLoop(Register, int, ObjIntConsumer, ObjIntConsumer)}
+   * without unrolling.
+   *
+   * @param counter register which holds the trip count. It is treated as unsigned, and it will be 0 after the loop.
+   * @param body emitter of the loop body. It must not change <code>counter</code>.
+   * @return This instance
+   */
+  public T countedLoop(Register counter, Consumer<T> body){
+    return countedLoop(counter, 1, (b, i) -> body.accept(b), (b, n) -> {});
+  }
+
+  /**
+   * Structured counted loop with unrolling.
+   * The main loop runs <code>body</code> <code>unroll</code> times per
+   * iteration, then the remainder loop handles the rest of the trip count
+   * one by one. Both loops are bottom-tested, and their heads are aligned
+   * to 16 bytes.
+   * <code>body</code> receives the index of the copy in the unrolled
+   * iteration (always 0 in the remainder loop), so it can be used for the
+   * displacement. <code>step</code> receives the number of the copies
+   * which have been emitted before it, so it can be used to advance pointers.
+   * <code>counter</code> is decremented by the macro.
+   *
+   * @param counter register which holds the trip count. It is treated as unsigned, and it will be 0 after the loop.
+   * @param unroll unroll factor. It must be 1 or greater.
+   * @param body emitter of the loop body. It must not change <code>counter</code>.
+   * @param step emitter which is placed after the copies of <code>body</code>.
+   * @return This instance
+   * @throws IllegalArgumentException if the unroll factor is invalid.
+   */
+  public T countedLoop(Register counter, int unroll, ObjIntConsumer<T> body, ObjIntConsumer<T> step){
+    if(unroll < 1){
+      throw new IllegalArgumentException("Unroll factor must be 1 or greater: " + unroll);
+    }
+
+    Label remainderLoop = newLabel();
+    Label exit = newLabel();
+
+    if(unroll > 1){
+      Label main = newLabel();
+      Label fixup = newLabel();
+      // counter -= unroll in advance to test it with CF at the bottom
+      sub(counter, unroll);
+      jcc(Condition.B, fixup);
+      alignWithNOP(LOOP_ALIGNMENT);
+      label(main);
+      for(int i = 0; i < unroll; i++){
+        body.accept(castToT(), i);
+      }
+      step.accept(castToT(), unroll);
+      sub(counter, unroll);
+      jcc(Condition.AE, main);
+      label(fixup);
+      // Restore the remainder. ZF is set when nothing remains.
+      add(counter, unroll);
+      jcc(Condition.E, exit);
+    }
+    else{
+      test(counter, counter);
+      jcc(Condition.E, exit);
+    }
+
+    alignWithNOP(LOOP_ALIGNMENT);
+    label(remainderLoop);
+    body.accept(castToT(), 0);
+    step.accept(castToT(), 1);
+    sub(counter, 1);
+    jcc(Condition.NE, remainderLoop);
+    return label(exit);
+  }
+
+  /**
+   * Jump via the table of labels (computed dispatch for "switch").
+   * If the index is out of range, it jumps to <code>defaultLabel</code>.
+   * The table is placed just after the dispatch, and each entry is rel32
+   * offset from the head of the table. Entries are patched when labels
+   * are bound, so labels can be bound after this call.
+   *   cmp $n, index
+   *   jae default
+   *   lea table(%rip), scratch
+   *   movslq (scratch, index, 4), index
+   *   add index, scratch
+   *   jmp *scratch
+   *   table: .long L0 - table, L1 - table, ...
+   *
+   * @param index 64 bit register which holds the index. It is treated as unsigned, and it is broken.
+   * @param scratch 64 bit scratch register except RSP.
+   *                RBP and R13 are accepted because the table entry is loaded with disp8.
+   * @param defaultLabel the label to jump if the index is out of range
+   * @param targets labels to jump in order of the index
+   * @return This instance
+   * @throws IllegalArgumentException if registers are invalid, or no target is given.
+   */
+  public T jumpTable(Register index, Register scratch, Label defaultLabel, Label... targets){
+    if((index.width() != 64) || (scratch.width() != 64) || (index == Register.RSP) || (scratch == Register.RSP) || (index == scratch)){
+      throw new IllegalArgumentException("Invalid register for jump table: " + index + ", " + scratch);
+    }
+    if(targets.length == 0){
+      throw new IllegalArgumentException("No target in jump table.");
+    }
+
+    cmp(index, targets.length);
+    jae(defaultLabel);
+
+    // lea table(%rip), scratch
+    Label table = newLabel();
+    byteBuf.put((byte)(0b01001000 | ((scratch.encoding() >> 1) & 0b0100))); // REX.W + REX.R
+    byteBuf.put((byte)0x8d); // LEA
+    byteBuf.put((byte)(((scratch.encoding() & 0b111) << 3) | 0b101)); // ModRM: [RIP + disp32]
+    addLabelReference(table, LABEL_REF_REL32, byteBuf.position());
+    byteBuf.putInt(0);
+
+    // movslq (scratch, index, 4), index
+    // [RBP/R13 + index * 4] has to be encoded with disp8 because mod = 00 means no base.
+    boolean needsDisp = (scratch.encoding() & 0b111) == 0b101;
+    byteBuf.put((byte)(0b01001000 |
+                       ((index.encoding() >> 1) & 0b0100) |    // REX.R
+                       ((index.encoding() >> 2) & 0b0010) |    // REX.X
+                       ((scratch.encoding() >> 3) & 0b0001))); // REX.B
+    byteBuf.put((byte)0x63); // MOVSXD
+    byteBuf.put((byte)((needsDisp ? 0b01000000 : 0) | ((index.encoding() & 0b111) << 3) | 0b100)); // ModRM: SIB
+    byteBuf.put((byte)((0b10 << 6) | ((index.encoding() & 0b111) << 3) | (scratch.encoding() & 0b111))); // SIB: scale = 4
+    if(needsDisp){
+      byteBuf.put((byte)0);
+    }
+
+    addRM(scratch, index);
+
+    // jmp *scratch
+    // It is not leaving from the function, so beforeLeavingFunction() is not needed.
+    if((scratch.encoding() & 0b1000) != 0){
+      byteBuf.put((byte)0b01000001); // REX.B
+    }
+    byteBuf.put((byte)0xff);
+    byteBuf.put((byte)(0b11100000 | (scratch.encoding() & 0b111))); // ModRM: /4
+
+    alignTo4BytesWithNOP();
+    label(table);
+    int tablePosition = byteBuf.position();
+    for(var target : targets){
+      int labelPosition = getLabelPosition(target);
+      if(labelPosition == -1){
+        addLabelReference(target, LABEL_REF_TABLE32, byteBuf.position());
+        byteBuf.putInt(tablePosition);
+      }
+      else{
+        byteBuf.putInt(labelPosition - tablePosition);
+      }
+    }
+    return castToT();
+  }
+
   /**
    * Read a random number and store in the destination register.
    *   Opcode:   NFx 66H + 0F C7 /6 r16
@@ -988,6 +1746,46 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return castToT();
   }
 
+  /**
+   * Read time-stamp counter into EDX:EAX, and IA32_TSC_AUX into ECX.
+   * Linux stores processor ID into IA32_TSC_AUX (bits 11:0 are CPU number,
+   * upper bits are NUMA node).
+   *   Opcode: 0F 01 F9
+   *   Instruction: RDTSCP
+   *   Op/En: ZO
+   *
+   * @return This instance
+   */
+  public T rdtscp(){
+    byteBuf.put((byte)0x0f); // RDTSCP (1)
+    byteBuf.put((byte)0x01); // RDTSCP (2)
+    byteBuf.put((byte)0xf9); // RDTSCP (3)
+
+    return castToT();
+  }
+
+  /**
+   * Read IA32_TSC_AUX into r64.
+   *   Opcode: F3 0F C7 /7
+   *   Instruction: RDPID r64
+   *   Op/En: R
+   *
+   * @param m Destination register. It must be 64 bit register.
+   * @return This instance
+   */
+  public T rdpid(Register m){
+    if(m.width() != 64){
+      throw new IllegalArgumentException("RDPID supports 64 bit register only.");
+    }
+    byteBuf.put((byte)0xf3);
+    // REX.W is not needed because operand size is fixed to 64 bit.
+    emitREXOp(Register.EAX /* dummy */, m);
+    byteBuf.put((byte)0x0f); // RDPID (1)
+    byteBuf.put((byte)0xc7); // RDPID (2)
+    emitModRM(m, 7, OptionalInt.empty());
+    return castToT();
+  }
+
   /**
    * Call near, absolute indirect, address given in r/m64.
    *   Opcode: FF /2
@@ -998,6 +1796,8 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T call(Register m){
+    beforeLeavingFunction();
+
     // Emit REX prefix for REX.B if it's needed.
     // We can ignore REX.W because this CALL op is on 64bit mode only.
     byte rexb = (byte)((m.encoding() >> 3) & 0b0001);
@@ -1010,6 +1810,145 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return castToT();
   }
 
+  private T relSymbolOp(byte opcode, String symbol){
+    byteBuf.put(opcode);
+    addSymbolReference(symbol, SYMBOL_REF_REL32, byteBuf.position());
+    byteBuf.putInt(0);
+    return castToT();
+  }
+
+  @Override
+  protected void patchSymbolReference(ByteBuffer code, int kind, int position, long offset){
+    if(kind != SYMBOL_REF_REL32){
+      throw new IllegalArgumentException("Unknown symbol reference: " + kind);
+    }
+    long rel = offset - 4; // from the end of the instruction
+    if((rel < Integer.MIN_VALUE) || (rel > Integer.MAX_VALUE)){
+      throw new IllegalStateException("Symbol is out of range of rel32: " + offset);
+    }
+    code.putInt(position, (int)rel);
+  }
+
+  /**
+   * Call near, relative, displacement relative to next instruction.
+   * The target is the function in CodeSegment which is named via
+   * build() or getMemorySegment(). It might be defined after this call,
+   * then rel32 is patched when it is defined.
+   *   Opcode: E8 cd
+   *   Instruction: CALL rel32
+   *   Op/En: D
+   *
+   * @param symbol name of the function in CodeSegment
+   * @return This instance
+   */
+  public T callSymbol(String symbol){
+    beforeLeavingFunction();
+    return relSymbolOp((byte)0xe8, symbol);
+  }
+
+  /**
+   * Jump near, relative, RIP = RIP + 32-bit displacement.
+   * The target is the function in CodeSegment, and it is resolved as
+   * {@link #callSymbol(String)}. It can be used for tail call.
+   *   Opcode: E9 cd
+   *   Instruction: JMP rel32
+   *   Op/En: D
+   *
+   * @param symbol name of the function in CodeSegment
+   * @return This instance
+   */
+  public T jmpSymbol(String symbol){
+    beforeLeavingFunction();
+    return relSymbolOp((byte)0xe9, symbol);
+  }
+
+  private T relAddressOp(byte opcode, long address){
+    long rel = address - (getCodeAddress() + 5); // from the end of the instruction
+    if((rel < Integer.MIN_VALUE) || (rel > Integer.MAX_VALUE)){
+      throw new IllegalArgumentException("Address is out of range of rel32: " + address);
+    }
+    byteBuf.put(opcode);
+    byteBuf.putInt((int)rel);
+    return castToT();
+  }
+
+  /**
+   * Call near, relative, displacement relative to next instruction.
+   * rel32 is calculated from the absolute address of the code.
+   * It can be patched as {@link com.yasuenag.ffmasm.Stencil.Hole#REL32}.
+   *   Opcode: E8 cd
+   *   Instruction: CALL rel32
+   *   Op/En: D
+   *
+   * @param address absolute address of the target
+   * @return This instance
+   * @throws IllegalArgumentException if the address is out of range of rel32.
+   */
+  public T call(long address){
+    beforeLeavingFunction();
+    return relAddressOp((byte)0xe8, address);
+  }
+
+  /**
+   * Jump near, relative, RIP = RIP + 32-bit displacement.
+   * rel32 is calculated from the absolute address of the code.
+   * It can be patched as {@link com.yasuenag.ffmasm.Stencil.Hole#REL32}.
+   *   Opcode: E9 cd
+   *   Instruction: JMP rel32
+   *   Op/En: D
+   *
+   * @param address absolute address of the target
+   * @return This instance
+   * @throws IllegalArgumentException if the address is out of range of rel32.
+   */
+  public T jmp(long address){
+    beforeLeavingFunction();
+    return relAddressOp((byte)0xe9, address);
+  }
+
+  /**
+   * Call the native function via the import table of CodeSegment.
+   * The symbol is looked up via SymbolLookup of CodeSegment when it is
+   * imported first, then the address is loaded from the slot with
+   * RIP-relative addressing. The stack is aligned to 16 bytes around the
+   * call (and shadow space is reserved on Windows), so this can be used
+   * at any stack depth. RBX is used to restore the stack pointer, and it
+   * is preserved. Arguments must be passed via registers.
+   *   push %rbx
+   *   mov %rsp, %rbx
+   *   and $-16, %rsp
+   *   sub $32, %rsp (Windows only)
+   *   call *slot(%rip)
+   *   mov %rbx, %rsp
+   *   pop %rbx
+   *
+   * @param symbol symbol name of the native function
+   * @return This instance
+   * @throws IllegalArgumentException if the symbol is not found.
+   */
+  public T callNative(String symbol){
+    var slot = importSymbol(symbol);
+
+    push(Register.RBX);
+    movMR(Register.RSP, Register.RBX);
+    andImm(Register.RSP, -16);
+    if(System.getProperty("os.name").startsWith("Windows")){
+      sub(Register.RSP, 32); // shadow space
+    }
+
+    beforeLeavingFunction();
+    byteBuf.put((byte)0xff); // CALL r/m64
+    byteBuf.put((byte)0x15); // ModRM: [RIP + disp32], /2
+    long disp = slot.address() - (getCodeAddress() + 4);
+    if((disp < Integer.MIN_VALUE) || (disp > Integer.MAX_VALUE)){
+      throw new IllegalStateException("Import slot is out of range of disp32: " + disp);
+    }
+    byteBuf.putInt((int)disp);
+
+    movMR(Register.RBX, Register.RSP);
+    return pop(Register.RBX, OptionalInt.empty());
+  }
+
   /**
    * Fast call to privilege level 0 system procedures.
    *   Opcode: 0F 05
@@ -1035,6 +1974,25 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
     return castToT();
   }
 
+  /**
+   * Align the address of the position to given boundary with multi-byte NOPs.
+   * Padding is filled with NOPs up to 11 bytes to minimize the number of
+   * instructions which are decoded when the padding is executed.
+   *
+   * @param boundary boundary to align. It must be power of 2.
+   * @return This instance
+   * @throws IllegalArgumentException if the boundary is not power of 2.
+   */
+  public T alignWithNOP(int boundary){
+    int padding = getPaddingTo(boundary);
+    while(padding > 0){
+      int len = Math.min(padding, MAX_ALIGNMENT_NOP_LENGTH);
+      nop(len);
+      padding -= len;
+    }
+    return castToT();
+  }
+
   /**
    * Align the position to 16 bytes with NOP.
    *
@@ -1191,12 +2149,32 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T xchg(Register r, Register m, OptionalInt disp){
-    emitREXOp(r, m);
-    byte opcode = (r.width() == 8) ? (byte)0x86 : (byte)0x87;
-    byteBuf.put(opcode); // XCHG
-    byte mode = emitModRM(r, m, disp);
-    emitDisp(mode, disp, m);
-    return castToT();
+    return rmOp(r, m, (byte)0x86, (byte)0x87, disp.isPresent(), disp.orElse(0));
+  }
+
+  /**
+   * Exchange r with r/m.
+   * This is reg-reg operation of {@link #xchg(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register
+   * @return This instance
+   */
+  public T xchg(Register r, Register m){
+    return rmOp(r, m, (byte)0x86, (byte)0x87, false, 0);
+  }
+
+  /**
+   * Exchange r with r/m.
+   * This is reg-mem operation of {@link #xchg(Register, Register, OptionalInt)}.
+   *
+   * @param r "r" register
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T xchg(Register r, Register m, int disp){
+    return rmOp(r, m, (byte)0x86, (byte)0x87, true, disp);
   }
 
   /**
@@ -1217,28 +2195,97 @@ public class AMD64AsmBuilder<T extends AMD64AsmBuilder<T>> extends AsmBuilder<T>
    * @return This instance
    */
   public T andImm(Register m, int imm, OptionalInt disp){
-    Register dummy = switch(m.width()){
-      case  8 -> Register.AL;
-      case 16 -> Register.AX;
-      case 32 -> Register.EAX;
-      default -> Register.RAX;
-    };
-    emitREXOp(dummy, m);
-    byte opcode = (m.width() == 8) ? (byte)0x80 : (byte)0x81;
-    byteBuf.put(opcode); // AND
-    byte mode = emitModRM(m, 4, disp);
-    emitDisp(mode, disp, m);
+    return immOp(m, (byte)0x80, (byte)0x81, 4, imm, disp.isPresent(), disp.orElse(0));
+  }
 
-    if(m.width() == 8){
-      byteBuf.put((byte)imm); // imm8
-    }
-    else if(m.width() == 16){
-      byteBuf.putShort((short)imm); // imm16
+  /**
+   * AND r/m with imm.
+   * This is reg operation of {@link #andImm(Register, int, OptionalInt)}.
+   *
+   * @param m "r/m" register
+   * @param imm Immediate value
+   * @return This instance
+   */
+  public T andImm(Register m, int imm){
+    return immOp(m, (byte)0x80, (byte)0x81, 4, imm, false, 0);
+  }
+
+  /**
+   * AND r/m with imm.
+   * This is mem operation of {@link #andImm(Register, int, OptionalInt)}.
+   *
+   * @param m "r/m" register which holds the base address of memory operand
+   * @param imm Immediate value
+   * @param disp Displacement.
+   * @return This instance
+   */
+  public T andImm(Register m, int imm, int disp){
+    return immOp(m, (byte)0x80, (byte)0x81, 4, imm, true, disp);
+  }
+
+  private void waitpkgInternal(byte prefix, Register m){
+    byteBuf.put(prefix);
+    emitREXOp(Register.EAX /* dummy */, m);
+    byteBuf.put((byte)0x0f);
+    byteBuf.put((byte)0xae);
+    emitModRM(m, 6, OptionalInt.empty());
+  }
+
+  /**
+   * Sets up a linear address range to be monitored by hardware and
+   * activates the monitor. The address range should be a write-back
+   * memory caching type. The address is contained in r64.
+   *   Opcode: F3 0F AE /6
+   *   Instruction: UMONITOR r64
+   *   Op/En: A
+   *
+   * @param m Register which holds the address to be monitored. It must be 64 bit register.
+   * @return This instance
+   */
+  public T umonitor(Register m){
+    if(m.width() != 64){
+      throw new IllegalArgumentException("UMONITOR supports 64 bit register only.");
     }
-    else{
-      byteBuf.putInt(imm); // imm32
+    waitpkgInternal((byte)0xf3, m);
+    return castToT();
+  }
+
+  /**
+   * A hint that allows the processor to stop instruction execution and
+   * enter an implementation-dependent optimized state until occurrence of
+   * a class of events, or TSC reaches to the deadline in EDX:EAX.
+   * CF would be set if the wait was terminated due to the OS time limit.
+   *   Opcode: F2 0F AE /6
+   *   Instruction: UMWAIT r32
+   *   Op/En: A
+   *
+   * @param m Register which holds control value. Bit 0 selects C0.1 (1) or C0.2 (0) state. It must be 32 bit register.
+   * @return This instance
+   */
+  public T umwait(Register m){
+    if(m.width() != 32){
+      throw new IllegalArgumentException("UMWAIT supports 32 bit register only.");
     }
+    waitpkgInternal((byte)0xf2, m);
+    return castToT();
+  }
 
+  /**
+   * Directs the processor to enter an implementation-dependent optimized
+   * state until TSC reaches to the deadline in EDX:EAX.
+   * CF would be set if the wait was terminated due to the OS time limit.
+   *   Opcode: 66 0F AE /6
+   *   Instruction: TPAUSE r32
+   *   Op/En: A
+   *
+   * @param m Register which holds control value. Bit 0 selects C0.1 (1) or C0.2 (0) state. It must be 32 bit register.
+   * @return This instance
+   */
+  public T tpause(Register m){
+    if(m.width() != 32){
+      throw new IllegalArgumentException("TPAUSE supports 32 bit register only.");
+    }
+    waitpkgInternal((byte)0x66, m);
     return castToT();
   }
 
@@ -19,9 +19,13 @@
 package com.yasuenag.ffmasm.amd64;
 
 import java.lang.foreign.FunctionDescriptor;
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.OptionalInt;
+import java.util.Set;
 
 import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.Label;
 import com.yasuenag.ffmasm.UnsupportedPlatformException;
 import com.yasuenag.ffmasm.amd64.Register;
 
@@ -29,10 +33,29 @@ import com.yasuenag.ffmasm.amd64.Register;
 /**
  * Builder for AVX hand-assembling
  *
+ * This builder tracks whether upper bits of YMM registers might be dirty
+ * (modified by 256 bit VEX instruction). VZEROUPPER is inserted automatically
+ * before RET, CALL r/m64, and JMP r/m64 if they are dirty because transition
+ * to legacy SSE code (e.g. JVM stubs) incurs the penalty.
+ * The state is tracked in order of emission, and it is merged at the label
+ * with the state at forward branches to the label.
+ *
  * @author Yasumasa Suenaga
  */
 public class AVXAsmBuilder<T extends AVXAsmBuilder<T>> extends SSEAsmBuilder<T>{
 
+  private static final System.Logger logger = System.getLogger(AVXAsmBuilder.class.getName());
+
+  private boolean autoVzeroupper;
+
+  private boolean upperStateDirty;
+
+  // Labels which might be reached with dirty upper state.
+  private final Set<String> dirtyLabels;
+
+  // IDs of label handles which might be reached with dirty upper state.
+  private final BitSet dirtyLabelIds;
+
   /**
    * Constructor.
    *
@@ -41,6 +64,99 @@ public class AVXAsmBuilder<T extends AVXAsmBuilder<T>> extends SSEAsmBuilder<T>{
    */
   protected AVXAsmBuilder(CodeSegment seg, FunctionDescriptor desc) throws UnsupportedPlatformException{
     super(seg, desc);
+    this.autoVzeroupper = true;
+    this.upperStateDirty = false;
+    this.dirtyLabels = new HashSet<>();
+    this.dirtyLabelIds = new BitSet();
+  }
+
+  /**
+   * Enable or disable automatic VZEROUPPER insertion. It is enabled by default.
+   *
+   * @param enable true if VZEROUPPER should be inserted automatically.
+   * @return This instance
+   */
+  public T setAutoVzeroupper(boolean enable){
+    autoVzeroupper = enable;
+    return castToT();
+  }
+
+  /**
+   * Check whether upper bits of YMM registers might be dirty at current position.
+   *
+   * @return true if upper state might be dirty.
+   */
+  public boolean isUpperStateDirty(){
+    return upperStateDirty;
+  }
+
+  @Override
+  public T reset(FunctionDescriptor desc){
+    upperStateDirty = false;
+    dirtyLabels.clear();
+    dirtyLabelIds.clear();
+    return super.reset(desc);
+  }
+
+  @Override
+  public T label(String name){
+    if(dirtyLabels.remove(name)){
+      upperStateDirty = true;
+    }
+    return super.label(name);
+  }
+
+  @Override
+  protected void beforeBranch(String label){
+    if(!upperStateDirty){
+      return;
+    }
+
+    if(labelMap.containsKey(label)){
+      // Backward branch: VZEROUPPER cannot be inserted into the code which is already emitted.
+      logger.log(System.Logger.Level.WARNING, "Upper state of YMM registers might be dirty at label \"" + label + "\"");
+    }
+    else{
+      dirtyLabels.add(label);
+    }
+  }
+
+  @Override
+  public T label(Label label){
+    if((label.id() >= 0) && dirtyLabelIds.get(label.id())){
+      dirtyLabelIds.clear(label.id());
+      upperStateDirty = true;
+    }
+    return super.label(label);
+  }
+
+  @Override
+  protected void beforeBranch(Label label){
+    if(!upperStateDirty){
+      return;
+    }
+
+    if(getLabelPosition(label) != -1){
+      // Backward branch: VZEROUPPER cannot be inserted into the code which is already emitted.
+      logger.log(System.Logger.Level.WARNING, "Upper state of YMM registers might be dirty at label " + label.id());
+    }
+    else{
+      dirtyLabelIds.set(label.id());
+    }
+  }
+
+  @Override
+  protected void beforeLeavingFunction(){
+    if(autoVzeroupper && upperStateDirty){
+      vzeroupper();
+    }
+  }
+
+  @Override
+  protected void beforeLegacySSE(){
+    if(upperStateDirty){
+      logger.log(System.Logger.Level.WARNING, "Legacy SSE instruction is emitted at " + getCodePosition() + " with dirty upper state of YMM registers. Consider to use VZEROUPPER or VEX encoded instruction.");
+    }
   }
 
   private static enum PP{
@@ -84,6 +200,7 @@ public class AVXAsmBuilder<T extends AVXAsmBuilder<T>> extends SSEAsmBuilder<T>{
   private void emit2ByteVEXPrefixWithVVVV(byte VEXvvvv, boolean is256bit, PP simdPrefix){
     byte rexr = (byte)((VEXvvvv >> 3) & 1);
     byte vecLength = is256bit ? (byte)1 : (byte)0;
+    upperStateDirty |= is256bit;
     byteBuf.put((byte)0xC5); // 2-byte VEX
     byteBuf.put((byte)(       (rexr << 7) | // REX.R
                            (VEXvvvv << 3) | // VEX.vvvv
@@ -98,6 +215,7 @@ public class AVXAsmBuilder<T extends AVXAsmBuilder<T>> extends SSEAsmBuilder<T>{
     byte rexr = (byte)((VEXvvvv >> 3) & 1);
     byte rexb = (byte)((invMem >> 3) & 1);
     byte is256Bit = (r.width() == 256) ? (byte)1 : (byte)0;
+    upperStateDirty |= (is256Bit == 1);
     byteBuf.put((byte)0xC4); // 3-byte VEX
     byteBuf.put((byte)(   (rexr << 7) | // REX.R
                           (   1 << 6) | // inverse of REX.X
@@ -457,6 +575,7 @@ public class AVXAsmBuilder<T extends AVXAsmBuilder<T>> extends SSEAsmBuilder<T>{
   public T vzeroupper(){
     emit2ByteVEXPrefixWithVVVV((byte)0b1111, false, PP.None);
     byteBuf.put((byte)0x77); // VZEROUPPER
+    upperStateDirty = false;
     return castToT();
   }
 
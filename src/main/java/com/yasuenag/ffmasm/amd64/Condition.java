@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.amd64;
+
+
+/**
+ * Condition codes (tttn) for conditional jump.
+ *
+ * @author Yasumasa Suenaga
+ */
+public enum Condition{
+
+  O((byte)0x0),  // overflow (OF = 1)
+  NO((byte)0x1), // not overflow (OF = 0)
+  B((byte)0x2),  // below (CF = 1)
+  AE((byte)0x3), // above or equal (CF = 0)
+  E((byte)0x4),  // equal (ZF = 1)
+  NE((byte)0x5), // not equal (ZF = 0)
+  BE((byte)0x6), // below or equal (CF = 1 or ZF = 1)
+  A((byte)0x7),  // above (CF = 0 and ZF = 0)
+  S((byte)0x8),  // sign (SF = 1)
+  NS((byte)0x9), // not sign (SF = 0)
+  P((byte)0xa),  // parity (PF = 1)
+  NP((byte)0xb), // not parity (PF = 0)
+  L((byte)0xc),  // less (SF ≠ OF)
+  GE((byte)0xd), // greater or equal (SF = OF)
+  LE((byte)0xe), // less or equal (ZF = 1 or SF ≠ OF)
+  G((byte)0xf);  // greater (ZF = 0 and SF = OF)
+
+  private final byte value;
+
+  private Condition(byte value){
+    this.value = value;
+  }
+
+  /**
+   * Raw value of this condition.
+   * @return tttn
+   */
+  public byte value(){
+    return value;
+  }
+
+  /**
+   * Negated condition. It is given by flipping the lowest bit.
+   * @return negated condition
+   */
+  public Condition negate(){
+    return values()[value ^ 1];
+  }
+
+}
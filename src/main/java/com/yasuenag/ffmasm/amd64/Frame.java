@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.amd64;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+
+import com.yasuenag.ffmasm.UnsupportedPlatformException;
+
+
+/**
+ * Stack frame of the function which follows calling convention of the
+ * platform (System V AMD64 ABI on Linux, or x64 calling convention on Windows).
+ *
+ * Frame maps arguments in FunctionDescriptor to registers or stack slots,
+ * and emits prologue and epilogue which save and restore callee-saved
+ * registers which are used in the function. On Windows, XMM6 - XMM15 are
+ * saved as well, and shadow space is reserved if the function calls
+ * another function.
+ *
+ * Frame is omitted entirely for leaf function which does not use any
+ * callee-saved registers. Spill area of leaf function on Linux is placed
+ * in the red zone (128 bytes below RSP) if it fits.
+ *
+ * All of configurations must be done before {@link #prologue(AMD64AsmBuilder)}.
+ *
+ * @author Yasumasa Suenaga
+ */
+public final class Frame{
+
+  /**
+   * Location of the value. It can be passed to instructions which take
+   * "r/m" register and displacement.
+   *
+   * @param register register which holds the value, or base register
+   *                 of the memory operand.
+   * @param disp empty if the value is in the register. Otherwise
+   *             displacement from the base register.
+   */
+  public static record Location(Register register, OptionalInt disp){
+
+    /**
+     * Check whether the value is in the memory.
+     *
+     * @return true if the value is in the memory
+     */
+    public boolean isMemory(){
+      return disp.isPresent();
+    }
+
+  }
+
+  private static final int RED_ZONE_SIZE = 128;
+
+  private static final int SHADOW_SPACE_SIZE = 32;
+
+  private static final Register[] SYSV_INT_ARGS = {Register.RDI, Register.RSI, Register.RDX, Register.RCX, Register.R8, Register.R9};
+
+  private static final Register[] WIN64_INT_ARGS = {Register.RCX, Register.RDX, Register.R8, Register.R9};
+
+  private static final Register[] SYSV_FP_ARGS = {Register.XMM0, Register.XMM1, Register.XMM2, Register.XMM3,
+                                                  Register.XMM4, Register.XMM5, Register.XMM6, Register.XMM7};
+
+  private static final Register[] WIN64_FP_ARGS = {Register.XMM0, Register.XMM1, Register.XMM2, Register.XMM3};
+
+  // Push order of callee-saved GPRs
+  private static final Register[] SYSV_SAVED_GPRS = {Register.RBX, Register.RBP, Register.R12, Register.R13, Register.R14, Register.R15};
+
+  private static final Register[] WIN64_SAVED_GPRS = {Register.RBX, Register.RBP, Register.RDI, Register.RSI,
+                                                      Register.R12, Register.R13, Register.R14, Register.R15};
+
+  private static final Register[] WIN64_SAVED_XMMS = {Register.XMM6, Register.XMM7, Register.XMM8, Register.XMM9, Register.XMM10,
+                                                      Register.XMM11, Register.XMM12, Register.XMM13, Register.XMM14, Register.XMM15};
+
+  private final FunctionDescriptor desc;
+
+  private final boolean isWindows;
+
+  private final Location[] args;
+
+  private final Set<Register> usedRegs;
+
+  private int spillSize;
+
+  private boolean isLeaf;
+
+  private boolean finalized;
+
+  // Layout of the frame. They are computed by layout().
+  private final List<Register> savedGprs;
+  private final List<Register> savedXmms;
+  private boolean hasFramePointer;
+  private boolean isOmitted;
+  private int shadowSize;
+  private int spillAreaSize;
+  private int bodySize;
+
+  /**
+   * Constructor of Frame for the function.
+   *
+   * @param desc FunctionDescriptor of the function
+   * @throws UnsupportedPlatformException if the platform is not supported.
+   * @throws IllegalArgumentException if the function has arguments which are not supported.
+   */
+  public Frame(FunctionDescriptor desc) throws UnsupportedPlatformException{
+    var arch = System.getProperty("os.arch");
+    var os = System.getProperty("os.name");
+    if(!arch.equals("amd64")){
+      throw new UnsupportedPlatformException(arch + " is not supported.");
+    }
+    if(os.equals("Linux")){
+      isWindows = false;
+    }
+    else if(os.startsWith("Windows")){
+      isWindows = true;
+    }
+    else{
+      throw new UnsupportedPlatformException(os + " is not supported.");
+    }
+
+    this.desc = desc;
+    this.usedRegs = EnumSet.noneOf(Register.class);
+    this.savedGprs = new ArrayList<>();
+    this.savedXmms = new ArrayList<>();
+    this.spillSize = 0;
+    this.isLeaf = true;
+    this.finalized = false;
+    this.args = mapArguments(desc.argumentLayouts());
+  }
+
+  private static boolean isFloatingPoint(MemoryLayout layout){
+    return (layout instanceof ValueLayout vl) &&
+           ((vl.carrier() == float.class) || (vl.carrier() == double.class));
+  }
+
+  // Location of stack arguments holds the offset from RSP at the entry of the function.
+  private Location[] mapArguments(List<MemoryLayout> layouts){
+    var intArgs = isWindows ? WIN64_INT_ARGS : SYSV_INT_ARGS;
+    var fpArgs = isWindows ? WIN64_FP_ARGS : SYSV_FP_ARGS;
+    int stackOffset = 8 + (isWindows ? SHADOW_SPACE_SIZE : 0); // return address (+ shadow space)
+    int intIdx = 0;
+    int fpIdx = 0;
+
+    var result = new Location[layouts.size()];
+    for(int i = 0; i < result.length; i++){
+      var layout = layouts.get(i);
+      if(!(layout instanceof ValueLayout)){
+        throw new IllegalArgumentException("Unsupported argument: " + layout);
+      }
+
+      boolean isFP = isFloatingPoint(layout);
+      int idx = isWindows ? i : (isFP ? fpIdx++ : intIdx++);
+      var regs = isFP ? fpArgs : intArgs;
+      if(idx < regs.length){
+        result[i] = new Location(regs[idx], OptionalInt.empty());
+      }
+      else{
+        result[i] = new Location(Register.RSP, OptionalInt.of(stackOffset));
+        stackOffset += 8;
+      }
+    }
+    return result;
+  }
+
+  private void checkNotFinalized(){
+    if(finalized){
+      throw new IllegalStateException("Prologue has been already emitted.");
+    }
+  }
+
+  private static Register normalize(Register reg){
+    if(reg.width() <= 64){
+      int encoding = reg.encoding();
+      if((reg.ordinal() >= Register.AH.ordinal()) && (reg.ordinal() <= Register.BH.ordinal())){
+        encoding -= 4; // AH - BH are upper half of AX - BX
+      }
+      return Register.values()[Register.RAX.ordinal() + encoding];
+    }
+    // Upper half of YMM registers is volatile.
+    return Register.values()[Register.XMM0.ordinal() + reg.encoding()];
+  }
+
+  /**
+   * Declare registers which are used (clobbered) in the function.
+   * Callee-saved registers in them are saved in the prologue.
+   *
+   * @param regs registers to use
+   * @return This instance
+   * @throws IllegalStateException if the prologue has been already emitted.
+   */
+  public Frame uses(Register... regs){
+    checkNotFinalized();
+    for(var reg : regs){
+      usedRegs.add(normalize(Objects.requireNonNull(reg)));
+    }
+    return this;
+  }
+
+  /**
+   * Reserve spill area on the stack.
+   * It is aligned to 16 bytes.
+   *
+   * @param size size of spill area in bytes
+   * @return This instance
+   * @throws IllegalStateException if the prologue has been already emitted.
+   */
+  public Frame spill(int size){
+    checkNotFinalized();
+    if(size < 0){
+      throw new IllegalArgumentException("Spill size must not be negative: " + size);
+    }
+    spillSize = size;
+    return this;
+  }
+
+  /**
+   * Declare that the function calls another function.
+   * Then the frame keeps RSP to be aligned to 16 bytes at the call,
+   * and reserves shadow space on Windows.
+   *
+   * @return This instance
+   * @throws IllegalStateException if the prologue has been already emitted.
+   */
+  public Frame callsFunction(){
+    checkNotFinalized();
+    isLeaf = false;
+    return this;
+  }
+
+  private void layout(){
+    savedGprs.clear();
+    savedXmms.clear();
+
+    hasFramePointer = !isLeaf;
+    for(var reg : isWindows ? WIN64_SAVED_GPRS : SYSV_SAVED_GPRS){
+      if(usedRegs.contains(reg) && !(hasFramePointer && (reg == Register.RBP))){
+        savedGprs.add(reg);
+      }
+    }
+    if(isWindows){
+      for(var reg : WIN64_SAVED_XMMS){
+        if(usedRegs.contains(reg)){
+          savedXmms.add(reg);
+        }
+      }
+    }
+
+    spillAreaSize = (spillSize + 15) & ~15;
+    isOmitted = isLeaf && savedGprs.isEmpty() && savedXmms.isEmpty() &&
+                ((spillSize == 0) || (!isWindows && (spillAreaSize <= RED_ZONE_SIZE)));
+    if(isOmitted){
+      shadowSize = 0;
+      bodySize = 0;
+      return;
+    }
+
+    shadowSize = (isWindows && !isLeaf) ? SHADOW_SPACE_SIZE : 0;
+    bodySize = shadowSize + spillAreaSize + savedXmms.size() * 16;
+    // RSP should be aligned to 16 bytes after the prologue.
+    if(((8 + pushedBytes() + bodySize) % 16) != 0){
+      bodySize += 8;
+    }
+  }
+
+  private int pushedBytes(){
+    return (savedGprs.size() + (hasFramePointer ? 1 : 0)) * 8;
+  }
+
+  private int xmmSaveOffset(int idx){
+    return shadowSize + spillAreaSize + idx * 16;
+  }
+
+  /**
+   * Check whether the frame is omitted.
+   *
+   * @return true if neither prologue nor epilogue emits stack operations
+   */
+  public boolean isFrameOmitted(){
+    layout();
+    return isOmitted;
+  }
+
+  /**
+   * Get the location of the argument.
+   * Stack arguments are addressed from RSP after the prologue.
+   *
+   * @param index index of the argument
+   * @return location of the argument
+   */
+  public Location argument(int index){
+    var loc = args[Objects.checkIndex(index, args.length)];
+    if(!loc.isMemory()){
+      return loc;
+    }
+    layout();
+    return new Location(Register.RSP, OptionalInt.of(loc.disp().getAsInt() + pushedBytes() + bodySize));
+  }
+
+  /**
+   * Get the register for the return value.
+   *
+   * @return RAX or XMM0. Empty if the function does not return any value.
+   */
+  public Optional<Register> returnRegister(){
+    return desc.returnLayout()
+               .map(l -> isFloatingPoint(l) ? Register.XMM0 : Register.RAX);
+  }
+
+  /**
+   * Get the location of the spill slot.
+   * It is addressed from RSP after the prologue.
+   *
+   * @param offset offset in the spill area
+   * @return location of the slot
+   * @throws IndexOutOfBoundsException if offset is out of the spill area.
+   */
+  public Location spillSlot(int offset){
+    Objects.checkIndex(offset, spillSize);
+    layout();
+    int base = isOmitted ? -spillAreaSize : shadowSize;
+    return new Location(Register.RSP, OptionalInt.of(base + offset));
+  }
+
+  /**
+   * Emit the prologue.
+   * Registers cannot be added after this call.
+   *
+   * @param <T> type of the builder
+   * @param builder builder to emit the prologue
+   * @return the builder
+   * @throws IllegalArgumentException if XMM registers should be saved but the builder does not support SSE.
+   */
+  public <T extends AMD64AsmBuilder<T>> T prologue(T builder){
+    layout();
+    if(!savedXmms.isEmpty() && !(builder instanceof SSEAsmBuilder<?>)){
+      throw new IllegalArgumentException("SSE builder is required to save XMM registers.");
+    }
+    finalized = true;
+
+    if(hasFramePointer){
+      builder
+ /* push %rbp           */ .push(Register.RBP)
+ /* mov %rsp, %rbp      */ .movMR(Register.RSP, Register.RBP);
+    }
+    for(var reg : savedGprs){
+ /* push reg            */ builder.push(reg);
+    }
+    if(bodySize > 0){
+ /* sub $size, %rsp     */ builder.sub(Register.RSP, bodySize);
+    }
+    for(int i = 0; i < savedXmms.size(); i++){
+ /* movdqa xmm, x(%rsp) */ ((SSEAsmBuilder<?>)builder).movdqaMR(savedXmms.get(i), Register.RSP, OptionalInt.of(xmmSaveOffset(i)));
+    }
+    return builder;
+  }
+
+  /**
+   * Emit the epilogue including RET.
+   *
+   * @param <T> type of the builder
+   * @param builder builder to emit the epilogue
+   * @return the builder
+   * @throws IllegalStateException if the prologue has not been emitted.
+   */
+  public <T extends AMD64AsmBuilder<T>> T epilogue(T builder){
+    if(!finalized){
+      throw new IllegalStateException("Prologue has not been emitted.");
+    }
+
+    for(int i = 0; i < savedXmms.size(); i++){
+ /* movdqa x(%rsp), xmm */ ((SSEAsmBuilder<?>)builder).movdqaRM(savedXmms.get(i), Register.RSP, OptionalInt.of(xmmSaveOffset(i)));
+    }
+    if(bodySize > 0){
+ /* add $size, %rsp     */ builder.add(Register.RSP, bodySize);
+    }
+    for(int i = savedGprs.size() - 1; i >= 0; i--){
+ /* pop reg             */ builder.pop(savedGprs.get(i), OptionalInt.empty());
+    }
+    if(hasFramePointer){
+ /* pop %rbp            */ builder.pop(Register.RBP, OptionalInt.empty());
+    }
+ /* ret                 */ return builder.ret();
+  }
+
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2022, 2025, Yasumasa Suenaga
+ * Copyright (C) 2022, 2026, Yasumasa Suenaga
  *
  * This file is part of ffmasm.
  *
@@ -43,7 +43,15 @@ public class SSEAsmBuilder<T extends SSEAsmBuilder<T>> extends AMD64AsmBuilder<T
     super(seg, desc);
   }
 
+  /**
+   * Hook which is called before emitting legacy SSE instruction.
+   */
+  protected void beforeLegacySSE(){
+    // Do nothing by default
+  }
+
   private T movdq(Register r, Register m, OptionalInt disp, byte prefix, byte secondOpcode){
+    beforeLegacySSE();
     byteBuf.put(prefix);
     emitREXOp(r, m);
     byteBuf.put((byte)0x0f); // escape opcode
@@ -131,6 +139,7 @@ public class SSEAsmBuilder<T extends SSEAsmBuilder<T>> extends AMD64AsmBuilder<T
   }
 
   private T movDorQ(Register r, Register m, OptionalInt disp, byte secondOpcode, boolean isQWORD){
+    beforeLegacySSE();
     byteBuf.put((byte)0x66); // prefix
     emitREXOp(r, m, isQWORD);
     byteBuf.put((byte)0x0f); // escape opcode
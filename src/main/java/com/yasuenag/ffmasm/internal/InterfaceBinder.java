@@ -0,0 +1,467 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Generates hidden class which implements functional interface with
+ * MethodHandle. The MethodHandle is held in static final field of the
+ * hidden class, and it is called via invokeExact(). So JIT compiler can
+ * treat it as a constant, and can inline it into the caller.
+ *
+ * Generated class is equivalent to following code:
+ * <pre>
+ * final class Impl implements Iface{
+ *   private static final MethodHandle MH = MethodHandles.classData(MethodHandles.lookup(), "_", MethodHandle.class);
+ *   public R method(A a, B b){
+ *     return (R)MH.invokeExact(a, b);
+ *   }
+ * }
+ * </pre>
+ */
+public final class InterfaceBinder{
+
+  private static final int CLASS_VERSION = 61; // Java 17
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_PRIVATE = 0x0002;
+  private static final int ACC_STATIC = 0x0008;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+  private static final int ACC_SYNTHETIC = 0x1000;
+
+  private static final int CONSTANT_Utf8 = 1;
+  private static final int CONSTANT_Class = 7;
+  private static final int CONSTANT_String = 8;
+  private static final int CONSTANT_Fieldref = 9;
+  private static final int CONSTANT_Methodref = 10;
+  private static final int CONSTANT_NameAndType = 12;
+
+  private static final int OP_ALOAD_0 = 0x2a;
+  private static final int OP_ILOAD = 0x15;
+  private static final int OP_LLOAD = 0x16;
+  private static final int OP_FLOAD = 0x17;
+  private static final int OP_DLOAD = 0x18;
+  private static final int OP_ALOAD = 0x19;
+  private static final int OP_IRETURN = 0xac;
+  private static final int OP_LRETURN = 0xad;
+  private static final int OP_FRETURN = 0xae;
+  private static final int OP_DRETURN = 0xaf;
+  private static final int OP_ARETURN = 0xb0;
+  private static final int OP_RETURN = 0xb1;
+  private static final int OP_LDC_W = 0x13;
+  private static final int OP_GETSTATIC = 0xb2;
+  private static final int OP_PUTSTATIC = 0xb3;
+  private static final int OP_INVOKEVIRTUAL = 0xb6;
+  private static final int OP_INVOKESPECIAL = 0xb7;
+  private static final int OP_INVOKESTATIC = 0xb8;
+  private static final int OP_CHECKCAST = 0xc0;
+  private static final int OP_WIDE = 0xc4;
+
+  private static final String FIELD_NAME = "MH";
+
+  private static final String FIELD_DESC = "Ljava/lang/invoke/MethodHandle;";
+
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+  /* Constant pool */
+  private static class ConstantPool{
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private final Map<String, Integer> entries = new HashMap<>();
+
+    private int count = 1;
+
+    private int add(String key, int slots, byte[] data){
+      Integer index = entries.get(key);
+      if(index == null){
+        index = count;
+        entries.put(key, index);
+        bytes.writeBytes(data);
+        count += slots;
+      }
+      return index;
+    }
+
+    private static byte[] entry(int tag, int... u2){
+      byte[] data = new byte[1 + u2.length * 2];
+      data[0] = (byte)tag;
+      for(int i = 0; i < u2.length; i++){
+        data[1 + i * 2] = (byte)(u2[i] >> 8);
+        data[2 + i * 2] = (byte)u2[i];
+      }
+      return data;
+    }
+
+    public int utf8(String str){
+      var buf = new ByteArrayOutputStream();
+      try(var dout = new DataOutputStream(buf)){
+        dout.writeByte(CONSTANT_Utf8);
+        dout.writeUTF(str);
+      }
+      catch(IOException e){
+        throw new UncheckedIOException(e);
+      }
+      return add("U" + str, 1, buf.toByteArray());
+    }
+
+    public int classInfo(String internalName){
+      int name = utf8(internalName);
+      return add("C" + internalName, 1, entry(CONSTANT_Class, name));
+    }
+
+    public int string(String str){
+      int utf8 = utf8(str);
+      return add("S" + str, 1, entry(CONSTANT_String, utf8));
+    }
+
+    public int nameAndType(String name, String type){
+      int n = utf8(name);
+      int t = utf8(type);
+      return add("N" + name + ":" + type, 1, entry(CONSTANT_NameAndType, n, t));
+    }
+
+    public int fieldRef(String owner, String name, String type){
+      int c = classInfo(owner);
+      int nt = nameAndType(name, type);
+      return add("F" + owner + "." + name + ":" + type, 1, entry(CONSTANT_Fieldref, c, nt));
+    }
+
+    public int methodRef(String owner, String name, String type){
+      int c = classInfo(owner);
+      int nt = nameAndType(name, type);
+      return add("M" + owner + "." + name + ":" + type, 1, entry(CONSTANT_Methodref, c, nt));
+    }
+
+    public void writeTo(DataOutputStream dest) throws IOException{
+      dest.writeShort(count);
+      bytes.writeTo(dest);
+    }
+
+  }
+
+  /* Method to be emitted */
+  private static record MethodData(int access, int name, int desc, int maxStack, int maxLocals, byte[] code){}
+
+  private InterfaceBinder(){
+    // Do nothing
+  }
+
+  private static String internalName(Class<?> clazz){
+    return clazz.getName().replace('.', '/');
+  }
+
+  /**
+   * Find single abstract method in the interface.
+   * If the interface inherits the method with covariant return types,
+   * the method which has the most specific return type is returned.
+   *
+   * @param iface functional interface
+   * @return abstract method
+   * @throws IllegalArgumentException if the class is not a functional interface.
+   */
+  public static Method findAbstractMethod(Class<?> iface){
+    return findAbstractMethods(iface).get(0);
+  }
+
+  // First element is the method to implement. Others are the methods which
+  // have same name and parameters, but wider return type. They have to be
+  // implemented as bridges because no default method bridges them.
+  private static List<Method> findAbstractMethods(Class<?> iface){
+    if(!iface.isInterface()){
+      throw new IllegalArgumentException(iface.getName() + " is not an interface.");
+    }
+    if(iface.isHidden() || iface.isSealed()){
+      throw new IllegalArgumentException(iface.getName() + " cannot be implemented.");
+    }
+    if(!Modifier.isPublic(iface.getModifiers()) ||
+       !iface.getModule().isExported(iface.getPackageName(), InterfaceBinder.class.getModule())){
+      throw new IllegalArgumentException(iface.getName() + " is not accessible.");
+    }
+
+    var candidates = new ArrayList<Method>();
+    for(var method : iface.getMethods()){
+      if(!Modifier.isAbstract(method.getModifiers()) || isObjectMethod(method)){
+        continue;
+      }
+      if(!candidates.isEmpty() && !(candidates.get(0).getName().equals(method.getName()) &&
+                                    Arrays.equals(candidates.get(0).getParameterTypes(), method.getParameterTypes()))){
+        throw new IllegalArgumentException(iface.getName() + " has two or more abstract methods.");
+      }
+      candidates.add(method);
+    }
+    if(candidates.isEmpty()){
+      throw new IllegalArgumentException(iface.getName() + " does not have abstract method.");
+    }
+
+    Method result = candidates.get(0);
+    for(var method : candidates){
+      if(result.getReturnType().isAssignableFrom(method.getReturnType())){
+        result = method;
+      }
+    }
+    var methods = new ArrayList<Method>();
+    methods.add(result);
+    for(var method : candidates){
+      var ret = method.getReturnType();
+      if(!ret.isAssignableFrom(result.getReturnType())){
+        throw new IllegalArgumentException(iface.getName() + " has two or more abstract methods.");
+      }
+      if((ret != result.getReturnType()) &&
+         methods.stream().noneMatch(m -> m.getReturnType() == ret)){
+        methods.add(method);
+      }
+    }
+    return methods;
+  }
+
+  private static boolean isObjectMethod(Method method){
+    try{
+      Object.class.getMethod(method.getName(), method.getParameterTypes());
+      return true;
+    }
+    catch(NoSuchMethodException e){
+      return false;
+    }
+  }
+
+  private static void emitU2(ByteArrayOutputStream code, int value){
+    code.write(value >> 8);
+    code.write(value);
+  }
+
+  private static void emitLoad(ByteArrayOutputStream code, Class<?> type, int slot){
+    int op;
+    if(!type.isPrimitive()){
+      op = OP_ALOAD;
+    }
+    else if(type == long.class){
+      op = OP_LLOAD;
+    }
+    else if(type == float.class){
+      op = OP_FLOAD;
+    }
+    else if(type == double.class){
+      op = OP_DLOAD;
+    }
+    else{
+      op = OP_ILOAD;
+    }
+
+    if(slot < 256){
+      code.write(op);
+      code.write(slot);
+    }
+    else{
+      code.write(OP_WIDE);
+      code.write(op);
+      emitU2(code, slot);
+    }
+  }
+
+  private static int returnOp(Class<?> type){
+    if(type == void.class){
+      return OP_RETURN;
+    }
+    else if(!type.isPrimitive()){
+      return OP_ARETURN;
+    }
+    else if(type == long.class){
+      return OP_LRETURN;
+    }
+    else if(type == float.class){
+      return OP_FRETURN;
+    }
+    else if(type == double.class){
+      return OP_DRETURN;
+    }
+    return OP_IRETURN;
+  }
+
+  private static int slots(Class<?> type){
+    return ((type == long.class) || (type == double.class)) ? 2 : (type == void.class ? 0 : 1);
+  }
+
+  private static byte[] generate(String className, Class<?> iface, List<Method> abstractMethods){
+    var method = abstractMethods.get(0);
+    var cp = new ConstantPool();
+    int thisClass = cp.classInfo(className);
+    int superClass = cp.classInfo("java/lang/Object");
+    int ifaceClass = cp.classInfo(internalName(iface));
+    int fieldName = cp.utf8(FIELD_NAME);
+    int fieldDesc = cp.utf8(FIELD_DESC);
+    int codeAttr = cp.utf8("Code");
+    int mhField = cp.fieldRef(className, FIELD_NAME, FIELD_DESC);
+
+    var methods = new ArrayList<MethodData>();
+
+    // Constructor
+    var code = new ByteArrayOutputStream();
+    code.write(OP_ALOAD_0);
+    code.write(OP_INVOKESPECIAL);
+    emitU2(code, cp.methodRef("java/lang/Object", "<init>", "()V"));
+    code.write(OP_RETURN);
+    methods.add(new MethodData(ACC_PUBLIC, cp.utf8("<init>"), cp.utf8("()V"), 1, 1, code.toByteArray()));
+
+    // Static initializer
+    code = new ByteArrayOutputStream();
+    code.write(OP_INVOKESTATIC);
+    emitU2(code, cp.methodRef("java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;"));
+    code.write(OP_LDC_W);
+    emitU2(code, cp.string("_"));
+    code.write(OP_LDC_W);
+    emitU2(code, cp.classInfo("java/lang/invoke/MethodHandle"));
+    code.write(OP_INVOKESTATIC);
+    emitU2(code, cp.methodRef("java/lang/invoke/MethodHandles", "classData", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;"));
+    code.write(OP_CHECKCAST);
+    emitU2(code, cp.classInfo("java/lang/invoke/MethodHandle"));
+    code.write(OP_PUTSTATIC);
+    emitU2(code, mhField);
+    code.write(OP_RETURN);
+    methods.add(new MethodData(ACC_STATIC, cp.utf8("<clinit>"), cp.utf8("()V"), 3, 0, code.toByteArray()));
+
+    // Implementation of the interface
+    var type = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+    var typeDesc = type.toMethodDescriptorString();
+    code = new ByteArrayOutputStream();
+    code.write(OP_GETSTATIC);
+    emitU2(code, mhField);
+    int slot = 1;
+    for(var param : method.getParameterTypes()){
+      emitLoad(code, param, slot);
+      slot += slots(param);
+    }
+    code.write(OP_INVOKEVIRTUAL);
+    emitU2(code, cp.methodRef("java/lang/invoke/MethodHandle", "invokeExact", typeDesc));
+    code.write(returnOp(method.getReturnType()));
+    int maxStack = Math.max(slot, slots(method.getReturnType()));
+    methods.add(new MethodData(ACC_PUBLIC | ACC_FINAL, cp.utf8(method.getName()), cp.utf8(typeDesc), maxStack, slot, code.toByteArray()));
+
+    // Bridges for wider return types share the code because the result
+    // of invokeExact() is assignable to them.
+    for(var bridge : abstractMethods.subList(1, abstractMethods.size())){
+      var bridgeDesc = MethodType.methodType(bridge.getReturnType(), bridge.getParameterTypes()).toMethodDescriptorString();
+      methods.add(new MethodData(ACC_PUBLIC | ACC_FINAL | ACC_SYNTHETIC, cp.utf8(method.getName()), cp.utf8(bridgeDesc), maxStack, slot, code.toByteArray()));
+    }
+
+    var bytes = new ByteArrayOutputStream();
+    try(var out = new DataOutputStream(bytes)){
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(CLASS_VERSION);
+      cp.writeTo(out);
+      out.writeShort(ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(1); // interfaces
+      out.writeShort(ifaceClass);
+
+      out.writeShort(1); // fields
+      out.writeShort(ACC_PRIVATE | ACC_STATIC | ACC_FINAL);
+      out.writeShort(fieldName);
+      out.writeShort(fieldDesc);
+      out.writeShort(0); // attributes
+
+      out.writeShort(methods.size());
+      for(var m : methods){
+        out.writeShort(m.access());
+        out.writeShort(m.name());
+        out.writeShort(m.desc());
+        out.writeShort(1); // attributes
+        out.writeShort(codeAttr);
+        out.writeInt(12 + m.code().length);
+        out.writeShort(m.maxStack());
+        out.writeShort(m.maxLocals());
+        out.writeInt(m.code().length);
+        out.write(m.code());
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+      }
+
+      out.writeShort(0); // attributes
+    }
+    catch(IOException e){
+      throw new UncheckedIOException(e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Create an instance of the functional interface which calls the MethodHandle.
+   * Type of the MethodHandle is adapted to the method of the interface via asType().
+   *
+   * @param <I> type of the functional interface
+   * @param iface functional interface
+   * @param mh MethodHandle to call
+   * @return instance of the interface
+   * @throws IllegalArgumentException if the interface is not a functional interface,
+   *                                  or the MethodHandle cannot be adapted to it.
+   */
+  public static <I> I bind(Class<I> iface, MethodHandle mh){
+    var abstractMethods = findAbstractMethods(iface);
+    var method = abstractMethods.get(0);
+    var type = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+    MethodHandle target;
+    try{
+      target = mh.asType(type);
+    }
+    catch(WrongMethodTypeException e){
+      throw new IllegalArgumentException("Cannot adapt " + mh.type() + " to " + method, e);
+    }
+
+    // Generated class has to access the interface.
+    InterfaceBinder.class.getModule().addReads(iface.getModule());
+
+    String className = internalName(InterfaceBinder.class) + "$" + iface.getSimpleName();
+    byte[] classBytes = generate(className, iface, abstractMethods);
+    try{
+      var hiddenLookup = lookup.defineHiddenClassWithClassData(classBytes, target, true);
+      var ctor = hiddenLookup.findConstructor(hiddenLookup.lookupClass(), MethodType.methodType(void.class));
+      return iface.cast(ctor.invoke());
+    }
+    catch(IllegalAccessException | IllegalAccessError e){
+      throw new IllegalArgumentException(iface.getName() + " is not accessible.", e);
+    }
+    catch(RuntimeException | Error e){
+      throw e;
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Linear scan register allocator (Poletto and Sarkar).
+ *
+ * Live intervals are computed from liveness analysis on the instruction
+ * list, so the value which is live across the loop is kept in the
+ * register during the whole loop. If the pool is exhausted, the interval
+ * which ends last is spilled to the stack for its whole lifetime.
+ *
+ * @author Yasumasa Suenaga
+ */
+public final class LinearScanAllocator{
+
+  /**
+   * Result of the allocation.
+   *
+   * @param registers index in the register pool for each virtual register. -1 if it is spilled or not live.
+   * @param spillSlots offset in the spill area for each virtual register. -1 if it is not spilled.
+   * @param spillAreaSize size of the spill area. Vector slots (16 bytes) are placed before GPR slots (8 bytes).
+   * @param maxGPRPressure maximum number of GPRs which are live at the same time
+   * @param maxVectorPressure maximum number of vector registers which are live at the same time
+   */
+  public static record Result(int[] registers, int[] spillSlots, int spillAreaSize, int maxGPRPressure, int maxVectorPressure){}
+
+  private final List<VirtualInsn> insns;
+
+  private final boolean[] isVector;
+
+  private final int[] start;
+
+  private final int[] end;
+
+  private final boolean[] defAtStart;
+
+  private LinearScanAllocator(List<VirtualInsn> insns, boolean[] isVector){
+    this.insns = insns;
+    this.isVector = isVector;
+    this.start = new int[isVector.length];
+    this.end = new int[isVector.length];
+    this.defAtStart = new boolean[isVector.length];
+  }
+
+  private int[] successors(int idx, int[] labelPositions){
+    var insn = insns.get(idx);
+    boolean hasNext = idx + 1 < insns.size();
+    return switch(insn.op()){
+      case JUMP -> new int[]{labelPositions[(int)insn.imm()]};
+      case JUMP_EQ, JUMP_NE, JUMP_Z, JUMP_NZ -> hasNext ? new int[]{labelPositions[(int)insn.imm()], idx + 1}
+                                                        : new int[]{labelPositions[(int)insn.imm()]};
+      case RET -> new int[0];
+      default -> hasNext ? new int[]{idx + 1} : new int[0];
+    };
+  }
+
+  private void computeIntervals(int labels, int[] args){
+    int n = insns.size();
+    var labelPositions = new int[labels];
+    for(int i = 0; i < n; i++){
+      var insn = insns.get(i);
+      if(insn.op() == VirtualInsn.Op.LABEL){
+        labelPositions[(int)insn.imm()] = i;
+      }
+    }
+
+    // Backward dataflow until fixed point
+    var liveIn = new BitSet[n];
+    for(int i = 0; i < n; i++){
+      liveIn[i] = new BitSet();
+    }
+    boolean changed = true;
+    while(changed){
+      changed = false;
+      for(int i = n - 1; i >= 0; i--){
+        var live = new BitSet();
+        for(int s : successors(i, labelPositions)){
+          live.or(liveIn[s]);
+        }
+        var insn = insns.get(i);
+        if(insn.def() >= 0){
+          live.clear(insn.def());
+        }
+        for(int u : insn.uses()){
+          live.set(u);
+        }
+        if(!live.equals(liveIn[i])){
+          liveIn[i] = live;
+          changed = true;
+        }
+      }
+    }
+
+    Arrays.fill(start, Integer.MAX_VALUE);
+    Arrays.fill(end, Integer.MIN_VALUE);
+    for(int i = 0; i < n; i++){
+      for(int v = liveIn[i].nextSetBit(0); v >= 0; v = liveIn[i].nextSetBit(v + 1)){
+        start[v] = Math.min(start[v], i);
+        end[v] = Math.max(end[v], i);
+      }
+      int def = insns.get(i).def();
+      if(def >= 0){
+        if(i < start[def]){
+          start[def] = i;
+          defAtStart[def] = true;
+        }
+        end[def] = Math.max(end[def], i);
+      }
+    }
+
+    // Arguments are defined before the first instruction.
+    for(int arg : args){
+      if(end[arg] >= 0){
+        start[arg] = -1;
+        defAtStart[arg] = true;
+      }
+    }
+  }
+
+  private boolean isLive(int v){
+    return start[v] <= end[v];
+  }
+
+  private int maxPressure(boolean vector){
+    int max = 0;
+    for(int pos = -1; pos < insns.size(); pos++){
+      int count = 0;
+      for(int v = 0; v < isVector.length; v++){
+        if((isVector[v] == vector) && isLive(v) && (start[v] <= pos) && (pos <= end[v])){
+          count++;
+        }
+      }
+      max = Math.max(max, count);
+    }
+    return max;
+  }
+
+  private void scan(boolean vector, int poolSize, int[] hints, int[] registers, boolean[] spilled){
+    var intervals = new ArrayList<Integer>();
+    for(int v = 0; v < isVector.length; v++){
+      if((isVector[v] == vector) && isLive(v)){
+        intervals.add(v);
+      }
+    }
+    intervals.sort(Comparator.<Integer>comparingInt(v -> start[v])
+                             .thenComparingInt(v -> (hints[v] >= 0) ? 0 : 1)
+                             .thenComparingInt(v -> v));
+
+    var used = new boolean[poolSize];
+    var active = new ArrayList<Integer>();
+    for(int cur : intervals){
+      // Expire old intervals. The register can be reused by the interval
+      // which is defined by the instruction where the old one dies.
+      for(var itr = active.iterator(); itr.hasNext();){
+        int act = itr.next();
+        if((end[act] < start[cur]) || ((end[act] == start[cur]) && defAtStart[cur])){
+          used[registers[act]] = false;
+          itr.remove();
+        }
+      }
+
+      int reg = -1;
+      if((hints[cur] >= 0) && (hints[cur] < poolSize) && !used[hints[cur]]){
+        reg = hints[cur];
+      }
+      else{
+        for(int r = 0; r < poolSize; r++){
+          if(!used[r]){
+            reg = r;
+            break;
+          }
+        }
+      }
+
+      if(reg < 0){
+        // Spill the interval which ends last.
+        int victim = cur;
+        for(int act : active){
+          if(end[act] > end[victim]){
+            victim = act;
+          }
+        }
+        if(victim != cur){
+          reg = registers[victim];
+          registers[victim] = -1;
+          spilled[victim] = true;
+          active.remove(Integer.valueOf(victim));
+        }
+        else{
+          spilled[cur] = true;
+          continue;
+        }
+      }
+
+      registers[cur] = reg;
+      used[reg] = true;
+      active.add(cur);
+    }
+  }
+
+  /**
+   * Allocate physical registers to virtual registers.
+   *
+   * @param insns instructions
+   * @param isVector types of virtual registers
+   * @param labels number of labels
+   * @param args IDs of virtual registers of arguments
+   * @param hints preferred GPR for each argument
+   * @param gprs number of GPRs in the pool
+   * @param vectors number of vector registers in the pool
+   * @return result of the allocation
+   */
+  public static Result allocate(List<VirtualInsn> insns, boolean[] isVector, int labels, int[] args, int[] hints, int gprs, int vectors){
+    var allocator = new LinearScanAllocator(insns, isVector);
+    allocator.computeIntervals(labels, args);
+
+    var vregHints = new int[isVector.length];
+    Arrays.fill(vregHints, -1);
+    for(int i = 0; i < args.length; i++){
+      vregHints[args[i]] = hints[i];
+    }
+
+    var registers = new int[isVector.length];
+    var spilled = new boolean[isVector.length];
+    Arrays.fill(registers, -1);
+    allocator.scan(false, gprs, vregHints, registers, spilled);
+    allocator.scan(true, vectors, vregHints, registers, spilled);
+
+    var slots = new int[isVector.length];
+    Arrays.fill(slots, -1);
+    int offset = 0;
+    for(boolean vector : new boolean[]{true, false}){
+      for(int v = 0; v < isVector.length; v++){
+        if(spilled[v] && (isVector[v] == vector)){
+          slots[v] = offset;
+          offset += vector ? 16 : 8;
+        }
+      }
+    }
+
+    return new Result(registers, slots, offset, allocator.maxPressure(false), allocator.maxPressure(true));
+  }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.yasuenag.ffmasm.VirtualAsmBuilder.Peephole;
+
+
+/**
+ * Peephole optimizer on the instruction list of VirtualAsmBuilder.
+ *
+ * Rules are applied repeatedly until nothing is changed because a rewrite
+ * might expose another one (e.g. the load after the store is replaced with
+ * the move, then it might be the move to itself). Rewritten instructions
+ * are still platform independent, and each backend lowers them to the
+ * best form of the platform (e.g. JUMP_Z is emitted as TEST + JZ on
+ * AMD64, and CBZ on AArch64).
+ *
+ * @author Yasumasa Suenaga
+ */
+public final class PeepholeOptimizer{
+
+  private final List<VirtualInsn> insns;
+
+  private final boolean[] isVector;
+
+  private final int[] args;
+
+  private final Map<Peephole, Integer> applied;
+
+  private PeepholeOptimizer(List<VirtualInsn> insns, boolean[] isVector, int[] args, Map<Peephole, Integer> applied){
+    this.insns = new ArrayList<>(insns);
+    this.isVector = isVector;
+    this.args = args;
+    this.applied = applied;
+  }
+
+  private void count(Peephole rule){
+    applied.merge(rule, 1, Integer::sum);
+  }
+
+  // mov a, a
+  private boolean removeRedundantMoves(){
+    return insns.removeIf(i -> {
+      boolean redundant = (i.op() == VirtualInsn.Op.MOV) && (i.a() == i.b());
+      if(redundant){
+        count(Peephole.REDUNDANT_MOVE);
+      }
+      return redundant;
+    });
+  }
+
+  // add a, 0 / sub a, 0
+  private boolean removeZeroImmediates(){
+    return insns.removeIf(i -> {
+      boolean nop = ((i.op() == VirtualInsn.Op.ADD_IMM) || (i.op() == VirtualInsn.Op.SUB_IMM)) && (i.imm() == 0);
+      if(nop){
+        count(Peephole.ZERO_IMMEDIATE);
+      }
+      return nop;
+    });
+  }
+
+  // store a, [b + d]; load c, [b + d] -> store a, [b + d]; mov c, a
+  private boolean forwardStoreToLoad(){
+    boolean changed = false;
+    for(int i = 0; i < insns.size() - 1; i++){
+      var store = insns.get(i);
+      var load = insns.get(i + 1);
+      if((store.op() == VirtualInsn.Op.STORE) && (load.op() == VirtualInsn.Op.LOAD) &&
+         (store.b() == load.b()) && (store.imm() == load.imm()) &&
+         !isVector[store.a()] && !isVector[load.a()]){
+        insns.set(i + 1, new VirtualInsn(VirtualInsn.Op.MOV, load.a(), store.a(), 0));
+        count(Peephole.STORE_TO_LOAD);
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  // Register which is defined only once by "mov $0, reg" holds zero always.
+  private Set<Integer> zeroRegisters(){
+    var defs = new int[isVector.length];
+    for(int arg : args){
+      defs[arg]++;
+    }
+    var candidates = new HashSet<Integer>();
+    for(var insn : insns){
+      int def = insn.def();
+      if(def >= 0){
+        defs[def]++;
+        if((insn.op() == VirtualInsn.Op.MOV_IMM) && (insn.imm() == 0)){
+          candidates.add(def);
+        }
+      }
+    }
+    candidates.removeIf(r -> defs[r] != 1);
+    return candidates;
+  }
+
+  // cmp a, zero; je/jne -> jz/jnz a
+  private boolean compareWithZero(){
+    var zeros = zeroRegisters();
+    if(zeros.isEmpty()){
+      return false;
+    }
+
+    boolean changed = false;
+    var rewritten = new HashSet<Integer>();
+    for(int i = 0; i < insns.size(); i++){
+      var insn = insns.get(i);
+      if((insn.op() != VirtualInsn.Op.JUMP_EQ) && (insn.op() != VirtualInsn.Op.JUMP_NE)){
+        continue;
+      }
+      int zero;
+      int target;
+      if(zeros.contains(insn.b())){
+        zero = insn.b();
+        target = insn.a();
+      }
+      else if(zeros.contains(insn.a())){
+        zero = insn.a();
+        target = insn.b();
+      }
+      else{
+        continue;
+      }
+      var op = (insn.op() == VirtualInsn.Op.JUMP_EQ) ? VirtualInsn.Op.JUMP_Z : VirtualInsn.Op.JUMP_NZ;
+      insns.set(i, new VirtualInsn(op, target, -1, insn.imm()));
+      rewritten.add(zero);
+      count(Peephole.COMPARE_WITH_ZERO);
+      changed = true;
+    }
+
+    // Remove "mov $0, reg" if the register is not used anymore.
+    for(var insn : insns){
+      for(int use : insn.uses()){
+        rewritten.remove(use);
+      }
+    }
+    insns.removeIf(i -> (i.op() == VirtualInsn.Op.MOV_IMM) && rewritten.contains(i.a()));
+
+    return changed;
+  }
+
+  // Jump to the label which is bound just after the jump.
+  private boolean removeJumpsToNext(){
+    boolean changed = false;
+    for(int i = 0; i < insns.size(); i++){
+      var insn = insns.get(i);
+      if(!insn.isJump()){
+        continue;
+      }
+      for(int j = i + 1; (j < insns.size()) && (insns.get(j).op() == VirtualInsn.Op.LABEL); j++){
+        if(insns.get(j).imm() == insn.imm()){
+          insns.remove(i--);
+          count(Peephole.JUMP_TO_NEXT);
+          changed = true;
+          break;
+        }
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Optimize the instruction list.
+   *
+   * @param insns instructions
+   * @param isVector types of virtual registers
+   * @param args IDs of virtual registers of arguments
+   * @param rules rules to apply
+   * @param applied the number of rewrites for each rule is added to this map
+   * @return optimized instructions
+   */
+  public static List<VirtualInsn> optimize(List<VirtualInsn> insns, boolean[] isVector, int[] args, Set<Peephole> rules, Map<Peephole, Integer> applied){
+    var optimizer = new PeepholeOptimizer(insns, isVector, args, applied);
+    boolean changed = true;
+    while(changed){
+      changed = false;
+      if(rules.contains(Peephole.STORE_TO_LOAD)){
+        changed |= optimizer.forwardStoreToLoad();
+      }
+      if(rules.contains(Peephole.REDUNDANT_MOVE)){
+        changed |= optimizer.removeRedundantMoves();
+      }
+      if(rules.contains(Peephole.ZERO_IMMEDIATE)){
+        changed |= optimizer.removeZeroImmediates();
+      }
+      if(rules.contains(Peephole.COMPARE_WITH_ZERO)){
+        changed |= optimizer.compareWithZero();
+      }
+      if(rules.contains(Peephole.JUMP_TO_NEXT)){
+        changed |= optimizer.removeJumpsToNext();
+      }
+    }
+    return optimizer.insns;
+  }
+
+}
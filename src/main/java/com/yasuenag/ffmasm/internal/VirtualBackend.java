@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal;
+
+import java.util.List;
+import java.util.OptionalInt;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.UnsupportedPlatformException;
+
+
+/**
+ * Platform dependent part of VirtualAsmBuilder.
+ * Physical registers are referred by the index in the register pool.
+ * Caller-saved registers have to be placed before callee-saved registers
+ * in the pool because the allocator prefers lower index.
+ *
+ * @author Yasumasa Suenaga
+ */
+public interface VirtualBackend{
+
+  /**
+   * Get the number of allocatable registers.
+   *
+   * @param vector true if vector registers
+   * @return number of registers in the pool
+   */
+  public int registerCount(boolean vector);
+
+  /**
+   * Check whether the register is callee-saved.
+   *
+   * @param vector true if vector registers
+   * @param index index in the pool
+   * @return true if the register should be saved in the prologue
+   */
+  public boolean isCalleeSaved(boolean vector, int index);
+
+  /**
+   * Get the name of the register.
+   *
+   * @param vector true if vector registers
+   * @param index index in the pool
+   * @return name of the register
+   */
+  public String registerName(boolean vector, int index);
+
+  /**
+   * Get the register which holds the argument.
+   *
+   * @param argIndex index of the argument
+   * @return index in the GPR pool. Empty if the argument is passed via stack.
+   */
+  public OptionalInt argumentRegister(int argIndex);
+
+  /**
+   * Emit the function.
+   *
+   * @param seg CodeSegment to store the function
+   * @param insns instructions
+   * @param isVector types of virtual registers
+   * @param args IDs of virtual registers of arguments
+   * @param alloc result of register allocation
+   * @param labels number of labels
+   * @return builder which has the function
+   * @throws UnsupportedPlatformException if the platform is not supported.
+   */
+  public AsmBuilder<?> emit(CodeSegment seg, List<VirtualInsn> insns, boolean[] isVector, int[] args, LinearScanAllocator.Result alloc, int labels) throws UnsupportedPlatformException;
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal;
+
+
+/**
+ * Instruction on virtual registers.
+ *
+ * @param op operation
+ * @param a first operand (destination or stored value). -1 if it is not used.
+ * @param b second operand (source or base address). -1 if it is not used.
+ * @param imm immediate value, displacement, or label ID
+ */
+public record VirtualInsn(VirtualInsn.Op op, int a, int b, long imm){
+
+  public static enum Op{
+    MOV_IMM,  // a = imm
+    MOV,      // a = b
+    ADD,      // a += b
+    SUB,      // a -= b
+    AND,      // a &= b
+    OR,       // a |= b
+    XOR,      // a ^= b
+    ADD_IMM,  // a += imm
+    SUB_IMM,  // a -= imm
+    LOAD,     // a = [b + imm]
+    STORE,    // [b + imm] = a
+    LABEL,    // label #imm
+    JUMP,     // goto #imm
+    JUMP_EQ,  // if(a == b) goto #imm
+    JUMP_NE,  // if(a != b) goto #imm
+    JUMP_Z,   // if(a == 0) goto #imm
+    JUMP_NZ,  // if(a != 0) goto #imm
+    RET       // return a
+  }
+
+  /**
+   * Get the virtual register which is defined by this instruction.
+   *
+   * @return ID of the register. -1 if nothing is defined.
+   */
+  public int def(){
+    return switch(op){
+      case MOV_IMM, MOV, ADD, SUB, AND, OR, XOR, ADD_IMM, SUB_IMM, LOAD -> a;
+      default -> -1;
+    };
+  }
+
+  /**
+   * Get virtual registers which are used by this instruction.
+   *
+   * @return IDs of registers
+   */
+  public int[] uses(){
+    return switch(op){
+      case MOV, LOAD -> new int[]{b};
+      case ADD, SUB, AND, OR, XOR, STORE, JUMP_EQ, JUMP_NE -> new int[]{a, b};
+      case ADD_IMM, SUB_IMM, JUMP_Z, JUMP_NZ -> new int[]{a};
+      case RET -> (a < 0) ? new int[0] : new int[]{a};
+      default -> new int[0];
+    };
+  }
+
+  /**
+   * Check whether the control flow does not reach to next instruction.
+   *
+   * @return true if this instruction is unconditional jump or return
+   */
+  public boolean isTerminator(){
+    return (op == Op.JUMP) || (op == Op.RET);
+  }
+
+  /**
+   * Check whether this instruction jumps to the label.
+   *
+   * @return true if this instruction is conditional or unconditional jump
+   */
+  public boolean isJump(){
+    return switch(op){
+      case JUMP, JUMP_EQ, JUMP_NE, JUMP_Z, JUMP_NZ -> true;
+      default -> false;
+    };
+  }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.aarch64;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Optional;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.Label;
+import com.yasuenag.ffmasm.UnsupportedPlatformException;
+import com.yasuenag.ffmasm.aarch64.HWShift;
+import com.yasuenag.ffmasm.aarch64.IndexClass;
+import com.yasuenag.ffmasm.aarch64.Register;
+import com.yasuenag.ffmasm.aarch64.ShiftType;
+
+
+public final class AArch64BatchTrampoline{
+
+  private static final Register[] INT_ARGS = {Register.X0, Register.X1, Register.X2, Register.X3,
+                                              Register.X4, Register.X5, Register.X6, Register.X7};
+
+  private static final Register[] FP_ARGS = {Register.V0, Register.V1, Register.V2, Register.V3,
+                                             Register.V4, Register.V5, Register.V6, Register.V7};
+
+  private static boolean isFloatingPoint(MemoryLayout layout){
+    return (layout instanceof ValueLayout vl) &&
+           ((vl.carrier() == float.class) || (vl.carrier() == double.class));
+  }
+
+  /**
+   * Generate the trampoline which calls the function for each tuple in
+   * the argument block.
+   * Signature of the trampoline is <code>void (args, results, count)</code>.
+   * Each argument occupies 8 bytes slot, and each result is stored to
+   * 8 bytes slot.
+   * Floating point arguments are loaded with whole Q register, so the
+   * argument block needs 8 bytes padding at the end. Floating point result
+   * is stored via the stack not to overwrite the next slot.
+   *
+   * @param seg CodeSegment to store the trampoline
+   * @param function address of the function to call
+   * @param desc FunctionDescriptor of the function
+   * @return MemorySegment of the trampoline
+   * @throws UnsupportedPlatformException if the platform is not supported.
+   * @throws IllegalArgumentException if the function has arguments which cannot be passed via registers.
+   */
+  public static MemorySegment generate(CodeSegment seg, MemorySegment function, FunctionDescriptor desc) throws UnsupportedPlatformException{
+    int slotSize = 8;
+    long addr = function.address();
+
+    var builder = new AsmBuilder.AArch64(seg);
+    Label loop = builder.newLabel();
+    Label exit = builder.newLabel();
+
+    // X19: argument block, X20: result block, X21: counter, X22: function
+    // [sp, #48]: scratch for floating point result
+    builder
+ /* stp x29, x30, [sp, #-64]! */ .stp(Register.X29, Register.X30, Register.SP, IndexClass.PreIndex, -64)
+ /* mov x29, sp               */ .mov(Register.X29, Register.SP)
+ /* stp x19, x20, [sp, #16]   */ .stp(Register.X19, Register.X20, Register.SP, IndexClass.SignedOffset, 16)
+ /* stp x21, x22, [sp, #32]   */ .stp(Register.X21, Register.X22, Register.SP, IndexClass.SignedOffset, 32)
+ /* mov x19, x0               */ .mov(Register.X19, Register.X0)
+ /* mov x20, x1               */ .mov(Register.X20, Register.X1)
+ /* mov x21, x2               */ .mov(Register.X21, Register.X2)
+ /* movz x22, #addr[15:0]     */ .movz(Register.X22, (int)(addr & 0xffff), HWShift.None)
+ /* movk x22, #addr[31:16]    */ .movk(Register.X22, (int)((addr >>> 16) & 0xffff), HWShift.HW_16)
+ /* movk x22, #addr[47:32]    */ .movk(Register.X22, (int)((addr >>> 32) & 0xffff), HWShift.HW_32)
+ /* movk x22, #addr[63:48]    */ .movk(Register.X22, (int)((addr >>> 48) & 0xffff), HWShift.HW_48)
+ /* loop:                     */ .label(loop)
+ /* cmp x21, xzr              */ .cmp(Register.X21, Register.XZR, ShiftType.LSL, (byte)0)
+ /* b.eq exit                 */ .beq(exit);
+
+    int intIdx = 0;
+    int fpIdx = 0;
+    for(var layout : desc.argumentLayouts()){
+      if(isFloatingPoint(layout)){
+        if(fpIdx >= FP_ARGS.length){
+          throw new IllegalArgumentException("Too many floating point arguments: " + desc);
+        }
+ /* ldr qN, [x19], #8         */ builder.ldr(FP_ARGS[fpIdx++], Register.X19, IndexClass.PostIndex, slotSize);
+      }
+      else if(layout instanceof ValueLayout){
+        if(intIdx >= INT_ARGS.length){
+          throw new IllegalArgumentException("Too many integer arguments: " + desc);
+        }
+ /* ldr xN, [x19], #8         */ builder.ldr(INT_ARGS[intIdx++], Register.X19, IndexClass.PostIndex, slotSize);
+      }
+      else{
+        throw new IllegalArgumentException("Unsupported argument: " + layout);
+      }
+    }
+
+ /* blr x22                   */ builder.blr(Register.X22);
+
+    var ret = desc.returnLayout();
+    if(ret.isPresent()){
+      var layout = ret.get();
+      if(isFloatingPoint(layout)){
+ /* str q0, [sp, #48]         */ builder.str(Register.V0, Register.SP, IndexClass.UnsignedOffset, 48)
+ /* ldr x9, [sp, #48]         */        .ldr(Register.X9, Register.SP, IndexClass.UnsignedOffset, 48)
+ /* str x9, [x20], #8         */        .str(Register.X9, Register.X20, IndexClass.PostIndex, slotSize);
+      }
+      else if(layout instanceof ValueLayout){
+ /* str x0, [x20], #8         */ builder.str(Register.X0, Register.X20, IndexClass.PostIndex, slotSize);
+      }
+      else{
+        throw new IllegalArgumentException("Unsupported return value: " + layout);
+      }
+    }
+
+    return builder
+ /* sub x21, x21, #1          */ .subImm(Register.X21, Register.X21, 1, false)
+ /* b loop                    */ .b(loop)
+ /* exit:                     */ .label(exit)
+ /* ldp x21, x22, [sp, #32]   */ .ldp(Register.X21, Register.X22, Register.SP, IndexClass.SignedOffset, 32)
+ /* ldp x19, x20, [sp, #16]   */ .ldp(Register.X19, Register.X20, Register.SP, IndexClass.SignedOffset, 16)
+ /* ldp x29, x30, [sp], #64   */ .ldp(Register.X29, Register.X30, Register.SP, IndexClass.PostIndex, 64)
+ /* ret                       */ .ret(Optional.empty())
+                                 .getMemorySegment("batch trampoline");
+  }
+
+}
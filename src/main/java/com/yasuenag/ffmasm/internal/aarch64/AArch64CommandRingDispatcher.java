@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.aarch64;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Optional;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.Label;
+import com.yasuenag.ffmasm.UnsupportedPlatformException;
+import com.yasuenag.ffmasm.aarch64.DMBOptions;
+import com.yasuenag.ffmasm.aarch64.HWShift;
+import com.yasuenag.ffmasm.aarch64.IndexClass;
+import com.yasuenag.ffmasm.aarch64.Register;
+import com.yasuenag.ffmasm.aarch64.ShiftType;
+
+
+public final class AArch64CommandRingDispatcher{
+
+  /**
+   * Generate the dispatch loop of CommandRing.
+   * Signature of the loop is <code>void (ring, slots)</code>.
+   * Each slot occupies 64 bytes:
+   * <pre>
+   *    0: state (EMPTY = 0, READY = 1, DONE = 2, STOP = 3)
+   *    8: address of the function
+   *   16: 1st - 4th arguments
+   *   48: result
+   *   56: sequence (used by producers only)
+   * </pre>
+   * The loop spins with YIELD until the state of current slot is READY,
+   * calls the function, stores the result, and sets DONE. It returns
+   * when STOP is found.
+   * Loads of the slot are ordered by DMB ISHLD after the state is
+   * observed, and the result is published by DMB ISH before DONE.
+   *
+   * @param seg CodeSegment to store the loop
+   * @return MemorySegment of the loop
+   * @throws UnsupportedPlatformException if the platform is not supported.
+   */
+  public static MemorySegment generate(CodeSegment seg) throws UnsupportedPlatformException{
+    var builder = new AsmBuilder.AArch64(seg);
+    Label wrap = builder.newLabel();
+    Label loop = builder.newLabel();
+    Label exec = builder.newLabel();
+    Label stop = builder.newLabel();
+
+    // X19: ring, X20: number of slots, X21: current slot, X22: remaining slots in this lap
+    return builder
+ /* stp x29, x30, [sp, #-48]! */ .stp(Register.X29, Register.X30, Register.SP, IndexClass.PreIndex, -48)
+ /* mov x29, sp               */ .mov(Register.X29, Register.SP)
+ /* stp x19, x20, [sp, #16]   */ .stp(Register.X19, Register.X20, Register.SP, IndexClass.SignedOffset, 16)
+ /* stp x21, x22, [sp, #32]   */ .stp(Register.X21, Register.X22, Register.SP, IndexClass.SignedOffset, 32)
+ /* mov x19, x0               */ .mov(Register.X19, Register.X0)
+ /* mov x20, x1               */ .mov(Register.X20, Register.X1)
+ /* wrap:                     */ .label(wrap)
+ /* mov x21, x19              */ .mov(Register.X21, Register.X19)
+ /* mov x22, x20              */ .mov(Register.X22, Register.X20)
+ /* loop:                     */ .label(loop)
+ /* ldr x9, [x21]             */ .ldr(Register.X9, Register.X21, IndexClass.UnsignedOffset, 0)
+ /* movz x10, #1              */ .movz(Register.X10, 1, HWShift.None)
+ /* cmp x9, x10               */ .cmp(Register.X9, Register.X10, ShiftType.LSL, (byte)0)
+ /* b.eq exec                 */ .beq(exec)
+ /* movz x10, #3              */ .movz(Register.X10, 3, HWShift.None)
+ /* cmp x9, x10               */ .cmp(Register.X9, Register.X10, ShiftType.LSL, (byte)0)
+ /* b.eq stop                 */ .beq(stop)
+ /* yield                     */ .yield()
+ /* b loop                    */ .b(loop)
+ /* exec:                     */ .label(exec)
+ /* dmb ishld                 */ .dmb(DMBOptions.ISHLD)
+ /* ldr x0, [x21, #16]        */ .ldr(Register.X0, Register.X21, IndexClass.UnsignedOffset, 16)
+ /* ldr x1, [x21, #24]        */ .ldr(Register.X1, Register.X21, IndexClass.UnsignedOffset, 24)
+ /* ldr x2, [x21, #32]        */ .ldr(Register.X2, Register.X21, IndexClass.UnsignedOffset, 32)
+ /* ldr x3, [x21, #40]        */ .ldr(Register.X3, Register.X21, IndexClass.UnsignedOffset, 40)
+ /* ldr x9, [x21, #8]         */ .ldr(Register.X9, Register.X21, IndexClass.UnsignedOffset, 8)
+ /* blr x9                    */ .blr(Register.X9)
+ /* str x0, [x21, #48]        */ .str(Register.X0, Register.X21, IndexClass.UnsignedOffset, 48)
+ /* dmb ish                   */ .dmb(DMBOptions.ISH)
+ /* movz x9, #2               */ .movz(Register.X9, 2, HWShift.None)
+ /* str x9, [x21]             */ .str(Register.X9, Register.X21, IndexClass.UnsignedOffset, 0)
+ /* add x21, x21, #64         */ .addImm(Register.X21, Register.X21, 64, false)
+ /* sub x22, x22, #1          */ .subImm(Register.X22, Register.X22, 1, false)
+ /* cmp x22, xzr              */ .cmp(Register.X22, Register.XZR, ShiftType.LSL, (byte)0)
+ /* b.eq wrap                 */ .beq(wrap)
+ /* b loop                    */ .b(loop)
+ /* stop:                     */ .label(stop)
+ /* dmb ish                   */ .dmb(DMBOptions.ISH)
+ /* movz x9, #2               */ .movz(Register.X9, 2, HWShift.None)
+ /* str x9, [x21]             */ .str(Register.X9, Register.X21, IndexClass.UnsignedOffset, 0)
+ /* ldp x21, x22, [sp, #32]   */ .ldp(Register.X21, Register.X22, Register.SP, IndexClass.SignedOffset, 32)
+ /* ldp x19, x20, [sp, #16]   */ .ldp(Register.X19, Register.X20, Register.SP, IndexClass.SignedOffset, 16)
+ /* ldp x29, x30, [sp], #48   */ .ldp(Register.X29, Register.X30, Register.SP, IndexClass.PostIndex, 48)
+ /* ret                       */ .ret(Optional.empty())
+                                 .getMemorySegment("command ring dispatcher");
+  }
+
+}
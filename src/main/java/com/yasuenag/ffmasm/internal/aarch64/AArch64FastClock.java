@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.aarch64;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.Cleaner;
+import java.util.Optional;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.FastClock;
+import com.yasuenag.ffmasm.aarch64.Register;
+import com.yasuenag.ffmasm.aarch64.SystemRegister;
+
+
+public final class AArch64FastClock extends FastClock{
+
+  private static final CodeSegment seg;
+
+  private static final MethodHandle ticksStub;
+
+  private static final MethodHandle frequencyStub;
+
+  // There is no system register to get CPU number from EL0.
+  // sched_getcpu() in glibc would read it from rseq area if it is available.
+  private static final MethodHandle sched_getcpu;
+
+  static{
+    try{
+      seg = new CodeSegment();
+      var action = new CodeSegment.CleanerAction(seg);
+      Cleaner.create()
+             .register(AArch64FastClock.class, action);
+
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG);
+      ticksStub = new AsmBuilder.AArch64(seg, desc)
+ /* mrs x0, cntvct_el0 */ .mrs(Register.X0, SystemRegister.CNTVCT_EL0)
+ /* ret                */ .ret(Optional.empty())
+                          .build(Linker.Option.critical(false));
+      frequencyStub = new AsmBuilder.AArch64(seg, desc)
+ /* mrs x0, cntfrq_el0 */ .mrs(Register.X0, SystemRegister.CNTFRQ_EL0)
+ /* ret                */ .ret(Optional.empty())
+                          .build(Linker.Option.critical(false));
+
+      var linker = Linker.nativeLinker();
+      var func = linker.defaultLookup().find("sched_getcpu").get();
+      sched_getcpu = linker.downcallHandle(func, FunctionDescriptor.of(ValueLayout.JAVA_INT), Linker.Option.critical(false));
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+  private static long getFrequency(){
+    try{
+      return (long)frequencyStub.invokeExact();
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+  public AArch64FastClock(){
+    super(getFrequency());
+  }
+
+  @Override
+  public long ticks(){
+    try{
+      return (long)ticksStub.invokeExact();
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+  @Override
+  public int currentCpu(){
+    try{
+      return (int)sched_getcpu.invokeExact();
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+}
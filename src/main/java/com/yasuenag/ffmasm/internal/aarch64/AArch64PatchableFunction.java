@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.aarch64;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.Cleaner;
+import java.util.Optional;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.PatchableFunction;
+import com.yasuenag.ffmasm.aarch64.DMBOptions;
+import com.yasuenag.ffmasm.aarch64.Register;
+
+
+public final class AArch64PatchableFunction extends PatchableFunction{
+
+  private static final VarHandle intHandle = ValueLayout.JAVA_INT.varHandle();
+
+  private static final VarHandle longHandle = ValueLayout.JAVA_LONG.varHandle();
+
+  //  0: b target, or nop (falls through to indirect jump)
+  //  4: ldr x16, #12
+  //  8: br x16
+  // 12: brk #0
+  // 16: absolute address of the target
+  private static final int ENTRY_SIZE = 24;
+
+  private static final long LITERAL_OFFSET = 16L;
+
+  private static final int NOP = 0xd503201f;
+
+  private static final int LDR_X16_LITERAL = 0x58000000 | ((int)((LITERAL_OFFSET - 4) >> 2) << 5) | 16;
+
+  private static final int BR_X16 = 0xd61f0000 | (16 << 5);
+
+  private static final int BRK = 0xd4200000;
+
+  private static final CodeSegment seg;
+
+  private static final MethodHandle syncStub;
+
+  static{
+    try{
+      seg = new CodeSegment();
+      var action = new CodeSegment.CleanerAction(seg);
+      Cleaner.create()
+             .register(AArch64PatchableFunction.class, action);
+
+      var desc = FunctionDescriptor.ofVoid(ValueLayout.ADDRESS); // address of modified instruction
+      // Make the store visible to instruction fetch on all of cores.
+      syncStub = new AsmBuilder.AArch64(seg, desc)
+ /* dc cvau, x0             */ .dcCvau(Register.X0)
+ /* dsb ish                 */ .dsb(DMBOptions.ISH)
+ /* ic ivau, x0             */ .icIvau(Register.X0)
+ /* dsb ish                 */ .dsb(DMBOptions.ISH)
+ /* isb                     */ .isb()
+ /* ret                     */ .ret(Optional.empty())
+                               .build();
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+  public AArch64PatchableFunction(CodeSegment seg, String name){
+    super(seg, name, ENTRY_SIZE);
+    intHandle.set(getEntry(), 4L, LDR_X16_LITERAL);
+    intHandle.set(getEntry(), 8L, BR_X16);
+    intHandle.set(getEntry(), 12L, BRK);
+  }
+
+  @Override
+  protected void writeJump(MemorySegment entry, long target){
+    // The literal is read by LDR only. Store it at first because the entry
+    // might be switched to the indirect jump.
+    longHandle.setVolatile(entry, LITERAL_OFFSET, target);
+
+    long offset = target - entry.address();
+    int insn = ((offset >= -(1L << 27)) && (offset < (1L << 27)) && ((offset & 3) == 0))
+                 ? 0x14000000 | (int)((offset >> 2) & 0x3ffffff)
+                 : NOP;
+
+    // B and NOP can be modified concurrently with execution, then other
+    // cores execute either old or new instruction.
+    intHandle.setVolatile(entry, 0L, insn);
+    try{
+      syncStub.invokeExact(entry);
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.aarch64;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.Cleaner;
+import java.util.Optional;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.FastClock;
+import com.yasuenag.ffmasm.SpinWait;
+import com.yasuenag.ffmasm.aarch64.HWShift;
+import com.yasuenag.ffmasm.aarch64.Register;
+import com.yasuenag.ffmasm.aarch64.ShiftType;
+import com.yasuenag.ffmasm.aarch64.SystemRegister;
+
+
+public final class AArch64SpinWait extends SpinWait{
+
+  private static final CodeSegment seg;
+
+  private static final MethodHandle awaitStub;
+
+  static{
+    try{
+      seg = new CodeSegment();
+      var action = new CodeSegment.CleanerAction(seg);
+      Cleaner.create()
+             .register(AArch64SpinWait.class, action);
+
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_INT,  // return value
+                                       ValueLayout.ADDRESS,   // addr
+                                       ValueLayout.JAVA_INT,  // expected
+                                       ValueLayout.JAVA_LONG  // deadline
+                                      );
+      // LDAXR arms exclusive monitor. Store to the address from another
+      // thread clears it, and it generates an event to wake up WFE.
+      // Linux enables event stream of generic timer, so WFE would be woken up
+      // periodically even if nobody writes to the address.
+      awaitStub = new AsmBuilder.AArch64(seg, desc)
+ /* loop:                   */ .label("loop")
+ /* ldaxr w9, [x0]          */ .ldaxr(Register.W9, Register.X0)
+ /* cmp w9, w1              */ .cmp(Register.W9, Register.W1, ShiftType.LSL, (byte)0)
+ /* b.eq matched            */ .beq("matched")
+ /* mrs x10, cntvct_el0     */ .mrs(Register.X10, SystemRegister.CNTVCT_EL0)
+ /* cmp x10, x2             */ .cmp(Register.X10, Register.X2, ShiftType.LSL, (byte)0)
+ /* b.hs timeout            */ .bhs("timeout")
+ /* wfe                     */ .wfe()
+ /* b loop                  */ .b("loop")
+ /* matched:                */ .label("matched")
+ /* movz w0, #1             */ .movz(Register.W0, 1, HWShift.None)
+ /* ret                     */ .ret(Optional.empty())
+ /* timeout:                */ .label("timeout")
+ /* movz w0, #0             */ .movz(Register.W0, 0, HWShift.None)
+ /* ret                     */ .ret(Optional.empty())
+                               .build();
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+  public AArch64SpinWait(FastClock clock){
+    super(clock);
+  }
+
+  @Override
+  public boolean await(MemorySegment addr, int expected, long deadline){
+    try{
+      return (int)awaitStub.invokeExact(addr, expected, deadline) != 0;
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+}
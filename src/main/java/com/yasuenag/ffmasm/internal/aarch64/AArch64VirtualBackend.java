@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.aarch64;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.Label;
+import com.yasuenag.ffmasm.UnsupportedPlatformException;
+import com.yasuenag.ffmasm.aarch64.HWShift;
+import com.yasuenag.ffmasm.aarch64.IndexClass;
+import com.yasuenag.ffmasm.aarch64.Register;
+import com.yasuenag.ffmasm.aarch64.ShiftType;
+import com.yasuenag.ffmasm.internal.LinearScanAllocator;
+import com.yasuenag.ffmasm.internal.VirtualBackend;
+import com.yasuenag.ffmasm.internal.VirtualInsn;
+
+
+public final class AArch64VirtualBackend implements VirtualBackend{
+
+  // Caller-saved registers first. X16 and X17 (IP0 / IP1) are scratch for spilled values.
+  // X18 is platform register, and X29 / X30 are not used.
+  private static final Register[] GPRS = {Register.X0, Register.X1, Register.X2, Register.X3, Register.X4, Register.X5, Register.X6, Register.X7,
+                                          Register.X8, Register.X9, Register.X10, Register.X11, Register.X12, Register.X13, Register.X14, Register.X15,
+                                          Register.X19, Register.X20, Register.X21, Register.X22, Register.X23, Register.X24, Register.X25,
+                                          Register.X26, Register.X27, Register.X28};
+
+  private static final int FIRST_CALLEE_SAVED_GPR = 16;
+
+  // V30 and V31 are scratch for spilled values.
+  // Lower 64 bits of V8 - V15 are callee-saved. We save whole of them.
+  private static final Register[] VECTORS = {Register.V0, Register.V1, Register.V2, Register.V3, Register.V4, Register.V5, Register.V6, Register.V7,
+                                             Register.V16, Register.V17, Register.V18, Register.V19, Register.V20, Register.V21, Register.V22,
+                                             Register.V23, Register.V24, Register.V25, Register.V26, Register.V27, Register.V28, Register.V29,
+                                             Register.V8, Register.V9, Register.V10, Register.V11, Register.V12, Register.V13, Register.V14, Register.V15};
+
+  private static final int FIRST_CALLEE_SAVED_VECTOR = 22;
+
+  private static final Register[] GPR_SCRATCH = {Register.X16, Register.X17};
+
+  private static final Register[] VECTOR_SCRATCH = {Register.V30, Register.V31};
+
+  private static final int MAX_INT_ARGS = 8;
+
+  private final FunctionDescriptor desc;
+
+  public AArch64VirtualBackend(FunctionDescriptor desc){
+    this.desc = desc;
+  }
+
+  @Override
+  public int registerCount(boolean vector){
+    return vector ? VECTORS.length : GPRS.length;
+  }
+
+  @Override
+  public boolean isCalleeSaved(boolean vector, int index){
+    return index >= (vector ? FIRST_CALLEE_SAVED_VECTOR : FIRST_CALLEE_SAVED_GPR);
+  }
+
+  @Override
+  public String registerName(boolean vector, int index){
+    return (vector ? VECTORS : GPRS)[index].name();
+  }
+
+  // VirtualAsmBuilder accepts integer arguments only, so all of them are counted as NGRN.
+  @Override
+  public OptionalInt argumentRegister(int argIndex){
+    return argIndex < MAX_INT_ARGS ? OptionalInt.of(argIndex) : OptionalInt.empty();
+  }
+
+  private static final class Emitter{
+
+    private final AsmBuilder.AArch64 builder;
+
+    private final boolean[] isVector;
+
+    private final LinearScanAllocator.Result alloc;
+
+    private final List<Register> savedRegs;
+
+    private final int spillBase;
+
+    private final int frameSize;
+
+    private Emitter(AsmBuilder.AArch64 builder, boolean[] isVector, LinearScanAllocator.Result alloc, List<Register> savedRegs){
+      this.builder = builder;
+      this.isVector = isVector;
+      this.alloc = alloc;
+      this.savedRegs = savedRegs;
+
+      // Frame layout from SP:
+      //   saved vector registers (16 bytes each)
+      //   spill area (vector slots, then GPR slots)
+      //   saved GPRs (8 bytes each)
+      int vecs = (int)savedRegs.stream().filter(r -> r.width() == 128).count();
+      this.spillBase = vecs * 16;
+      int size = spillBase + alloc.spillAreaSize() + (savedRegs.size() - vecs) * 8;
+      this.frameSize = (size + 15) & ~15;
+      if(frameSize > 4095){
+        throw new IllegalStateException("Stack frame is too large: " + frameSize);
+      }
+    }
+
+    private int savedOffset(int idx){
+      int offset = 0;
+      for(int i = 0; i < idx; i++){
+        offset += (savedRegs.get(i).width() == 128) ? 16 : 8;
+      }
+      // GPRs are placed after the spill area.
+      return (savedRegs.get(idx).width() == 128) ? offset : offset + alloc.spillAreaSize();
+    }
+
+    private void prologue(){
+      if(frameSize == 0){
+        return; // frameless leaf function
+      }
+ /* sub sp, sp, #size    */ builder.subImm(Register.SP, Register.SP, frameSize, false);
+      for(int i = 0; i < savedRegs.size(); i++){
+ /* str reg, [sp, #off]  */ builder.str(savedRegs.get(i), Register.SP, IndexClass.UnsignedOffset, savedOffset(i));
+      }
+    }
+
+    private void epilogue(){
+      if(frameSize > 0){
+        for(int i = 0; i < savedRegs.size(); i++){
+ /* ldr reg, [sp, #off]  */ builder.ldr(savedRegs.get(i), Register.SP, IndexClass.UnsignedOffset, savedOffset(i));
+        }
+ /* add sp, sp, #size    */ builder.addImm(Register.SP, Register.SP, frameSize, false);
+      }
+ /* ret                  */ builder.ret(Optional.empty());
+    }
+
+    private boolean isSpilled(int v){
+      return alloc.registers()[v] < 0;
+    }
+
+    private int slot(int v){
+      return spillBase + alloc.spillSlots()[v];
+    }
+
+    private Register def(int v, int scratchIdx){
+      if(isSpilled(v)){
+        return isVector[v] ? VECTOR_SCRATCH[scratchIdx] : GPR_SCRATCH[scratchIdx];
+      }
+      return (isVector[v] ? VECTORS : GPRS)[alloc.registers()[v]];
+    }
+
+    private Register use(int v, int scratchIdx){
+      var reg = def(v, scratchIdx);
+      if(isSpilled(v)){
+ /* ldr reg, [sp, #slot] */ builder.ldr(reg, Register.SP, IndexClass.UnsignedOffset, slot(v));
+      }
+      return reg;
+    }
+
+    private void writeBack(int v, Register reg){
+      if(isSpilled(v)){
+ /* str reg, [sp, #slot] */ builder.str(reg, Register.SP, IndexClass.UnsignedOffset, slot(v));
+      }
+    }
+
+    private void movImm(Register dst, long imm){
+ /* movz dst, #imm[15:0] */ builder.movz(dst, (int)(imm & 0xffff), HWShift.None);
+      var shifts = new HWShift[]{HWShift.HW_16, HWShift.HW_32, HWShift.HW_48};
+      for(int i = 0; i < shifts.length; i++){
+        int chunk = (int)((imm >>> (16 * (i + 1))) & 0xffff);
+        if(chunk != 0){
+ /* movk dst, #chunk     */ builder.movk(dst, chunk, shifts[i]);
+        }
+      }
+    }
+
+    private void emit(VirtualInsn insn, Label[] labels){
+      int a = insn.a();
+      int b = insn.b();
+      switch(insn.op()){
+        case MOV_IMM -> {
+          var dst = def(a, 0);
+          movImm(dst, insn.imm());
+          writeBack(a, dst);
+        }
+        case MOV -> {
+          var src = use(b, 1);
+          if(isSpilled(a)){
+            writeBack(a, src);
+          }
+          else if(def(a, 0) != src){
+ /* mov dst, src         */ builder.mov(def(a, 0), src);
+          }
+        }
+        case ADD, SUB, AND, OR, XOR -> {
+          var src = use(b, 1);
+          var dst = use(a, 0);
+          switch(insn.op()){
+ /* add dst, dst, src    */ case ADD -> builder.add(dst, dst, src, ShiftType.LSL, (byte)0);
+ /* sub dst, dst, src    */ case SUB -> builder.sub(dst, dst, src, ShiftType.LSL, (byte)0);
+ /* and dst, dst, src    */ case AND -> builder.and(dst, dst, src, ShiftType.LSL, (byte)0);
+ /* orr dst, dst, src    */ case OR -> builder.orr(dst, dst, src, ShiftType.LSL, (byte)0);
+ /* eor dst, dst, src    */ default -> builder.eor(dst, dst, src, ShiftType.LSL, (byte)0);
+          }
+          writeBack(a, dst);
+        }
+        case ADD_IMM, SUB_IMM -> {
+          var dst = use(a, 0);
+          if(insn.op() == VirtualInsn.Op.ADD_IMM){
+ /* add dst, dst, #imm   */ builder.addImm(dst, dst, (int)insn.imm(), false);
+          }
+          else{
+ /* sub dst, dst, #imm   */ builder.subImm(dst, dst, (int)insn.imm(), false);
+          }
+          writeBack(a, dst);
+        }
+        case LOAD -> {
+          var base = use(b, 1);
+          var dst = def(a, 0);
+ /* ldr dst, [base, #d]  */ builder.ldr(dst, base, IndexClass.UnsignedOffset, (int)insn.imm());
+          writeBack(a, dst);
+        }
+        case STORE -> {
+          var base = use(b, 1);
+          var src = use(a, 0);
+ /* str src, [base, #d]  */ builder.str(src, base, IndexClass.UnsignedOffset, (int)insn.imm());
+        }
+ /* label:               */ case LABEL -> builder.label(labels[(int)insn.imm()]);
+ /* b label              */ case JUMP -> builder.b(labels[(int)insn.imm()]);
+        case JUMP_EQ, JUMP_NE -> {
+          var lhs = use(a, 0);
+          var rhs = use(b, 1);
+ /* cmp lhs, rhs         */ builder.cmp(lhs, rhs, ShiftType.LSL, (byte)0);
+          if(insn.op() == VirtualInsn.Op.JUMP_EQ){
+ /* b.eq label           */ builder.beq(labels[(int)insn.imm()]);
+          }
+          else{
+ /* b.ne label           */ builder.bne(labels[(int)insn.imm()]);
+          }
+        }
+        case JUMP_Z, JUMP_NZ -> {
+          var src = use(a, 0);
+          if(insn.op() == VirtualInsn.Op.JUMP_Z){
+ /* cbz src, label       */ builder.cbz(src, labels[(int)insn.imm()]);
+          }
+          else{
+ /* cbnz src, label      */ builder.cbnz(src, labels[(int)insn.imm()]);
+          }
+        }
+        case RET -> {
+          if(a >= 0){
+            var src = use(a, 0);
+            if(src != Register.X0){
+ /* mov x0, src          */ builder.mov(Register.X0, src);
+            }
+          }
+          epilogue();
+        }
+      }
+    }
+
+  }
+
+  @Override
+  public AsmBuilder<?> emit(CodeSegment seg, List<VirtualInsn> insns, boolean[] isVector, int[] args, LinearScanAllocator.Result alloc, int labels) throws UnsupportedPlatformException{
+    // Vector registers first to keep them 16 bytes aligned.
+    var savedRegs = new ArrayList<Register>();
+    for(boolean vector : new boolean[]{true, false}){
+      var pool = vector ? VECTORS : GPRS;
+      for(int i = 0; i < pool.length; i++){
+        if(!isCalleeSaved(vector, i)){
+          continue;
+        }
+        for(int v = 0; v < isVector.length; v++){
+          if((isVector[v] == vector) && (alloc.registers()[v] == i)){
+            savedRegs.add(pool[i]);
+            break;
+          }
+        }
+      }
+    }
+
+    var builder = new AsmBuilder.AArch64(seg, desc);
+    var labelArray = new Label[labels];
+    for(int i = 0; i < labels; i++){
+      labelArray[i] = builder.newLabel();
+    }
+    var emitter = new Emitter(builder, isVector, alloc, savedRegs);
+
+    emitter.prologue();
+    for(int i = 0; i < args.length; i++){
+      if(emitter.isSpilled(args[i]) && (alloc.spillSlots()[args[i]] >= 0)){
+        emitter.writeBack(args[i], GPRS[i]);
+      }
+    }
+    for(var insn : insns){
+      emitter.emit(insn, labelArray);
+    }
+    return builder;
+  }
+
+}
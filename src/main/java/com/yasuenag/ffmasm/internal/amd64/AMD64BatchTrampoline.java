@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.amd64;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.OptionalInt;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.Label;
+import com.yasuenag.ffmasm.UnsupportedPlatformException;
+import com.yasuenag.ffmasm.amd64.Register;
+
+
+public final class AMD64BatchTrampoline{
+
+  private static final Register[] SYSV_INT_ARGS = {Register.RDI, Register.RSI, Register.RDX, Register.RCX, Register.R8, Register.R9};
+
+  private static final Register[] WIN64_INT_ARGS = {Register.RCX, Register.RDX, Register.R8, Register.R9};
+
+  private static final Register[] SYSV_FP_ARGS = {Register.XMM0, Register.XMM1, Register.XMM2, Register.XMM3,
+                                                  Register.XMM4, Register.XMM5, Register.XMM6, Register.XMM7};
+
+  private static final Register[] WIN64_FP_ARGS = {Register.XMM0, Register.XMM1, Register.XMM2, Register.XMM3};
+
+  private static boolean isFloat(MemoryLayout layout){
+    return (layout instanceof ValueLayout vl) && (vl.carrier() == float.class);
+  }
+
+  private static boolean isDouble(MemoryLayout layout){
+    return (layout instanceof ValueLayout vl) && (vl.carrier() == double.class);
+  }
+
+  /**
+   * Generate the trampoline which calls the function for each tuple in
+   * the argument block.
+   * Signature of the trampoline is <code>void (args, results, count)</code>.
+   * Each argument occupies 8 bytes slot, and each result is stored to
+   * 8 bytes slot.
+   *
+   * @param seg CodeSegment to store the trampoline
+   * @param function address of the function to call
+   * @param desc FunctionDescriptor of the function
+   * @return MemorySegment of the trampoline
+   * @throws UnsupportedPlatformException if the platform is not supported.
+   * @throws IllegalArgumentException if the function has arguments which cannot be passed via registers.
+   */
+  public static MemorySegment generate(CodeSegment seg, MemorySegment function, FunctionDescriptor desc) throws UnsupportedPlatformException{
+    var regs = CallingRegisters.getRegs();
+    boolean isWindows = System.getProperty("os.name").startsWith("Windows");
+    var intArgs = isWindows ? WIN64_INT_ARGS : SYSV_INT_ARGS;
+    var fpArgs = isWindows ? WIN64_FP_ARGS : SYSV_FP_ARGS;
+    var argLayouts = desc.argumentLayouts();
+    int slotSize = 8;
+
+    var builder = new AsmBuilder.SSE(seg);
+    Label loop = builder.newLabel();
+    Label exit = builder.newLabel();
+
+    // RBX: argument block, R14: result block, R13: counter, R12: function
+    // R12 and R13 are not used as base register because they need special encoding.
+    builder
+ /* push %rbp                */ .push(Register.RBP)
+ /* mov %rsp, %rbp           */ .movMR(Register.RSP, Register.RBP)
+ /* push %rbx                */ .push(Register.RBX)
+ /* push %r12                */ .push(Register.R12)
+ /* push %r13                */ .push(Register.R13)
+ /* push %r14                */ .push(Register.R14)
+ /* mov arg1, %rbx           */ .movMR(regs.arg1(), Register.RBX)
+ /* mov arg2, %r14           */ .movMR(regs.arg2(), Register.R14)
+ /* mov arg3, %r13           */ .movMR(regs.arg3(), Register.R13)
+ /* mov $function, %r12      */ .movImm(Register.R12, function.address());
+    if(isWindows){
+      builder
+ /* sub $32, %rsp            */ .sub(Register.RSP, 32); // shadow space
+    }
+    builder
+ /* test %r13, %r13          */ .test(Register.R13, Register.R13)
+ /* jz exit                  */ .jz(exit)
+ /* loop:                    */ .label(loop);
+
+    int intIdx = 0;
+    int fpIdx = 0;
+    for(int i = 0; i < argLayouts.size(); i++){
+      var layout = argLayouts.get(i);
+      int offset = i * slotSize;
+      if(isFloat(layout) || isDouble(layout)){
+        int idx = isWindows ? i : fpIdx++;
+        if(idx >= fpArgs.length){
+          throw new IllegalArgumentException("Too many floating point arguments: " + desc);
+        }
+        if(isFloat(layout)){
+ /* movd offset(%rbx), xmmN  */ builder.movdRM(fpArgs[idx], Register.RBX, OptionalInt.of(offset));
+        }
+        else{
+ /* movq offset(%rbx), xmmN  */ builder.movqRM(fpArgs[idx], Register.RBX, OptionalInt.of(offset));
+        }
+      }
+      else if(layout instanceof ValueLayout){
+        int idx = isWindows ? i : intIdx++;
+        if(idx >= intArgs.length){
+          throw new IllegalArgumentException("Too many integer arguments: " + desc);
+        }
+ /* mov offset(%rbx), argN   */ builder.movRM(intArgs[idx], Register.RBX, offset);
+      }
+      else{
+        throw new IllegalArgumentException("Unsupported argument: " + layout);
+      }
+    }
+
+ /* call *%r12               */ builder.call(Register.R12);
+
+    var ret = desc.returnLayout();
+    if(ret.isPresent()){
+      var layout = ret.get();
+      if(isFloat(layout)){
+ /* movd %xmm0, (%r14)       */ builder.movdMR(Register.XMM0, Register.R14, OptionalInt.of(0));
+      }
+      else if(isDouble(layout)){
+ /* movq %xmm0, (%r14)       */ builder.movqMR(Register.XMM0, Register.R14, OptionalInt.of(0));
+      }
+      else if(layout instanceof ValueLayout){
+ /* mov %rax, (%r14)         */ builder.movMR(Register.RAX, Register.R14, 0);
+      }
+      else{
+        throw new IllegalArgumentException("Unsupported return value: " + layout);
+      }
+ /* add $8, %r14             */ builder.add(Register.R14, slotSize);
+    }
+
+    if(!argLayouts.isEmpty()){
+ /* add $stride, %rbx        */ builder.add(Register.RBX, argLayouts.size() * slotSize);
+    }
+    builder
+ /* sub $1, %r13             */ .sub(Register.R13, 1)
+ /* jnz loop                 */ .jnz(loop)
+ /* exit:                    */ .label(exit);
+    if(isWindows){
+      builder
+ /* add $32, %rsp            */ .add(Register.RSP, 32);
+    }
+    return builder
+ /* pop %r14                 */ .pop(Register.R14, OptionalInt.empty())
+ /* pop %r13                 */ .pop(Register.R13, OptionalInt.empty())
+ /* pop %r12                 */ .pop(Register.R12, OptionalInt.empty())
+ /* pop %rbx                 */ .pop(Register.RBX, OptionalInt.empty())
+ /* leave                    */ .leave()
+ /* ret                      */ .ret()
+                                .getMemorySegment("batch trampoline");
+  }
+
+}
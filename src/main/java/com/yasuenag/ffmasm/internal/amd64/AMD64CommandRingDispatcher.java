@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.amd64;
+
+import java.lang.foreign.MemorySegment;
+import java.util.OptionalInt;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.Label;
+import com.yasuenag.ffmasm.UnsupportedPlatformException;
+import com.yasuenag.ffmasm.amd64.Register;
+
+
+public final class AMD64CommandRingDispatcher{
+
+  /**
+   * Generate the dispatch loop of CommandRing.
+   * Signature of the loop is <code>void (ring, slots)</code>.
+   * Each slot occupies 64 bytes:
+   * <pre>
+   *    0: state (EMPTY = 0, READY = 1, DONE = 2, STOP = 3)
+   *    8: address of the function
+   *   16: 1st - 4th arguments
+   *   48: result
+   *   56: sequence (used by producers only)
+   * </pre>
+   * The loop spins with PAUSE until the state of current slot is READY,
+   * calls the function, stores the result, and sets DONE. It returns
+   * when STOP is found.
+   *
+   * @param seg CodeSegment to store the loop
+   * @return MemorySegment of the loop
+   * @throws UnsupportedPlatformException if the platform is not supported.
+   */
+  public static MemorySegment generate(CodeSegment seg) throws UnsupportedPlatformException{
+    var regs = CallingRegisters.getRegs();
+    boolean isWindows = System.getProperty("os.name").startsWith("Windows");
+
+    var builder = new AsmBuilder.AMD64(seg);
+    Label wrap = builder.newLabel();
+    Label loop = builder.newLabel();
+    Label exec = builder.newLabel();
+    Label stop = builder.newLabel();
+
+    // RBX: ring, R15: number of slots, R12: current slot, R13: remaining slots in this lap
+    builder
+ /* push %rbp                */ .push(Register.RBP)
+ /* mov %rsp, %rbp           */ .movMR(Register.RSP, Register.RBP)
+ /* push %rbx                */ .push(Register.RBX)
+ /* push %r12                */ .push(Register.R12)
+ /* push %r13                */ .push(Register.R13)
+ /* push %r15                */ .push(Register.R15)
+ /* mov arg1, %rbx           */ .movMR(regs.arg1(), Register.RBX)
+ /* mov arg2, %r15           */ .movMR(regs.arg2(), Register.R15);
+    if(isWindows){
+      builder
+ /* sub $32, %rsp            */ .sub(Register.RSP, 32); // shadow space
+    }
+    builder
+ /* wrap:                    */ .label(wrap)
+ /* mov %rbx, %r12           */ .movMR(Register.RBX, Register.R12)
+ /* mov %r15, %r13           */ .movMR(Register.R15, Register.R13)
+ /* loop:                    */ .label(loop)
+ /* mov (%r12), %rax         */ .movRM(Register.RAX, Register.R12, 0)
+ /* cmp $1, %rax             */ .cmp(Register.RAX, 1)
+ /* je exec                  */ .je(exec)
+ /* cmp $3, %rax             */ .cmp(Register.RAX, 3)
+ /* je stop                  */ .je(stop)
+ /* pause                    */ .pause()
+ /* jmp loop                 */ .jmp(loop)
+ /* exec:                    */ .label(exec)
+ /* mov 16(%r12), arg1       */ .movRM(regs.arg1(), Register.R12, 16)
+ /* mov 24(%r12), arg2       */ .movRM(regs.arg2(), Register.R12, 24)
+ /* mov 32(%r12), arg3       */ .movRM(regs.arg3(), Register.R12, 32)
+ /* mov 40(%r12), arg4       */ .movRM(regs.arg4(), Register.R12, 40)
+ /* mov 8(%r12), %rax        */ .movRM(Register.RAX, Register.R12, 8)
+ /* call *%rax               */ .call(Register.RAX)
+ /* mov %rax, 48(%r12)       */ .movMR(Register.RAX, Register.R12, 48)
+ /* mov $2, %rax             */ .movImm(Register.RAX, 2)
+ /* mov %rax, (%r12)         */ .movMR(Register.RAX, Register.R12, 0) // x86 stores are not reordered with older stores
+ /* add $64, %r12            */ .add(Register.R12, 64)
+ /* sub $1, %r13             */ .sub(Register.R13, 1)
+ /* jnz loop                 */ .jnz(loop)
+ /* jmp wrap                 */ .jmp(wrap)
+ /* stop:                    */ .label(stop)
+ /* mov $2, %rax             */ .movImm(Register.RAX, 2)
+ /* mov %rax, (%r12)         */ .movMR(Register.RAX, Register.R12, 0);
+    if(isWindows){
+      builder
+ /* add $32, %rsp            */ .add(Register.RSP, 32);
+    }
+    return builder
+ /* pop %r15                 */ .pop(Register.R15, OptionalInt.empty())
+ /* pop %r13                 */ .pop(Register.R13, OptionalInt.empty())
+ /* pop %r12                 */ .pop(Register.R12, OptionalInt.empty())
+ /* pop %rbx                 */ .pop(Register.RBX, OptionalInt.empty())
+ /* leave                    */ .leave()
+ /* ret                      */ .ret()
+                                .getMemorySegment("command ring dispatcher");
+  }
+
+}
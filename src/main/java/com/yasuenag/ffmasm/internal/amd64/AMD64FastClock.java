@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.amd64;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.Cleaner;
+import java.util.OptionalInt;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.FastClock;
+import com.yasuenag.ffmasm.amd64.Register;
+
+
+public final class AMD64FastClock extends FastClock{
+
+  private static final CodeSegment seg;
+
+  private static final MethodHandle ticksStub;
+
+  private static final MethodHandle currentCpuStub;
+
+  private static final long CALIBRATION_PERIOD_NANOS = 20_000_000L;
+
+  private static MethodHandle generateTicks() throws Throwable{
+    var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG);
+    return new AsmBuilder.AMD64(seg, desc)
+ /* rdtsc                    */ .rdtsc()
+ /* shl $32, %rdx            */ .shl(Register.RDX, (byte)32, OptionalInt.empty())
+ /* or %rdx, %rax            */ .orMR(Register.RDX, Register.RAX, OptionalInt.empty())
+ /* ret                      */ .ret()
+                                .build(Linker.Option.critical(false));
+  }
+
+  private static MethodHandle generateCurrentCpu() throws Throwable{
+    var desc = FunctionDescriptor.of(ValueLayout.JAVA_INT);
+    var os = System.getProperty("os.name");
+
+    if(os.equals("Linux")){
+      // Linux stores (node << 12) | cpu to IA32_TSC_AUX.
+      if(CPUFeatures.supportRDPID()){
+        return new AsmBuilder.AMD64(seg, desc)
+ /* rdpid %rax               */ .rdpid(Register.RAX)
+ /* and $0xfff, %eax         */ .andImm(Register.EAX, 0xfff, OptionalInt.empty())
+ /* ret                      */ .ret()
+                                .build(Linker.Option.critical(false));
+      }
+      else if(CPUFeatures.supportRDTSCP()){
+        return new AsmBuilder.AMD64(seg, desc)
+ /* rdtscp                   */ .rdtscp()
+ /* mov %ecx, %eax           */ .movMR(Register.ECX, Register.EAX, OptionalInt.empty())
+ /* and $0xfff, %eax         */ .andImm(Register.EAX, 0xfff, OptionalInt.empty())
+ /* ret                      */ .ret()
+                                .build(Linker.Option.critical(false));
+      }
+
+      var linker = Linker.nativeLinker();
+      var func = linker.defaultLookup().find("sched_getcpu").get();
+      return linker.downcallHandle(func, desc, Linker.Option.critical(false));
+    }
+    else{
+      // Layout of IA32_TSC_AUX is not documented on Windows.
+      var func = SymbolLookup.libraryLookup("Kernel32", Arena.global())
+                             .find("GetCurrentProcessorNumber")
+                             .get();
+      return Linker.nativeLinker().downcallHandle(func, desc, Linker.Option.critical(false));
+    }
+  }
+
+  static{
+    try{
+      seg = new CodeSegment();
+      var action = new CodeSegment.CleanerAction(seg);
+      Cleaner.create()
+             .register(AMD64FastClock.class, action);
+
+      ticksStub = generateTicks();
+      currentCpuStub = generateCurrentCpu();
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+  private static long calibrate(){
+    try{
+      long startNanos = System.nanoTime();
+      long startTicks = (long)ticksStub.invokeExact();
+      long endNanos;
+      do{
+        Thread.onSpinWait();
+        endNanos = System.nanoTime();
+      }while((endNanos - startNanos) < CALIBRATION_PERIOD_NANOS);
+      long endTicks = (long)ticksStub.invokeExact();
+
+      return (long)((endTicks - startTicks) * (1_000_000_000.0d / (endNanos - startNanos)));
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+  public AMD64FastClock(){
+    super(calibrate());
+  }
+
+  @Override
+  public long ticks(){
+    try{
+      return (long)ticksStub.invokeExact();
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+  @Override
+  public int currentCpu(){
+    try{
+      return (int)currentCpuStub.invokeExact();
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+}
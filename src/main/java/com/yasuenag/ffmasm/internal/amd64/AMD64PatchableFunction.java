@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.amd64;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.PatchableFunction;
+
+
+public final class AMD64PatchableFunction extends PatchableFunction{
+
+  private static final VarHandle longHandle = ValueLayout.JAVA_LONG.varHandle();
+
+  // 0: jmp rel32 (E9 xx xx xx xx) or jmp *8(%rip) (FF 25 02 00 00 00), padded with int3
+  // 8: absolute address of the target
+  private static final int ENTRY_SIZE = 16;
+
+  private static final long SLOT_OFFSET = 8L;
+
+  private static final long INT3_PADDING_REL32 = 0xCCCCCCL << 40;
+
+  private static final long JMP_INDIRECT = 0xFFL |
+                                           (0x25L << 8) |
+                                           ((SLOT_OFFSET - 6L) << 16) |
+                                           (0xCCCCL << 48);
+
+  public AMD64PatchableFunction(CodeSegment seg, String name){
+    super(seg, name, ENTRY_SIZE);
+  }
+
+  @Override
+  protected void writeJump(MemorySegment entry, long target){
+    // The slot is read by the indirect jump only. Store it at first
+    // because the entry might be switched to the indirect jump.
+    longHandle.setVolatile(entry, SLOT_OFFSET, target);
+
+    long rel = target - (entry.address() + 5);
+    long insn = (rel == (int)rel) ? 0xE9L | ((rel & 0xffffffffL) << 8) | INT3_PADDING_REL32
+                                  : JMP_INDIRECT;
+
+    // Whole instruction is in aligned 8 bytes, and it is replaced by
+    // one locked store (XCHG). Other processors observe either old or new
+    // instruction, and the store is serialized on this processor.
+    longHandle.getAndSet(entry, 0L, insn);
+  }
+
+}
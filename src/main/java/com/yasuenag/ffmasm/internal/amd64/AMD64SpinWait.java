@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.amd64;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.Cleaner;
+import java.util.OptionalInt;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.FastClock;
+import com.yasuenag.ffmasm.SpinWait;
+import com.yasuenag.ffmasm.amd64.Register;
+
+
+public final class AMD64SpinWait extends SpinWait{
+
+  private static final CodeSegment seg;
+
+  private static final MethodHandle awaitStub;
+
+  private static MethodHandle generateAwait() throws Throwable{
+    var regs = CallingRegisters.getRegs();
+    var desc = FunctionDescriptor.of(ValueLayout.JAVA_INT,  // return value
+                                     ValueLayout.ADDRESS,   // addr
+                                     ValueLayout.JAVA_INT,  // expected
+                                     ValueLayout.JAVA_LONG  // deadline
+                                    );
+
+    // RDTSC breaks RAX and RDX, so arg2 (RDX on Windows) and arg3 (RDX on
+    // Linux) are moved to R11 and R10 at first. arg1 (RDI or RCX) is kept.
+    var builder = new AsmBuilder.AMD64(seg, desc)
+ /* mov arg2, %r11           */ .movMR(regs.arg2(), Register.R11, OptionalInt.empty())
+ /* mov arg3, %r10           */ .movMR(regs.arg3(), Register.R10, OptionalInt.empty());
+
+    if(CPUFeatures.supportWAITPKG()){
+      builder
+ /* mov $1, %r9              */ .movImm(Register.R9, 1L) // C0.1 (faster wakeup)
+ /* loop:                    */ .label("loop")
+ /* cmp (arg1), %r11d        */ .cmpRM(Register.R11D, regs.arg1(), OptionalInt.of(0))
+ /* je matched               */ .je("matched")
+ /* umonitor arg1            */ .umonitor(regs.arg1())
+ /* cmp (arg1), %r11d        */ .cmpRM(Register.R11D, regs.arg1(), OptionalInt.of(0))
+ /* je matched               */ .je("matched")
+ /* mov %r10, %rax           */ .movMR(Register.R10, Register.RAX, OptionalInt.empty())
+ /* mov %r10, %rdx           */ .movMR(Register.R10, Register.RDX, OptionalInt.empty())
+ /* shr $32, %rdx            */ .shr(Register.RDX, (byte)32, OptionalInt.empty())
+ /* umwait %r9d              */ .umwait(Register.R9D);
+    }
+    else{
+      builder
+ /* loop:                    */ .label("loop")
+ /* cmp (arg1), %r11d        */ .cmpRM(Register.R11D, regs.arg1(), OptionalInt.of(0))
+ /* je matched               */ .je("matched")
+ /* pause                    */ .pause();
+    }
+
+    return builder
+ /* rdtsc                    */ .rdtsc()
+ /* shl $32, %rdx            */ .shl(Register.RDX, (byte)32, OptionalInt.empty())
+ /* or %rdx, %rax            */ .orMR(Register.RDX, Register.RAX, OptionalInt.empty())
+ /* cmp %r10, %rax           */ .cmpRM(Register.RAX, Register.R10, OptionalInt.empty())
+ /* jae timeout              */ .jae("timeout")
+ /* jmp loop                 */ .jmp("loop")
+ /* matched:                 */ .label("matched")
+ /* mov $1, %rax             */ .movImm(Register.RAX, 1L)
+ /* ret                      */ .ret()
+ /* timeout:                 */ .label("timeout")
+ /* xor %eax, %eax           */ .xorMR(Register.EAX, Register.EAX, OptionalInt.empty())
+ /* ret                      */ .ret()
+                                .build();
+  }
+
+  static{
+    try{
+      seg = new CodeSegment();
+      var action = new CodeSegment.CleanerAction(seg);
+      Cleaner.create()
+             .register(AMD64SpinWait.class, action);
+
+      awaitStub = generateAwait();
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+  public AMD64SpinWait(FastClock clock){
+    super(clock);
+  }
+
+  @Override
+  public boolean await(MemorySegment addr, int expected, long deadline){
+    try{
+      return (int)awaitStub.invokeExact(addr, expected, deadline) != 0;
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+}
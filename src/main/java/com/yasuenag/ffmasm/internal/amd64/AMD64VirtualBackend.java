@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.amd64;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalInt;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.Label;
+import com.yasuenag.ffmasm.UnsupportedPlatformException;
+import com.yasuenag.ffmasm.amd64.Frame;
+import com.yasuenag.ffmasm.amd64.Register;
+import com.yasuenag.ffmasm.internal.LinearScanAllocator;
+import com.yasuenag.ffmasm.internal.VirtualBackend;
+import com.yasuenag.ffmasm.internal.VirtualInsn;
+
+
+public final class AMD64VirtualBackend implements VirtualBackend{
+
+  // Caller-saved registers first. R10 and R11 are scratch for spilled values.
+  private static final Register[] SYSV_GPRS = {Register.RAX, Register.RCX, Register.RDX, Register.RSI, Register.RDI, Register.R8, Register.R9,
+                                               Register.RBX, Register.R12, Register.R13, Register.R14, Register.R15};
+
+  private static final Register[] WIN64_GPRS = {Register.RAX, Register.RCX, Register.RDX, Register.R8, Register.R9,
+                                                Register.RBX, Register.RSI, Register.RDI, Register.R12, Register.R13, Register.R14, Register.R15};
+
+  // XMM4 and XMM5 are scratch for spilled values.
+  private static final Register[] VECTORS = {Register.XMM0, Register.XMM1, Register.XMM2, Register.XMM3,
+                                             Register.XMM6, Register.XMM7, Register.XMM8, Register.XMM9, Register.XMM10,
+                                             Register.XMM11, Register.XMM12, Register.XMM13, Register.XMM14, Register.XMM15};
+
+  private static final Register[] GPR_SCRATCH = {Register.R10, Register.R11};
+
+  private static final Register[] VECTOR_SCRATCH = {Register.XMM4, Register.XMM5};
+
+  private final FunctionDescriptor desc;
+
+  private final Frame frame;
+
+  private final Register[] gprs;
+
+  private final int firstCalleeSavedGPR;
+
+  private final int firstCalleeSavedVector;
+
+  public AMD64VirtualBackend(FunctionDescriptor desc) throws UnsupportedPlatformException{
+    boolean isWindows = System.getProperty("os.name").startsWith("Windows");
+    this.desc = desc;
+    this.frame = new Frame(desc);
+    this.gprs = isWindows ? WIN64_GPRS : SYSV_GPRS;
+    this.firstCalleeSavedGPR = isWindows ? 5 : 7;
+    this.firstCalleeSavedVector = isWindows ? 4 : VECTORS.length; // XMM6 - XMM15 are callee-saved on Windows
+  }
+
+  @Override
+  public int registerCount(boolean vector){
+    return vector ? VECTORS.length : gprs.length;
+  }
+
+  @Override
+  public boolean isCalleeSaved(boolean vector, int index){
+    return index >= (vector ? firstCalleeSavedVector : firstCalleeSavedGPR);
+  }
+
+  @Override
+  public String registerName(boolean vector, int index){
+    return (vector ? VECTORS : gprs)[index].name();
+  }
+
+  @Override
+  public OptionalInt argumentRegister(int argIndex){
+    var loc = frame.argument(argIndex);
+    if(loc.isMemory()){
+      return OptionalInt.empty();
+    }
+    int idx = Arrays.asList(gprs).indexOf(loc.register());
+    return idx < 0 ? OptionalInt.empty() : OptionalInt.of(idx);
+  }
+
+  private static final class Emitter{
+
+    private final AsmBuilder.SSE builder;
+
+    private final Frame frame;
+
+    private final Register[] gprs;
+
+    private final boolean[] isVector;
+
+    private final LinearScanAllocator.Result alloc;
+
+    private Emitter(AsmBuilder.SSE builder, Frame frame, Register[] gprs, boolean[] isVector, LinearScanAllocator.Result alloc){
+      this.builder = builder;
+      this.frame = frame;
+      this.gprs = gprs;
+      this.isVector = isVector;
+      this.alloc = alloc;
+    }
+
+    private boolean isSpilled(int v){
+      return alloc.registers()[v] < 0;
+    }
+
+    private Frame.Location slot(int v){
+      return frame.spillSlot(alloc.spillSlots()[v]);
+    }
+
+    private Register scratch(int v, int idx){
+      return isVector[v] ? VECTOR_SCRATCH[idx] : GPR_SCRATCH[idx];
+    }
+
+    // Register for the destination. It might be scratch register.
+    private Register def(int v, int scratchIdx){
+      return isSpilled(v) ? scratch(v, scratchIdx) : (isVector[v] ? VECTORS : gprs)[alloc.registers()[v]];
+    }
+
+    // Register which holds the value. Spilled value is loaded to scratch register.
+    private Register use(int v, int scratchIdx){
+      var reg = def(v, scratchIdx);
+      if(isSpilled(v)){
+        var slot = slot(v);
+        if(isVector[v]){
+ /* movdqu slot, xmmN    */ builder.movdquRM(reg, slot.register(), slot.disp());
+        }
+        else{
+ /* mov slot, reg        */ builder.movRM(reg, slot.register(), slot.disp());
+        }
+      }
+      return reg;
+    }
+
+    // Store the value in the scratch register to the spill slot.
+    private void writeBack(int v, Register reg){
+      if(isSpilled(v)){
+        var slot = slot(v);
+        if(isVector[v]){
+ /* movdqu xmmN, slot    */ builder.movdquMR(reg, slot.register(), slot.disp());
+        }
+        else{
+ /* mov reg, slot        */ builder.movMR(reg, slot.register(), slot.disp());
+        }
+      }
+    }
+
+    private void emit(VirtualInsn insn, Label[] labels){
+      int a = insn.a();
+      int b = insn.b();
+      switch(insn.op()){
+        case MOV_IMM -> {
+          var dst = def(a, 0);
+          if(insn.imm() == 0){
+ /* xor reg, reg         */ builder.xorMR(dst, dst);
+          }
+          else{
+ /* mov $imm, reg        */ builder.movImm(dst, insn.imm());
+          }
+          writeBack(a, dst);
+        }
+        case MOV -> {
+          var src = use(b, 1);
+          if(isSpilled(a)){
+            writeBack(a, src);
+          }
+          else if(def(a, 0) != src){
+ /* mov src, dst         */ builder.movMR(src, def(a, 0));
+          }
+        }
+        case ADD, SUB, AND, OR, XOR -> {
+          var src = use(b, 1);
+          var dst = use(a, 0);
+          switch(insn.op()){
+ /* add src, dst         */ case ADD -> builder.addRM(dst, src);
+ /* sub src, dst         */ case SUB -> builder.subRM(dst, src);
+ /* and src, dst         */ case AND -> builder.andMR(src, dst);
+ /* or src, dst          */ case OR -> builder.orMR(src, dst);
+ /* xor src, dst         */ default -> builder.xorMR(src, dst);
+          }
+          writeBack(a, dst);
+        }
+        case ADD_IMM, SUB_IMM -> {
+          if(isSpilled(a)){
+            var slot = slot(a);
+            if(insn.op() == VirtualInsn.Op.ADD_IMM){
+ /* add $imm, slot       */ builder.add(slot.register(), (int)insn.imm(), slot.disp());
+            }
+            else{
+ /* sub $imm, slot       */ builder.sub(slot.register(), (int)insn.imm(), slot.disp());
+            }
+          }
+          else if(insn.op() == VirtualInsn.Op.ADD_IMM){
+ /* add $imm, reg        */ builder.add(def(a, 0), (int)insn.imm());
+          }
+          else{
+ /* sub $imm, reg        */ builder.sub(def(a, 0), (int)insn.imm());
+          }
+        }
+        case LOAD -> {
+          var base = use(b, 1);
+          var dst = def(a, 0);
+          if(isVector[a]){
+ /* movdqu disp(base), x */ builder.movdquRM(dst, base, OptionalInt.of((int)insn.imm()));
+          }
+          else{
+ /* mov disp(base), reg  */ builder.movRM(dst, base, (int)insn.imm());
+          }
+          writeBack(a, dst);
+        }
+        case STORE -> {
+          var base = use(b, 1);
+          var src = use(a, 0);
+          if(isVector[a]){
+ /* movdqu x, disp(base) */ builder.movdquMR(src, base, OptionalInt.of((int)insn.imm()));
+          }
+          else{
+ /* mov reg, disp(base)  */ builder.movMR(src, base, (int)insn.imm());
+          }
+        }
+ /* label:               */ case LABEL -> builder.label(labels[(int)insn.imm()]);
+ /* jmp label            */ case JUMP -> builder.jmp(labels[(int)insn.imm()]);
+        case JUMP_EQ, JUMP_NE -> {
+          var lhs = use(a, 0);
+          var rhs = use(b, 1);
+ /* cmp rhs, lhs         */ builder.cmpRM(lhs, rhs);
+          if(insn.op() == VirtualInsn.Op.JUMP_EQ){
+ /* je label             */ builder.je(labels[(int)insn.imm()]);
+          }
+          else{
+ /* jne label            */ builder.jne(labels[(int)insn.imm()]);
+          }
+        }
+        case JUMP_Z, JUMP_NZ -> {
+          var src = use(a, 0);
+ /* test src, src        */ builder.test(src, src);
+          if(insn.op() == VirtualInsn.Op.JUMP_Z){
+ /* jz label             */ builder.jz(labels[(int)insn.imm()]);
+          }
+          else{
+ /* jnz label            */ builder.jnz(labels[(int)insn.imm()]);
+          }
+        }
+        case RET -> {
+          if(a >= 0){
+            var src = use(a, 0);
+            if(src != Register.RAX){
+ /* mov src, %rax        */ builder.movMR(src, Register.RAX);
+            }
+          }
+          frame.epilogue(builder);
+        }
+      }
+    }
+
+  }
+
+  @Override
+  public AsmBuilder<?> emit(CodeSegment seg, List<VirtualInsn> insns, boolean[] isVector, int[] args, LinearScanAllocator.Result alloc, int labels) throws UnsupportedPlatformException{
+    for(int v = 0; v < isVector.length; v++){
+      int reg = alloc.registers()[v];
+      if((reg >= 0) && isCalleeSaved(isVector[v], reg)){
+        frame.uses((isVector[v] ? VECTORS : gprs)[reg]);
+      }
+    }
+    frame.spill(alloc.spillAreaSize());
+
+    var builder = new AsmBuilder.SSE(seg, desc);
+    var labelArray = new Label[labels];
+    for(int i = 0; i < labels; i++){
+      labelArray[i] = builder.newLabel();
+    }
+    var emitter = new Emitter(builder, frame, gprs, isVector, alloc);
+
+    frame.prologue(builder);
+    for(int i = 0; i < args.length; i++){
+      if(emitter.isSpilled(args[i]) && (alloc.spillSlots()[args[i]] >= 0)){
+        emitter.writeBack(args[i], frame.argument(i).register());
+      }
+    }
+    for(var insn : insns){
+      emitter.emit(insn, labelArray);
+    }
+    return builder;
+  }
+
+}
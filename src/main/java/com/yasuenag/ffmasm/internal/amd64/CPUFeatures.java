@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.internal.amd64;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.ValueLayout;
+import java.util.OptionalInt;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.amd64.Register;
+
+
+public final class CPUFeatures{
+
+  private static final boolean isRDPID;
+
+  private static final boolean isRDTSCP;
+
+  private static final boolean isWAITPKG;
+
+  private static final boolean isX86_64V2;
+
+  private static final boolean isX86_64V3;
+
+  private static final boolean isX86_64V4;
+
+  private static boolean hasBits(int reg, int mask){
+    return (reg & mask) == mask;
+  }
+
+  static{
+    try(var seg = new CodeSegment();
+        var arena = Arena.ofConfined();){
+      var regs = CallingRegisters.getRegs();
+      var desc = FunctionDescriptor.ofVoid(ValueLayout.JAVA_INT, // eax
+                                           ValueLayout.JAVA_INT, // ecx
+                                           ValueLayout.ADDRESS   // result
+                                          );
+      var cpuid = new AsmBuilder.AMD64(seg, desc)
+ /* mov arg3, tmpReg1        */ .movMR(regs.arg3(), regs.tmpReg1(), OptionalInt.empty())
+ /* push %rbx                */ .push(Register.RBX)
+ /* mov arg1, %rax           */ .movMR(regs.arg1(), Register.RAX, OptionalInt.empty())
+ /* mov arg2, %rcx           */ .movMR(regs.arg2(), Register.RCX, OptionalInt.empty())
+ /* cpuid                    */ .cpuid()
+ /* mov %eax, (tmpReg1)      */ .movMR(Register.EAX, regs.tmpReg1(), OptionalInt.of(0))
+ /* mov %ebx, 4(tmpReg1)     */ .movMR(Register.EBX, regs.tmpReg1(), OptionalInt.of(4))
+ /* mov %ecx, 8(tmpReg1)     */ .movMR(Register.ECX, regs.tmpReg1(), OptionalInt.of(8))
+ /* mov %edx, 12(tmpReg1)    */ .movMR(Register.EDX, regs.tmpReg1(), OptionalInt.of(12))
+ /* pop %rbx                 */ .pop(Register.RBX, OptionalInt.empty())
+ /* ret                      */ .ret()
+                                .build();
+      var cpuidVals = arena.allocate(ValueLayout.JAVA_INT, 4);
+
+      cpuid.invokeExact(1, 0, cpuidVals);
+      int ecx1 = cpuidVals.getAtIndex(ValueLayout.JAVA_INT, 2);
+      // CX16, SSE3, SSSE3, SSE4.1, SSE4.2, POPCNT
+      isX86_64V2 = hasBits(ecx1, (1 << 13) | (1 << 0) | (1 << 9) | (1 << 19) | (1 << 20) | (1 << 23));
+      // XCR0 can be read only if OSXSAVE is set
+      int xcr0 = 0;
+      if(hasBits(ecx1, 1 << 27)){
+        var xgetbv = new AsmBuilder.AMD64(seg, FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT))
+ /* mov arg1, %rcx           */ .movMR(regs.arg1(), Register.RCX, OptionalInt.empty())
+ /* xgetbv                   */ .xgetbv()
+ /* ret                      */ .ret()
+                                .build();
+        xcr0 = (int)xgetbv.invokeExact(0);
+      }
+
+      cpuid.invokeExact(7, 0, cpuidVals);
+      int ebx7 = cpuidVals.getAtIndex(ValueLayout.JAVA_INT, 1);
+      isWAITPKG = ((cpuidVals.getAtIndex(ValueLayout.JAVA_INT, 2) >>> 5) & 0x1) == 1; // ecx
+      isRDPID = ((cpuidVals.getAtIndex(ValueLayout.JAVA_INT, 2) >>> 22) & 0x1) == 1; // ecx
+
+      cpuid.invokeExact(0x80000001, 0, cpuidVals);
+      isRDTSCP = ((cpuidVals.getAtIndex(ValueLayout.JAVA_INT, 3) >>> 27) & 0x1) == 1; // edx
+      boolean isLZCNT = ((cpuidVals.getAtIndex(ValueLayout.JAVA_INT, 2) >>> 5) & 0x1) == 1; // ecx
+
+      // AVX, FMA, MOVBE, F16C, AVX2, BMI1, BMI2, LZCNT, and XMM/YMM state is enabled by OS
+      isX86_64V3 = isX86_64V2 &&
+                   hasBits(ecx1, (1 << 28) | (1 << 12) | (1 << 22) | (1 << 29)) &&
+                   hasBits(ebx7, (1 << 5) | (1 << 3) | (1 << 8)) &&
+                   isLZCNT && hasBits(xcr0, 0x6);
+      // AVX512F, AVX512DQ, AVX512CD, AVX512BW, AVX512VL, and opmask/ZMM state is enabled by OS
+      isX86_64V4 = isX86_64V3 &&
+                   hasBits(ebx7, (1 << 16) | (1 << 17) | (1 << 28) | (1 << 30) | (1 << 31)) &&
+                   hasBits(xcr0, 0xe6);
+    }
+    catch(Throwable t){
+      throw new RuntimeException(t);
+    }
+  }
+
+  public static boolean supportRDPID(){
+    return isRDPID;
+  }
+
+  public static boolean supportRDTSCP(){
+    return isRDTSCP;
+  }
+
+  public static boolean supportWAITPKG(){
+    return isWAITPKG;
+  }
+
+  public static boolean supportX86_64V2(){
+    return isX86_64V2;
+  }
+
+  public static boolean supportX86_64V3(){
+    return isX86_64V3;
+  }
+
+  public static boolean supportX86_64V4(){
+    return isX86_64V4;
+  }
+
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2025, Yasumasa Suenaga
+ * Copyright (C) 2025, 2026, Yasumasa Suenaga
  *
  * This file is part of ffmasm.
  *
@@ -28,16 +28,26 @@ import java.io.IOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.FunctionDescriptor;
 import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
 
 import com.yasuenag.ffmasm.AsmBuilder;
 import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.Label;
+import com.yasuenag.ffmasm.Stencil;
+import com.yasuenag.ffmasm.aarch64.Condition;
 import com.yasuenag.ffmasm.aarch64.DMBOptions;
 import com.yasuenag.ffmasm.aarch64.HWShift;
 import com.yasuenag.ffmasm.aarch64.IndexClass;
+import com.yasuenag.ffmasm.aarch64.PolynomialSize;
 import com.yasuenag.ffmasm.aarch64.Register;
 import com.yasuenag.ffmasm.aarch64.ShiftType;
+import com.yasuenag.ffmasm.aarch64.SystemRegister;
 
 
 @EnabledOnOs(architectures = {"aarch64"})
@@ -460,7 +470,7 @@ public class AsmTest{
     }
   }
 
-  private boolean pacEnabled(){
+  private long getHWCAP(){
     try{
       var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG);
       var linker = Linker.nativeLinker();
@@ -468,15 +478,18 @@ public class AsmTest{
       var getauxval = linker.downcallHandle(addr, desc);
 
       final long AT_HWCAP = 16;  // from linux/auxvec.h
-      final long HWCAP_PACA = 1 << 30;  // from asm/hwcap.h
-      long result = (long)getauxval.invoke(AT_HWCAP);
-      return (result & HWCAP_PACA) != 0L;
+      return (long)getauxval.invoke(AT_HWCAP);
     }
     catch(Throwable t){
       throw new RuntimeException(t);
     }
   }
 
+  private boolean pacEnabled(){
+    final long HWCAP_PACA = 1 << 30;  // from asm/hwcap.h
+    return (getHWCAP() & HWCAP_PACA) != 0L;
+  }
+
   /**
    * Tests PACIAZ and AUTIAZ
    */
@@ -531,6 +544,36 @@ public class AsmTest{
     }
   }
 
+  /**
+   * Tests DSB, DC CVAU, IC IVAU
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testCacheMaintenance(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.ofVoid();
+      var builder = new AsmBuilder.AArch64(seg, desc);
+      Label head = builder.newLabel();
+      var method = builder
+ /* head:                     */ .label(head)
+ /* adr x9, head              */ .adr(Register.X9, head)
+ /* dc cvau, x9               */ .dcCvau(Register.X9)
+ /* dsb ish                   */ .dsb(DMBOptions.ISH)
+ /* ic ivau, x9               */ .icIvau(Register.X9)
+ /* dsb ish                   */ .dsb(DMBOptions.ISH)
+ /* isb                       */ .isb()
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      //showDebugMessage(seg);
+
+      method.invoke();
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
   /**
    * Tests SVC
    */
@@ -560,4 +603,822 @@ public class AsmTest{
     }
   }
 
+  /**
+   * Tests LDR and STR with 128 bit SIMD register
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testLdrStrQ(){
+    try(var arena = Arena.ofConfined();
+        var seg = new CodeSegment();){
+      var desc = FunctionDescriptor.ofVoid(
+                   ValueLayout.ADDRESS, // src
+                   ValueLayout.ADDRESS  // dest
+                 );
+      var method = new AsmBuilder.AArch64(seg, desc)
+ /* stp x29, x30, [sp, #-16]! */ .stp(Register.X29, Register.X30, Register.SP, IndexClass.PreIndex, -16)
+ /* mov x29,  sp              */ .mov(Register.X29, Register.SP)
+ /* ldr  q0, [x0, #16]        */ .ldr(Register.V0, Register.X0, IndexClass.UnsignedOffset, 16)
+ /* str  q0, [x1]             */ .str(Register.V0, Register.X1, IndexClass.UnsignedOffset, 0)
+ /* ldp x29, x30, [sp], #16   */ .ldp(Register.X29, Register.X30, Register.SP, IndexClass.PostIndex, 16)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      //showDebugMessage(seg);
+
+      var src = arena.allocateFrom(ValueLayout.JAVA_LONG, 1L, 2L, 3L, 4L);
+      var dest = arena.allocate(ValueLayout.JAVA_LONG, 2);
+      method.invoke(src, dest);
+      Assertions.assertArrayEquals(new long[]{3L, 4L}, dest.toArray(ValueLayout.JAVA_LONG));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  private boolean crc32Enabled(){
+    final long HWCAP_CRC32 = 1 << 7;  // from asm/hwcap.h
+    return (getHWCAP() & HWCAP_CRC32) != 0L;
+  }
+
+  private static byte[] toBytes(long data, int size){
+    var buf = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    buf.putLong(data);
+    byte[] result = new byte[size];
+    buf.flip();
+    buf.get(result);
+    return result;
+  }
+
+  /**
+   * Tests CRC32B, CRC32H, CRC32W, CRC32X
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testCRC32(){
+    Assumptions.assumeTrue(crc32Enabled(), "CRC32 is not supported on this platform.");
+
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_INT, // return value
+                   ValueLayout.JAVA_INT, // 1st argument (crc)
+                   ValueLayout.JAVA_LONG // 2nd argument (data)
+                 );
+      var crc32b = new AsmBuilder.AArch64(seg, desc)
+ /* crc32b w0, w0, w1         */ .crc32b(Register.W0, Register.W0, Register.W1)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+      var crc32h = new AsmBuilder.AArch64(seg, desc)
+ /* crc32h w0, w0, w1         */ .crc32h(Register.W0, Register.W0, Register.W1)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+      var crc32w = new AsmBuilder.AArch64(seg, desc)
+ /* crc32w w0, w0, w1         */ .crc32w(Register.W0, Register.W0, Register.W1)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+      var crc32x = new AsmBuilder.AArch64(seg, desc)
+ /* crc32x w0, w0, x1         */ .crc32x(Register.W0, Register.W0, Register.X1)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      //showDebugMessage(seg);
+
+      final long data = 0x0123456789abcdefL;
+      var crc = new CRC32();
+
+      crc.update(toBytes(data, 1));
+      Assertions.assertEquals((int)crc.getValue(), ~(int)crc32b.invoke(-1, data), "CRC32B");
+      crc.reset();
+      crc.update(toBytes(data, 2));
+      Assertions.assertEquals((int)crc.getValue(), ~(int)crc32h.invoke(-1, data), "CRC32H");
+      crc.reset();
+      crc.update(toBytes(data, 4));
+      Assertions.assertEquals((int)crc.getValue(), ~(int)crc32w.invoke(-1, data), "CRC32W");
+      crc.reset();
+      crc.update(toBytes(data, 8));
+      Assertions.assertEquals((int)crc.getValue(), ~(int)crc32x.invoke(-1, data), "CRC32X");
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests CRC32CB, CRC32CH, CRC32CW, CRC32CX
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testCRC32C(){
+    Assumptions.assumeTrue(crc32Enabled(), "CRC32 is not supported on this platform.");
+
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_INT, // return value
+                   ValueLayout.JAVA_INT, // 1st argument (crc)
+                   ValueLayout.JAVA_LONG // 2nd argument (data)
+                 );
+      var crc32cb = new AsmBuilder.AArch64(seg, desc)
+ /* crc32cb w0, w0, w1        */ .crc32cb(Register.W0, Register.W0, Register.W1)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+      var crc32ch = new AsmBuilder.AArch64(seg, desc)
+ /* crc32ch w0, w0, w1        */ .crc32ch(Register.W0, Register.W0, Register.W1)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+      var crc32cw = new AsmBuilder.AArch64(seg, desc)
+ /* crc32cw w0, w0, w1        */ .crc32cw(Register.W0, Register.W0, Register.W1)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+      var crc32cx = new AsmBuilder.AArch64(seg, desc)
+ /* crc32cx w0, w0, x1        */ .crc32cx(Register.W0, Register.W0, Register.X1)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      //showDebugMessage(seg);
+
+      final long data = 0x0123456789abcdefL;
+      var crc = new CRC32C();
+
+      crc.update(toBytes(data, 1));
+      Assertions.assertEquals((int)crc.getValue(), ~(int)crc32cb.invoke(-1, data), "CRC32CB");
+      crc.reset();
+      crc.update(toBytes(data, 2));
+      Assertions.assertEquals((int)crc.getValue(), ~(int)crc32ch.invoke(-1, data), "CRC32CH");
+      crc.reset();
+      crc.update(toBytes(data, 4));
+      Assertions.assertEquals((int)crc.getValue(), ~(int)crc32cw.invoke(-1, data), "CRC32CW");
+      crc.reset();
+      crc.update(toBytes(data, 8));
+      Assertions.assertEquals((int)crc.getValue(), ~(int)crc32cx.invoke(-1, data), "CRC32CX");
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  private static long[] clmul(long a, long b){
+    long lo = 0L;
+    long hi = 0L;
+    for(int i = 0; i < 64; i++){
+      if(((b >>> i) & 1L) != 0L){
+        lo ^= a << i;
+        hi ^= (i == 0) ? 0L : (a >>> (64 - i));
+      }
+    }
+    return new long[]{lo, hi};
+  }
+
+  /**
+   * Tests PMULL and PMULL2 (64 bit polynomial)
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testPMULL(){
+    final long HWCAP_PMULL = 1 << 4;  // from asm/hwcap.h
+    Assumptions.assumeTrue((getHWCAP() & HWCAP_PMULL) != 0L, "PMULL is not supported on this platform.");
+
+    try(var arena = Arena.ofConfined();
+        var seg = new CodeSegment();){
+      var desc = FunctionDescriptor.ofVoid(
+                   ValueLayout.ADDRESS, // src1
+                   ValueLayout.ADDRESS, // src2
+                   ValueLayout.ADDRESS  // dest
+                 );
+      var method = new AsmBuilder.AArch64(seg, desc)
+ /* stp x29, x30, [sp, #-16]!     */ .stp(Register.X29, Register.X30, Register.SP, IndexClass.PreIndex, -16)
+ /* mov x29,  sp                  */ .mov(Register.X29, Register.SP)
+ /* ldr  q0, [x0]                 */ .ldr(Register.V0, Register.X0, IndexClass.UnsignedOffset, 0)
+ /* ldr  q1, [x1]                 */ .ldr(Register.V1, Register.X1, IndexClass.UnsignedOffset, 0)
+ /* pmull  v2.1q, v0.1d, v1.1d    */ .pmull(Register.V2, Register.V0, Register.V1, PolynomialSize.P64)
+ /* pmull2 v3.1q, v0.2d, v1.2d    */ .pmull2(Register.V3, Register.V0, Register.V1, PolynomialSize.P64)
+ /* str  q2, [x2]                 */ .str(Register.V2, Register.X2, IndexClass.UnsignedOffset, 0)
+ /* str  q3, [x2, #16]            */ .str(Register.V3, Register.X2, IndexClass.UnsignedOffset, 16)
+ /* ldp x29, x30, [sp], #16       */ .ldp(Register.X29, Register.X30, Register.SP, IndexClass.PostIndex, 16)
+ /* ret                           */ .ret(Optional.empty())
+                                     .build();
+
+      //showDebugMessage(seg);
+
+      long[] a = {0x8000000000000001L, 0x0123456789abcdefL};
+      long[] b = {0x00000000000000ffL, 0xfedcba9876543210L};
+      var src1 = arena.allocateFrom(ValueLayout.JAVA_LONG, a);
+      var src2 = arena.allocateFrom(ValueLayout.JAVA_LONG, b);
+      var dest = arena.allocate(ValueLayout.JAVA_LONG, 4);
+      method.invoke(src1, src2, dest);
+
+      long[] actual = dest.toArray(ValueLayout.JAVA_LONG);
+      Assertions.assertArrayEquals(clmul(a[0], b[0]), new long[]{actual[0], actual[1]}, "PMULL");
+      Assertions.assertArrayEquals(clmul(a[1], b[1]), new long[]{actual[2], actual[3]}, "PMULL2");
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests AESE, AESD, AESMC, AESIMC
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testAES(){
+    final long HWCAP_AES = 1 << 3;  // from asm/hwcap.h
+    Assumptions.assumeTrue((getHWCAP() & HWCAP_AES) != 0L, "AES is not supported on this platform.");
+
+    try(var arena = Arena.ofConfined();
+        var seg = new CodeSegment();){
+      var desc = FunctionDescriptor.ofVoid(
+                   ValueLayout.ADDRESS, // state
+                   ValueLayout.ADDRESS, // key
+                   ValueLayout.ADDRESS  // zero
+                 );
+      var method = new AsmBuilder.AArch64(seg, desc)
+ /* stp x29, x30, [sp, #-16]!     */ .stp(Register.X29, Register.X30, Register.SP, IndexClass.PreIndex, -16)
+ /* mov x29,  sp                  */ .mov(Register.X29, Register.SP)
+ /* ldr  q0, [x0]                 */ .ldr(Register.V0, Register.X0, IndexClass.UnsignedOffset, 0)
+ /* ldr  q1, [x1]                 */ .ldr(Register.V1, Register.X1, IndexClass.UnsignedOffset, 0)
+ /* ldr  q2, [x2]                 */ .ldr(Register.V2, Register.X2, IndexClass.UnsignedOffset, 0)
+ /* aese   v0.16b, v1.16b         */ .aese(Register.V0, Register.V1)
+ /* aesmc  v0.16b, v0.16b         */ .aesmc(Register.V0, Register.V0)
+ /* aesimc v0.16b, v0.16b         */ .aesimc(Register.V0, Register.V0)
+ /* aesd   v0.16b, v2.16b         */ .aesd(Register.V0, Register.V2)
+ /* str  q0, [x0]                 */ .str(Register.V0, Register.X0, IndexClass.UnsignedOffset, 0)
+ /* ldp x29, x30, [sp], #16       */ .ldp(Register.X29, Register.X30, Register.SP, IndexClass.PostIndex, 16)
+ /* ret                           */ .ret(Optional.empty())
+                                     .build();
+
+      //showDebugMessage(seg);
+
+      long[] data = {0x0123456789abcdefL, 0xfedcba9876543210L};
+      long[] key = {0x0f0e0d0c0b0a0908L, 0x0706050403020100L};
+      var state = arena.allocateFrom(ValueLayout.JAVA_LONG, data);
+      var roundKey = arena.allocateFrom(ValueLayout.JAVA_LONG, key);
+      var zero = arena.allocate(ValueLayout.JAVA_LONG, 2);
+      method.invoke(state, roundKey, zero);
+
+      // AESD with zero key reverts SubBytes and ShiftRows by AESE,
+      // and AESIMC reverts AESMC. Thus state ^ key would be remained.
+      long[] expected = {data[0] ^ key[0], data[1] ^ key[1]};
+      Assertions.assertArrayEquals(expected, state.toArray(ValueLayout.JAVA_LONG));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  private static int sigma0(int x){
+    return Integer.rotateRight(x, 2) ^ Integer.rotateRight(x, 13) ^ Integer.rotateRight(x, 22);
+  }
+
+  private static int sigma1(int x){
+    return Integer.rotateRight(x, 6) ^ Integer.rotateRight(x, 11) ^ Integer.rotateRight(x, 25);
+  }
+
+  // SHA256hash() in pseudocode of Arm A64 Instruction Set Architecture
+  private static int[] sha256hash(int[] x, int[] y, int[] w, boolean part1){
+    x = x.clone();
+    y = y.clone();
+    for(int e = 0; e < 4; e++){
+      int chs = ((y[1] ^ y[2]) & y[0]) ^ y[2];
+      int maj = (x[0] & x[1]) | ((x[0] | x[1]) & x[2]);
+      int t = y[3] + sigma1(y[0]) + chs + w[e];
+      x[3] = t + x[3];
+      y[3] = t + sigma0(x[0]) + maj;
+      int carry = y[3];
+      y = new int[]{x[3], y[0], y[1], y[2]};
+      x = new int[]{carry, x[0], x[1], x[2]};
+    }
+    return part1 ? x : y;
+  }
+
+  private static int[] sha256su0(int[] d, int[] n){
+    int[] t = {d[1], d[2], d[3], n[0]};
+    int[] result = new int[4];
+    for(int e = 0; e < 4; e++){
+      int elt = Integer.rotateRight(t[e], 7) ^ Integer.rotateRight(t[e], 18) ^ (t[e] >>> 3);
+      result[e] = elt + d[e];
+    }
+    return result;
+  }
+
+  private static int[] sha256su1(int[] d, int[] n, int[] m){
+    int[] t0 = {n[1], n[2], n[3], m[0]};
+    int[] t1 = {m[2], m[3]};
+    int[] result = new int[4];
+    for(int e = 0; e < 4; e++){
+      int elt = (e < 2) ? t1[e] : result[e - 2];
+      elt = Integer.rotateRight(elt, 17) ^ Integer.rotateRight(elt, 19) ^ (elt >>> 10);
+      result[e] = elt + d[e] + t0[e];
+    }
+    return result;
+  }
+
+  /**
+   * Tests SHA256H, SHA256H2, SHA256SU0, SHA256SU1
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testSHA256(){
+    final long HWCAP_SHA2 = 1 << 6;  // from asm/hwcap.h
+    Assumptions.assumeTrue((getHWCAP() & HWCAP_SHA2) != 0L, "SHA256 is not supported on this platform.");
+
+    try(var arena = Arena.ofConfined();
+        var seg = new CodeSegment();){
+      var desc = FunctionDescriptor.ofVoid(
+                   ValueLayout.ADDRESS, // 1st operand (result)
+                   ValueLayout.ADDRESS, // 2nd operand
+                   ValueLayout.ADDRESS  // 3rd operand
+                 );
+      var sha256h = new AsmBuilder.AArch64(seg, desc)
+ /* ldr  q0, [x0]                 */ .ldr(Register.V0, Register.X0, IndexClass.UnsignedOffset, 0)
+ /* ldr  q1, [x1]                 */ .ldr(Register.V1, Register.X1, IndexClass.UnsignedOffset, 0)
+ /* ldr  q2, [x2]                 */ .ldr(Register.V2, Register.X2, IndexClass.UnsignedOffset, 0)
+ /* sha256h q0, q1, v2.4s         */ .sha256h(Register.V0, Register.V1, Register.V2)
+ /* str  q0, [x0]                 */ .str(Register.V0, Register.X0, IndexClass.UnsignedOffset, 0)
+ /* ret                           */ .ret(Optional.empty())
+                                     .build();
+      var sha256h2 = new AsmBuilder.AArch64(seg, desc)
+ /* ldr  q0, [x0]                 */ .ldr(Register.V0, Register.X0, IndexClass.UnsignedOffset, 0)
+ /* ldr  q1, [x1]                 */ .ldr(Register.V1, Register.X1, IndexClass.UnsignedOffset, 0)
+ /* ldr  q2, [x2]                 */ .ldr(Register.V2, Register.X2, IndexClass.UnsignedOffset, 0)
+ /* sha256h2 q0, q1, v2.4s        */ .sha256h2(Register.V0, Register.V1, Register.V2)
+ /* str  q0, [x0]                 */ .str(Register.V0, Register.X0, IndexClass.UnsignedOffset, 0)
+ /* ret                           */ .ret(Optional.empty())
+                                     .build();
+      var sha256su0 = new AsmBuilder.AArch64(seg, desc)
+ /* ldr  q0, [x0]                 */ .ldr(Register.V0, Register.X0, IndexClass.UnsignedOffset, 0)
+ /* ldr  q1, [x1]                 */ .ldr(Register.V1, Register.X1, IndexClass.UnsignedOffset, 0)
+ /* sha256su0 v0.4s, v1.4s        */ .sha256su0(Register.V0, Register.V1)
+ /* str  q0, [x0]                 */ .str(Register.V0, Register.X0, IndexClass.UnsignedOffset, 0)
+ /* ret                           */ .ret(Optional.empty())
+                                     .build();
+      var sha256su1 = new AsmBuilder.AArch64(seg, desc)
+ /* ldr  q0, [x0]                 */ .ldr(Register.V0, Register.X0, IndexClass.UnsignedOffset, 0)
+ /* ldr  q1, [x1]                 */ .ldr(Register.V1, Register.X1, IndexClass.UnsignedOffset, 0)
+ /* ldr  q2, [x2]                 */ .ldr(Register.V2, Register.X2, IndexClass.UnsignedOffset, 0)
+ /* sha256su1 v0.4s, v1.4s, v2.4s */ .sha256su1(Register.V0, Register.V1, Register.V2)
+ /* str  q0, [x0]                 */ .str(Register.V0, Register.X0, IndexClass.UnsignedOffset, 0)
+ /* ret                           */ .ret(Optional.empty())
+                                     .build();
+
+      //showDebugMessage(seg);
+
+      // Initial hash values and the first round constants in FIPS 180-4
+      int[] abcd = {0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a};
+      int[] efgh = {0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19};
+      int[] w = {0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5};
+      int[] w2 = {0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5};
+
+      MemorySegment op1 = arena.allocateFrom(ValueLayout.JAVA_INT, abcd);
+      MemorySegment op2 = arena.allocateFrom(ValueLayout.JAVA_INT, efgh);
+      MemorySegment op3 = arena.allocateFrom(ValueLayout.JAVA_INT, w);
+      sha256h.invoke(op1, op2, op3);
+      Assertions.assertArrayEquals(sha256hash(abcd, efgh, w, true), op1.toArray(ValueLayout.JAVA_INT), "SHA256H");
+
+      op1 = arena.allocateFrom(ValueLayout.JAVA_INT, efgh);
+      op2 = arena.allocateFrom(ValueLayout.JAVA_INT, abcd);
+      sha256h2.invoke(op1, op2, op3);
+      Assertions.assertArrayEquals(sha256hash(abcd, efgh, w, false), op1.toArray(ValueLayout.JAVA_INT), "SHA256H2");
+
+      op1 = arena.allocateFrom(ValueLayout.JAVA_INT, w);
+      op2 = arena.allocateFrom(ValueLayout.JAVA_INT, w2);
+      sha256su0.invoke(op1, op2, MemorySegment.NULL);
+      Assertions.assertArrayEquals(sha256su0(w, w2), op1.toArray(ValueLayout.JAVA_INT), "SHA256SU0");
+
+      op1 = arena.allocateFrom(ValueLayout.JAVA_INT, w);
+      op2 = arena.allocateFrom(ValueLayout.JAVA_INT, w2);
+      op3 = arena.allocateFrom(ValueLayout.JAVA_INT, abcd);
+      sha256su1.invoke(op1, op2, op3);
+      Assertions.assertArrayEquals(sha256su1(w, w2, abcd), op1.toArray(ValueLayout.JAVA_INT), "SHA256SU1");
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests MRS
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testMRS(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG);
+      var cntvct = new AsmBuilder.AArch64(seg, desc)
+ /* mrs x0, cntvct_el0        */ .mrs(Register.X0, SystemRegister.CNTVCT_EL0)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+      var cntfrq = new AsmBuilder.AArch64(seg, desc)
+ /* mrs x0, cntfrq_el0        */ .mrs(Register.X0, SystemRegister.CNTFRQ_EL0)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+      var tpidr = new AsmBuilder.AArch64(seg, desc)
+ /* mrs x0, tpidr_el0         */ .mrs(Register.X0, SystemRegister.TPIDR_EL0)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      //showDebugMessage(seg);
+
+      long first = (long)cntvct.invoke();
+      long second = (long)cntvct.invoke();
+      Assertions.assertTrue(second >= first, "CNTVCT_EL0 should not be decreased");
+      Assertions.assertTrue((long)cntfrq.invoke() > 0L, "CNTFRQ_EL0 should be set");
+      Assertions.assertNotEquals(0L, (long)tpidr.invoke(), "TPIDR_EL0 should point TLS");
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests YIELD, SEVL, WFE, SEV, ISB
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testHints(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.ofVoid();
+      var method = new AsmBuilder.AArch64(seg, desc)
+ /* yield                     */ .yield()
+ /* sevl                      */ .sevl()
+ /* wfe                       */ .wfe() // returns immediately due to SEVL
+ /* sev                       */ .sev()
+ /* isb                       */ .isb()
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      //showDebugMessage(seg);
+
+      method.invoke();
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests LDAXR, B, B.HS
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testLdaxrAndBranch(){
+    try(var arena = Arena.ofConfined();
+        var seg = new CodeSegment();){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.ADDRESS,   // 1st argument
+                   ValueLayout.JAVA_LONG  // 2nd argument
+                 );
+      // return (*arg1 >= arg2) ? *arg1 : 0 (unsigned)
+      var method = new AsmBuilder.AArch64(seg, desc)
+ /* ldaxr x9, [x0]            */ .ldaxr(Register.X9, Register.X0)
+ /* cmp x9, x1                */ .cmp(Register.X9, Register.X1, ShiftType.LSL, (byte)0)
+ /* b.hs higher               */ .bhs("higher")
+ /* movz x0, #0               */ .movz(Register.X0, 0, HWShift.None)
+ /* b exit                    */ .b("exit")
+ /* higher:                   */ .label("higher")
+ /* mov x0, x9                */ .mov(Register.X0, Register.X9)
+ /* exit:                     */ .label("exit")
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      //showDebugMessage(seg);
+
+      var val = arena.allocateFrom(ValueLayout.JAVA_LONG, 100L);
+      Assertions.assertEquals(100L, (long)method.invoke(val, 100L));
+      Assertions.assertEquals(100L, (long)method.invoke(val, 10L));
+      Assertions.assertEquals(0L, (long)method.invoke(val, 1000L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests alignment with NOP
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testAlignWithNOP(){
+    try(var seg = new CodeSegment()){
+      seg.setFunctionAlignment(64);
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG);
+      var builder = new AsmBuilder.AArch64(seg, desc);
+      Assertions.assertEquals(0L, (seg.getAddr().address() + seg.getTail()) & 0x3f, "Function is not aligned to 64 bytes");
+
+      var method = builder
+ /* movz x0, #1               */ .movz(Register.X0, 1, HWShift.None)
+ /* .align 6                  */ .alignWithNOP(64)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      //showDebugMessage(seg);
+
+      Assertions.assertEquals(1L, (long)method.invoke());
+      Assertions.assertEquals(68L, seg.getTail(), "Invalid code size");
+      var byteBuf = seg.getAddr().asByteBuffer().order(ByteOrder.nativeOrder());
+      Assertions.assertEquals(0xd503201f, byteBuf.getInt(60), "Not NOP");
+      Assertions.assertThrows(IllegalArgumentException.class, () -> new AsmBuilder.AArch64(seg).alignWithNOP(2));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests B, B.EQ with label handle
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testLabelHandle(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      // Count down arg1 to zero
+      var builder = new AsmBuilder.AArch64(seg, desc);
+      Label loop = builder.newLabel();
+      Label exit = builder.newLabel();
+      var method = builder
+ /* movz x9, #0               */ .movz(Register.X9, 0, HWShift.None)
+ /* movz x10, #0              */ .movz(Register.X10, 0, HWShift.None)
+ /* loop:                     */ .label(loop)
+ /* cmp x0, x10               */ .cmp(Register.X0, Register.X10, ShiftType.LSL, (byte)0)
+ /* b.eq exit                 */ .beq(exit)
+ /* add x9, x9, #1            */ .addImm(Register.X9, Register.X9, 1, false)
+ /* sub x0, x0, #1            */ .subImm(Register.X0, Register.X0, 1, false)
+ /* b loop                    */ .b(loop)
+ /* exit:                     */ .label(exit)
+ /* mov x0, x9                */ .mov(Register.X0, Register.X9)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      //showDebugMessage(seg);
+
+      Assertions.assertEquals(0L, (long)method.invoke(0L));
+      Assertions.assertEquals(100L, (long)method.invoke(100L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests structured if statements
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testIfThenElse(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      // signum(arg1)
+      var method = new AsmBuilder.AArch64(seg, desc)
+ /* movz x9, #1               */ .movz(Register.X9, 1, HWShift.None)
+ /* if(x0 < 0)                */ .ifElse(b -> b.cmp(Register.X0, Register.XZR, ShiftType.LSL, (byte)0), Condition.LT,
+ /*   sub x9, xzr, x9         */        b -> b.sub(Register.X9, Register.XZR, Register.X9, ShiftType.LSL, (byte)0),
+ /* else if(x0 == 0)          */        b -> b.ifThen(c -> c.cmpImm(Register.X0, 0, false), Condition.EQ,
+ /*   movz x9, #0             */                      c -> c.movz(Register.X9, 0, HWShift.None)))
+ /* mov x0, x9                */ .mov(Register.X0, Register.X9)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      //showDebugMessage(seg);
+
+      Assertions.assertEquals(-1L, (long)method.invoke(-100L));
+      Assertions.assertEquals(0L, (long)method.invoke(0L));
+      Assertions.assertEquals(1L, (long)method.invoke(100L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests structured loops
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testStructuredLoops(){
+    try(var arena = Arena.ofConfined();
+        var seg = new CodeSegment()){
+      var whileDesc = FunctionDescriptor.of(
+                        ValueLayout.JAVA_LONG, // return value
+                        ValueLayout.JAVA_LONG  // 1st argument
+                      );
+      // Round up arg1 to multiple of 3
+      var roundUp = new AsmBuilder.AArch64(seg, whileDesc)
+ /* movz x9, #0               */ .movz(Register.X9, 0, HWShift.None)
+ /* while(x9 < x0)            */ .whileLoop(b -> b.cmp(Register.X9, Register.X0, ShiftType.LSL, (byte)0), Condition.LT,
+ /*   add x9, x9, #3          */           b -> b.addImm(Register.X9, Register.X9, 3, false))
+ /* mov x0, x9                */ .mov(Register.X0, Register.X9)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      Assertions.assertEquals(0L, (long)roundUp.invoke(0L));
+      Assertions.assertEquals(0L, (long)roundUp.invoke(-5L));
+      Assertions.assertEquals(3L, (long)roundUp.invoke(1L));
+      Assertions.assertEquals(9L, (long)roundUp.invoke(9L));
+      Assertions.assertEquals(12L, (long)roundUp.invoke(10L));
+
+      var sumDesc = FunctionDescriptor.of(
+                      ValueLayout.JAVA_LONG, // return value
+                      ValueLayout.ADDRESS,   // 1st argument
+                      ValueLayout.JAVA_LONG  // 2nd argument
+                    );
+      for(int unroll : new int[]{1, 4}){
+        // Sum of x1 longs in x0
+        var sum = new AsmBuilder.AArch64(seg, sumDesc)
+ /* movz x9, #0               */ .movz(Register.X9, 0, HWShift.None)
+ /* loop x1 times             */ .countedLoop(Register.X1, unroll,
+ /*   ldr x10, [x0, #i*8]     */   (b, i) -> b.ldr(Register.X10, Register.X0, IndexClass.UnsignedOffset, i * 8)
+ /*   add x9, x9, x10         */              .add(Register.X9, Register.X9, Register.X10, ShiftType.LSL, (byte)0),
+ /*   add x0, x0, #n*8        */   (b, n) -> b.addImm(Register.X0, Register.X0, n * 8, false))
+ /* mov x0, x9                */ .mov(Register.X0, Register.X9)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+        var array = arena.allocate(ValueLayout.JAVA_LONG, 103);
+        long expected = 0;
+        for(int i = 0; i < 103; i++){
+          array.setAtIndex(ValueLayout.JAVA_LONG, i, i + 1);
+          expected += i + 1;
+        }
+        Assertions.assertEquals(expected, (long)sum.invoke(array, 103L));
+        for(long n : new long[]{0L, 1L, 3L, 4L, 5L, 8L}){
+          Assertions.assertEquals(n * (n + 1) / 2, (long)sum.invoke(array, n), "unroll = " + unroll + ", n = " + n);
+        }
+      }
+
+      Assertions.assertThrows(IllegalArgumentException.class, () -> new AsmBuilder.AArch64(seg).countedLoop(Register.X0, 0, (b, i) -> {}, (b, n) -> {}));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests BL / B to the function in CodeSegment
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testSymbolCall(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      // Caller is assembled before the callee (forward reference)
+      var caller = new AsmBuilder.AArch64(seg, desc)
+ /* stp x29, x30, [sp, #-16]! */ .stp(Register.X29, Register.X30, Register.SP, IndexClass.PreIndex, -16)
+ /* mov x29, sp               */ .mov(Register.X29, Register.SP)
+ /* bl twice                  */ .blSymbol("twice")
+ /* add x0, x0, #1            */ .addImm(Register.X0, Register.X0, 1, false)
+ /* ldp x29, x30, [sp], #16   */ .ldp(Register.X29, Register.X30, Register.SP, IndexClass.PostIndex, 16)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build("caller");
+
+      var twice = new AsmBuilder.AArch64(seg, desc)
+ /* add x0, x0, x0            */ .add(Register.X0, Register.X0, Register.X0, ShiftType.LSL, (byte)0)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build("twice");
+
+      // Callee is already defined (backward reference)
+      var tailCall = new AsmBuilder.AArch64(seg, desc)
+ /* add x0, x0, #10           */ .addImm(Register.X0, Register.X0, 10, false)
+ /* b twice                   */ .bSymbol("twice")
+                                 .build("tailCall");
+
+      Assertions.assertTrue(seg.getUnresolvedSymbols().isEmpty());
+      Assertions.assertEquals(21L, (long)caller.invoke(10L));
+      Assertions.assertEquals(20L, (long)twice.invoke(10L));
+      Assertions.assertEquals(40L, (long)tailCall.invoke(10L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests call to native function via import table
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testCallNative(){
+    try(var arena = Arena.ofConfined();
+        var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.ADDRESS    // 1st argument
+                 );
+      var method = new AsmBuilder.AArch64(seg, desc)
+ /* stp x29, x30, [sp, #-16]! */ .stp(Register.X29, Register.X30, Register.SP, IndexClass.PreIndex, -16)
+ /* mov x29, sp               */ .mov(Register.X29, Register.SP)
+ /* call strlen               */ .callNative("strlen")
+ /* ldp x29, x30, [sp], #16   */ .ldp(Register.X29, Register.X30, Register.SP, IndexClass.PostIndex, 16)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      Assertions.assertEquals(6L, (long)method.invoke(arena.allocateFrom("ffmasm")));
+      Assertions.assertEquals(seg.importSymbol("strlen"), seg.importSymbol("strlen"));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests jump table
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testJumpTable(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      var builder = new AsmBuilder.AArch64(seg, desc);
+      Label dispatch = builder.newLabel();
+      Label case0 = builder.newLabel();
+      Label case1 = builder.newLabel();
+      Label case2 = builder.newLabel();
+      Label defaultCase = builder.newLabel();
+      var method = builder
+ /* b dispatch                */ .b(dispatch)
+ /* case0:                    */ .label(case0) // bound before the table
+ /* movz x0, #100             */ .movz(Register.X0, 100, HWShift.None)
+ /* ret                       */ .ret(Optional.empty())
+ /* dispatch:                 */ .label(dispatch)
+ /* switch(x0)                */ .jumpTable(Register.X0, Register.X9, defaultCase, case0, case1, case2, case1)
+ /* case1:                    */ .label(case1)
+ /* movz x0, #101             */ .movz(Register.X0, 101, HWShift.None)
+ /* ret                       */ .ret(Optional.empty())
+ /* case2:                    */ .label(case2)
+ /* movz x0, #102             */ .movz(Register.X0, 102, HWShift.None)
+ /* ret                       */ .ret(Optional.empty())
+ /* default:                  */ .label(defaultCase)
+ /* movz x0, #0               */ .movz(Register.X0, 0, HWShift.None)
+ /* ret                       */ .ret(Optional.empty())
+                                 .build();
+
+      Assertions.assertEquals(100L, (long)method.invoke(0L));
+      Assertions.assertEquals(101L, (long)method.invoke(1L));
+      Assertions.assertEquals(102L, (long)method.invoke(2L));
+      Assertions.assertEquals(101L, (long)method.invoke(3L));
+      Assertions.assertEquals(0L, (long)method.invoke(4L));
+      Assertions.assertEquals(0L, (long)method.invoke(-1L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests stencil with MOVZ / MOVK and BL holes
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testStencil(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      var twice = new AsmBuilder.AArch64(seg, desc)
+ /* add x0, x0, x0            */ .add(Register.X0, Register.X0, Register.X0, ShiftType.LSL, (byte)0)
+ /* ret                       */ .ret(Optional.empty())
+                                 .getMemorySegment("twice");
+      var dec = new AsmBuilder.AArch64(seg, desc)
+ /* sub x0, x0, #1            */ .subImm(Register.X0, Register.X0, 1, false)
+ /* ret                       */ .ret(Optional.empty())
+                                 .getMemorySegment("dec");
+
+      // long f(long x){ return callee(x + k); }
+      var stencil = new AsmBuilder.AArch64(seg, desc)
+ /* stp x29, x30, [sp, #-16]! */ .stp(Register.X29, Register.X30, Register.SP, IndexClass.PreIndex, -16)
+ /* mov x29, sp               */ .mov(Register.X29, Register.SP)
+ /* movz x9, #k[15:0]         */ .movz(Register.X9, 0, HWShift.None).hole("k", Stencil.Hole.MOVW16)
+ /* movk x9, #k[31:16]        */ .movk(Register.X9, 0, HWShift.HW_16).hole("k", Stencil.Hole.MOVW16)
+ /* movk x9, #k[47:32]        */ .movk(Register.X9, 0, HWShift.HW_32).hole("k", Stencil.Hole.MOVW16)
+ /* movk x9, #k[63:48]        */ .movk(Register.X9, 0, HWShift.HW_48).hole("k", Stencil.Hole.MOVW16)
+ /* add x0, x0, x9            */ .add(Register.X0, Register.X0, Register.X9, ShiftType.LSL, (byte)0)
+ /* bl callee                 */ .bl(twice.address()).hole("callee", Stencil.Hole.BRANCH26)
+ /* ldp x29, x30, [sp], #16   */ .ldp(Register.X29, Register.X30, Register.SP, IndexClass.PostIndex, 16)
+ /* ret                       */ .ret(Optional.empty())
+                                 .buildStencil("stencil");
+
+      var f1 = stencil.build(seg, new long[]{0x1234_5678_9abc_def0L, twice.address()});
+      var f2 = stencil.build(seg, new long[]{-1L, dec.address()});
+
+      Assertions.assertEquals((0x1234_5678_9abc_def0L + 1L) * 2, (long)f1.invoke(1L));
+      Assertions.assertEquals(10L - 1L - 1L, (long)f2.invoke(10L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.aarch64;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.ValueLayout;
+import java.util.Optional;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.BatchInvoker;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.aarch64.Register;
+import com.yasuenag.ffmasm.aarch64.ShiftType;
+
+
+@EnabledOnOs(architectures = {"aarch64"})
+public class BatchInvokerTest{
+
+  /**
+   * Test batch invocation with integer arguments
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testIntegerArguments(){
+    try(var seg = new CodeSegment();
+        var arena = Arena.ofConfined()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG, // 1st argument
+                   ValueLayout.JAVA_INT   // 2nd argument
+                 );
+      var func = new AsmBuilder.AArch64(seg, desc)
+ /* add x0, x0, x1            */ .add(Register.X0, Register.X0, Register.X1, ShiftType.LSL, (byte)0)
+ /* ret                       */ .ret(Optional.empty())
+                                 .getMemorySegment();
+
+      var invoker = BatchInvoker.create(seg, func, desc);
+      var block = invoker.allocate(arena, 100);
+      for(int i = 0; i < block.capacity(); i++){
+        block.setLong(i, 0, i * 10L)
+             .setInt(i, 1, i);
+      }
+      invoker.invoke(block, 50);
+
+      for(int i = 0; i < 50; i++){
+        Assertions.assertEquals(i * 11L, block.getLong(i));
+      }
+      Assertions.assertEquals(0L, block.getLong(50));
+
+      invoker.invoke(block, 0);
+      Assertions.assertThrows(IndexOutOfBoundsException.class, () -> invoker.invoke(block, 101));
+      Assertions.assertThrows(IndexOutOfBoundsException.class, () -> block.setInt(0, 2, 0));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test batch invocation with floating point arguments
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testFloatingPointArguments(){
+    try(var seg = new CodeSegment();
+        var arena = Arena.ofConfined()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_DOUBLE, // return value
+                   ValueLayout.JAVA_LONG,   // 1st argument
+                   ValueLayout.JAVA_DOUBLE  // 2nd argument
+                 );
+      // Identity function of 2nd argument: both of it and return value are D0
+      var func = new AsmBuilder.AArch64(seg, desc)
+ /* ret                       */ .ret(Optional.empty())
+                                 .getMemorySegment();
+
+      var invoker = BatchInvoker.create(seg, func, desc);
+      var block = invoker.allocate(arena, 10);
+      for(int i = 0; i < block.capacity(); i++){
+        block.setLong(i, 0, -1L)
+             .setDouble(i, 1, i * 1.5d);
+      }
+      // The result slot next to the last call must not be touched
+      invoker.invoke(block, 5);
+      Assertions.assertEquals(6.0d, block.getDouble(4));
+      Assertions.assertEquals(0.0d, block.getDouble(5));
+
+      invoker.invoke(block, block.capacity());
+
+      for(int i = 0; i < block.capacity(); i++){
+        Assertions.assertEquals(i * 1.5d, block.getDouble(i));
+      }
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.aarch64;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.CommandRing;
+import com.yasuenag.ffmasm.aarch64.Register;
+import com.yasuenag.ffmasm.aarch64.ShiftType;
+
+
+@EnabledOnOs(architectures = {"aarch64"})
+public class CommandRingTest{
+
+  /**
+   * Test submit and await on single thread
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testSubmitAndAwait(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG, // 1st argument
+                   ValueLayout.JAVA_LONG, // 2nd argument
+                   ValueLayout.JAVA_LONG, // 3rd argument
+                   ValueLayout.JAVA_LONG  // 4th argument
+                 );
+      var func = new AsmBuilder.AArch64(seg, desc)
+ /* add x0, x0, x1            */ .add(Register.X0, Register.X0, Register.X1, ShiftType.LSL, (byte)0)
+ /* add x0, x0, x2            */ .add(Register.X0, Register.X0, Register.X2, ShiftType.LSL, (byte)0)
+ /* add x0, x0, x3            */ .add(Register.X0, Register.X0, Register.X3, ShiftType.LSL, (byte)0)
+ /* ret                       */ .ret(Optional.empty())
+                                 .getMemorySegment();
+
+      try(var ring = CommandRing.start(seg, 4)){
+        Assertions.assertEquals(4, ring.capacity());
+        Assertions.assertEquals(10L, ring.call(func, 1L, 2L, 3L, 4L));
+
+        // Submit more than capacity with awaiting in order.
+        long[] tickets = new long[4];
+        for(int i = 0; i < 20; i++){
+          if(i >= tickets.length){
+            Assertions.assertEquals((i - 4) * 4L, ring.await(tickets[i % tickets.length]));
+          }
+          tickets[i % tickets.length] = ring.submit(func, i, i, i, i);
+        }
+        for(int i = 16; i < 20; i++){
+          long ticket = tickets[i % tickets.length];
+          while(!ring.isDone(ticket)){
+            Thread.onSpinWait();
+          }
+          Assertions.assertEquals(i * 4L, ring.await(ticket));
+        }
+
+        Assertions.assertThrows(IllegalStateException.class, () -> ring.await(tickets[0]));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ring.submit(func, 1L, 2L, 3L, 4L, 5L));
+      }
+
+      Assertions.assertThrows(IllegalArgumentException.class, () -> CommandRing.start(seg, 3));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test multiple producers on virtual threads.
+   * Results must be visible to producers via DMB in the dispatch loop.
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testVirtualThreadProducers(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG, // 1st argument
+                   ValueLayout.JAVA_LONG  // 2nd argument
+                 );
+      var func = new AsmBuilder.AArch64(seg, desc)
+ /* add x0, x0, x1            */ .add(Register.X0, Register.X0, Register.X1, ShiftType.LSL, (byte)0)
+ /* ret                       */ .ret(Optional.empty())
+                                 .getMemorySegment();
+
+      try(var ring = CommandRing.start(seg, 8);
+          var executor = Executors.newVirtualThreadPerTaskExecutor()){
+        var futures = new ArrayList<Future<Long>>();
+        for(int t = 0; t < 16; t++){
+          final long base = t * 1_000_000L;
+          futures.add(executor.submit(() -> {
+            long sum = 0;
+            for(int i = 0; i < 1000; i++){
+              sum += ring.call(func, base, i);
+            }
+            return sum;
+          }));
+        }
+
+        for(int t = 0; t < futures.size(); t++){
+          Assertions.assertEquals(t * 1_000_000L * 1000 + 499_500L, futures.get(t).get());
+        }
+      }
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test close() on interrupted thread
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX})
+  public void testInterruptedClose(){
+    try(var seg = new CodeSegment()){
+      var ring = CommandRing.start(seg, 4);
+      Thread.currentThread().interrupt();
+      ring.close(); // must wait for the dispatcher
+      Assertions.assertTrue(Thread.interrupted(), "Interrupt status should be restored.");
+      Assertions.assertThrows(IllegalStateException.class, () -> ring.submit(MemorySegment.NULL));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+}
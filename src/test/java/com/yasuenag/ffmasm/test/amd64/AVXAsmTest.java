@@ -452,4 +452,53 @@ public class AVXAsmTest extends TestBase{
     }
   }
 
+  /**
+   * Tests automatic VZEROUPPER insertion
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testAutoVZEROUPPER(){
+    Assumptions.assumeTrue(supportAVX(), "Test platform does not support AVX");
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT);
+      var builder = new AsmBuilder.AVX(seg, desc)
+ /* push %rbp                 */ .push(Register.RBP)
+ /* mov %rsp, %rbp            */ .movMR(Register.RSP, Register.RBP, OptionalInt.empty())
+ /* vpxor %ymm0, %ymm0, %ymm0 */ .vpxor(Register.YMM0, Register.YMM0, Register.YMM0, OptionalInt.empty())
+ /* mov arg1, %rax            */ .movMR(argReg.arg1(), Register.RAX, OptionalInt.empty())
+ /* test %rax, %rax           */ .test(Register.RAX, Register.RAX, OptionalInt.empty())
+ /* jz exit                   */ .jz("exit")
+ /* vzeroupper                */ .vzeroupper();
+      Assertions.assertFalse(builder.isUpperStateDirty(), "Upper state should be clean after VZEROUPPER");
+      int retPos = builder
+ /* exit:                     */ .label("exit")
+                                 .getCodePosition();
+      Assertions.assertTrue(builder.isUpperStateDirty(), "Upper state should be dirty at the label from JZ");
+      var method = builder
+ /* leave                     */ .leave()
+ /*   (vzeroupper)            */
+ /* ret                       */ .ret()
+                                 .build();
+
+      //showDebugMessage(seg);
+      var code = seg.getAddr().asSlice(retPos, 5).toArray(ValueLayout.JAVA_BYTE);
+      Assertions.assertArrayEquals(new byte[]{(byte)0xc9, (byte)0xc5, (byte)0xf8, (byte)0x77, (byte)0xc3}, code, "VZEROUPPER is not inserted");
+      Assertions.assertEquals(0, (int)method.invoke(0));
+      Assertions.assertEquals(1, (int)method.invoke(1));
+
+      // Disable auto insertion
+      var builder2 = new AsmBuilder.AVX(seg, desc)
+                                 .setAutoVzeroupper(false)
+ /* vpxor %ymm0, %ymm0, %ymm0 */ .vpxor(Register.YMM0, Register.YMM0, Register.YMM0, OptionalInt.empty());
+      int pos = builder2.getCodePosition();
+      builder2
+ /* ret                       */ .ret();
+      Assertions.assertEquals(pos + 1, builder2.getCodePosition(), "VZEROUPPER should not be inserted");
+      Assertions.assertTrue(builder2.isUpperStateDirty());
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
 }
@@ -31,9 +31,14 @@ import java.lang.foreign.Linker;
 import java.lang.foreign.ValueLayout;
 import java.nio.ByteOrder;
 import java.util.OptionalInt;
+import java.util.Set;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
 
 import com.yasuenag.ffmasm.AsmBuilder;
 import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.Label;
+import com.yasuenag.ffmasm.amd64.Condition;
 import com.yasuenag.ffmasm.amd64.Register;
 
 
@@ -372,6 +377,42 @@ public class AsmTest extends TestBase{
     }
   }
 
+  /**
+   * Tests XGETBV
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testXGETBV(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_INT, // return value
+                   ValueLayout.JAVA_INT // 1st argument
+                 );
+      var cpuid = new AsmBuilder.AMD64(seg, desc)
+         /* push %rbx         */ .push(Register.RBX)
+         /* mov arg1, %rax    */ .movMR(argReg.arg1(), Register.RAX, OptionalInt.empty())
+         /* cpuid             */ .cpuid()
+         /* mov %ecx, %eax    */ .movMR(Register.ECX, Register.EAX, OptionalInt.empty())
+         /* pop %rbx          */ .pop(Register.RBX, OptionalInt.empty())
+         /* ret               */ .ret()
+                                 .build();
+      boolean isOSXSAVE = (((int)cpuid.invoke(0x1) >>> 27) & 0x1) == 1;
+      Assumptions.assumeTrue(isOSXSAVE, "OSXSAVE is not enabled.");
+
+      var method = new AsmBuilder.AMD64(seg, desc)
+         /* mov arg1, %rcx    */ .movMR(argReg.arg1(), Register.RCX, OptionalInt.empty())
+         /* xgetbv            */ .xgetbv()
+         /* ret               */ .ret()
+                                 .build();
+
+      int xcr0 = (int)method.invoke(0); // XCR0
+      Assertions.assertEquals(1, xcr0 & 0x1, "x87 state must be enabled in XCR0.");
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
   /**
    * Test NOP
    */
@@ -1249,6 +1290,125 @@ public class AsmTest extends TestBase{
     }
   }
 
+  /**
+   * Test RDTSCP
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testRDTSCP(){
+    Assumptions.assumeTrue(supportRDTSCP(), "Test platform does not support RDTSCP");
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG // return value
+                 );
+      var method = new AsmBuilder.AMD64(seg, desc)
+          /*   push %rbp      */ .push(Register.RBP)
+          /*   mov %rsp, %rbp */ .movMR(Register.RSP, Register.RBP, OptionalInt.empty())
+          /*   rdtscp         */ .rdtscp()
+          /*   shl $32, %rdx  */ .shl(Register.RDX, (byte)32, OptionalInt.empty())
+          /*   or %rdx, %rax  */ .orMR(Register.RDX, Register.RAX, OptionalInt.empty())
+          /*   leave          */ .leave()
+          /*   ret            */ .ret()
+                                 .build();
+
+      //showDebugMessage(seg);
+      long first = (long)method.invoke();
+      long second = (long)method.invoke();
+      Assertions.assertTrue(second > first, "TSC should be increased");
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test RDPID
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testRDPID(){
+    Assumptions.assumeTrue(supportRDPID(), "Test platform does not support RDPID");
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG // return value
+                 );
+      var method = new AsmBuilder.AMD64(seg, desc)
+          /*   push %rbp      */ .push(Register.RBP)
+          /*   mov %rsp, %rbp */ .movMR(Register.RSP, Register.RBP, OptionalInt.empty())
+          /*   rdpid %r8      */ .rdpid(Register.R8) // encode check
+          /*   rdpid %rax     */ .rdpid(Register.RAX)
+          /*   leave          */ .leave()
+          /*   ret            */ .ret()
+                                 .build();
+
+      //showDebugMessage(seg);
+      long result = (long)method.invoke();
+      Assertions.assertEquals(0L, result >>> 32, "IA32_TSC_AUX should be zero-extended");
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test PAUSE
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testPAUSE(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.ofVoid();
+      var method = new AsmBuilder.AMD64(seg, desc)
+          /*   push %rbp      */ .push(Register.RBP)
+          /*   mov %rsp, %rbp */ .movMR(Register.RSP, Register.RBP, OptionalInt.empty())
+          /*   pause          */ .pause()
+          /*   leave          */ .leave()
+          /*   ret            */ .ret()
+                                 .build();
+
+      //showDebugMessage(seg);
+      method.invoke();
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test UMONITOR, UMWAIT, TPAUSE
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testWAITPKG(){
+    Assumptions.assumeTrue(supportWAITPKG(), "Test platform does not support WAITPKG");
+    try(var arena = Arena.ofConfined();
+        var seg = new CodeSegment();){
+      var desc = FunctionDescriptor.ofVoid(
+                   ValueLayout.ADDRESS // address to be monitored
+                 );
+      // Deadline is set to current TSC, so UMWAIT and TPAUSE return immediately.
+      var method = new AsmBuilder.AMD64(seg, desc)
+          /*   push %rbp        */ .push(Register.RBP)
+          /*   mov %rsp, %rbp   */ .movMR(Register.RSP, Register.RBP, OptionalInt.empty())
+          /*   mov arg1, %r10   */ .movMR(argReg.arg1(), Register.R10, OptionalInt.empty())
+          /*   xor %r9d, %r9d   */ .xorMR(Register.R9D, Register.R9D, OptionalInt.empty())
+          /*   umonitor %r10    */ .umonitor(Register.R10)
+          /*   rdtsc            */ .rdtsc()
+          /*   umwait %r9d      */ .umwait(Register.R9D)
+          /*   rdtsc            */ .rdtsc()
+          /*   tpause %r9d      */ .tpause(Register.R9D)
+          /*   leave            */ .leave()
+          /*   ret              */ .ret()
+                                   .build();
+
+      //showDebugMessage(seg);
+      method.invoke(arena.allocate(ValueLayout.JAVA_LONG));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
   /**
    * Test CALL
    */
@@ -1341,6 +1501,74 @@ public class AsmTest extends TestBase{
     }
   }
 
+  /**
+   * Test multi-byte NOP
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testMultiByteNOP(){
+    try(var seg = new CodeSegment()){
+      var byteBuf = seg.getTailOfMemorySegment()
+                       .asByteBuffer()
+                       .order(ByteOrder.nativeOrder());
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_INT);
+      var builder = new AsmBuilder.AMD64(seg, desc)
+          /*   mov $1, %rax   */ .movImm(Register.RAX, 1);
+      for(int len = 1; len <= 15; len++){
+          /*   nop (len)      */ builder.nop(len);
+      }
+      var method = builder
+          /*   ret            */ .ret()
+                                 .build();
+
+      //showDebugMessage(seg);
+      // 10 bytes (mov) + 120 bytes (NOPs: 1 + 2 + ... + 15) + 1 byte (ret)
+      Assertions.assertEquals(131, (int)seg.getTail(), "Invalid code size");
+      byteBuf.position(10 + 105);
+      byte[] nop15 = new byte[15];
+      byteBuf.get(nop15);
+      byte[] expected = {(byte)0x66, (byte)0x66, (byte)0x66, (byte)0x66, (byte)0x66, (byte)0x66, (byte)0x66,
+                         (byte)0x0f, (byte)0x1f, (byte)0x84, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00};
+      Assertions.assertArrayEquals(expected, nop15, "Invalid 15 bytes NOP");
+      Assertions.assertEquals(1, (int)method.invoke());
+      Assertions.assertThrows(IllegalArgumentException.class, () -> new AsmBuilder.AMD64(seg).nop(16));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test address alignment with multi-byte NOP
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testAlignWithNOP(){
+    try(var seg = new CodeSegment()){
+      seg.setFunctionAlignment(64);
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_INT);
+      var builder = new AsmBuilder.AMD64(seg, desc);
+      long head = seg.getAddr().address() + seg.getTail();
+      Assertions.assertEquals(0L, head & 0x3f, "Function is not aligned to 64 bytes");
+
+      var method = builder
+          /*   mov $1, %rax   */ .movImm(Register.RAX, 1)
+          /*   .align 64      */ .alignWithNOP(64)
+          /*   add $1, %eax   */ .add(Register.EAX, 1, OptionalInt.empty())
+          /*   ret            */ .ret()
+                                 .build();
+
+      //showDebugMessage(seg);
+      Assertions.assertEquals(2, (int)method.invoke());
+      // 10 bytes (mov) + 54 bytes (NOPs: 11 * 4 + 10) + 6 bytes (add) + 1 byte (ret)
+      Assertions.assertEquals(71, (int)seg.getTail(), "Invalid code size");
+      Assertions.assertThrows(IllegalArgumentException.class, () -> new AsmBuilder.AMD64(seg).alignWithNOP(24));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
   /**
    * Test movRM
    */
@@ -1730,4 +1958,581 @@ public class AsmTest extends TestBase{
   }
 
 
+  /**
+   * Test jumps with label handle
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testLabelHandle(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      // Sum 1 to arg1
+      var builder = new AsmBuilder.AMD64(seg, desc);
+      Label loop = builder.newLabel();
+      Label body = builder.newLabel();
+      Label exit = builder.newLabel();
+      builder
+          /*   xor %rax, %rax    */ .xorMR(Register.RAX, Register.RAX)
+          /* loop:               */ .label(loop)
+          /*   test arg1, arg1   */ .test(argReg.arg1(), argReg.arg1())
+          /*   jnz body          */ .jnz(body)
+          /*   jmp exit          */ .jmp(exit)
+          /* body:               */ .label(body)
+          /*   add arg1, %rax    */ .addRM(Register.RAX, argReg.arg1())
+          /*   sub $1, arg1      */ .sub(argReg.arg1(), 1);
+      for(int i = 0; i < 20; i++){
+          /*   nop (10 bytes)    */ builder.nop(10); // Make backward jump rel32
+      }
+      var method = builder
+          /*   jmp loop          */ .jmp(loop)
+          /* exit:               */ .label(exit)
+          /*   ret               */ .ret()
+                                    .build();
+
+      //showDebugMessage(seg);
+      Assertions.assertEquals(0L, (long)method.invoke(0L));
+      Assertions.assertEquals(55L, (long)method.invoke(10L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test errors of label handle
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testLabelHandleErrors(){
+    try(var seg = new CodeSegment()){
+      var builder = new AsmBuilder.AMD64(seg, FunctionDescriptor.ofVoid());
+      Label label = builder.newLabel();
+      builder.label(label);
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.label(label));
+      // Label from other builder, or other function of the same builder
+      Label foreign = new AsmBuilder.AMD64(seg, FunctionDescriptor.ofVoid()).newLabel();
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.jmp(foreign));
+      builder.reset();
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.jmp(label));
+
+      var builder2 = new AsmBuilder.AMD64(seg, FunctionDescriptor.ofVoid());
+      Label unbound = builder2.newLabel();
+      builder2.je(unbound)
+              .ret();
+      Assertions.assertThrows(IllegalStateException.class, () -> builder2.build());
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test overloads without OptionalInt
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testPrimitiveDispOverloads(){
+    try(var seg = new CodeSegment()){
+      var expected = new AsmBuilder.AMD64(seg)
+                        .movMR(Register.RAX, Register.RSP, OptionalInt.of(8))
+                        .movRM(Register.R8, Register.RDI, OptionalInt.of(0x100))
+                        .addRM(Register.RAX, Register.RDX, OptionalInt.empty())
+                        .cmp(Register.RAX, 10, OptionalInt.empty())
+                        .sub(Register.RSP, 16, OptionalInt.of(0))
+                        .getMemorySegment()
+                        .toArray(ValueLayout.JAVA_BYTE);
+      var actual = new AsmBuilder.AMD64(seg)
+                        .movMR(Register.RAX, Register.RSP, 8)
+                        .movRM(Register.R8, Register.RDI, 0x100)
+                        .addRM(Register.RAX, Register.RDX)
+                        .cmp(Register.RAX, 10)
+                        .sub(Register.RSP, 16, 0)
+                        .getMemorySegment()
+                        .toArray(ValueLayout.JAVA_BYTE);
+      Assertions.assertArrayEquals(expected, actual);
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test reset() and batch build of builder
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testResetAndBatchBuild(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      var builder = new AsmBuilder.AMD64(seg, desc);
+
+      // Discarded code
+      long tail = seg.getTail();
+      builder.movImm(Register.RAX, -1L)
+             .reset();
+      Assertions.assertEquals(tail, seg.getTail());
+      Assertions.assertEquals(0, builder.getCodePosition());
+
+      for(int i = 1; i <= 3; i++){
+        // Labels can be reused after each function
+        Label exit = builder.newLabel();
+        builder
+          /*   mov arg1, %rax    */ .movMR(argReg.arg1(), Register.RAX)
+          /*   test arg1, arg1   */ .test(argReg.arg1(), argReg.arg1())
+          /*   jz exit           */ .jz(exit)
+          /*   add $i, %rax      */ .add(Register.RAX, i)
+          /* exit:               */ .label(exit)
+          /*   ret               */ .ret()
+                                    .endFunction("func" + i);
+      }
+      var methods = builder.buildAll();
+      Assertions.assertEquals(3, methods.size());
+      Assertions.assertTrue(builder.buildAll().isEmpty());
+      for(int i = 1; i <= 3; i++){
+        Assertions.assertEquals(0L, (long)methods.get(i - 1).invoke(0L));
+        Assertions.assertEquals(10L + i, (long)methods.get(i - 1).invoke(10L));
+      }
+
+      var segments = builder.xorMR(Register.RAX, Register.RAX)
+                            .ret()
+                            .endFunction("func4")
+                            .getAllMemorySegments();
+      Assertions.assertEquals(1, segments.size());
+      Assertions.assertEquals(0, segments.get(0).address() % seg.getFunctionAlignment());
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test buildAs()
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testBuildAs(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG, // 1st argument
+                   ValueLayout.JAVA_LONG  // 2nd argument
+                 );
+      var func = new AsmBuilder.AMD64(seg, desc)
+        /* mov arg1, %rax    */ .movMR(argReg.arg1(), Register.RAX)
+        /* add arg2, %rax    */ .addRM(Register.RAX, argReg.arg2())
+        /* ret               */ .ret()
+                                .buildAs(LongBinaryOperator.class);
+      Assertions.assertEquals(30L, func.applyAsLong(10L, 20L));
+      Assertions.assertTrue(func.getClass().isHidden());
+
+      var builder = new AsmBuilder.AMD64(seg, desc).ret();
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.buildAs(String.class));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.buildAs(LongUnaryOperator.class));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  public static interface ObjectSupplier{
+    public Object get(long x);
+  }
+
+  public static interface LongSupplier{
+    public Long get(long x);
+  }
+
+  public static interface CovariantSupplier extends ObjectSupplier, LongSupplier{
+  }
+
+  /**
+   * Test buildAs() with covariant abstract methods
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testBuildAsCovariant(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      var func = new AsmBuilder.AMD64(seg, desc)
+        /* mov arg1, %rax    */ .movMR(argReg.arg1(), Register.RAX)
+        /* ret               */ .ret()
+                                .buildAs(CovariantSupplier.class);
+      Assertions.assertEquals(Long.valueOf(10L), ((LongSupplier)func).get(10L));
+      Assertions.assertEquals(Long.valueOf(20L), ((ObjectSupplier)func).get(20L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test array parameter
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testArrayParameter(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.ADDRESS,   // 1st argument
+                   ValueLayout.JAVA_LONG  // 2nd argument
+                 );
+      // Sum of array elements
+      var builder = new AsmBuilder.AMD64(seg, desc);
+      Label loop = builder.newLabel();
+      Label exit = builder.newLabel();
+      var method = builder.setArrayParameter(0, long[].class)
+        /*   xor %rax, %rax      */ .xorMR(Register.RAX, Register.RAX)
+        /*   test arg2, arg2     */ .test(argReg.arg2(), argReg.arg2())
+        /*   jz exit             */ .jz(exit)
+        /* loop:                 */ .label(loop)
+        /*   add (arg1), %rax    */ .addRM(Register.RAX, argReg.arg1(), 0)
+        /*   add $8, arg1        */ .add(argReg.arg1(), 8)
+        /*   sub $1, arg2        */ .sub(argReg.arg2(), 1)
+        /*   jnz loop            */ .jnz(loop)
+        /* exit:                 */ .label(exit)
+        /*   ret                 */ .ret()
+                                    .build();
+
+      Assertions.assertEquals(long[].class, method.type().parameterType(0));
+      long[] array = new long[]{1L, 2L, 3L, 4L, 5L};
+      Assertions.assertEquals(15L, (long)method.invokeExact(array, (long)array.length));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test errors of array parameter
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testArrayParameterErrors(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_LONG);
+      var builder = new AsmBuilder.AMD64(seg, desc);
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.setArrayParameter(1, long[].class));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.setArrayParameter(2, long[].class));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.setArrayParameter(0, String[].class));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.setArrayParameter(0, int[].class)
+                                                                           .ret()
+                                                                           .build(Linker.Option.critical(false)));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test memory operand with R12 and R13 as a base register
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testR12R13Base(){
+    try(var seg = new CodeSegment()){
+      var mem = new AsmBuilder.AMD64(seg)
+        /* mov (%r12), %rax  */ .movRM(Register.RAX, Register.R12, 0)
+        /* mov 0(%r13), %rax */ .movRM(Register.RAX, Register.R13, 0)
+        /* mov %r13, %rax    */ .movMR(Register.R13, Register.RAX)
+                                .getMemorySegment();
+
+      byte[] expected = {(byte)0x49, (byte)0x8b, (byte)0x04, (byte)0x24,
+                         (byte)0x49, (byte)0x8b, (byte)0x45, (byte)0x00,
+                         (byte)0x4c, (byte)0x89, (byte)0xe8};
+      Assertions.assertArrayEquals(expected, mem.toArray(ValueLayout.JAVA_BYTE));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test negative displacement
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testNegativeDisplacement(){
+    try(var seg = new CodeSegment()){
+      var mem = new AsmBuilder.AMD64(seg)
+        /* mov -8(%rsp), %rax   */ .movRM(Register.RAX, Register.RSP, -8)
+        /* mov -200(%rbp), %rax */ .movRM(Register.RAX, Register.RBP, -200)
+                                   .getMemorySegment();
+
+      byte[] expected = {(byte)0x48, (byte)0x8b, (byte)0x44, (byte)0x24, (byte)0xf8,
+                         (byte)0x48, (byte)0x8b, (byte)0x85, (byte)0x38, (byte)0xff, (byte)0xff, (byte)0xff};
+      Assertions.assertArrayEquals(expected, mem.toArray(ValueLayout.JAVA_BYTE));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests structured if statements
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testIfThenElse(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      // signum(arg1)
+      var method = new AsmBuilder.AMD64(seg, desc)
+        /* mov $1, %rax      */ .movImm(Register.RAX, 1L)
+        /* if(arg1 < 0)      */ .ifElse(b -> b.cmp(argReg.arg1(), 0), Condition.L,
+        /*   mov $-1, %rax   */        b -> b.movImm(Register.RAX, -1L),
+        /* else if(arg1 == 0)*/        b -> b.ifThen(c -> c.test(argReg.arg1(), argReg.arg1()), Condition.E,
+        /*   xor %rax, %rax  */                      c -> c.xorMR(Register.RAX, Register.RAX)))
+        /* ret               */ .ret()
+                                .build();
+
+      //showDebugMessage(seg);
+
+      Assertions.assertEquals(-1L, (long)method.invoke(-100L));
+      Assertions.assertEquals(0L, (long)method.invoke(0L));
+      Assertions.assertEquals(1L, (long)method.invoke(100L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests structured loops
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testStructuredLoops(){
+    try(var arena = Arena.ofConfined();
+        var seg = new CodeSegment()){
+      var whileDesc = FunctionDescriptor.of(
+                        ValueLayout.JAVA_LONG, // return value
+                        ValueLayout.JAVA_LONG  // 1st argument
+                      );
+      // Round up arg1 to multiple of 3
+      var roundUp = new AsmBuilder.AMD64(seg, whileDesc)
+        /* xor %rax, %rax        */ .xorMR(Register.RAX, Register.RAX)
+        /* while(rax < arg1)     */ .whileLoop(b -> b.cmpRM(Register.RAX, argReg.arg1()), Condition.L,
+        /*   add $3, %rax        */           b -> b.add(Register.RAX, 3))
+        /* ret                   */ .ret()
+                                    .build();
+
+      Assertions.assertEquals(0L, (long)roundUp.invoke(0L));
+      Assertions.assertEquals(0L, (long)roundUp.invoke(-5L));
+      Assertions.assertEquals(3L, (long)roundUp.invoke(1L));
+      Assertions.assertEquals(9L, (long)roundUp.invoke(9L));
+      Assertions.assertEquals(12L, (long)roundUp.invoke(10L));
+
+      var sumDesc = FunctionDescriptor.of(
+                      ValueLayout.JAVA_LONG, // return value
+                      ValueLayout.ADDRESS,   // 1st argument
+                      ValueLayout.JAVA_LONG  // 2nd argument
+                    );
+      for(int unroll : new int[]{1, 4}){
+        // Sum of arg2 longs in arg1
+        var sum = new AsmBuilder.AMD64(seg, sumDesc)
+          /* xor %rax, %rax        */ .xorMR(Register.RAX, Register.RAX)
+          /* loop arg2 times      */ .countedLoop(argReg.arg2(), unroll,
+          /*   add i*8(arg1), %rax */   (b, i) -> b.addRM(Register.RAX, argReg.arg1(), i * 8),
+          /*   add $n*8, arg1      */   (b, n) -> b.add(argReg.arg1(), n * 8))
+          /* ret                   */ .ret()
+                                      .build();
+
+        var array = arena.allocate(ValueLayout.JAVA_LONG, 103);
+        long expected = 0;
+        for(int i = 0; i < 103; i++){
+          array.setAtIndex(ValueLayout.JAVA_LONG, i, i + 1);
+          expected += i + 1;
+        }
+        Assertions.assertEquals(expected, (long)sum.invoke(array, 103L));
+        for(long n : new long[]{0L, 1L, 3L, 4L, 5L, 8L}){
+          Assertions.assertEquals(n * (n + 1) / 2, (long)sum.invoke(array, n), "unroll = " + unroll + ", n = " + n);
+        }
+      }
+
+      Assertions.assertThrows(IllegalArgumentException.class, () -> new AsmBuilder.AMD64(seg).countedLoop(Register.RAX, 0, (b, i) -> {}, (b, n) -> {}));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests direct call / jump to the function in CodeSegment
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testSymbolCall(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      // Caller is assembled before the callee (forward reference)
+      var caller = new AsmBuilder.AMD64(seg, desc)
+        /* call twice        */ .callSymbol("twice")
+        /* add $1, %rax      */ .add(Register.RAX, 1)
+        /* ret               */ .ret()
+                                .build("caller");
+      Assertions.assertEquals(Set.of("twice"), seg.getUnresolvedSymbols());
+
+      var twice = new AsmBuilder.AMD64(seg, desc)
+        /* mov arg1, %rax    */ .movMR(argReg.arg1(), Register.RAX)
+        /* add %rax, %rax    */ .addRM(Register.RAX, Register.RAX)
+        /* ret               */ .ret()
+                                .build("twice");
+      Assertions.assertTrue(seg.getUnresolvedSymbols().isEmpty());
+      Assertions.assertTrue(seg.findSymbol("twice").isPresent());
+      Assertions.assertFalse(seg.findSymbol("unknown").isPresent());
+
+      // Callee is already defined (backward reference)
+      var tailCall = new AsmBuilder.AMD64(seg, desc)
+        /* add $10, arg1     */ .add(argReg.arg1(), 10)
+        /* jmp twice         */ .jmpSymbol("twice")
+                                .build("tailCall");
+
+      Assertions.assertEquals(21L, (long)caller.invoke(10L));
+      Assertions.assertEquals(20L, (long)twice.invoke(10L));
+      Assertions.assertEquals(40L, (long)tailCall.invoke(10L));
+
+      // Discarded code must not be registered
+      new AsmBuilder.AMD64(seg, desc)
+        /* call discarded    */ .callSymbol("discarded")
+                                .reset();
+      Assertions.assertTrue(seg.getUnresolvedSymbols().isEmpty());
+
+      // Unnamed function must not be registered nor resolve references
+      seg.resolveSymbol(CodeSegment.UNNAMED, a -> Assertions.fail("Unnamed function is resolved"));
+      new AsmBuilder.AMD64(seg, desc)
+        /* ret               */ .ret()
+                                .build();
+      Assertions.assertFalse(seg.findSymbol(CodeSegment.UNNAMED).isPresent());
+      Assertions.assertEquals(Set.of(CodeSegment.UNNAMED), seg.getUnresolvedSymbols());
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests call to native function via import table
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testCallNative(){
+    try(var arena = Arena.ofConfined();
+        var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.ADDRESS    // 1st argument
+                 );
+      var method = new AsmBuilder.AMD64(seg, desc)
+        /* push %rbp         */ .push(Register.RBP) // misalign the stack
+        /* call strlen       */ .callNative("strlen")
+        /* pop %rbp          */ .pop(Register.RBP, OptionalInt.empty())
+        /* ret               */ .ret()
+                                .build();
+
+      Assertions.assertEquals(6L, (long)method.invoke(arena.allocateFrom("ffmasm")));
+      Assertions.assertEquals(seg.importSymbol("strlen"), seg.importSymbol("strlen"));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> seg.importSymbol("ffmasm_no_such_symbol"));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Tests jump table
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testJumpTable(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      var builder = new AsmBuilder.AMD64(seg, desc);
+      Label dispatch = builder.newLabel();
+      Label case0 = builder.newLabel();
+      Label case1 = builder.newLabel();
+      Label case2 = builder.newLabel();
+      Label defaultCase = builder.newLabel();
+      var method = builder
+        /* jmp dispatch      */ .jmp(dispatch)
+        /* case0:            */ .label(case0) // bound before the table
+        /* mov $100, %rax    */ .movImm(Register.RAX, 100L)
+        /* ret               */ .ret()
+        /* dispatch:         */ .label(dispatch)
+        /* switch(arg1)      */ .jumpTable(argReg.arg1(), Register.R11, defaultCase, case0, case1, case2, case1)
+        /* case1:            */ .label(case1)
+        /* mov $101, %rax    */ .movImm(Register.RAX, 101L)
+        /* ret               */ .ret()
+        /* case2:            */ .label(case2)
+        /* mov $102, %rax    */ .movImm(Register.RAX, 102L)
+        /* ret               */ .ret()
+        /* default:          */ .label(defaultCase)
+        /* mov $-1, %rax     */ .movImm(Register.RAX, -1L)
+        /* ret               */ .ret()
+                                .build();
+
+      Assertions.assertEquals(100L, (long)method.invoke(0L));
+      Assertions.assertEquals(101L, (long)method.invoke(1L));
+      Assertions.assertEquals(102L, (long)method.invoke(2L));
+      Assertions.assertEquals(101L, (long)method.invoke(3L));
+      Assertions.assertEquals(-1L, (long)method.invoke(4L));
+      Assertions.assertEquals(-1L, (long)method.invoke(-1L));
+
+      var errorBuilder = new AsmBuilder.AMD64(seg);
+      Assertions.assertThrows(IllegalArgumentException.class, () -> errorBuilder.jumpTable(Register.RAX, Register.R11, errorBuilder.newLabel()));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> errorBuilder.jumpTable(Register.EAX, Register.R11, errorBuilder.newLabel(), errorBuilder.newLabel()));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> errorBuilder.jumpTable(Register.RAX, Register.RSP, errorBuilder.newLabel(), errorBuilder.newLabel()));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> errorBuilder.jumpTable(Register.RSP, Register.R11, errorBuilder.newLabel(), errorBuilder.newLabel()));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> errorBuilder.jumpTable(Register.RAX, Register.RAX, errorBuilder.newLabel(), errorBuilder.newLabel()));
+
+      // Base registers which need special encoding in SIB
+      for(var scratch : new Register[]{Register.RBP, Register.R12, Register.R13}){
+        var b = new AsmBuilder.AMD64(seg, desc);
+        Label c0 = b.newLabel();
+        Label c1 = b.newLabel();
+        Label d = b.newLabel();
+        var m = b
+          /* push scratch      */ .push(scratch)
+          /* switch(arg1)      */ .jumpTable(argReg.arg1(), scratch, d, c0, c1)
+          /* case0:            */ .label(c0)
+          /* mov $100, %rax    */ .movImm(Register.RAX, 100L)
+          /* pop scratch       */ .pop(scratch, OptionalInt.empty())
+          /* ret               */ .ret()
+          /* case1:            */ .label(c1)
+          /* mov $101, %rax    */ .movImm(Register.RAX, 101L)
+          /* pop scratch       */ .pop(scratch, OptionalInt.empty())
+          /* ret               */ .ret()
+          /* default:          */ .label(d)
+          /* mov $-1, %rax     */ .movImm(Register.RAX, -1L)
+          /* pop scratch       */ .pop(scratch, OptionalInt.empty())
+          /* ret               */ .ret()
+                                  .build();
+        Assertions.assertEquals(100L, (long)m.invoke(0L), scratch.toString());
+        Assertions.assertEquals(101L, (long)m.invoke(1L), scratch.toString());
+        Assertions.assertEquals(-1L, (long)m.invoke(2L), scratch.toString());
+      }
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.amd64;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.ValueLayout;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.BatchInvoker;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.amd64.Register;
+
+
+@EnabledOnOs(architectures = {"amd64"})
+public class BatchInvokerTest extends TestBase{
+
+  /**
+   * Test batch invocation with integer arguments
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testIntegerArguments(){
+    try(var seg = new CodeSegment();
+        var arena = Arena.ofConfined()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG, // 1st argument
+                   ValueLayout.JAVA_INT   // 2nd argument
+                 );
+      var func = new AsmBuilder.AMD64(seg, desc)
+        /* mov arg1, %rax    */ .movMR(argReg.arg1(), Register.RAX)
+        /* add arg2, %rax    */ .addRM(Register.RAX, argReg.arg2())
+        /* ret               */ .ret()
+                                .getMemorySegment();
+
+      var invoker = BatchInvoker.create(seg, func, desc);
+      var block = invoker.allocate(arena, 100);
+      for(int i = 0; i < block.capacity(); i++){
+        block.setLong(i, 0, i * 10L)
+             .setInt(i, 1, i);
+      }
+      invoker.invoke(block, 50);
+
+      for(int i = 0; i < 50; i++){
+        Assertions.assertEquals(i * 11L, block.getLong(i));
+      }
+      Assertions.assertEquals(0L, block.getLong(50));
+
+      invoker.invoke(block, 0);
+      Assertions.assertThrows(IndexOutOfBoundsException.class, () -> invoker.invoke(block, 101));
+      Assertions.assertThrows(IndexOutOfBoundsException.class, () -> block.setInt(0, 2, 0));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test batch invocation with floating point arguments
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testFloatingPointArguments(){
+    try(var seg = new CodeSegment();
+        var arena = Arena.ofConfined()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_DOUBLE, // return value
+                   ValueLayout.JAVA_DOUBLE  // 1st argument
+                 );
+      // Identity function: both of 1st argument and return value are XMM0
+      var func = new AsmBuilder.AMD64(seg, desc)
+        /* ret               */ .ret()
+                                .getMemorySegment();
+
+      var invoker = BatchInvoker.create(seg, func, desc);
+      var block = invoker.allocate(arena, 10);
+      for(int i = 0; i < block.capacity(); i++){
+        block.setDouble(i, 0, i * 1.5d);
+      }
+      invoker.invoke(block, block.capacity());
+
+      for(int i = 0; i < block.capacity(); i++){
+        Assertions.assertEquals(i * 1.5d, block.getDouble(i));
+      }
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.amd64;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.amd64.Frame;
+import com.yasuenag.ffmasm.amd64.Register;
+
+
+@EnabledOnOs(architectures = {"amd64"})
+public class FrameTest extends TestBase{
+
+  /**
+   * Test leaf function without frame
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testLeafFunction(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG, // 1st argument
+                   ValueLayout.JAVA_LONG  // 2nd argument
+                 );
+      var frame = new Frame(desc);
+      Assertions.assertTrue(frame.isFrameOmitted());
+      Assertions.assertEquals(argReg.arg1(), frame.argument(0).register());
+      Assertions.assertFalse(frame.argument(1).isMemory());
+      Assertions.assertEquals(Register.RAX, frame.returnRegister().get());
+
+      var builder = new AsmBuilder.AMD64(seg, desc);
+      frame.prologue(builder)
+        /* mov arg1, %rax    */ .movMR(frame.argument(0).register(), Register.RAX)
+        /* add arg2, %rax    */ .addRM(Register.RAX, frame.argument(1).register());
+      var method = frame.epilogue(builder)
+                        .build();
+
+      Assertions.assertEquals(3L, (long)method.invoke(1L, 2L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test frame with stack arguments, callee-saved registers and spill area
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testStackArgumentsAndSpill(){
+    try(var seg = new CodeSegment()){
+      var args = new MemoryLayout[8];
+      Arrays.fill(args, ValueLayout.JAVA_LONG);
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG, args);
+      var frame = new Frame(desc).uses(Register.EBX, Register.R12)
+                                 .spill(24)
+                                 .callsFunction();
+      Assertions.assertFalse(frame.isFrameOmitted());
+      Assertions.assertTrue(frame.argument(7).isMemory());
+      Assertions.assertThrows(IndexOutOfBoundsException.class, () -> frame.spillSlot(24));
+
+      var builder = new AsmBuilder.AMD64(seg, desc);
+      frame.prologue(builder)
+        /* xor %rax, %rax    */ .xorMR(Register.RAX, Register.RAX)
+        /* mov $-1, %rbx     */ .movImm(Register.RBX, -1L);
+      for(int i = 0; i < args.length; i++){
+        var arg = frame.argument(i);
+        /* add arg, %rax     */ builder.addRM(Register.RAX, arg.register(), arg.disp());
+      }
+      var slot = frame.spillSlot(16);
+      builder
+        /* mov %rax, slot    */ .movMR(Register.RAX, slot.register(), slot.disp())
+        /* xor %rax, %rax    */ .xorMR(Register.RAX, Register.RAX)
+        /* mov slot, %r12    */ .movRM(Register.R12, slot.register(), slot.disp())
+        /* mov %r12, %rax    */ .movMR(Register.R12, Register.RAX);
+      var method = frame.epilogue(builder)
+                        .build();
+
+      Assertions.assertEquals(36L, (long)method.invoke(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L));
+      Assertions.assertThrows(IllegalStateException.class, () -> frame.uses(Register.R13));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test spill area in the red zone
+   */
+  @Test
+  @EnabledOnOs(OS.LINUX)
+  public void testRedZone(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      var frame = new Frame(desc).spill(8);
+      Assertions.assertTrue(frame.isFrameOmitted());
+      var slot = frame.spillSlot(0);
+      Assertions.assertEquals(Register.RSP, slot.register());
+      Assertions.assertEquals(-16, slot.disp().getAsInt());
+
+      var builder = new AsmBuilder.AMD64(seg, desc);
+      frame.prologue(builder)
+        /* mov arg1, slot    */ .movMR(frame.argument(0).register(), slot.register(), slot.disp())
+        /* mov slot, %rax    */ .movRM(Register.RAX, slot.register(), slot.disp());
+      var method = frame.epilogue(builder)
+                        .build();
+
+      Assertions.assertEquals(100L, (long)method.invoke(100L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test invalid usage of Frame
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testErrors(){
+    try(var seg = new CodeSegment()){
+      var struct = MemoryLayout.structLayout(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG);
+      Assertions.assertThrows(IllegalArgumentException.class, () -> new Frame(FunctionDescriptor.ofVoid(struct)));
+
+      var frame = new Frame(FunctionDescriptor.ofVoid());
+      var builder = new AsmBuilder.AMD64(seg);
+      Assertions.assertThrows(IllegalStateException.class, () -> frame.epilogue(builder));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> frame.spill(-1));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+}
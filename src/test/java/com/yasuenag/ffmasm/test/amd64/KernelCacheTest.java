@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.amd64;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.KernelCache;
+import com.yasuenag.ffmasm.Label;
+import com.yasuenag.ffmasm.amd64.Register;
+
+
+@EnabledOnOs(architectures = {"amd64"})
+public class KernelCacheTest extends TestBase{
+
+  private static final FunctionDescriptor desc = FunctionDescriptor.of(
+                                                   ValueLayout.JAVA_LONG, // return value
+                                                   ValueLayout.JAVA_LONG  // 1st argument
+                                                 );
+
+  // long f(long x){ return x + key; }
+  private MemorySegment generate(CodeSegment seg, long key) throws Exception{
+    return new AsmBuilder.AMD64(seg, desc)
+      /* mov $key, %rax    */ .movImm(Register.RAX, key)
+      /* add arg1, %rax    */ .addRM(Register.RAX, argReg.arg1())
+      /* ret               */ .ret()
+                              .getMemorySegment("add" + key);
+  }
+
+  // long spin(long *flag){ flag[1] = 1; while(flag[0] == 0); return flag[0]; }
+  private MemorySegment generateSpin(CodeSegment seg) throws Exception{
+    var builder = new AsmBuilder.AMD64(seg, desc);
+    Label loop = builder.newLabel();
+    return builder
+      /* mov $1, %rax        */ .movImm(Register.RAX, 1L)
+      /* mov %rax, 8(arg1)   */ .movMR(Register.RAX, argReg.arg1(), 8)
+      /* loop:               */ .label(loop)
+      /* pause               */ .pause()
+      /* mov (arg1), %rax    */ .movRM(Register.RAX, argReg.arg1(), 0)
+      /* test %rax, %rax     */ .test(Register.RAX, Register.RAX)
+      /* je loop             */ .je(loop)
+      /* ret                 */ .ret()
+                                .getMemorySegment("spin");
+  }
+
+  /**
+   * Test LRU eviction
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testEviction(){
+    try{
+      var generated = new AtomicInteger();
+      KernelCache.Generator<Long> generator = (seg, key) -> {
+        generated.incrementAndGet();
+        if(key < 0){
+          throw new IllegalArgumentException("negative key");
+        }
+        return generate(seg, key);
+      };
+      // Size of each kernel: mov (10 bytes) + add (3 bytes) + ret (1 byte)
+      long kernelSize = 14;
+      var cache = new KernelCache<Long>(kernelSize * 3, desc, generator);
+
+      var k1 = cache.get(1L);
+      Assertions.assertEquals(kernelSize, k1.codeBytes());
+      Assertions.assertEquals(11L, (long)k1.methodHandle().invokeExact(10L));
+      Assertions.assertEquals(12L, (long)cache.get(2L).methodHandle().invokeExact(10L));
+      Assertions.assertSame(k1, cache.get(1L));
+      Assertions.assertEquals(2, generated.get());
+      Assertions.assertEquals(2L, cache.getMissCount());
+      Assertions.assertEquals(1L, cache.getHitCount());
+
+      // LRU order is 2, 1, 3, then 2 is evicted by 4
+      var k3 = cache.get(3L);
+      cache.get(4L);
+      Assertions.assertEquals(1L, cache.getEvictionCount());
+      Assertions.assertEquals(3, cache.size());
+      Assertions.assertEquals(kernelSize * 3, cache.getCodeBytes());
+      Assertions.assertSame(k1, cache.get(1L));
+      Assertions.assertEquals(12L, (long)cache.get(2L).methodHandle().invokeExact(10L)); // 3 is evicted
+      Assertions.assertEquals(5, generated.get());
+      Assertions.assertEquals(2L, cache.getEvictionCount());
+
+      // Evicted kernel is released if it is not running
+      Assertions.assertFalse(k3.entry().scope().isAlive());
+      Assertions.assertThrows(IllegalStateException.class, () -> {
+        long unused = (long)k3.methodHandle().invokeExact(10L);
+      });
+      Assertions.assertEquals(11L, (long)k1.methodHandle().invokeExact(10L));
+
+      // Failure is not cached
+      Assertions.assertThrows(IllegalArgumentException.class, () -> cache.get(-1L));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> cache.get(-1L));
+      Assertions.assertEquals(7, generated.get());
+      Assertions.assertEquals(3, cache.size());
+
+      Assertions.assertTrue(cache.invalidate(2L));
+      Assertions.assertFalse(cache.invalidate(2L));
+      Assertions.assertEquals(kernelSize * 2, cache.getCodeBytes());
+
+      cache.close();
+      Assertions.assertFalse(k1.entry().scope().isAlive());
+      Assertions.assertThrows(IllegalStateException.class, () -> cache.get(1L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test concurrent requests for the same key
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testDeduplication(){
+    try{
+      var generated = new AtomicInteger();
+      var start = new CountDownLatch(1);
+      KernelCache.Generator<Long> generator = (seg, key) -> {
+        generated.incrementAndGet();
+        Thread.sleep(100); // other threads request the key during the generation
+        return generate(seg, key);
+      };
+      var cache = new KernelCache<Long>(4096, desc, generator);
+
+      var threads = new ArrayList<Thread>();
+      var kernels = new ArrayList<KernelCache.Kernel<Long>>();
+      for(int i = 0; i < 8; i++){
+        var thread = new Thread(() -> {
+          try{
+            start.await();
+            var kernel = cache.get(100L);
+            synchronized(kernels){
+              kernels.add(kernel);
+            }
+          }
+          catch(InterruptedException e){
+            // Kernel is not added, then the test fails.
+          }
+        });
+        thread.start();
+        threads.add(thread);
+      }
+      start.countDown();
+      for(var thread : threads){
+        thread.join();
+      }
+
+      Assertions.assertEquals(1, generated.get());
+      Assertions.assertEquals(8, kernels.size());
+      for(var kernel : kernels){
+        Assertions.assertSame(kernels.get(0), kernel);
+      }
+      Assertions.assertEquals(1L, cache.getMissCount());
+      Assertions.assertEquals(7L, cache.getHitCount());
+      Assertions.assertEquals(110L, (long)kernels.get(0).methodHandle().invokeExact(10L));
+      cache.close();
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test that running kernel is not released by the eviction
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testEvictRunningKernel(){
+    try(var arena = Arena.ofShared()){
+      KernelCache.Generator<Long> generator = (seg, key) -> (key == 0L) ? generateSpin(seg) : generate(seg, key);
+      var cache = new KernelCache<Long>(1, desc, generator); // only the latest kernel is kept
+      var flag = arena.allocate(16, 8);
+      flag.fill((byte)0);
+
+      var spin = cache.get(0L);
+      var result = new long[1];
+      var thread = new Thread(() -> {
+        try{
+          result[0] = (long)spin.methodHandle().invokeExact(flag.address());
+        }
+        catch(Throwable t){
+          result[0] = -1L;
+        }
+      });
+      thread.start();
+      while(flag.get(ValueLayout.JAVA_LONG, 8) == 0L){
+        Thread.sleep(1); // wait until the kernel starts
+      }
+
+      cache.get(1L); // evicts running kernel
+      Assertions.assertEquals(1L, cache.getEvictionCount());
+      Assertions.assertTrue(spin.entry().scope().isAlive());
+      Assertions.assertThrows(IllegalStateException.class, cache::close);
+
+      flag.set(ValueLayout.JAVA_LONG, 0, 42L);
+      thread.join();
+      Assertions.assertEquals(42L, result[0]);
+
+      cache.close(); // released
+      Assertions.assertFalse(spin.entry().scope().isAlive());
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.amd64;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.PatchableFunction;
+import com.yasuenag.ffmasm.amd64.Register;
+
+
+@EnabledOnOs(architectures = {"amd64"})
+public class PatchableFunctionTest extends TestBase{
+
+  /**
+   * Test swapping implementations of patchable function
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testPatch(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.JAVA_LONG  // 1st argument
+                 );
+      var func = new AsmBuilder.AMD64(seg, desc)
+        /* mov arg1, %rax    */ .movMR(argReg.arg1(), Register.RAX)
+        /* add $1, %rax      */ .add(Register.RAX, 1)
+        /* ret               */ .ret()
+                                .buildPatchable("kernel");
+      var impl1 = func.getTarget();
+      var impl2 = new AsmBuilder.AMD64(seg, desc)
+        /* mov arg1, %rax    */ .movMR(argReg.arg1(), Register.RAX)
+        /* add $2, %rax      */ .add(Register.RAX, 2)
+        /* ret               */ .ret()
+                                .getMemorySegment("kernel2");
+
+      // Callers in the CodeSegment refer the entry
+      var caller = new AsmBuilder.AMD64(seg, desc)
+        /* jmp kernel        */ .jmpSymbol("kernel")
+                                .build();
+      Assertions.assertEquals(func.getEntry().address(), seg.findSymbol("kernel").get().address());
+      Assertions.assertEquals(0, func.getEntry().address() % 8);
+
+      var handle = func.getMethodHandle();
+      Assertions.assertEquals(11L, (long)handle.invoke(10L));
+      Assertions.assertEquals(11L, (long)caller.invoke(10L));
+
+      Assertions.assertEquals(impl1, func.patch(impl2));
+      Assertions.assertEquals(impl2, func.getTarget());
+      Assertions.assertEquals(12L, (long)handle.invoke(10L));
+      Assertions.assertEquals(12L, (long)caller.invoke(10L));
+
+      // Native function in the library
+      var labs = Linker.nativeLinker().defaultLookup().find("llabs").get();
+      func.patch(labs);
+      Assertions.assertEquals(10L, (long)handle.invoke(-10L));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test patch while other thread calls the function
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testConcurrentPatch(){
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG);
+      var impl1 = new AsmBuilder.AMD64(seg, desc)
+        /* mov $1, %rax      */ .movImm(Register.RAX, 1L)
+        /* ret               */ .ret()
+                                .getMemorySegment();
+      var impl2 = new AsmBuilder.AMD64(seg, desc)
+        /* mov $2, %rax      */ .movImm(Register.RAX, 2L)
+        /* ret               */ .ret()
+                                .getMemorySegment();
+      var func = PatchableFunction.create(seg, "kernel", impl1, desc);
+      var handle = func.getMethodHandle();
+
+      var stop = new AtomicBoolean();
+      var failed = new AtomicBoolean();
+      var caller = new Thread(() -> {
+        try{
+          while(!stop.get()){
+            long ret = (long)handle.invokeExact();
+            if((ret != 1L) && (ret != 2L)){
+              failed.set(true);
+            }
+          }
+        }
+        catch(Throwable t){
+          failed.set(true);
+        }
+      });
+      caller.start();
+
+      for(int i = 0; i < 100_000; i++){
+        func.patch(((i & 1) == 0) ? impl2 : impl1);
+      }
+      stop.set(true);
+      caller.join();
+
+      Assertions.assertFalse(failed.get());
+      Assertions.assertEquals(1L, (long)handle.invokeExact());
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.amd64;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.IsaLevel;
+import com.yasuenag.ffmasm.PrecompiledKernel;
+import com.yasuenag.ffmasm.PrecompiledKernels;
+import com.yasuenag.ffmasm.Stencil;
+import com.yasuenag.ffmasm.UnsupportedPlatformException;
+import com.yasuenag.ffmasm.amd64.Register;
+
+
+@EnabledOnOs(architectures = {"amd64"})
+public class PrecompiledKernelsTest extends TestBase{
+
+  private static final FunctionDescriptor desc = FunctionDescriptor.of(
+                                                   ValueLayout.JAVA_LONG, // return value
+                                                   ValueLayout.JAVA_LONG  // 1st argument
+                                                 );
+
+  public static class Kernels{
+
+    static final AtomicInteger assembled = new AtomicInteger();
+
+    // long add(long x){ return x + imm + bias; }
+    private static Stencil add(CodeSegment seg, int bias) throws UnsupportedPlatformException{
+      assembled.incrementAndGet();
+      return new AsmBuilder.AMD64(seg, desc)
+        /* mov arg1, %rax    */ .movMR(argReg.arg1(), Register.RAX)
+        /* add $imm, %rax    */ .add(Register.RAX, 0)
+                                .hole("imm", Stencil.Hole.IMM32)
+        /* add $bias, %rax   */ .add(Register.RAX, bias)
+        /* ret               */ .ret()
+                                .buildStencil("add");
+    }
+
+    @PrecompiledKernel(name = "add", isa = IsaLevel.X86_64)
+    public static Stencil addBaseline(CodeSegment seg) throws UnsupportedPlatformException{
+      return add(seg, 0);
+    }
+
+    @PrecompiledKernel(name = "add", isa = IsaLevel.X86_64_V2)
+    public static Stencil addV2(CodeSegment seg) throws UnsupportedPlatformException{
+      return add(seg, 1000);
+    }
+
+    @PrecompiledKernel(name = "add", isa = IsaLevel.AARCH64)
+    public static Stencil addAArch64(CodeSegment seg) throws UnsupportedPlatformException{
+      throw new AssertionError("AArch64 variant should not be assembled");
+    }
+
+  }
+
+  private static long expectedBias(){
+    return IsaLevel.X86_64_V2.isSupported() ? 1000L : 0L;
+  }
+
+  /**
+   * Test serialization of the stencil
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testSerialization(){
+    try(var seg = new CodeSegment()){
+      var stencil = Kernels.addV2(seg);
+      var out = new ByteArrayOutputStream();
+      stencil.writeTo(out);
+      var bytes = out.toByteArray();
+
+      var loaded = Stencil.readFrom(new ByteArrayInputStream(bytes), desc);
+      Assertions.assertEquals(stencil.getHoleNames(), loaded.getHoleNames());
+      Assertions.assertEquals(stencil.size(), loaded.size());
+      var add = loaded.build(seg, new long[]{5L});
+      Assertions.assertEquals(10L + 5L + 1000L, (long)add.invoke(10L));
+
+      bytes[0] = 0;
+      Assertions.assertThrows(IOException.class, () -> Stencil.readFrom(new ByteArrayInputStream(bytes), desc));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  /**
+   * Test precompilation and loading from resources
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testPrecompile(@TempDir Path tmp){
+    try(var seg = new CodeSegment()){
+      var written = PrecompiledKernels.precompile(Kernels.class, tmp);
+      Assertions.assertEquals(2, written.size()); // AArch64 variant is skipped
+      for(var path : written){
+        Assertions.assertTrue(Files.isRegularFile(path));
+      }
+
+      // Resources are not on the classpath: assembled at runtime
+      int count = Kernels.assembled.get();
+      var add = PrecompiledKernels.build(Kernels.class, "add", seg, desc, new long[]{5L});
+      Assertions.assertEquals(10L + 5L + expectedBias(), (long)add.invoke(10L));
+      Assertions.assertEquals(count + 1, Kernels.assembled.get());
+
+      // Put resources on the classpath: loaded without assembly
+      var classpath = Path.of(Kernels.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+      var resources = PrecompiledKernels.precompile(Kernels.class, classpath);
+      try{
+        count = Kernels.assembled.get();
+        add = PrecompiledKernels.build(Kernels.class, "add", seg, desc, new long[]{7L});
+        Assertions.assertEquals(10L + 7L + expectedBias(), (long)add.invoke(10L));
+        Assertions.assertEquals(count, Kernels.assembled.get());
+      }
+      finally{
+        for(var path : resources){
+          Files.deleteIfExists(path);
+        }
+      }
+
+      Assertions.assertThrows(IllegalArgumentException.class, () -> PrecompiledKernels.load(Kernels.class, "none", seg, desc));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+}
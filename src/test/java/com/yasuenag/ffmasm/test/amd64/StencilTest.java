@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.amd64;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.ValueLayout;
+import java.util.List;
+import java.util.OptionalInt;
+
+import com.yasuenag.ffmasm.AsmBuilder;
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.Label;
+import com.yasuenag.ffmasm.Stencil;
+import com.yasuenag.ffmasm.amd64.Register;
+
+
+@EnabledOnOs(architectures = {"amd64"})
+public class StencilTest extends TestBase{
+
+  /**
+   * Test instantiation of the stencil
+   */
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.WINDOWS})
+  public void testInstantiate(){
+    try(var arena = Arena.ofConfined();
+        var seg = new CodeSegment()){
+      var calleeDesc = FunctionDescriptor.of(
+                         ValueLayout.JAVA_LONG, // return value
+                         ValueLayout.JAVA_LONG  // 1st argument
+                       );
+      var twice = new AsmBuilder.AMD64(seg, calleeDesc)
+        /* mov arg1, %rax    */ .movMR(argReg.arg1(), Register.RAX)
+        /* add %rax, %rax    */ .addRM(Register.RAX, Register.RAX)
+        /* ret               */ .ret()
+                                .getMemorySegment("twice");
+      var dec = new AsmBuilder.AMD64(seg, calleeDesc)
+        /* mov arg1, %rax    */ .movMR(argReg.arg1(), Register.RAX)
+        /* sub $1, %rax      */ .sub(Register.RAX, 1)
+        /* ret               */ .ret()
+                                .getMemorySegment("dec");
+
+      // long f(long *ptr){ return callee(ptr[disp] + imm + k); }
+      var desc = FunctionDescriptor.of(
+                   ValueLayout.JAVA_LONG, // return value
+                   ValueLayout.ADDRESS    // 1st argument
+                 );
+      var builder = new AsmBuilder.AMD64(seg, desc);
+      Label skip = builder.newLabel();
+      var stencil = builder
+        /* push %rbp             */ .push(Register.RBP)
+        /* mov disp(arg1), %rax  */ .movRM(Register.RAX, argReg.arg1(), 0x1000)
+                                    .hole("disp", Stencil.Hole.DISP32)
+        /* add $imm, %rax        */ .add(Register.RAX, 0x12345678)
+                                    .hole("imm", Stencil.Hole.IMM32)
+        /* jmp skip              */ .jmp(skip) // label in the stencil
+        /* skip:                 */ .label(skip)
+        /* mov $k, %r10          */ .movImm(Register.R10, 0L)
+                                    .hole("k", Stencil.Hole.IMM64)
+        /* add %r10, %rax        */ .addRM(Register.RAX, Register.R10)
+        /* mov %rax, arg1        */ .movMR(Register.RAX, argReg.arg1())
+        /* call callee           */ .call(twice.address())
+                                    .hole("callee", Stencil.Hole.REL32)
+        /* pop %rbp              */ .pop(Register.RBP, OptionalInt.empty())
+        /* ret                   */ .ret()
+                                    .buildStencil("stencil");
+      Assertions.assertEquals(List.of("disp", "imm", "k", "callee"), stencil.getHoleNames());
+
+      var data = arena.allocate(ValueLayout.JAVA_LONG, 4);
+      for(int i = 0; i < 4; i++){
+        data.setAtIndex(ValueLayout.JAVA_LONG, i, (i + 1) * 100L);
+      }
+
+      long tail = seg.getTail();
+      var f1 = stencil.build(seg, new long[]{8L, 1L, 10L, twice.address()});
+      Assertions.assertTrue(seg.getTail() >= tail + stencil.size());
+      var f2 = stencil.build(seg, new long[]{24L, -5L, 0x100000000L, dec.address()});
+
+      Assertions.assertEquals((200L + 1L + 10L) * 2, (long)f1.invoke(data));
+      Assertions.assertEquals(400L - 5L + 0x100000000L - 1L, (long)f2.invoke(data));
+
+      Assertions.assertThrows(IllegalArgumentException.class, () -> stencil.instantiate(seg, 0L));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> stencil.instantiate(seg, 1L << 32, 0L, 0L, twice.address()));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> stencil.instantiate(seg, 0L, 1L << 32, 0L, twice.address()));
+
+      // The stencil must not refer outside of the function
+      var errorBuilder = new AsmBuilder.AMD64(seg, desc)
+                                       .callSymbol("twice");
+      Assertions.assertThrows(IllegalStateException.class, () -> errorBuilder.buildStencil("error"));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+}
@@ -52,6 +52,11 @@ public class TestBase{
 
   private static boolean isAVXVNNI;
 
+  private static boolean isRDPID;
+  private static boolean isRDTSCP;
+
+  private static boolean isWAITPKG;
+
   private static MethodHandle generateCPUID(CodeSegment seg) throws UnsupportedPlatformException{
     var desc = FunctionDescriptor.ofVoid(ValueLayout.JAVA_INT, /* eax    */
                                          ValueLayout.JAVA_INT, /* ecx    */
@@ -106,6 +111,15 @@ public class TestBase{
       cpuid.invokeExact(7, 1, cpuidVals);
       isAVXVNNI = ((cpuidVals.getAtIndex(ValueLayout.JAVA_INT, 0) >>> 4) & 0x1) == 1; // eax
 
+      // check RDPID and WAITPKG
+      cpuid.invokeExact(7, 0, cpuidVals);
+      isRDPID = ((cpuidVals.getAtIndex(ValueLayout.JAVA_INT, 2) >>> 22) & 0x1) == 1; // ecx
+      isWAITPKG = ((cpuidVals.getAtIndex(ValueLayout.JAVA_INT, 2) >>> 5) & 0x1) == 1; // ecx
+
+      // check RDTSCP
+      cpuid.invokeExact(0x80000001, 0, cpuidVals);
+      isRDTSCP = ((cpuidVals.getAtIndex(ValueLayout.JAVA_INT, 3) >>> 27) & 0x1) == 1; // edx
+
     }
     catch(Throwable t){
       throw new RuntimeException(t);
@@ -128,6 +142,18 @@ public class TestBase{
     return isAVXVNNI;
   }
 
+  public static boolean supportRDPID(){
+    return isRDPID;
+  }
+
+  public static boolean supportRDTSCP(){
+    return isRDTSCP;
+  }
+
+  public static boolean supportWAITPKG(){
+    return isWAITPKG;
+  }
+
   /**
    * Show PID, address of CodeSegment, then waits stdin input.
    */
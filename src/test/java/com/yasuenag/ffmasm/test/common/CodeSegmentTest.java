@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2023, 2024, Yasumasa Suenaga
+ * Copyright (C) 2023, 2026, Yasumasa Suenaga
  *
  * This file is part of ffmasm.
  *
@@ -37,6 +37,35 @@ public class CodeSegmentTest{
     }
   }
 
+  @Test
+  public void testAlignTo(){
+    try(var seg = new CodeSegment()){
+      seg.incTail(1);
+      seg.alignTo(64);
+      Assertions.assertEquals(64L, seg.getTail(), "Memory is not aligned to 64 bytes");
+      seg.alignTo(64);
+      Assertions.assertEquals(64L, seg.getTail(), "Aligned tail should not be changed");
+      Assertions.assertThrows(IllegalArgumentException.class, () -> seg.alignTo(48));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
+  @Test
+  public void testFunctionAlignment(){
+    try(var seg = new CodeSegment()){
+      Assertions.assertEquals(CodeSegment.DEFAULT_FUNCTION_ALIGNMENT, seg.getFunctionAlignment());
+      seg.setFunctionAlignment(32);
+      Assertions.assertEquals(32, seg.getFunctionAlignment());
+      Assertions.assertThrows(IllegalArgumentException.class, () -> seg.setFunctionAlignment(8));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> seg.setFunctionAlignment(48));
+    }
+    catch(Throwable t){
+      Assertions.fail(t);
+    }
+  }
+
   @Test
   public void testMethodInfoString(){
     var info = new CodeSegment.MethodInfo("func", 0x1234, 0xff);
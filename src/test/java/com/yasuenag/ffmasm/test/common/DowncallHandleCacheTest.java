@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.common;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+import com.yasuenag.ffmasm.DowncallHandleCache;
+
+
+public class DowncallHandleCacheTest{
+
+  @Test
+  public void testSharedInvoker(){
+    // Use unique signature in this test
+    var desc = FunctionDescriptor.of(ValueLayout.JAVA_SHORT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG);
+    long hits = DowncallHandleCache.getHitCount();
+    long misses = DowncallHandleCache.getMissCount();
+
+    var invoker = DowncallHandleCache.getInvoker(desc);
+    Assertions.assertEquals(misses + 1, DowncallHandleCache.getMissCount());
+    Assertions.assertSame(invoker, DowncallHandleCache.getInvoker(desc));
+    Assertions.assertEquals(hits + 1, DowncallHandleCache.getHitCount());
+    Assertions.assertEquals(MemorySegment.class, invoker.type().parameterType(0));
+
+    var other = DowncallHandleCache.getInvoker(desc, Linker.Option.firstVariadicArg(1));
+    Assertions.assertNotSame(invoker, other);
+    Assertions.assertEquals(misses + 2, DowncallHandleCache.getMissCount());
+  }
+
+  @Test
+  public void testDowncallHandle(){
+    var desc = FunctionDescriptor.of(ValueLayout.JAVA_SHORT, ValueLayout.JAVA_SHORT, ValueLayout.JAVA_SHORT);
+    var mh = DowncallHandleCache.downcallHandle(MemorySegment.ofAddress(16), desc);
+    Assertions.assertEquals(desc.toMethodType(), mh.type());
+  }
+
+}
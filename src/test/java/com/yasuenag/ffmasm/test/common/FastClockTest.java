@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.common;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.yasuenag.ffmasm.FastClock;
+import com.yasuenag.ffmasm.UnsupportedPlatformException;
+
+
+public class FastClockTest{
+
+  @Test
+  public void testTicks() throws UnsupportedPlatformException{
+    var clock = FastClock.getInstance();
+    Assertions.assertTrue(clock.ticksPerSecond() > 0L);
+
+    long first = clock.ticks();
+    long second = clock.ticks();
+    Assertions.assertTrue(second >= first, "ticks should not be decreased");
+  }
+
+  @Test
+  public void testTicksToNanos() throws Exception{
+    var clock = FastClock.getInstance();
+
+    long startNanos = System.nanoTime();
+    long startTicks = clock.ticks();
+    Thread.sleep(100);
+    long endTicks = clock.ticks();
+    long endNanos = System.nanoTime();
+
+    long expected = endNanos - startNanos;
+    long actual = clock.ticksToNanos(endTicks - startTicks);
+    // Allow 10% error
+    Assertions.assertTrue(Math.abs(expected - actual) < (expected / 10),
+                          "expected: " + expected + " ns, actual: " + actual + " ns");
+  }
+
+  @Test
+  public void testCurrentCpu() throws UnsupportedPlatformException{
+    Assertions.assertTrue(FastClock.getInstance().currentCpu() >= 0);
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.common;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.yasuenag.ffmasm.LazyKernel;
+
+
+public class LazyKernelTest{
+
+  private static final FunctionDescriptor desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG);
+
+  @Test
+  public void testLinkAtFirstCall() throws Throwable{
+    var calls = new AtomicInteger();
+    var mh = LazyKernel.of(desc, () -> {
+      calls.incrementAndGet();
+      return MethodHandles.lookup().findStatic(Math.class, "addExact", MethodType.methodType(long.class, long.class, long.class));
+    });
+    Assertions.assertEquals(desc.toMethodType(), mh.type());
+    Assertions.assertEquals(0, calls.get());
+
+    var threads = new ArrayList<Thread>();
+    var failed = new AtomicInteger();
+    for(int i = 0; i < 4; i++){
+      var thread = new Thread(() -> {
+        try{
+          for(long j = 0; j < 1000; j++){
+            if((long)mh.invokeExact(j, 1L) != j + 1){
+              failed.incrementAndGet();
+            }
+          }
+        }
+        catch(Throwable t){
+          failed.incrementAndGet();
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for(var thread : threads){
+      thread.join();
+    }
+
+    Assertions.assertEquals(0, failed.get());
+    Assertions.assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testFailure() throws Throwable{
+    var calls = new AtomicInteger();
+    var mh = LazyKernel.of(desc, () -> {
+      if(calls.incrementAndGet() == 1){
+        throw new IllegalStateException("first call fails");
+      }
+      return MethodHandles.lookup().findStatic(Math.class, "multiplyExact", MethodType.methodType(long.class, long.class, long.class));
+    });
+
+    Assertions.assertThrows(IllegalStateException.class, () -> { long _ = (long)mh.invokeExact(2L, 3L); });
+    Assertions.assertEquals(6L, (long)mh.invokeExact(2L, 3L));
+    Assertions.assertEquals(2, calls.get());
+
+    var mismatch = LazyKernel.of(desc, () -> MethodHandles.lookup().findStatic(Math.class, "abs", MethodType.methodType(long.class, long.class)));
+    Assertions.assertThrows(WrongMethodTypeException.class, () -> { long _ = (long)mismatch.invokeExact(2L, 3L); });
+  }
+
+  private static long sum(long[] array, long n){
+    long result = 0L;
+    for(int i = 0; i < n; i++){
+      result += array[i];
+    }
+    return result;
+  }
+
+  @Test
+  public void testArrayParameter() throws Throwable{
+    // Same type as the kernel which is built with setArrayParameter(0, long[].class)
+    var arrayDesc = FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG);
+    var type = MethodType.methodType(long.class, long[].class, long.class);
+    var kernel = MethodHandles.lookup().findStatic(LazyKernelTest.class, "sum", type);
+
+    var mismatch = LazyKernel.of(arrayDesc, () -> kernel);
+    Assertions.assertThrows(IllegalArgumentException.class, () -> { long _ = (long)mismatch.invokeExact(MemorySegment.NULL, 3L); });
+
+    var mh = LazyKernel.of(type, () -> kernel);
+    Assertions.assertEquals(6L, (long)mh.invokeExact(new long[]{1L, 2L, 3L}, 3L));
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.common;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.yasuenag.ffmasm.SpinWait;
+
+
+public class SpinWaitTest{
+
+  @Test
+  public void testMatched() throws Exception{
+    try(var arena = Arena.ofConfined()){
+      var flag = arena.allocate(ValueLayout.JAVA_INT);
+      SpinWait.signal(flag, 1);
+      Assertions.assertTrue(SpinWait.getInstance().await(flag, 1, 1, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception{
+    try(var arena = Arena.ofConfined()){
+      var flag = arena.allocate(ValueLayout.JAVA_INT);
+      long start = System.nanoTime();
+      boolean result = SpinWait.getInstance().await(flag, 1, 10, TimeUnit.MILLISECONDS);
+      long elapsed = System.nanoTime() - start;
+
+      Assertions.assertFalse(result);
+      // Allow 10% error of calibration
+      Assertions.assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(9), "elapsed: " + elapsed + " ns");
+    }
+  }
+
+  @Test
+  public void testWakeup() throws Exception{
+    try(var arena = Arena.ofShared()){
+      var flag = arena.allocate(ValueLayout.JAVA_INT);
+      var thread = new Thread(() -> {
+        try{
+          Thread.sleep(10);
+        }
+        catch(InterruptedException e){
+          // Do nothing
+        }
+        SpinWait.signal(flag, 1);
+      });
+      thread.start();
+
+      Assertions.assertTrue(SpinWait.getInstance().await(flag, 1, 10, TimeUnit.SECONDS));
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testHugeTimeout() throws Exception{
+    try(var arena = Arena.ofShared()){
+      var flag = arena.allocate(ValueLayout.JAVA_INT);
+      var thread = new Thread(() -> {
+        try{
+          Thread.sleep(10);
+        }
+        catch(InterruptedException e){
+          // Do nothing
+        }
+        SpinWait.signal(flag, 1);
+      });
+      thread.start();
+
+      // Deadline must not wrap around to the past
+      Assertions.assertTrue(SpinWait.getInstance().await(flag, 1, Long.MAX_VALUE, TimeUnit.DAYS));
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testNegativeTimeout() throws Exception{
+    try(var arena = Arena.ofConfined()){
+      var flag = arena.allocate(ValueLayout.JAVA_INT);
+      Assertions.assertFalse(SpinWait.getInstance().await(flag, 1, -1, TimeUnit.SECONDS));
+    }
+  }
+
+}
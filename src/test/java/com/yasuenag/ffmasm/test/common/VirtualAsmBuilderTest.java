@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2026, Yasumasa Suenaga
+ *
+ * This file is part of ffmasm.
+ *
+ * ffmasm is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ffmasm is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ffmasm.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.yasuenag.ffmasm.test.common;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.yasuenag.ffmasm.CodeSegment;
+import com.yasuenag.ffmasm.VirtualAsmBuilder;
+import com.yasuenag.ffmasm.VirtualRegister;
+
+
+public class VirtualAsmBuilderTest{
+
+  @Test
+  public void testArithmetic() throws Throwable{
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG);
+      var builder = new VirtualAsmBuilder(seg, desc);
+      var a = builder.argument(0);
+      var b = builder.argument(1);
+      var tmp = builder.newGPR();
+      var mask = builder.newGPR();
+      var method = builder.mov(tmp, a)
+                          .add(tmp, b)            // a + b
+                          .subImm(tmp, 3)         // a + b - 3
+                          .movImm(mask, 0xff00ff00ff00ffL)
+                          .xor(tmp, mask)         // (a + b - 3) ^ mask
+                          .or(tmp, a)             // ... | a
+                          .and(tmp, mask)         // ... & mask
+                          .sub(tmp, b)            // ... - b
+                          .addImm(tmp, 4095)
+                          .ret(tmp)
+                          .build();
+
+      long x = 0x123456789L;
+      long y = 0x7777L;
+      long expected = ((((x + y - 3) ^ 0xff00ff00ff00ffL) | x) & 0xff00ff00ff00ffL) - y + 4095;
+      Assertions.assertEquals(expected, (long)method.invokeExact(x, y));
+
+      var report = builder.getAllocationReport();
+      Assertions.assertEquals(0, report.spilledRegisters());
+      Assertions.assertTrue(report.calleeSavedRegisters().isEmpty());
+      Assertions.assertEquals(4, report.assignments().size());
+    }
+  }
+
+  @Test
+  public void testLoop() throws Throwable{
+    try(var seg = new CodeSegment();
+        var arena = Arena.ofConfined()){
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG);
+      var builder = new VirtualAsmBuilder(seg, desc);
+      var ptr = builder.argument(0);
+      var count = builder.argument(1);
+      var sum = builder.newGPR();
+      var value = builder.newGPR();
+      var zero = builder.newGPR();
+      var loop = builder.newLabel();
+      var exit = builder.newLabel();
+      var method = builder.movImm(sum, 0)
+                          .movImm(zero, 0)
+                          .branchIfEqual(count, zero, exit)
+                          .label(loop)
+                          .load(value, ptr, 0)
+                          .add(sum, value)
+                          .addImm(ptr, 8)
+                          .subImm(count, 1)
+                          .branchIfNotEqual(count, zero, loop)
+                          .label(exit)
+                          .ret(sum)
+                          .build();
+
+      var array = arena.allocate(ValueLayout.JAVA_LONG, 100);
+      for(int i = 0; i < 100; i++){
+        array.setAtIndex(ValueLayout.JAVA_LONG, i, i);
+      }
+      Assertions.assertEquals(4950L, (long)method.invokeExact(array, 100L));
+      Assertions.assertEquals(0L, (long)method.invokeExact(array, 0L));
+
+      // "zero" is removed by peephole optimizer
+      var report = builder.getAllocationReport();
+      Assertions.assertEquals(4, report.maxGPRPressure());
+      Assertions.assertEquals(0, report.spilledRegisters());
+    }
+  }
+
+  @Test
+  public void testSpill() throws Throwable{
+    try(var seg = new CodeSegment()){
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG);
+      var builder = new VirtualAsmBuilder(seg, desc);
+      int n = 40;
+      var values = new VirtualRegister[n];
+      for(int i = 0; i < n; i++){
+        values[i] = builder.newGPR();
+        builder.movImm(values[i], 1L << i);
+      }
+      // All of values are live here.
+      var sum = builder.argument(0);
+      for(int i = 0; i < n; i++){
+        builder.add(sum, values[i]);
+      }
+      var method = builder.ret(sum)
+                          .build();
+
+      Assertions.assertEquals((1L << n) - 1 + 100L, (long)method.invokeExact(100L));
+
+      var report = builder.getAllocationReport();
+      Assertions.assertEquals(n + 1, report.maxGPRPressure());
+      Assertions.assertTrue(report.spilledRegisters() > 0);
+      Assertions.assertTrue(report.spillAreaSize() >= report.spilledRegisters() * 8);
+      Assertions.assertFalse(report.calleeSavedRegisters().isEmpty());
+    }
+  }
+
+  @Test
+  public void testVector() throws Throwable{
+    try(var seg = new CodeSegment();
+        var arena = Arena.ofConfined()){
+      var desc = FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS);
+      var builder = new VirtualAsmBuilder(seg, desc);
+      var src = builder.argument(0);
+      var dst = builder.argument(1);
+      int n = 40;
+      var vectors = new VirtualRegister[n];
+      for(int i = 0; i < n; i++){
+        vectors[i] = builder.newVector();
+        builder.load(vectors[i], src, i * 16);
+      }
+      // Store in reverse order
+      for(int i = 0; i < n; i++){
+        builder.store(vectors[i], dst, (n - 1 - i) * 16);
+      }
+      var method = builder.ret()
+                          .build();
+
+      var from = arena.allocate(16 * n, 16);
+      var to = arena.allocate(16 * n, 16);
+      for(int i = 0; i < n * 2; i++){
+        from.setAtIndex(ValueLayout.JAVA_LONG, i, i);
+      }
+      method.invokeExact(from, to);
+      for(int i = 0; i < n; i++){
+        Assertions.assertEquals(i * 2L, to.getAtIndex(ValueLayout.JAVA_LONG, (n - 1 - i) * 2));
+        Assertions.assertEquals(i * 2L + 1, to.getAtIndex(ValueLayout.JAVA_LONG, (n - 1 - i) * 2 + 1));
+      }
+
+      var report = builder.getAllocationReport();
+      Assertions.assertEquals(n, report.maxVectorPressure());
+      Assertions.assertTrue(report.spilledRegisters() > 0);
+    }
+  }
+
+  private static VirtualAsmBuilder naiveTemplate(CodeSegment seg, FunctionDescriptor desc) throws Exception{
+    // Count down arg1 with redundant code, and return the sum of arg1 .. 1
+    var builder = new VirtualAsmBuilder(seg, desc);
+    var count = builder.argument(0);
+    var sum = builder.newGPR();
+    var tmp = builder.newGPR();
+    var zero = builder.newGPR();
+    var buf = builder.argument(1);
+    var loop = builder.newLabel();
+    var next = builder.newLabel();
+    var exit = builder.newLabel();
+    return builder.movImm(sum, 0)
+                  .movImm(zero, 0)
+                  .branchIfEqual(count, zero, exit)
+                  .label(loop)
+                  .store(count, buf, 0)
+                  .load(tmp, buf, 0)      // -> mov tmp, count
+                  .add(sum, tmp)
+                  .mov(sum, sum)          // removed
+                  .addImm(sum, 0)         // removed
+                  .branch(next)           // removed
+                  .label(next)
+                  .subImm(count, 1)
+                  .branchIfNotEqual(zero, count, loop)
+                  .label(exit)
+                  .ret(sum);
+  }
+
+  @Test
+  public void testPeephole() throws Throwable{
+    try(var seg = new CodeSegment();
+        var arena = Arena.ofConfined()){
+      var desc = FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS);
+      var buf = arena.allocate(ValueLayout.JAVA_LONG);
+
+      var optimized = naiveTemplate(seg, desc);
+      MethodHandle method = optimized.build();
+      Assertions.assertEquals(5050L, (long)method.invokeExact(100L, buf));
+      Assertions.assertEquals(0L, (long)method.invokeExact(0L, buf));
+      var report = optimized.getPeepholeReport();
+      Assertions.assertEquals(1, report.get(VirtualAsmBuilder.Peephole.REDUNDANT_MOVE));
+      Assertions.assertEquals(1, report.get(VirtualAsmBuilder.Peephole.ZERO_IMMEDIATE));
+      Assertions.assertEquals(1, report.get(VirtualAsmBuilder.Peephole.STORE_TO_LOAD));
+      Assertions.assertEquals(2, report.get(VirtualAsmBuilder.Peephole.COMPARE_WITH_ZERO));
+      Assertions.assertEquals(1, report.get(VirtualAsmBuilder.Peephole.JUMP_TO_NEXT));
+
+      var naive = naiveTemplate(seg, desc).setPeepholeRules();
+      MethodHandle naiveMethod = naive.build();
+      Assertions.assertEquals(5050L, (long)naiveMethod.invokeExact(100L, buf));
+      Assertions.assertTrue(naive.getPeepholeReport().isEmpty());
+      Assertions.assertTrue(naive.getAllocationReport().maxGPRPressure() > optimized.getAllocationReport().maxGPRPressure());
+    }
+  }
+
+  @Test
+  public void testErrors() throws Exception{
+    try(var seg = new CodeSegment()){
+      Assertions.assertThrows(IllegalArgumentException.class,
+                              () -> new VirtualAsmBuilder(seg, FunctionDescriptor.ofVoid(ValueLayout.JAVA_DOUBLE)));
+
+      var builder = new VirtualAsmBuilder(seg, FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+      var vec = builder.newVector();
+      var gpr = builder.newGPR();
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.add(vec, gpr));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.load(vec, builder.argument(0), 8));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.load(gpr, builder.argument(0), -8));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.addImm(gpr, 4096));
+      Assertions.assertThrows(IllegalArgumentException.class, () -> builder.mov(gpr, new VirtualRegister(100, VirtualRegister.Type.GPR)));
+      Assertions.assertThrows(IllegalStateException.class, () -> builder.getAllocationReport());
+
+      builder.movImm(gpr, 1);
+      Assertions.assertThrows(IllegalStateException.class, () -> builder.build());
+
+      var label = builder.newLabel();
+      builder.branch(label);
+      Assertions.assertThrows(IllegalStateException.class, () -> builder.build());
+      builder.label(label);
+      Assertions.assertThrows(IllegalStateException.class, () -> builder.label(label));
+      builder.ret();
+      builder.build();
+      Assertions.assertThrows(IllegalStateException.class, () -> builder.build());
+    }
+  }
+
+}